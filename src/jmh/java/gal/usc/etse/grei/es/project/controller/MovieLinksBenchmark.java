@@ -0,0 +1,87 @@
+package gal.usc.etse.grei.es.project.controller;
+
+import gal.usc.etse.grei.es.project.utilities.LinkTemplate;
+import gal.usc.etse.grei.es.project.utilities.LinkTemplates;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.hateoas.Link;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+
+/**
+ * Benchmark de la construcción de los enlaces de paginación de la búsqueda de películas (MovieController.get),
+ * con linkTo(methodOn(...)) y con las plantillas de LinkTemplates.
+ *
+ * @author Manuel Bendaña
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MovieLinksBenchmark {
+    private final List<String> sort = Arrays.asList("+title", "-releaseDate");
+    private final List<String> genres = Collections.singletonList("Action");
+    private LinkTemplate moviesLink;
+    private LinkTemplate movieLink;
+
+    @Setup
+    public void setup() {
+        //Los enlaces se construyen a partir de la petición actual:
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/movies");
+        request.setServerName("localhost");
+        request.setServerPort(8080);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+
+        LinkTemplates links = new LinkTemplates();
+        moviesLink = links.of(MovieController.class, "get");
+        movieLink = links.of(MovieController.class, "get", "id");
+    }
+
+    @TearDown
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    /**
+     * Un enlace de paginación (en cada respuesta se construyen entre cuatro y cinco).
+     */
+    @Benchmark
+    public Link pageLink() {
+        return linkTo(methodOn(MovieController.class)
+                .get(1, 20, sort, null, "exact", null, null, null, genres, null, null, null, null, null, 2021, null, null)
+        ).withSelfRel();
+    }
+
+    /**
+     * El enlace a un recurso concreto.
+     */
+    @Benchmark
+    public Link itemLink() {
+        return linkTo(methodOn(MovieController.class).get("benchmark", null, null)).withSelfRel();
+    }
+
+    @Benchmark
+    public Link pageLinkTemplate() {
+        return moviesLink.with("page", 1).with("size", 20).with("sort", sort).with("total", "exact")
+                .with("genres", genres).with("releaseDate.year", 2021).withSelfRel();
+    }
+
+    @Benchmark
+    public Link itemLinkTemplate() {
+        return movieLink.with("id", "benchmark").withSelfRel();
+    }
+}
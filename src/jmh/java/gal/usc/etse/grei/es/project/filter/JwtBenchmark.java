@@ -0,0 +1,101 @@
+package gal.usc.etse.grei.es.project.filter;
+
+import gal.usc.etse.grei.es.project.repository.MemoryTokenStore;
+import gal.usc.etse.grei.es.project.service.TokenService;
+import gal.usc.etse.grei.es.project.utilities.KeyRing;
+import gal.usc.etse.grei.es.project.utilities.LoginRateLimiter;
+import io.jsonwebtoken.Claims;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark de la emisión y verificación de los tokens JWT en los filtros de autenticación y autorización, y del
+ * refresco de los tokens.
+ *
+ * @author Manuel Bendaña
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JwtBenchmark {
+    private AuthenticationFilter authenticationFilter;
+    private AuthorizationFilter authorizationFilter;
+    private TokenService tokens;
+    private Authentication authentication;
+    private String header;
+    private String token;
+    private String refresh;
+
+    @Setup
+    public void setup() {
+        KeyRing keys = new KeyRing("", "HS512", true, Duration.ZERO, Duration.ofDays(1), true, Duration.ofMinutes(15));
+        tokens = new TokenService(Duration.ofMinutes(15), Duration.ofDays(7), new MemoryTokenStore(), keys);
+        //Los filtros no llegan a usar el authentication manager en estos casos:
+        authenticationFilter = new AuthenticationFilter(auth -> auth, tokens,
+                new LoginRateLimiter(20, Duration.ofMinutes(1), 5, Duration.ofMinutes(1), 100_000));
+        authorizationFilter = new AuthorizationFilter(auth -> auth, tokens, 10_000);
+
+        User user = new User("test@test.com", "", AuthorityUtils.createAuthorityList("ROLE_USER", "ROLE_ADMIN"));
+        authentication = new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+        header = issue().getHeader("Authentication");
+        token = header.replace("Bearer", "").trim();
+        refresh = tokens.issue("test@test.com", "ROLE_USER,ROLE_ADMIN").getRefresh();
+    }
+
+    @Benchmark
+    public MockHttpServletResponse issue() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        authenticationFilter.successfulAuthentication(new MockHttpServletRequest(), response, new MockFilterChain(),
+                authentication);
+        return response;
+    }
+
+    /**
+     * Verificación completa de la firma y los claims (primera petición con cada token).
+     */
+    @Benchmark
+    public Claims verify() {
+        return tokens.parse(token);
+    }
+
+    /**
+     * Canje de un token de refresco por un nuevo par de tokens (sin consultar el usuario ni calcular BCrypt).
+     */
+    @Benchmark
+    public TokenService.Tokens refresh() {
+        TokenService.Tokens issued = tokens.refresh(refresh);
+        refresh = issued.getRefresh();
+        return issued;
+    }
+
+    /**
+     * Paso por el filtro de autorización con un token ya verificado (peticiones siguientes).
+     */
+    @Benchmark
+    public Authentication verifyCached() throws IOException, ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Authorization", header);
+        authorizationFilter.doFilterInternal(request, new MockHttpServletResponse(), new MockFilterChain());
+        Authentication result = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+package gal.usc.etse.grei.es.project.filter;
+
+import gal.usc.etse.grei.es.project.repository.MemoryTokenStore;
+import gal.usc.etse.grei.es.project.service.TokenService;
+import gal.usc.etse.grei.es.project.utilities.KeyRing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark de la firma y la verificación de los tokens con cada algoritmo (HS512 y ES256), en un único hilo (por
+ * núcleo). La verificación se mide en el filtro de autorización sin la caché de tokens verificados, como en la
+ * primera petición con cada token.
+ *
+ * @author Manuel Bendaña
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+public class TokenAlgorithmBenchmark {
+    @Param({"HS512", "ES256"})
+    private String algorithm;
+
+    private TokenService tokens;
+    private AuthorizationFilter authorizationFilter;
+    private String header;
+
+    @Setup
+    public void setup() {
+        KeyRing keys = new KeyRing("", algorithm, true, Duration.ZERO, Duration.ofDays(1), true,
+                Duration.ofMinutes(15));
+        tokens = new TokenService(Duration.ofMinutes(15), Duration.ofDays(7), new MemoryTokenStore(), keys);
+        //El filtro no llega a usar el authentication manager, y no guarda los tokens verificados:
+        authorizationFilter = new AuthorizationFilter(auth -> auth, tokens, 0);
+        header = "Bearer " + tokens.issue("test@test.com", "ROLE_USER,ROLE_ADMIN").getAccess();
+    }
+
+    /**
+     * Emisión de un par de tokens (firma del token de acceso).
+     */
+    @Benchmark
+    public TokenService.Tokens sign() {
+        return tokens.issue("test@test.com", "ROLE_USER,ROLE_ADMIN");
+    }
+
+    /**
+     * Paso por el filtro de autorización verificando la firma del token.
+     */
+    @Benchmark
+    public Authentication verify() throws IOException, ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Authorization", header);
+        authorizationFilter.doFilterInternal(request, new MockHttpServletResponse(), new MockFilterChain());
+        Authentication result = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        return result;
+    }
+}
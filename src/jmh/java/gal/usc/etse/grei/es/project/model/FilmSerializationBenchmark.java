@@ -0,0 +1,63 @@
+package gal.usc.etse.grei.es.project.model;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark de la serialización con Jackson de una película con el reparto y el equipo completos.
+ *
+ * @author Manuel Bendaña
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilmSerializationBenchmark {
+    //Número de miembros del reparto y del equipo:
+    @Param({"10", "100"})
+    private int people;
+
+    private ObjectMapper mapper;
+    private Film film;
+
+    @Setup
+    public void setup() {
+        mapper = new ObjectMapper();
+
+        List<Cast> cast = new ArrayList<>();
+        List<Crew> crew = new ArrayList<>();
+        for (int i = 0; i < people; i++) {
+            Cast member = new Cast("cast" + i, "Actor " + i, "Spain", "/picture" + i + ".jpg",
+                    "Biography of the actor " + i, new Date(1, 1, 1970), null, "Character " + i);
+            cast.add(member);
+            Crew worker = new Crew().setJob("Job " + i);
+            worker.setId("crew" + i).setName("Worker " + i).setCountry("Spain");
+            crew.add(worker);
+        }
+
+        film = new Film().setId("benchmark").setTitle("Benchmark").setOverview("Overview of the film")
+                .setTagline("Tagline").setGenres(Arrays.asList("Action", "Drama"))
+                .setKeywords(Arrays.asList("benchmark", "jmh", "jackson"))
+                .setReleaseDate(new Date(21, 1, 2021))
+                .setProducers(Arrays.asList(new Producer("Producer", "/logo.png", "Spain")))
+                .setCast(cast).setCrew(crew).setBudget(1000000L).setRuntime(120).setRevenue(2000000L)
+                .setStatus(Status.RELEASED);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(film);
+    }
+}
@@ -0,0 +1,43 @@
+package gal.usc.etse.grei.es.project.repository;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Almacén de sesiones y revocaciones en memoria, para medir el servicio de tokens sin base de datos en los
+ * benchmarks.
+ *
+ * @author Manuel Bendaña
+ */
+public class MemoryTokenStore implements TokenStore {
+    //Sesiones por el hash de su token de refresco:
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    //Revocaciones (en segundos) por usuario:
+    private final Map<String, Long> revocations = new ConcurrentHashMap<>();
+
+    @Override
+    public void save(String hash, Session session, long expires) {
+        sessions.put(hash, session);
+    }
+
+    @Override
+    public Optional<Session> take(String hash) {
+        return Optional.ofNullable(sessions.remove(hash));
+    }
+
+    @Override
+    public void removeAll(String user) {
+        sessions.values().removeIf(session -> session.getUser().equals(user));
+    }
+
+    @Override
+    public void revoke(String user, long revoked) {
+        revocations.merge(user, revoked, Math::max);
+    }
+
+    @Override
+    public Long revoked(String user) {
+        return revocations.get(user);
+    }
+}
@@ -0,0 +1,31 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.data.domain.Sort;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark de la traducción de los criterios de ordenación recibidos en la url.
+ *
+ * @author Manuel Bendaña
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuxMethodsBenchmark {
+    //Criterios de ordenación habituales (con una fecha, que se descompone en tres campos):
+    private final List<String> sort = Arrays.asList("+title", "-releaseDate", "+rating.average");
+
+    @Benchmark
+    public List<Sort.Order> getSortCriteria() {
+        return AuxMethods.getSortCriteria(sort);
+    }
+}
@@ -0,0 +1,54 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark del límite de intentos de inicio de sesión con varios hilos a la vez, tanto sobre claves distintas
+ * como sobre una misma clave (contención en el CAS). Los límites son lo bastante altos para que no se rechace
+ * ningún intento.
+ *
+ * @author Manuel Bendaña
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class LoginRateLimiterBenchmark {
+    private LoginRateLimiter limiter;
+    private String[] ips;
+    private String[] emails;
+
+    @Setup
+    public void setup() {
+        limiter = new LoginRateLimiter(Integer.MAX_VALUE, Duration.ofHours(1), Integer.MAX_VALUE,
+                Duration.ofHours(1), 100_000);
+        ips = new String[1024];
+        emails = new String[1024];
+        for (int i = 0; i < ips.length; i++) {
+            ips[i] = "10.0." + (i / 256) + "." + (i % 256);
+            emails[i] = "user" + i + "@test.com";
+        }
+    }
+
+    @Benchmark
+    public void distinctKeys() {
+        int i = ThreadLocalRandom.current().nextInt(ips.length);
+        limiter.acquire(ips[i], emails[i]);
+    }
+
+    @Benchmark
+    public void sameKey() {
+        limiter.acquire(ips[0], emails[0]);
+    }
+}
@@ -0,0 +1,60 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gal.usc.etse.grei.es.project.model.Film;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark de la aplicación en memoria de operaciones JSON-Patch sobre una película.
+ *
+ * @author Manuel Bendaña
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PatchUtilsBenchmark {
+    private PatchUtils patchUtils;
+    private Film film;
+    private List<Map<String, Object>> updates;
+
+    @Setup
+    public void setup() {
+        //La aplicación en memoria no usa la base de datos:
+        patchUtils = new PatchUtils(new ObjectMapper(), null, new MongoMappingContext());
+        film = new Film().setId("benchmark").setTitle("Benchmark").setOverview("Overview")
+                .setGenres(new ArrayList<>(Arrays.asList("Action", "Drama")))
+                .setKeywords(new ArrayList<>(Arrays.asList("benchmark", "jmh")));
+
+        updates = new ArrayList<>();
+        updates.add(operation("replace", "/title", "Patched"));
+        updates.add(operation("add", "/genres/-", "Comedy"));
+        updates.add(operation("remove", "/keywords/0", null));
+    }
+
+    @Benchmark
+    public Film patch() {
+        return patchUtils.patch(film, updates);
+    }
+
+    private static Map<String, Object> operation(String op, String path, Object value) {
+        Map<String, Object> operation = new LinkedHashMap<>();
+        operation.put("op", op);
+        operation.put("path", path);
+        if(value != null) operation.put("value", value);
+        return operation;
+    }
+}
@@ -2,11 +2,13 @@ package gal.usc.etse.grei.es;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Clase principal, desde la que arranca la aplicación.
  */
 @SpringBootApplication
+@EnableScheduling
 public class Application {
     /**
      * Método main
@@ -0,0 +1,45 @@
+package gal.usc.etse.grei.es.project.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Clase CountCache: almacena durante un tiempo limitado los totales de las búsquedas paginadas, para poder
+ * devolver totales aproximados sin repetir la consulta de conteo en cada petición.
+ *
+ * @author Manuel Bendaña
+ */
+@Component
+public class CountCache {
+    //Caché de totales, con tamaño máximo y caducidad:
+    private final Cache<String, Long> counts;
+
+    /**
+     * Constructor de la clase
+     * @param ttl Tiempo durante el que se considera válido un total.
+     * @param maxEntries Número máximo de totales almacenados.
+     */
+    public CountCache(@Value("${counts.estimated.ttl:PT5M}") Duration ttl,
+                      @Value("${counts.estimated.max-entries:10000}") long maxEntries) {
+        this.counts = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxEntries)
+                .build();
+    }
+
+    /**
+     * Método que devuelve el total almacenado para una búsqueda, calculándolo si no se tiene todavía.
+     *
+     * @param key Clave que identifica la búsqueda.
+     * @param counter Función que calcula el total.
+     * @return El total (aproximado) de la búsqueda.
+     */
+    public long get(String key, LongSupplier counter) {
+        return counts.get(key, k -> counter.getAsLong());
+    }
+}
@@ -0,0 +1,81 @@
+package gal.usc.etse.grei.es.project.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Clase FacetCache: almacena durante un tiempo limitado las facetas de las búsquedas de películas (y su total),
+ * para que al pasar de página no se repita la agregación sobre todos los resultados.
+ *
+ * @author Manuel Bendaña
+ */
+@Component
+public class FacetCache {
+    //Caché de facetas, con tamaño máximo y caducidad:
+    private final Cache<String, Facets> facets;
+
+    /**
+     * Constructor de la clase
+     * @param ttl Tiempo durante el que se consideran válidas unas facetas.
+     * @param maxEntries Número máximo de búsquedas almacenadas.
+     */
+    public FacetCache(@Value("${movies.facets.ttl:PT1M}") Duration ttl,
+                      @Value("${movies.facets.max-entries:1000}") long maxEntries) {
+        this.facets = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxEntries)
+                .build();
+    }
+
+    /**
+     * Método que devuelve las facetas almacenadas para una búsqueda.
+     * @param key Clave que identifica la búsqueda (criterios normalizados y campos pedidos).
+     * @return Las facetas, si se tienen todavía.
+     */
+    public Optional<Facets> get(String key) {
+        return Optional.ofNullable(facets.getIfPresent(key));
+    }
+
+    /**
+     * Método que almacena las facetas de una búsqueda.
+     * @param key Clave que identifica la búsqueda (criterios normalizados y campos pedidos).
+     * @param value Las facetas calculadas.
+     */
+    public void put(String key, Facets value) {
+        facets.put(key, value);
+    }
+
+    /**
+     * Clase Facets: resultado de la agregación de facetas de una búsqueda.
+     */
+    public static class Facets {
+        //Total de resultados de la búsqueda:
+        private final long total;
+        //Número de resultados por valor de cada campo:
+        private final Map<String, Map<String, Long>> counts;
+
+        /**
+         * Constructor de la clase
+         * @param total Total de resultados de la búsqueda.
+         * @param counts Número de resultados por valor de cada campo.
+         */
+        public Facets(long total, Map<String, Map<String, Long>> counts) {
+            this.total = total;
+            this.counts = counts;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public Map<String, Map<String, Long>> getCounts() {
+            return counts;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package gal.usc.etse.grei.es.project.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import gal.usc.etse.grei.es.project.model.Film;
+import gal.usc.etse.grei.es.project.utilities.VersionUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Clase FilmCache: caché en memoria de los detalles de las películas, para no acceder a la base de datos en
+ * cada consulta de una película concreta.
+ *
+ * La caché está limitada por el peso aproximado de las películas (número de elementos embebidos), los datos
+ * caducan pasado un tiempo y la política de expulsión es la de Caffeine (W-TinyLFU, que combina frecuencia y
+ * antigüedad de los accesos). Las estadísticas de aciertos, fallos y expulsiones se publican como métricas.
+ *
+ * @author Manuel Bendaña
+ */
+@Component
+public class FilmCache {
+    //Caché de películas por id:
+    private final Cache<String, Film> films;
+
+    /**
+     * Constructor de la clase
+     * @param ttl Tiempo máximo durante el que se mantiene una película en caché.
+     * @param maxWeight Peso máximo de la caché (suma de los pesos de las películas almacenadas).
+     * @param registry Registro de métricas en el que se publican las estadísticas de la caché.
+     */
+    @Autowired
+    public FilmCache(@Value("${films.cache.ttl:PT10M}") Duration ttl,
+                     @Value("${films.cache.max-weight:500000}") long maxWeight,
+                     MeterRegistry registry) {
+        this.films = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((String id, Film film) -> weight(film))
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, films, "films");
+    }
+
+    /**
+     * Método que devuelve una película de la caché, recuperándola con la función indicada si no está.
+     *
+     * @param id El id de la película.
+     * @param loader Función que recupera la película de la base de datos.
+     * @return La película (si existe).
+     */
+    public Optional<Film> get(String id, Function<String, Optional<Film>> loader) {
+        //Caffeine no almacena nulos, por lo que las películas inexistentes no se guardan:
+        return Optional.ofNullable(films.get(id, key -> loader.apply(key).orElse(null)));
+    }
+
+    /**
+     * Método que comprueba si una película está en la caché (sin recuperarla de la base de datos).
+     * @param id El id de la película.
+     * @return True si la película está en caché.
+     */
+    public boolean contains(String id) {
+        return films.getIfPresent(id) != null;
+    }
+
+    /**
+     * Método que almacena (o reemplaza) una película tras escribirla en la base de datos. Si dos escrituras
+     * concurrentes llegan a la caché en otro orden, se mantiene la de mayor versión, para no servir (ni usar en los
+     * ETags) una película anterior a la de la base de datos.
+     * @param film La película escrita.
+     * @return La misma película.
+     */
+    public Film put(Film film) {
+        films.asMap().merge(film.getId(), film, (cached, written) ->
+                VersionUtils.value(written.getVersion()) >= VersionUtils.value(cached.getVersion()) ? written : cached);
+        return film;
+    }
+
+    /**
+     * Método que elimina una película de la caché.
+     * @param id El id de la película.
+     */
+    public void invalidate(String id) {
+        films.invalidate(id);
+    }
+
+    /**
+     * Método que vacía la caché (tras modificaciones masivas de películas).
+     */
+    public void invalidateAll() {
+        films.invalidateAll();
+    }
+
+    /**
+     * Método que calcula el peso aproximado de una película: uno por la propia película y uno más por cada
+     * elemento de sus listas (reparto, equipo, productoras, palabras clave...), que son lo que más ocupa.
+     * @param film La película.
+     * @return El peso de la película.
+     */
+    private static int weight(Film film) {
+        return 1 + size(film.getCast()) + size(film.getCrew()) + size(film.getProducers())
+                + size(film.getKeywords()) + size(film.getGenres()) + size(film.getResources());
+    }
+
+    /**
+     * Método que devuelve el tamaño de una lista que puede ser nula.
+     * @param list La lista.
+     * @return El tamaño (0 si es nula).
+     */
+    private static int size(List<?> list) {
+        return list == null ? 0 : list.size();
+    }
+}
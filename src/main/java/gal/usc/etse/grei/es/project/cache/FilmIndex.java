@@ -0,0 +1,505 @@
+package gal.usc.etse.grei.es.project.cache;
+
+import gal.usc.etse.grei.es.project.model.Film;
+import gal.usc.etse.grei.es.project.service.FilmChangeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Clase FilmIndex: índice invertido en memoria de las películas, para responder sin acceder a la base de datos a
+ * las búsquedas por prefijo (autocompletado) y estimar el número de películas de los filtros de los listados
+ * (palabras clave, géneros y nombres de los participantes).
+ *
+ * Cada película recibe un id interno entero, y para cada término se guarda la lista ordenada de las películas que
+ * lo contienen como array de enteros. Los arrays no se modifican nunca: cada cambio crea uno nuevo, por lo que las
+ * lecturas no necesitan bloqueos. Los valores de los campos de los filtros se guardan tal cual (distinguiendo
+ * mayúsculas, como en la base de datos), y las palabras del título normalizadas en un mapa ordenado (para las
+ * búsquedas por prefijo).
+ *
+ * El índice se carga al arrancar, se mantiene con los eventos de MovieService y se recarga periódicamente;
+ * mientras no está cargado (o si está desactivado), los servicios deben consultar la base de datos. Los cambios
+ * hechos por otras instancias o directamente sobre la base de datos no se ven hasta la siguiente recarga, por lo
+ * que los recuentos sólo deben usarse como estimaciones: los resultados y los totales exactos de los listados
+ * salen siempre de la base de datos.
+ *
+ * @author Manuel Bendaña
+ */
+@Component
+public class FilmIndex {
+    //Logger de la clase:
+    private static final Logger log = LoggerFactory.getLogger(FilmIndex.class);
+    //Campo del título (sólo para las búsquedas por prefijo):
+    public static final String TITLE = "title";
+    //Campos indexados (el título y los campos multivalor por los que se filtran los listados):
+    private static final String[] FIELDS = {TITLE, "keywords", "genres", "cast.name", "crew.name", "producers.name"};
+    //Array vacío, para los términos sin películas:
+    private static final int[] NONE = new int[0];
+    //Separadores de palabras y marcas diacríticas (para normalizar los términos):
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    //Referencia a MongoTemplate, para cargar las películas:
+    private final MongoTemplate mongoTemplate;
+    //Si el índice está activado:
+    private final boolean enabled;
+    //Índice actual (se reemplaza entero al recargar):
+    private volatile Index index = new Index();
+    //Si el índice está cargado:
+    private volatile boolean ready = false;
+    //Cambios recibidos durante una carga, que se aplican también al índice nuevo (null si no se está cargando):
+    private List<Consumer<Index>> pending;
+
+    /**
+     * Constructor de la clase
+     * @param mongoTemplate Referencia a MongoTemplate.
+     * @param enabled Si el índice está activado.
+     */
+    @Autowired
+    public FilmIndex(MongoTemplate mongoTemplate, @Value("${films.index.enabled:true}") boolean enabled) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Método que carga el índice al arrancar la aplicación.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        reload();
+    }
+
+    /**
+     * Método que recarga el índice desde la base de datos, para corregir cualquier desviación (por ejemplo,
+     * cambios hechos por otras instancias o directamente sobre la base de datos).
+     *
+     * Las películas se cargan de más a menos valoradas, de forma que el id interno (y con él el orden de las
+     * sugerencias) refleja su popularidad.
+     */
+    @Scheduled(initialDelayString = "${films.index.reload-interval:PT1H}",
+            fixedDelayString = "${films.index.reload-interval:PT1H}")
+    public void reload() {
+        if(!enabled) return;
+        synchronized (this) {
+            //Si ya hay una carga en curso, no se inicia otra:
+            if(pending != null) return;
+            pending = new ArrayList<>();
+        }
+
+        Index loaded = new Index();
+        try {
+            //Recuperamos sólo los campos indexados, recorriendo la colección sin cargarla entera:
+            Query query = new Query().with(Sort.by(Sort.Direction.DESC, "rating.count"));
+            query.fields().include(FIELDS);
+            try (CloseableIterator<Film> films = mongoTemplate.stream(query, Film.class)) {
+                while (films.hasNext()) {
+                    loaded.add(films.next());
+                }
+            }
+        } catch (DataAccessException e) {
+            log.error("Film index could not be loaded: {}", e.getMessage());
+            synchronized (this) {
+                pending = null;
+            }
+            return;
+        }
+
+        synchronized (this) {
+            //Aplicamos los cambios recibidos durante la carga y reemplazamos el índice:
+            pending.forEach(change -> change.accept(loaded));
+            pending = null;
+            index = loaded;
+            ready = true;
+        }
+        log.info("Film index loaded: {} films", loaded.forward.size());
+    }
+
+    /**
+     * Método que mantiene el índice al día con los cambios de las películas.
+     * @param event El cambio.
+     */
+    @EventListener
+    public void onFilmChange(FilmChangeEvent event) {
+        if(!enabled) return;
+        if(event.getType() == FilmChangeEvent.Type.DELETED) {
+            change(current -> current.remove(event.getId()));
+        } else {
+            //Las películas insertadas y modificadas se indexan de nuevo enteras:
+            change(current -> current.add(event.getFilm()));
+        }
+    }
+
+    /**
+     * Método que indica si el índice está cargado y se puede consultar.
+     * @return True si el índice está cargado.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Método que indica si un campo de los filtros de los listados de películas se puede resolver en el índice.
+     * @param field El campo filtrado.
+     * @return True si el campo está indexado para filtrar.
+     */
+    public static boolean isFilter(String field) {
+        return position(field) > 0;
+    }
+
+    /**
+     * Método que cuenta las películas que cumplen a la vez todos los filtros indicados (cada película debe tener
+     * todos los valores pedidos de cada campo, igual que en MovieService).
+     *
+     * @param filters Valores pedidos por campo (los campos sin valores se ignoran).
+     * @return El número de películas (aproximado, ya que puede no incluir los cambios de otras instancias), o vacío
+     *      si el índice no está cargado o algún campo no está indexado.
+     */
+    public OptionalInt count(Map<String, List<String>> filters) {
+        if(!ready) return OptionalInt.empty();
+        for (String field : filters.keySet()) {
+            if(!isFilter(field)) return OptionalInt.empty();
+        }
+
+        Index current = index;
+        int[] matches = current.match(filters);
+        return OptionalInt.of(matches == null ? current.forward.size() : matches.length);
+    }
+
+    /**
+     * Método que sugiere películas a partir del principio de su título: todas las palabras indicadas deben
+     * aparecer en el título, y la última puede estar incompleta. No se distinguen mayúsculas ni tildes.
+     *
+     * @param text El texto escrito.
+     * @param limit Número máximo de películas a devolver.
+     * @return Las películas (sólo con id y título), de más a menos populares, o vacío si el índice no está
+     *      cargado.
+     */
+    public Optional<List<Film>> suggest(String text, int limit) {
+        if(!ready) return Optional.empty();
+        List<String> words = words(text);
+        if(words.isEmpty() || limit < 1) return Optional.of(Collections.emptyList());
+
+        Index current = index;
+        Field title = current.fields[0];
+
+        //Las palabras completas deben estar todas:
+        int[] complete = null;
+        for (String word : words.subList(0, words.size() - 1)) {
+            int[] postings = title.words.getOrDefault(word, NONE);
+            complete = complete == null ? postings : intersect(complete, postings);
+        }
+
+        //La última es un prefijo: nos quedamos con las primeras películas de cualquiera de sus términos que
+        //contengan también las palabras completas (cada lista está ordenada, así que se deja de recorrer en
+        //cuanto se pasa de la última película seleccionada):
+        String prefix = words.get(words.size() - 1);
+        TreeSet<Integer> selected = new TreeSet<>();
+        for (int[] postings : title.words.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+            for (int doc : postings) {
+                if(selected.size() == limit && doc > selected.last()) break;
+                if(complete != null && Arrays.binarySearch(complete, doc) < 0) continue;
+                if(selected.add(doc) && selected.size() > limit) selected.pollLast();
+            }
+        }
+
+        List<Film> films = new ArrayList<>(selected.size());
+        for (int doc : selected) {
+            Doc entry = current.forward.get(doc);
+            if(entry != null) films.add(new Film().setId(entry.id).setTitle(entry.title));
+        }
+        return Optional.of(films);
+    }
+
+    /**
+     * Método que aplica un cambio al índice actual y, si se está cargando, lo guarda para el índice nuevo.
+     * @param change El cambio.
+     */
+    private synchronized void change(Consumer<Index> change) {
+        change.accept(index);
+        if(pending != null) pending.add(change);
+    }
+
+    /**
+     * Método que devuelve la posición de un campo entre los indexados.
+     * @param field El campo.
+     * @return La posición, o -1 si no está indexado.
+     */
+    private static int position(String field) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if(FIELDS[i].equals(field)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Método que normaliza un texto y lo divide en palabras (en minúsculas y sin tildes).
+     * @param text El texto.
+     * @return Las palabras, en orden.
+     */
+    private static List<String> words(String text) {
+        if(text == null) return Collections.emptyList();
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        List<String> words = new ArrayList<>();
+        for (String word : SEPARATORS.split(normalized)) {
+            if(!word.isEmpty()) words.add(word);
+        }
+        return words;
+    }
+
+    /**
+     * Método que obtiene los valores de un campo indexado de una película.
+     * @param film La película.
+     * @param field El campo.
+     * @return Los valores (sin nulos).
+     */
+    private static List<String> values(Film film, String field) {
+        List<String> values = new ArrayList<>();
+        switch (field) {
+            case TITLE:
+                values.add(film.getTitle());
+                break;
+            case "keywords":
+                if(film.getKeywords() != null) values.addAll(film.getKeywords());
+                break;
+            case "genres":
+                if(film.getGenres() != null) values.addAll(film.getGenres());
+                break;
+            case "cast.name":
+                if(film.getCast() != null) film.getCast().forEach(person -> values.add(person.getName()));
+                break;
+            case "crew.name":
+                if(film.getCrew() != null) film.getCrew().forEach(person -> values.add(person.getName()));
+                break;
+            case "producers.name":
+                if(film.getProducers() != null) film.getProducers().forEach(producer -> values.add(producer.getName()));
+                break;
+            default:
+                break;
+        }
+        values.removeIf(value -> value == null);
+        return values;
+    }
+
+    /**
+     * Método que calcula la intersección de dos listas ordenadas. Si una es mucho más corta que la otra, sus
+     * elementos se buscan en la larga; si no, se recorren las dos a la vez.
+     * @param a Una lista.
+     * @param b Otra lista.
+     * @return Los elementos comunes, ordenados.
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        if(a.length > b.length) return intersect(b, a);
+        int[] result = new int[a.length];
+        int size = 0;
+        if(a.length * 32 < b.length) {
+            int from = 0;
+            for (int value : a) {
+                int position = Arrays.binarySearch(b, from, b.length, value);
+                if(position >= 0) result[size++] = value;
+                from = position >= 0 ? position + 1 : -position - 1;
+                if(from == b.length) break;
+            }
+        } else {
+            for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+                if(a[i] < b[j]) i++;
+                else if(a[i] > b[j]) j++;
+                else {
+                    result[size++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Método que añade una película a una lista ordenada (copiando la lista).
+     * @param postings La lista (puede ser nula).
+     * @param doc La película.
+     * @return La nueva lista.
+     */
+    private static int[] insert(int[] postings, int doc) {
+        int[] current = postings == null ? NONE : postings;
+        int position = Arrays.binarySearch(current, doc);
+        if(position >= 0) return current;
+        position = -position - 1;
+        int[] updated = new int[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, position);
+        updated[position] = doc;
+        System.arraycopy(current, position, updated, position + 1, current.length - position);
+        return updated;
+    }
+
+    /**
+     * Método que elimina una película de una lista ordenada (copiando la lista).
+     * @param postings La lista (puede ser nula).
+     * @param doc La película.
+     * @return La nueva lista, o null si queda vacía.
+     */
+    private static int[] delete(int[] postings, int doc) {
+        if(postings == null) return null;
+        int position = Arrays.binarySearch(postings, doc);
+        if(position < 0) return postings;
+        if(postings.length == 1) return null;
+        int[] updated = new int[postings.length - 1];
+        System.arraycopy(postings, 0, updated, 0, position);
+        System.arraycopy(postings, position + 1, updated, position, postings.length - position - 1);
+        return updated;
+    }
+
+    /**
+     * Clase auxiliar con los términos de un campo.
+     */
+    private static class Field {
+        //Películas de cada valor, tal cual (campos de los filtros):
+        private final Map<String, int[]> values = new ConcurrentHashMap<>();
+        //Películas de cada palabra normalizada, ordenadas para las búsquedas por prefijo (título):
+        private final ConcurrentNavigableMap<String, int[]> words = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Clase auxiliar con los datos de una película en el índice (índice directo), necesarios para devolverla y
+     * para quitar sus términos al modificarla o borrarla.
+     */
+    private static class Doc {
+        private final String id;
+        private final String title;
+        //Valores y palabras de cada campo, en el orden de FIELDS:
+        private final List<Set<String>> values = new ArrayList<>(FIELDS.length);
+        private final List<Set<String>> words = new ArrayList<>(FIELDS.length);
+
+        private Doc(Film film) {
+            this.id = film.getId();
+            this.title = film.getTitle();
+            for (String field : FIELDS) {
+                Set<String> fieldValues = new LinkedHashSet<>();
+                Set<String> fieldWords = new LinkedHashSet<>();
+                for (String value : FilmIndex.values(film, field)) {
+                    //Del título se indexan las palabras, y del resto de campos los valores:
+                    if(field.equals(TITLE)) fieldWords.addAll(FilmIndex.words(value));
+                    else fieldValues.add(value);
+                }
+                values.add(fieldValues);
+                words.add(fieldWords);
+            }
+        }
+    }
+
+    /**
+     * Clase auxiliar con los datos del índice. Las lecturas se pueden hacer en cualquier momento; las escrituras
+     * deben estar sincronizadas.
+     */
+    private static class Index {
+        //Términos de cada campo, en el orden de FIELDS:
+        private final Field[] fields = new Field[FIELDS.length];
+        //Id interno de cada película:
+        private final Map<String, Integer> docs = new ConcurrentHashMap<>();
+        //Datos de cada película, por su id interno:
+        private final Map<Integer, Doc> forward = new ConcurrentHashMap<>();
+        //Siguiente id interno (no se reutilizan los de las películas borradas):
+        private int next = 0;
+
+        private Index() {
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = new Field();
+            }
+        }
+
+        /**
+         * Método que añade una película (o la reemplaza, si ya estaba). Las películas reemplazadas mantienen su id
+         * interno, para no cambiar su posición en las sugerencias.
+         * @param film La película.
+         */
+        private void add(Film film) {
+            if(film == null || film.getId() == null) return;
+            Integer existing = docs.get(film.getId());
+            remove(film.getId());
+
+            int doc = existing != null ? existing : next++;
+            Doc entry = new Doc(film);
+            for (int i = 0; i < fields.length; i++) {
+                for (String value : entry.values.get(i)) {
+                    fields[i].values.compute(value, (key, postings) -> insert(postings, doc));
+                }
+                for (String word : entry.words.get(i)) {
+                    fields[i].words.compute(word, (key, postings) -> insert(postings, doc));
+                }
+            }
+            forward.put(doc, entry);
+            docs.put(film.getId(), doc);
+        }
+
+        /**
+         * Método que elimina una película.
+         * @param id El id de la película.
+         */
+        private void remove(String id) {
+            Integer doc = docs.remove(id);
+            if(doc == null) return;
+            Doc entry = forward.remove(doc);
+            if(entry == null) return;
+            for (int i = 0; i < fields.length; i++) {
+                for (String value : entry.values.get(i)) {
+                    fields[i].values.computeIfPresent(value, (key, postings) -> delete(postings, doc));
+                }
+                for (String word : entry.words.get(i)) {
+                    fields[i].words.computeIfPresent(word, (key, postings) -> delete(postings, doc));
+                }
+            }
+        }
+
+        /**
+         * Método que calcula las películas que cumplen todos los filtros, empezando por las listas más cortas.
+         * @param filters Valores pedidos por campo.
+         * @return Las películas, o null si no hay ningún filtro.
+         */
+        private int[] match(Map<String, List<String>> filters) {
+            List<int[]> lists = new ArrayList<>();
+            filters.forEach((field, values) -> {
+                if(values == null) return;
+                Field terms = fields[position(field)];
+                for (String value : values) {
+                    lists.add(terms.values.getOrDefault(value, NONE));
+                }
+            });
+            if(lists.isEmpty()) return null;
+
+            lists.sort((a, b) -> Integer.compare(a.length, b.length));
+            int[] result = lists.get(0);
+            for (int i = 1; i < lists.size() && result.length > 0; i++) {
+                result = intersect(result, lists.get(i));
+            }
+            return result;
+        }
+    }
+}
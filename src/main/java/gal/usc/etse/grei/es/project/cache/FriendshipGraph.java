@@ -0,0 +1,414 @@
+package gal.usc.etse.grei.es.project.cache;
+
+import gal.usc.etse.grei.es.project.model.Friendship;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Clase FriendshipGraph: grafo en memoria de las amistades, para comprobar si dos usuarios son amigos o si un
+ * usuario pertenece a una amistad sin acceder a la base de datos.
+ *
+ * Los emails de los usuarios se traducen a enteros, y los amigos de cada usuario se guardan como un array de
+ * enteros ordenado (búsqueda binaria). Los arrays no se modifican nunca: cada cambio crea uno nuevo, por lo que
+ * las lecturas no necesitan bloqueos. Cada amistad se guarda por su id, con sus dos usuarios empaquetados en un
+ * long.
+ *
+ * El grafo se carga al arrancar y se recarga periódicamente; mientras no está cargado, los servicios deben
+ * consultar la base de datos (ver {@link #isReady()}). Las amistades creadas en otras instancias no se reflejan
+ * hasta la siguiente recarga, por lo que sus respuestas negativas no son definitivas: los servicios sólo confían en
+ * las positivas. Los borrados, en cambio, se registran en la colección friendshipDeletions (con un índice TTL), que
+ * cada instancia consulta periódicamente: una amistad borrada en otra instancia deja de darse por buena en, como
+ * mucho, ese intervalo.
+ *
+ * @author Manuel Bendaña
+ */
+@Component
+public class FriendshipGraph {
+    //Logger de la clase:
+    private static final Logger log = LoggerFactory.getLogger(FriendshipGraph.class);
+    //Array vacío, para los usuarios sin amigos:
+    private static final int[] NONE = new int[0];
+    //Colección de los borrados de amistades:
+    private static final String DELETIONS = "friendshipDeletions";
+    //Margen con el que se recuperan los borrados recientes, por las diferencias entre los relojes de las instancias:
+    private static final long CLOCK_SKEW = Duration.ofMinutes(1).toMillis();
+
+    //Referencia a MongoTemplate, para cargar las amistades:
+    private final MongoTemplate mongoTemplate;
+    //Tiempo durante el que se mantiene cada borrado (después, la recarga del grafo ya lo incluye):
+    private final long retention;
+    //Momento de la última consulta de los borrados (0 si el grafo aún no se ha cargado):
+    private volatile long lastPoll = 0;
+    //Grafo actual (se reemplaza entero al recargar):
+    private volatile Graph graph = new Graph();
+    //Si el grafo está cargado:
+    private volatile boolean ready = false;
+    //Cambios recibidos durante una carga, que se aplican también al grafo nuevo (null si no se está cargando):
+    private List<Consumer<Graph>> pending;
+
+    /**
+     * Constructor de la clase
+     * @param mongoTemplate Referencia a MongoTemplate.
+     * @param reloadInterval Intervalo de recarga del grafo.
+     */
+    @Autowired
+    public FriendshipGraph(MongoTemplate mongoTemplate,
+                           @Value("${friendships.graph.reload-interval:PT1H}") Duration reloadInterval) {
+        this.mongoTemplate = mongoTemplate;
+        this.retention = reloadInterval.toMillis() + CLOCK_SKEW;
+    }
+
+    /**
+     * Método que crea los índices de los borrados y carga el grafo al arrancar la aplicación.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        try {
+            mongoTemplate.indexOps(DELETIONS).ensureIndex(new Index().on("expires", Sort.Direction.ASC).expire(0));
+            mongoTemplate.indexOps(DELETIONS).ensureIndex(new Index().on("at", Sort.Direction.ASC));
+        } catch (DataAccessException e) {
+            log.error("Friendship deletion indexes could not be created: {}", e.getMessage());
+        }
+        reload();
+    }
+
+    /**
+     * Método que recarga el grafo desde la base de datos, para corregir cualquier desviación (por ejemplo,
+     * cambios hechos por otras instancias o directamente sobre la base de datos).
+     */
+    @Scheduled(initialDelayString = "${friendships.graph.reload-interval:PT1H}",
+            fixedDelayString = "${friendships.graph.reload-interval:PT1H}")
+    public void reload() {
+        synchronized (this) {
+            //Si ya hay una carga en curso, no se inicia otra:
+            if(pending != null) return;
+            pending = new ArrayList<>();
+        }
+
+        long start = System.currentTimeMillis();
+        Graph loaded = new Graph();
+        try {
+            //Recuperamos sólo los usuarios de cada amistad, recorriendo la colección sin cargarla entera:
+            Query query = new Query();
+            query.fields().include("user").include("friend");
+            try (CloseableIterator<Friendship> friendships = mongoTemplate.stream(query, Friendship.class)) {
+                while (friendships.hasNext()) {
+                    loaded.add(friendships.next());
+                }
+            }
+        } catch (DataAccessException e) {
+            log.error("Friendship graph could not be loaded: {}", e.getMessage());
+            synchronized (this) {
+                pending = null;
+            }
+            return;
+        }
+
+        synchronized (this) {
+            //Aplicamos los cambios recibidos durante la carga (son idempotentes) y reemplazamos el grafo:
+            pending.forEach(change -> change.accept(loaded));
+            pending = null;
+            graph = loaded;
+            ready = true;
+        }
+        //Los borrados anteriores a la primera carga ya están reflejados en ella:
+        if(lastPoll == 0) lastPoll = start;
+        log.info("Friendship graph loaded: {} users, {} friendships", loaded.users.size(), loaded.edges.size());
+    }
+
+    /**
+     * Método que indica si el grafo está cargado y se puede consultar.
+     * @return True si el grafo está cargado.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Método que comprueba si dos usuarios son amigos (en cualquiera de los dos sentidos).
+     * @param user1 Primer usuario.
+     * @param user2 Segundo usuario.
+     * @return True si existe una amistad entre ambos.
+     */
+    public boolean areFriends(String user1, String user2) {
+        Graph current = graph;
+        Integer id1 = current.users.get(user1);
+        Integer id2 = current.users.get(user2);
+        if(id1 == null || id2 == null) return false;
+        return Arrays.binarySearch(current.adjacency.getOrDefault(id1, NONE), id2) >= 0;
+    }
+
+    /**
+     * Método que comprueba si existe una amistad.
+     * @param friendshipId El id de la amistad.
+     * @return True si existe.
+     */
+    public boolean exists(String friendshipId) {
+        return graph.edges.containsKey(friendshipId);
+    }
+
+    /**
+     * Método que comprueba si un usuario pertenece a una amistad.
+     * @param userId El usuario.
+     * @param friendshipId El id de la amistad.
+     * @return Vacío si la amistad no existe; si existe, si el usuario pertenece a ella.
+     */
+    public Optional<Boolean> isInFriendship(String userId, String friendshipId) {
+        Graph current = graph;
+        Long edge = current.edges.get(friendshipId);
+        if(edge == null) return Optional.empty();
+        Integer id = current.users.get(userId);
+        return Optional.of(id != null && (id == user(edge) || id == friend(edge)));
+    }
+
+    /**
+     * Método que comprueba si un usuario es el amigo (el que debe confirmar) de una amistad.
+     * @param friendshipId El id de la amistad.
+     * @param friendId El usuario.
+     * @return True si la amistad existe y el usuario es el amigo.
+     */
+    public boolean isFriendIn(String friendshipId, String friendId) {
+        Graph current = graph;
+        Long edge = current.edges.get(friendshipId);
+        Integer id = current.users.get(friendId);
+        return edge != null && id != null && id == friend(edge);
+    }
+
+    /**
+     * Método que añade una amistad al grafo.
+     * @param friendship La amistad (con su id).
+     */
+    public void add(Friendship friendship) {
+        change(current -> current.add(friendship));
+    }
+
+    /**
+     * Método que elimina una amistad del grafo y registra el borrado para las demás instancias.
+     * @param friendshipId El id de la amistad.
+     */
+    public void remove(String friendshipId) {
+        change(current -> current.remove(friendshipId));
+        record(new Document("friendship", friendshipId));
+    }
+
+    /**
+     * Método que elimina todas las amistades de un usuario y registra el borrado para las demás instancias.
+     * @param userId El email del usuario.
+     */
+    public void removeUser(String userId) {
+        change(current -> current.removeUser(userId));
+        record(new Document("user", userId));
+    }
+
+    /**
+     * Método que aplica periódicamente al grafo los borrados registrados (por esta o por otras instancias) desde la
+     * última consulta. Aplicarlos más de una vez no tiene efecto.
+     */
+    @Scheduled(initialDelayString = "${friendships.graph.deletion-poll:PT5S}",
+            fixedDelayString = "${friendships.graph.deletion-poll:PT5S}")
+    public void poll() {
+        //Hasta la primera carga no hay grafo al que aplicarlos:
+        if(lastPoll == 0) return;
+        long now = System.currentTimeMillis();
+        Query query = Query.query(Criteria.where("at").gte(new Date(lastPoll - CLOCK_SKEW)));
+        query.fields().include("friendship").include("user");
+        try {
+            for (Document deletion : mongoTemplate.find(query, Document.class, DELETIONS)) {
+                String friendshipId = deletion.getString("friendship");
+                String userId = deletion.getString("user");
+                if(friendshipId != null) change(current -> current.remove(friendshipId));
+                if(userId != null) change(current -> current.removeUser(userId));
+            }
+            lastPoll = now;
+        } catch (DataAccessException e) {
+            //Se vuelve a intentar en la siguiente consulta, desde la última que funcionó:
+            log.error("Friendship deletions could not be loaded: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Método que registra un borrado en la base de datos, para que lo apliquen las demás instancias.
+     * @param deletion El borrado (la amistad o el usuario).
+     */
+    private void record(Document deletion) {
+        long now = System.currentTimeMillis();
+        try {
+            mongoTemplate.insert(deletion.append("at", new Date(now)).append("expires", new Date(now + retention)),
+                    DELETIONS);
+        } catch (DataAccessException e) {
+            //Las demás instancias lo reflejarán en su siguiente recarga:
+            log.error("Friendship deletion could not be recorded: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Método que aplica un cambio al grafo actual y, si se está cargando, lo guarda para el grafo nuevo.
+     * @param change El cambio.
+     */
+    private synchronized void change(Consumer<Graph> change) {
+        change.accept(graph);
+        if(pending != null) pending.add(change);
+    }
+
+    /**
+     * Método que obtiene el usuario de una amistad empaquetada.
+     * @param edge La amistad.
+     * @return El id interno del usuario.
+     */
+    private static int user(long edge) {
+        return (int) (edge >>> 32);
+    }
+
+    /**
+     * Método que obtiene el amigo de una amistad empaquetada.
+     * @param edge La amistad.
+     * @return El id interno del amigo.
+     */
+    private static int friend(long edge) {
+        return (int) edge;
+    }
+
+    /**
+     * Método que empaqueta dos ids internos en un long.
+     * @param high El primer id.
+     * @param low El segundo id.
+     * @return Los ids empaquetados.
+     */
+    private static long pack(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Clase auxiliar con los datos del grafo. Las lecturas se pueden hacer en cualquier momento; las escrituras
+     * deben estar sincronizadas.
+     */
+    private static class Graph {
+        //Id interno de cada usuario:
+        private final Map<String, Integer> users = new ConcurrentHashMap<>();
+        //Amigos de cada usuario (ids internos, ordenados):
+        private final Map<Integer, int[]> adjacency = new ConcurrentHashMap<>();
+        //Usuario y amigo de cada amistad, por su id:
+        private final Map<String, Long> edges = new ConcurrentHashMap<>();
+        //Id de la amistad de cada par de usuarios (el menor primero):
+        private final Map<Long, String> pairs = new ConcurrentHashMap<>();
+
+        /**
+         * Método que añade una amistad.
+         * @param friendship La amistad.
+         */
+        private void add(Friendship friendship) {
+            if(friendship.getId() == null || friendship.getUser() == null || friendship.getFriend() == null) return;
+            int user = intern(friendship.getUser());
+            int friend = intern(friendship.getFriend());
+            edges.put(friendship.getId(), pack(user, friend));
+            pairs.put(pair(user, friend), friendship.getId());
+            link(user, friend);
+            link(friend, user);
+        }
+
+        /**
+         * Método que elimina una amistad.
+         * @param friendshipId El id de la amistad.
+         */
+        private void remove(String friendshipId) {
+            Long edge = edges.remove(friendshipId);
+            if(edge == null) return;
+            pairs.remove(pair(user(edge), friend(edge)));
+            unlink(user(edge), friend(edge));
+            unlink(friend(edge), user(edge));
+        }
+
+        /**
+         * Método que elimina todas las amistades de un usuario.
+         * @param userId El email del usuario.
+         */
+        private void removeUser(String userId) {
+            Integer user = users.get(userId);
+            if(user == null) return;
+            for (int friend : adjacency.getOrDefault(user, NONE)) {
+                String friendshipId = pairs.get(pair(user, friend));
+                if(friendshipId != null) remove(friendshipId);
+            }
+            adjacency.remove(user);
+        }
+
+        /**
+         * Método que devuelve el id interno de un usuario, asignándole uno nuevo si no lo tiene.
+         * @param email El email del usuario.
+         * @return El id interno.
+         */
+        private int intern(String email) {
+            return users.computeIfAbsent(email, key -> users.size());
+        }
+
+        /**
+         * Método que añade un amigo a un usuario (copiando su array de amigos).
+         * @param user El usuario.
+         * @param friend El amigo.
+         */
+        private void link(int user, int friend) {
+            int[] current = adjacency.getOrDefault(user, NONE);
+            int position = Arrays.binarySearch(current, friend);
+            if(position >= 0) return;
+            position = -position - 1;
+            int[] updated = new int[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, position);
+            updated[position] = friend;
+            System.arraycopy(current, position, updated, position + 1, current.length - position);
+            adjacency.put(user, updated);
+        }
+
+        /**
+         * Método que elimina un amigo de un usuario (copiando su array de amigos).
+         * @param user El usuario.
+         * @param friend El amigo.
+         */
+        private void unlink(int user, int friend) {
+            int[] current = adjacency.getOrDefault(user, NONE);
+            int position = Arrays.binarySearch(current, friend);
+            if(position < 0) return;
+            if(current.length == 1) {
+                adjacency.remove(user);
+                return;
+            }
+            int[] updated = new int[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, position);
+            System.arraycopy(current, position + 1, updated, position, current.length - position - 1);
+            adjacency.put(user, updated);
+        }
+
+        /**
+         * Método que genera la clave de un par de usuarios, independiente del sentido de la amistad.
+         * @param a Un usuario.
+         * @param b Otro usuario.
+         * @return La clave.
+         */
+        private static long pair(int a, int b) {
+            return a < b ? pack(a, b) : pack(b, a);
+        }
+    }
+}
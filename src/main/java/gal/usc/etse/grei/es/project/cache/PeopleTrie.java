@@ -0,0 +1,510 @@
+package gal.usc.etse.grei.es.project.cache;
+
+import gal.usc.etse.grei.es.project.model.Film;
+import gal.usc.etse.grei.es.project.model.Person;
+import gal.usc.etse.grei.es.project.service.FilmChangeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Clase PeopleTrie: árbol de prefijos en memoria con los nombres de las personas (de la colección de personas y
+ * de los repartos y equipos de las películas), para el autocompletado.
+ *
+ * Los nombres se normalizan (minúsculas, sin tildes y con las palabras separadas por un espacio) y se insertan
+ * empezando en cada una de sus palabras, de forma que "han" encuentra a "Tom Hanks". Cada nodo guarda las
+ * personas más populares (con más películas) de su subárbol, por lo que una sugerencia sólo tiene que recorrer
+ * los caracteres escritos. Esas listas no se modifican nunca: cada cambio las recalcula desde el nodo afectado
+ * hasta la raíz, por lo que las lecturas no necesitan bloqueos.
+ *
+ * El árbol se carga al arrancar, se mantiene con los eventos de MovieService y se recarga periódicamente;
+ * mientras no está cargado, los servicios deben consultar la base de datos (ver {@link #isReady()}).
+ *
+ * @author Manuel Bendaña
+ */
+@Component
+public class PeopleTrie {
+    //Logger de la clase:
+    private static final Logger log = LoggerFactory.getLogger(PeopleTrie.class);
+    //Número de personas que se guardan en cada nodo (máximo que se puede sugerir):
+    public static final int TOP = 20;
+    //Campos de las películas con personas:
+    private static final String[] FIELDS = {"cast.id", "cast.name", "crew.id", "crew.name"};
+    //Arrays vacíos, para los nodos sin personas y sin hijos:
+    private static final Entry[] NONE = new Entry[0];
+    private static final Node[] LEAF = new Node[0];
+    //Separadores de palabras y marcas diacríticas (para normalizar los nombres):
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    //Orden de las personas: de más a menos películas, y por nombre en caso de empate:
+    private static final Comparator<Entry> POPULARITY = Comparator.<Entry>comparingInt(entry -> -entry.films)
+            .thenComparing(entry -> entry.name);
+
+    //Referencia a MongoTemplate, para cargar las personas:
+    private final MongoTemplate mongoTemplate;
+    //Árbol actual (se reemplaza entero al recargar):
+    private volatile Trie trie = new Trie();
+    //Si el árbol está cargado:
+    private volatile boolean ready = false;
+    //Cambios recibidos durante una carga, que se aplican también al árbol nuevo (null si no se está cargando):
+    private List<Consumer<Trie>> pending;
+
+    /**
+     * Constructor de la clase
+     * @param mongoTemplate Referencia a MongoTemplate.
+     */
+    @Autowired
+    public PeopleTrie(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Método que carga el árbol al arrancar la aplicación.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        reload();
+    }
+
+    /**
+     * Método que recarga el árbol desde la base de datos, para corregir cualquier desviación (por ejemplo,
+     * cambios hechos por otras instancias o directamente sobre la base de datos).
+     */
+    @Scheduled(initialDelayString = "${people.trie.reload-interval:PT1H}",
+            fixedDelayString = "${people.trie.reload-interval:PT1H}")
+    public void reload() {
+        synchronized (this) {
+            //Si ya hay una carga en curso, no se inicia otra:
+            if(pending != null) return;
+            pending = new ArrayList<>();
+        }
+
+        Trie loaded = new Trie();
+        try {
+            //Primero las personas registradas, y después las de las películas (sólo los campos necesarios):
+            Query people = new Query();
+            people.fields().include("_id", "name");
+            try (CloseableIterator<Person> iterator = mongoTemplate.stream(people, Person.class)) {
+                while (iterator.hasNext()) {
+                    loaded.register(iterator.next());
+                }
+            }
+            Query films = new Query();
+            films.fields().include(FIELDS);
+            try (CloseableIterator<Film> iterator = mongoTemplate.stream(films, Film.class)) {
+                while (iterator.hasNext()) {
+                    loaded.count(iterator.next());
+                }
+            }
+            loaded.build();
+        } catch (DataAccessException e) {
+            log.error("People trie could not be loaded: {}", e.getMessage());
+            synchronized (this) {
+                pending = null;
+            }
+            return;
+        }
+
+        synchronized (this) {
+            //Aplicamos los cambios recibidos durante la carga y reemplazamos el árbol:
+            pending.forEach(change -> change.accept(loaded));
+            pending = null;
+            trie = loaded;
+            ready = true;
+        }
+        log.info("People trie loaded: {} people", loaded.entries.size());
+    }
+
+    /**
+     * Método que mantiene el árbol al día con los cambios de las películas.
+     * @param event El cambio.
+     */
+    @EventListener
+    public void onFilmChange(FilmChangeEvent event) {
+        change(current -> current.update(event.getId(), event.getFilm()));
+    }
+
+    /**
+     * Método que indica si el árbol está cargado y se puede consultar.
+     * @return True si el árbol está cargado.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Método que sugiere personas cuyo nombre (o alguna de sus palabras) empieza por el texto indicado. No se
+     * distinguen mayúsculas ni tildes.
+     *
+     * @param prefix El texto escrito.
+     * @param limit Número máximo de personas a devolver (como mucho, TOP).
+     * @return Las personas (con id, si se conoce, y nombre), de más a menos películas, o vacío si el árbol no está
+     *      cargado.
+     */
+    public Optional<List<Person>> suggest(String prefix, int limit) {
+        if(!ready) return Optional.empty();
+        String key = normalize(prefix);
+        if(key.isEmpty()) return Optional.of(Collections.emptyList());
+
+        //Bajamos por el árbol carácter a carácter; las personas del último nodo ya están ordenadas:
+        Node node = trie.root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.child(key.charAt(i));
+        }
+        if(node == null) return Optional.of(Collections.emptyList());
+
+        Entry[] top = node.top;
+        List<Person> people = new ArrayList<>(Math.min(limit, top.length));
+        for (int i = 0; i < top.length && i < limit; i++) {
+            people.add(new Person().setId(top[i].id).setName(top[i].name));
+        }
+        return Optional.of(people);
+    }
+
+    /**
+     * Método que aplica un cambio al árbol actual y, si se está cargando, lo guarda para el árbol nuevo.
+     * @param change El cambio.
+     */
+    private synchronized void change(Consumer<Trie> change) {
+        change.accept(trie);
+        if(pending != null) pending.add(change);
+    }
+
+    /**
+     * Método que normaliza un nombre: minúsculas, sin tildes y con las palabras separadas por un espacio.
+     * @param name El nombre.
+     * @return El nombre normalizado (vacío si no tiene ninguna palabra).
+     */
+    private static String normalize(String name) {
+        if(name == null) return "";
+        String plain = MARKS.matcher(Normalizer.normalize(name, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        return SEPARATORS.matcher(plain).replaceAll(" ").trim();
+    }
+
+    /**
+     * Método que obtiene las personas (sin repetir) del reparto y del equipo de una película.
+     * @param film La película.
+     * @return Las personas, por su nombre.
+     */
+    private static Map<String, String> people(Film film) {
+        Map<String, String> people = new HashMap<>();
+        List<Person> all = new ArrayList<>();
+        if(film.getCast() != null) all.addAll(film.getCast());
+        if(film.getCrew() != null) all.addAll(film.getCrew());
+        for (Person person : all) {
+            if(person != null && person.getName() != null && !normalize(person.getName()).isEmpty()) {
+                //Se guarda el primer id conocido de cada nombre:
+                String id = people.get(person.getName());
+                people.put(person.getName(), id != null ? id : person.getId());
+            }
+        }
+        return people;
+    }
+
+    /**
+     * Clase auxiliar con los datos de una persona del árbol.
+     */
+    private static class Entry {
+        private final String name;
+        private volatile String id;
+        //Número de películas en las que aparece:
+        private int films;
+        //Si está en la colección de personas (en ese caso se mantiene aunque no tenga películas):
+        private boolean registered;
+
+        private Entry(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Clase auxiliar con un nodo del árbol. Los hijos se guardan en un array ordenado por su carácter (más compacto
+     * que un mapa), que se copia en cada cambio.
+     */
+    private static class Node {
+        //Carácter del nodo:
+        private final char label;
+        //Hijos, ordenados por su carácter:
+        private volatile Node[] children = LEAF;
+        //Personas cuyo nombre (desde alguna de sus palabras) termina en este nodo (null si no hay ninguna):
+        private Set<Entry> own;
+        //Personas más populares del subárbol, ordenadas:
+        private volatile Entry[] top = NONE;
+
+        private Node(char label) {
+            this.label = label;
+        }
+
+        /**
+         * Método que busca un hijo.
+         * @param c El carácter del hijo.
+         * @return El hijo, o null si no existe.
+         */
+        private Node child(char c) {
+            Node[] current = children;
+            int position = position(current, c);
+            return position >= 0 ? current[position] : null;
+        }
+
+        /**
+         * Método que devuelve un hijo, creándolo si no existe.
+         * @param c El carácter del hijo.
+         * @return El hijo.
+         */
+        private Node addChild(char c) {
+            Node[] current = children;
+            int position = position(current, c);
+            if(position >= 0) return current[position];
+            position = -position - 1;
+            Node child = new Node(c);
+            Node[] updated = new Node[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, position);
+            updated[position] = child;
+            System.arraycopy(current, position, updated, position + 1, current.length - position);
+            children = updated;
+            return child;
+        }
+
+        /**
+         * Método que quita un hijo.
+         * @param c El carácter del hijo.
+         */
+        private void removeChild(char c) {
+            Node[] current = children;
+            int position = position(current, c);
+            if(position < 0) return;
+            Node[] updated = new Node[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, position);
+            System.arraycopy(current, position + 1, updated, position, current.length - position - 1);
+            children = updated;
+        }
+
+        /**
+         * Método que recalcula las personas más populares del nodo a partir de las suyas y las de sus hijos.
+         * Una misma persona puede llegar por varios hijos (desde distintas palabras de su nombre).
+         */
+        private void recompute() {
+            Node[] current = children;
+            //Si el nodo sólo tiene un hijo y ninguna persona propia, comparte la lista del hijo:
+            if(own == null && current.length == 1) {
+                top = current[0].top;
+                return;
+            }
+            Set<Entry> candidates = own == null ? new HashSet<>() : new HashSet<>(own);
+            for (Node child : current) {
+                candidates.addAll(Arrays.asList(child.top));
+            }
+            List<Entry> sorted = new ArrayList<>(candidates);
+            sorted.sort(POPULARITY);
+            top = sorted.subList(0, Math.min(TOP, sorted.size())).toArray(NONE);
+        }
+
+        /**
+         * Método que indica si el nodo se puede quitar del árbol.
+         * @return True si no tiene hijos ni personas.
+         */
+        private boolean isEmpty() {
+            return children.length == 0 && own == null;
+        }
+
+        /**
+         * Método que busca la posición de un carácter entre los hijos.
+         * @param nodes Los hijos.
+         * @param c El carácter.
+         * @return La posición, o (-(posición de inserción) - 1) si no está.
+         */
+        private static int position(Node[] nodes, char c) {
+            int low = 0;
+            int high = nodes.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char label = nodes[middle].label;
+                if(label < c) low = middle + 1;
+                else if(label > c) high = middle - 1;
+                else return middle;
+            }
+            return -(low + 1);
+        }
+    }
+
+    /**
+     * Clase auxiliar con los datos del árbol. Las lecturas se pueden hacer en cualquier momento; las escrituras
+     * deben estar sincronizadas.
+     */
+    private static class Trie {
+        //Raíz del árbol:
+        private final Node root = new Node(' ');
+        //Personas, por su nombre:
+        private final Map<String, Entry> entries = new HashMap<>();
+        //Personas de cada película (para los cambios), por el id de la película:
+        private final Map<String, Set<String>> films = new HashMap<>();
+
+        /**
+         * Método que añade una persona de la colección de personas (durante la carga).
+         * @param person La persona.
+         */
+        private void register(Person person) {
+            if(person.getName() == null || normalize(person.getName()).isEmpty()) return;
+            Entry entry = entries.computeIfAbsent(person.getName(), Entry::new);
+            entry.registered = true;
+            if(person.getId() != null) entry.id = person.getId();
+        }
+
+        /**
+         * Método que cuenta las personas de una película (durante la carga).
+         * @param film La película.
+         */
+        private void count(Film film) {
+            if(film.getId() == null) return;
+            Map<String, String> people = people(film);
+            people.forEach((name, id) -> {
+                Entry entry = entries.computeIfAbsent(name, Entry::new);
+                entry.films++;
+                if(entry.id == null) entry.id = id;
+            });
+            films.put(film.getId(), people.keySet());
+        }
+
+        /**
+         * Método que inserta todas las personas contadas (al terminar la carga), calculando las listas de cada
+         * nodo una única vez.
+         */
+        private void build() {
+            for (Entry entry : entries.values()) {
+                for (String key : keys(entry.name)) {
+                    Node node = root;
+                    for (int i = 0; i < key.length(); i++) {
+                        node = node.addChild(key.charAt(i));
+                    }
+                    if(node.own == null) node.own = new HashSet<>();
+                    node.own.add(entry);
+                }
+            }
+            recomputeAll(root);
+        }
+
+        /**
+         * Método que recalcula las listas de un subárbol, empezando por las hojas.
+         * @param node La raíz del subárbol.
+         */
+        private void recomputeAll(Node node) {
+            for (Node child : node.children) {
+                recomputeAll(child);
+            }
+            node.recompute();
+        }
+
+        /**
+         * Método que aplica el cambio de una película: se restan las personas que ya no aparecen en ella y se
+         * suman las nuevas.
+         * @param filmId El id de la película.
+         * @param film Los datos de la película tras el cambio (null si se ha borrado).
+         */
+        private void update(String filmId, Film film) {
+            Set<String> before = films.getOrDefault(filmId, Collections.emptySet());
+            Map<String, String> after = film == null ? Collections.emptyMap() : people(film);
+
+            for (String name : before) {
+                if(!after.containsKey(name)) adjust(name, null, -1);
+            }
+            after.forEach((name, id) -> {
+                if(!before.contains(name)) adjust(name, id, 1);
+            });
+
+            if(film == null) films.remove(filmId);
+            else films.put(filmId, after.keySet());
+        }
+
+        /**
+         * Método que cambia el número de películas de una persona y actualiza los nodos de sus nombres.
+         * @param name El nombre.
+         * @param id El id de la persona (si se conoce).
+         * @param delta La variación del número de películas.
+         */
+        private void adjust(String name, String id, int delta) {
+            Entry entry = entries.get(name);
+            boolean added = entry == null;
+            if(added) {
+                if(delta < 0) return;
+                entry = new Entry(name);
+                entries.put(name, entry);
+            }
+            if(entry.id == null) entry.id = id;
+            entry.films = Math.max(0, entry.films + delta);
+            //Las personas que no están registradas y ya no tienen películas se quitan:
+            boolean removed = entry.films == 0 && !entry.registered;
+            if(removed) entries.remove(name);
+
+            for (String key : keys(name)) {
+                //Recorremos el camino del nombre, creándolo si la persona es nueva:
+                Node[] path = new Node[key.length() + 1];
+                path[0] = root;
+                for (int i = 0; i < key.length(); i++) {
+                    Node next = added ? path[i].addChild(key.charAt(i)) : path[i].child(key.charAt(i));
+                    if(next == null) break;
+                    path[i + 1] = next;
+                }
+                Node last = path[key.length()];
+                if(last == null) continue;
+                if(added) {
+                    if(last.own == null) last.own = new HashSet<>();
+                    last.own.add(entry);
+                }
+                if(removed && last.own != null) {
+                    last.own.remove(entry);
+                    if(last.own.isEmpty()) last.own = null;
+                }
+
+                //Recalculamos las listas desde el final del nombre hasta la raíz, quitando los nodos vacíos:
+                for (int i = key.length(); i >= 0; i--) {
+                    if(i > 0 && path[i].isEmpty()) {
+                        path[i - 1].removeChild(key.charAt(i - 1));
+                    } else {
+                        path[i].recompute();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Método que genera las claves con las que se inserta un nombre: el nombre normalizado a partir de cada
+         * una de sus palabras.
+         * @param name El nombre.
+         * @return Las claves.
+         */
+        private static List<String> keys(String name) {
+            String normalized = normalize(name);
+            List<String> keys = new ArrayList<>();
+            if(normalized.isEmpty()) return keys;
+            keys.add(normalized);
+            for (int i = normalized.indexOf(' '); i >= 0; i = normalized.indexOf(' ', i + 1)) {
+                keys.add(normalized.substring(i + 1));
+            }
+            return keys;
+        }
+    }
+}
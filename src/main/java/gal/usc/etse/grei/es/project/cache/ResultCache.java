@@ -0,0 +1,92 @@
+package gal.usc.etse.grei.es.project.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import gal.usc.etse.grei.es.project.model.Film;
+import gal.usc.etse.grei.es.project.service.FilmChangeEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Clase ResultCache: caché en memoria de los listados de películas (páginas con su total), para no repetir las
+ * búsquedas idénticas de distintos clientes.
+ *
+ * Las entradas se identifican por los criterios normalizados de la búsqueda y por una versión global de las
+ * películas, que se incrementa con cada escritura (películas y valoraciones). Así, tras un cambio, las búsquedas
+ * usan claves nuevas y las entradas antiguas dejan de usarse hasta que se expulsan (por tamaño o caducidad).
+ *
+ * @author Manuel Bendaña
+ */
+@Component
+public class ResultCache {
+    //Caché de listados por clave (versión y criterios):
+    private final Cache<String, Slice<Film>> results;
+    //Versión de las películas:
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Constructor de la clase
+     * @param ttl Tiempo máximo durante el que se mantiene un listado en caché.
+     * @param maxWeight Peso máximo de la caché (suma del número de películas de los listados almacenados).
+     * @param registry Registro de métricas en el que se publican las estadísticas de la caché.
+     */
+    @Autowired
+    public ResultCache(@Value("${movies.results.ttl:PT1M}") Duration ttl,
+                       @Value("${movies.results.max-weight:100000}") long maxWeight,
+                       MeterRegistry registry) {
+        this.results = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((String key, Slice<Film> slice) -> 1 + slice.getNumberOfElements())
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, results, "movie-results");
+    }
+
+    /**
+     * Método que devuelve la versión actual de las películas, para incluirla en las claves de otras cachés que
+     * dependan de ellas.
+     * @return La versión.
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Método que devuelve un listado de la caché, recuperándolo con la función indicada si no está.
+     *
+     * @param key Clave que identifica la búsqueda (criterios normalizados, ordenación y página).
+     * @param loader Función que realiza la búsqueda.
+     * @return El listado.
+     */
+    public Slice<Film> get(String key, Supplier<Slice<Film>> loader) {
+        //La versión se lee antes de buscar: si hay un cambio mientras tanto, el resultado queda en la versión
+        //anterior y no lo ve ninguna búsqueda posterior al cambio:
+        return results.get(version.get() + ":" + key, k -> loader.get());
+    }
+
+    /**
+     * Método que invalida todos los listados almacenados tras una escritura de películas.
+     */
+    public void bump() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Método que invalida los listados al insertar, modificar o borrar una película.
+     * @param event El cambio de la película.
+     */
+    @EventListener
+    public void onFilmChange(FilmChangeEvent event) {
+        bump();
+    }
+}
@@ -0,0 +1,67 @@
+package gal.usc.etse.grei.es.project.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Clase UserDetailsCache: caché en memoria de los datos de inicio de sesión de los usuarios (contraseña
+ * codificada y roles), para no consultar la base de datos en cada login.
+ *
+ * Los datos se invalidan al modificar o borrar el usuario, y caducan pasado un tiempo en cualquier caso. Spring
+ * borra la contraseña de los datos del usuario tras autenticarlo, por lo que la caché nunca entrega los objetos
+ * que almacena, sino copias.
+ *
+ * @author Manuel Bendaña
+ */
+@Component
+public class UserDetailsCache {
+    //Caché de datos de inicio de sesión por id (email) del usuario:
+    private final Cache<String, UserDetails> details;
+
+    /**
+     * Constructor de la clase
+     * @param ttl Tiempo máximo durante el que se mantienen los datos de un usuario en caché.
+     * @param maxEntries Número máximo de usuarios almacenados.
+     * @param registry Registro de métricas en el que se publican las estadísticas de la caché.
+     */
+    @Autowired
+    public UserDetailsCache(@Value("${users.details.ttl:PT10M}") Duration ttl,
+                            @Value("${users.details.max-entries:10000}") long maxEntries,
+                            MeterRegistry registry) {
+        this.details = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, details, "user-details");
+    }
+
+    /**
+     * Método que devuelve los datos de un usuario de la caché, recuperándolos con la función indicada si no están.
+     *
+     * @param username El id del usuario.
+     * @param loader Función que recupera los datos de la base de datos (lanza una excepción si no existe).
+     * @return Una copia de los datos del usuario.
+     */
+    public UserDetails get(String username, Function<String, UserDetails> loader) {
+        return User.withUserDetails(details.get(username, loader)).build();
+    }
+
+    /**
+     * Método que invalida los datos de un usuario (al modificarlo o borrarlo).
+     * @param username El id del usuario.
+     */
+    public void evict(String username) {
+        details.invalidate(username);
+    }
+}
@@ -0,0 +1,36 @@
+package gal.usc.etse.grei.es.project.configuration;
+
+import gal.usc.etse.grei.es.project.utilities.AdaptivePasswordEncoder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+
+/**
+ * Clase para la configuración de la codificación y la comprobación de las contraseñas.
+ *
+ * @author Manuel Bendaña
+ */
+@Configuration
+public class PasswordConfiguration {
+
+    /**
+     * Método que permite crear el encoder de contraseñas: BCrypt con el coste configurado, y con las
+     * comprobaciones de las contraseñas en un conjunto acotado de hilos.
+     * @param strength Coste de BCrypt.
+     * @param threads Número de hilos para las comprobaciones (0 para usar uno por procesador).
+     * @param queue Número máximo de comprobaciones en espera.
+     * @param timeout Tiempo máximo de espera de cada comprobación.
+     * @return El encoder creado.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public PasswordEncoder passwordEncoder(@Value("${security.bcrypt.strength:10}") int strength,
+                                           @Value("${security.bcrypt.threads:0}") int threads,
+                                           @Value("${security.bcrypt.queue:64}") int queue,
+                                           @Value("${security.bcrypt.timeout:PT5S}") Duration timeout) {
+        return new AdaptivePasswordEncoder(strength,
+                threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), queue, timeout);
+    }
+}
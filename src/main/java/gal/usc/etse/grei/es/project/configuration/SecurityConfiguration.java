@@ -3,9 +3,10 @@ package gal.usc.etse.grei.es.project.configuration;
 import gal.usc.etse.grei.es.project.filter.AuthenticationFilter;
 import gal.usc.etse.grei.es.project.filter.AuthorizationFilter;
 import gal.usc.etse.grei.es.project.service.AuthenticationService;
-import io.jsonwebtoken.SignatureAlgorithm;
-import io.jsonwebtoken.security.Keys;
+import gal.usc.etse.grei.es.project.service.TokenService;
+import gal.usc.etse.grei.es.project.utilities.LoginRateLimiter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.access.hierarchicalroles.RoleHierarchy;
@@ -18,11 +19,9 @@ import org.springframework.security.config.annotation.web.builders.WebSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.config.http.SessionCreationPolicy;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.access.expression.DefaultWebSecurityExpressionHandler;
 
-import java.security.Key;
 import java.util.*;
 
 /**
@@ -36,26 +35,44 @@ import java.util.*;
 @EnableGlobalMethodSecurity(prePostEnabled = true)
 public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
     private final AuthenticationService auth;
-    private static final Key key = Keys.secretKeyFor(SignatureAlgorithm.HS512);
+    //Encoder de contraseñas (ver PasswordConfiguration):
+    private final PasswordEncoder encoder;
+    //Servicio de emisión y comprobación de los tokens:
+    private final TokenService tokens;
+    //Número máximo de tokens ya verificados que se mantienen en memoria:
+    private final long verifiedTokens;
+    //Límite de intentos de inicio de sesión:
+    private final LoginRateLimiter limiter;
 
     /**
      * Constructor de la clase
      * @param auth Referencia al servicio de autenticación:
+     * @param encoder Referencia al encoder de contraseñas.
+     * @param tokens Referencia al servicio de tokens.
+     * @param verifiedTokens Número máximo de tokens ya verificados que se mantienen en memoria.
+     * @param limiter Referencia al límite de intentos de inicio de sesión.
      */
     @Autowired
-    public SecurityConfiguration(AuthenticationService auth) {
+    public SecurityConfiguration(AuthenticationService auth, PasswordEncoder encoder, TokenService tokens,
+                                 @Value("${security.tokens.verified-cache:10000}") long verifiedTokens,
+                                 LoginRateLimiter limiter) {
         this.auth = auth;
+        this.encoder = encoder;
+        this.tokens = tokens;
+        this.verifiedTokens = verifiedTokens;
+        this.limiter = limiter;
     }
 
     /**
      * Método que permite establecer el servicio que se empleará para obtener los
-     * detalles del usuario: el PasswordEncoder que emplearemos
+     * detalles del usuario: el PasswordEncoder que emplearemos. Como el servicio permite actualizar las
+     * contraseñas, las que tengan otro coste se vuelven a codificar al iniciar sesión.
      * @param auth
      * @throws Exception
      */
     @Override
     protected void configure(AuthenticationManagerBuilder auth) throws Exception {
-        auth.userDetailsService(this.auth).passwordEncoder(passwordEncoder());
+        auth.userDetailsService(this.auth).passwordEncoder(encoder);
     }
 
     /**
@@ -80,21 +97,16 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
                 //Indicamos que por defecto permitimos el acceso de cualquiera (any) a todos los servizos
                 .authorizeRequests().anyRequest().permitAll()
                 .and()
-                //Añadimos nuestros filtros (authentication y authorization) a la cadena de filtros de las llamadas.
-                .addFilter(new AuthenticationFilter(authenticationManager(), tokenSignKey()))
-                .addFilter(new AuthorizationFilter(authenticationManager(), tokenSignKey()))
+                //Añadimos el filtro de authorization a la cadena de filtros de las llamadas:
+                .addFilter(new AuthorizationFilter(authenticationManager(), tokens, verifiedTokens))
                 //Especificamos que queremos sesións sin estado (pues REST, por definición, carece de estado)
                 .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS);
-    }
 
-    /**
-     * Método que permite crear una instancia del algoritmo BCrypt para emplear como
-     * encoder de contraseñas.
-     * @return El encoder creado.
-     */
-    @Bean
-    public PasswordEncoder passwordEncoder(){
-        return new BCryptPasswordEncoder();
+        //El de authentication (login) sólo en las instancias que emiten tokens. En las que sólo los verifican,
+        //el login llega al controlador, que lo rechaza:
+        if(tokens.canSign()) {
+            http.addFilter(new AuthenticationFilter(authenticationManager(), tokens, limiter));
+        }
     }
 
     /**
@@ -115,13 +127,4 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
         //La devolvemos:
         return hierarchy;
     }
-
-    /**
-     * Método que permite generar una clave de firmado aleatoria para el algoritmo SHA512.
-     * @return La clave generada.
-     */
-    @Bean
-    public Key tokenSignKey() {
-        return SecurityConfiguration.key;
-    }
 }
@@ -8,6 +8,9 @@ import gal.usc.etse.grei.es.project.model.User;
 import gal.usc.etse.grei.es.project.model.validation.createValidation;
 import gal.usc.etse.grei.es.project.service.AssessmentService;
 import gal.usc.etse.grei.es.project.utilities.Constants;
+import gal.usc.etse.grei.es.project.utilities.LinkTemplate;
+import gal.usc.etse.grei.es.project.utilities.LinkTemplates;
+import gal.usc.etse.grei.es.project.utilities.VersionUtils;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.headers.Header;
@@ -34,9 +37,6 @@ import java.net.URI;
 import java.util.List;
 import java.util.Map;
 
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
-
 /**
  * Clase AssessmentController -> Uri para llegar: /assessments
  * Gestión de peticiones específicas de comentarios.
@@ -52,16 +52,31 @@ public class AssessmentController {
     private final AssessmentService assessments;
     //Referencia a un linkrelationprovider para los hateoas
     private final LinkRelationProvider relationProvider;
+    //Referencia a las utilidades de versiones (ETags y peticiones condicionales):
+    private final VersionUtils versions;
+    //Plantillas de los enlaces devueltos (resueltas una única vez):
+    private final LinkTemplate commentLink;
+    private final LinkTemplate movieLink;
+    private final LinkTemplate movieCommentsLink;
+    private final LinkTemplate userCommentsLink;
 
     /**
      * Constructor de la clase
      * @param assessments Referencia al servicio de comentarios.
      * @param relationProvider Referencia al objeto LinkRelationProvider
+     * @param links Registro de plantillas de enlaces
+     * @param versions Utilidades de versiones (ETags y peticiones condicionales)
      */
     @Autowired
-    public AssessmentController(AssessmentService assessments, LinkRelationProvider relationProvider) {
+    public AssessmentController(AssessmentService assessments, LinkRelationProvider relationProvider,
+                                LinkTemplates links, VersionUtils versions) {
         this.assessments = assessments;
         this.relationProvider = relationProvider;
+        this.versions = versions;
+        this.commentLink = links.of(AssessmentController.class, "modifyComment", "commentId");
+        this.movieLink = links.of(MovieController.class, "get", "id");
+        this.movieCommentsLink = links.of(MovieController.class, "getComments", "id");
+        this.userCommentsLink = links.of(UserController.class, "getUserComments", "id");
     }
 
     /**
@@ -179,13 +194,14 @@ public class AssessmentController {
         Assessment comment = assessments.addComment(assessment);
         //Preparamos enlaces para devolver
         //A la pelicula:
-        Link film = linkTo(methodOn(MovieController.class).get(comment.getMovie().getId()))
+        Link film = movieLink.with("id", comment.getMovie().getId())
                 .withRel(relationProvider.getItemResourceRelFor(Film.class));
         //A los comentarios de la película:
-        Link all = linkTo(methodOn(MovieController.class).getComments(0, 20, null, comment.getMovie().getId()))
+        Link all = movieCommentsLink.with("id", comment.getMovie().getId()).with("page", 0).with("size", 20)
                 .withRel(relationProvider.getCollectionResourceRelFor(Assessment.class));
         //Devolvemos un estado Created con los datos del comentario añadido y los enlaces
         return ResponseEntity.created(URI.create(Constants.URL + "/comments/" + assessment.getId()))
+                .eTag(versions.etag(comment.getVersion()))
                 .header(HttpHeaders.LINK, film.toString())
                 .header(HttpHeaders.LINK, all.toString())
                 .body(comment);
@@ -200,6 +216,7 @@ public class AssessmentController {
      *      del usuario.
      *
      * @param commentId El identificador del comentario que se quiere modificar.
+     * @param ifMatch ETag del comentario que se quiere modificar (opcional). Si no coincide, no se modifica.
      * @param updates El comentario a modificar.
      * @return El comentario modificado, tal y como ha quedado almacenado.
      */
@@ -224,6 +241,11 @@ public class AssessmentController {
                             schema = @Schema(implementation = Assessment.class)
                     ),
                     headers = {
+                            @Header(
+                                    name = "ETag",
+                                    description = "New version of the comment",
+                                    schema = @Schema(type = "string")
+                            ),
                             @Header(
                                     name = "Self comment",
                                     description = "HATEOAS Self Link",
@@ -270,6 +292,14 @@ public class AssessmentController {
                             schema = @Schema(implementation = ErrorObject.class)
                     )
             ),
+            @ApiResponse(
+                    responseCode = "412",
+                    description = "The comment has been modified since the If-Match version",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            ),
             @ApiResponse(
                     responseCode = "419",
                     description = "Token Expired",
@@ -290,6 +320,8 @@ public class AssessmentController {
     ResponseEntity<Assessment> modifyComment(
             @Parameter(name = "id", description = "Comment to modify id", example = "607416fb7e2a243f8c0c6c0c")
             @PathVariable("commentId") String commentId,
+            @Parameter(name = "If-Match", description = "ETag of the comment to modify (optional)", example = "\"3\"")
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
             @io.swagger.v3.oas.annotations.parameters.RequestBody(
                     description = "Modifications to movie list",
                     content = @Content(
@@ -301,24 +333,25 @@ public class AssessmentController {
             )
             @RequestBody List<Map<String, Object>> updates
     ){
-        //Se intenta hacer la actualización y se devuelve el resultado:
-        Assessment assessment = assessments.modifyComment(commentId, updates);
+        //Se intenta hacer la actualización (sólo si el comentario sigue en la versión indicada) y se devuelve el
+        //resultado:
+        Assessment assessment = assessments.modifyComment(commentId, updates, versions.expected(ifMatch));
 
         //Se elaboran los enlaces:
         //A si mismo:
-        Link self = linkTo(methodOn(AssessmentController.class).modifyComment(commentId, updates)).withSelfRel();
+        Link self = commentLink.with("commentId", commentId).withSelfRel();
 
         //A los comentarios de la película:
-        Link filmComments = linkTo(methodOn(MovieController.class).getComments(0, 20, null,
-                assessment.getMovie().getId()))
+        Link filmComments = movieCommentsLink.with("id", assessment.getMovie().getId()).with("page", 0).with("size", 20)
                 .withRel(relationProvider.getCollectionResourceRelFor(Assessment.class));
 
         //A la lista de comentarios del usuario:
-        Link userComments = linkTo(methodOn(UserController.class).getUserComments(0, 20, null,
-                assessment.getUser().getEmail()))
+        Link userComments = userCommentsLink.with("id", assessment.getUser().getEmail())
+                .with("page", 0).with("size", 20)
                 .withRel(relationProvider.getCollectionResourceRelFor(Assessment.class));
 
         return ResponseEntity.ok()
+                .eTag(versions.etag(assessment.getVersion()))
                 .header(HttpHeaders.LINK, self.toString())
                 .header(HttpHeaders.LINK, filmComments.toString())
                 .header(HttpHeaders.LINK, userComments.toString())
@@ -406,11 +439,11 @@ public class AssessmentController {
 
         //Se preparan los enlaces:
         //A los comentarios de la película:
-        Link filmComments = linkTo(methodOn(MovieController.class).getComments(0, 20, null, movieId))
+        Link filmComments = movieCommentsLink.with("id", movieId).with("page", 0).with("size", 20)
                 .withRel(relationProvider.getCollectionResourceRelFor(Assessment.class));
 
         //A la lista de comentarios del usuario:
-        Link userComments = linkTo(methodOn(UserController.class).getUserComments(0, 20, null, user))
+        Link userComments = userCommentsLink.with("id", user).with("page", 0).with("size", 20)
                 .withRel(relationProvider.getCollectionResourceRelFor(Assessment.class));
 
         //Se devuelve una respuesta correcta vacía (si se llega a este punto se pudo ejecutar el borrado):
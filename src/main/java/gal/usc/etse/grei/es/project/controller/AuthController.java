@@ -1,16 +1,27 @@
 package gal.usc.etse.grei.es.project.controller;
 
+import gal.usc.etse.grei.es.project.errorManagement.ErrorObject;
+import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
+import gal.usc.etse.grei.es.project.errorManagement.exceptions.ServiceUnavailableException;
+import gal.usc.etse.grei.es.project.filter.AuthenticationFilter;
+import gal.usc.etse.grei.es.project.service.TokenService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.headers.Header;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletResponse;
 import java.util.Map;
 
 /**
@@ -24,26 +35,78 @@ import java.util.Map;
 @RequestMapping("/login")
 @Tag(name = "Authentication API", description = "Authentication operations")
 public class AuthController {
+    //Referencia al servicio de tokens:
+    private final TokenService tokens;
+
+    /**
+     * Constructor de la clase
+     * @param tokens Referencia al servicio de tokens.
+     */
+    @Autowired
+    public AuthController(TokenService tokens) {
+        this.tokens = tokens;
+    }
+
     /**
-     * Método que representa al inicio de sesión que se puede realizar en la aplicación.
+     * Método que representa al inicio de sesión que se puede realizar en la aplicación. El login lo atiende el
+     * filtro de autenticación, por lo que sólo se llega aquí en las instancias que no emiten tokens.
      * @param userpass Credenciales de acceso.
      */
     @PostMapping()
     @Operation(
             operationId = "login",
             summary = "login",
-            description = "Login with username and password to obtain a JWT token."
+            description = "Login with username and password to obtain a short-lived JWT token and a refresh " +
+                    "token, which can be exchanged for new tokens without sending the password again."
     )
     @ApiResponses({
             @ApiResponse(
                     responseCode = "200",
                     description = "Valid credentials - JWT token returned",
-                    content = @Content
+                    content = @Content,
+                    headers = {
+                            @Header(
+                                    name = "Authentication",
+                                    description = "JWT access token (Bearer)",
+                                    schema = @Schema(type = "string")
+                            ),
+                            @Header(
+                                    name = "Refresh-Token",
+                                    description = "Single-use refresh token",
+                                    schema = @Schema(type = "string")
+                            ),
+                            @Header(
+                                    name = "Expires-In",
+                                    description = "Lifetime of the access token, in seconds",
+                                    schema = @Schema(type = "integer")
+                            )
+                    }
             ),
             @ApiResponse(
                     responseCode = "401",
                     description = "Invalid credentials",
                     content = @Content
+            ),
+            @ApiResponse(
+                    responseCode = "429",
+                    description = "Too many login attempts from the client or for the user",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    ),
+                    headers = @Header(
+                            name = "Retry-After",
+                            description = "Seconds until a new attempt is allowed",
+                            schema = @Schema(type = "integer")
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "503",
+                    description = "This instance only verifies tokens, or too many logins in progress",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
             )
     })
     public void login(
@@ -57,5 +120,102 @@ public class AuthController {
                     )
             )
             @RequestBody Map<String, String> userpass
-    ) { }
+    ) {
+        throw new ServiceUnavailableException(ErrorType.SERVICE_UNAVAILABLE, "This instance does not issue tokens.");
+    }
+
+    /**
+     * Método que permite obtener nuevos tokens a partir de un token de refresco, sin volver a enviar la contraseña.
+     * @param refreshToken El token de refresco (deja de ser válido).
+     * @param response Respuesta HTTP, en la que se añaden los nuevos tokens.
+     * @return Respuesta vacía con los nuevos tokens en las cabeceras.
+     */
+    @PostMapping(path = "/refresh")
+    @Operation(
+            operationId = "refresh",
+            summary = "Refresh the tokens",
+            description = "Exchange a refresh token for a new JWT token and a new refresh token. The refresh " +
+                    "token can only be used once."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Valid refresh token - new tokens returned",
+                    content = @Content,
+                    headers = {
+                            @Header(
+                                    name = "Authentication",
+                                    description = "JWT access token (Bearer)",
+                                    schema = @Schema(type = "string")
+                            ),
+                            @Header(
+                                    name = "Refresh-Token",
+                                    description = "New single-use refresh token",
+                                    schema = @Schema(type = "string")
+                            ),
+                            @Header(
+                                    name = "Expires-In",
+                                    description = "Lifetime of the access token, in seconds",
+                                    schema = @Schema(type = "integer")
+                            )
+                    }
+            ),
+            @ApiResponse(
+                    responseCode = "401",
+                    description = "Invalid, expired or revoked refresh token",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "503",
+                    description = "This instance only verifies tokens",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            )
+    })
+    public ResponseEntity<Void> refresh(
+            @RequestHeader(name = AuthenticationFilter.REFRESH_TOKEN, required = false) String refreshToken,
+            HttpServletResponse response
+    ) {
+        //Se canjea el token y se añaden los nuevos a la respuesta:
+        AuthenticationFilter.addTokenHeaders(response, tokens.refresh(refreshToken));
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * Método que permite revocar un token de refresco (cerrar la sesión).
+     * @param refreshToken El token de refresco.
+     * @return Respuesta vacía.
+     */
+    @PostMapping(path = "/revoke")
+    @Operation(
+            operationId = "revoke",
+            summary = "Revoke a refresh token",
+            description = "Revoke a refresh token, so that it cannot be used again (logout)."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "204",
+                    description = "Refresh token revoked",
+                    content = @Content
+            ),
+            @ApiResponse(
+                    responseCode = "401",
+                    description = "Invalid, expired or already revoked refresh token",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            )
+    })
+    public ResponseEntity<Void> revoke(
+            @RequestHeader(name = AuthenticationFilter.REFRESH_TOKEN, required = false) String refreshToken
+    ) {
+        tokens.revoke(refreshToken);
+        return ResponseEntity.noContent().build();
+    }
 }
@@ -5,6 +5,9 @@ import gal.usc.etse.grei.es.project.model.Friendship;
 import gal.usc.etse.grei.es.project.model.User;
 import gal.usc.etse.grei.es.project.service.FriendshipService;
 import gal.usc.etse.grei.es.project.utilities.Constants;
+import gal.usc.etse.grei.es.project.utilities.LinkTemplate;
+import gal.usc.etse.grei.es.project.utilities.LinkTemplates;
+import gal.usc.etse.grei.es.project.utilities.VersionUtils;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.headers.Header;
@@ -19,6 +22,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.hateoas.Link;
 import org.springframework.hateoas.server.LinkRelationProvider;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -31,9 +35,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
-
 /**
  * Clase FriendshipController -> Url para llegar: /friendships.
  * Gestión de las peticiones relativas a las amistades de usuarios.
@@ -48,17 +49,30 @@ public class FriendshipController {
     private final FriendshipService friends;
     //Referencia a un linkrelationprovider para los hateoas
     private final LinkRelationProvider relationProvider;
+    //Referencia a las utilidades de versiones (ETags y peticiones condicionales):
+    private final VersionUtils versions;
+    //Plantillas de los enlaces devueltos (resueltas una única vez):
+    private final LinkTemplate friendshipLink;
+    private final LinkTemplate userFriendshipsLink;
+    private final LinkTemplate userLink;
 
     /**
      * Constructor de la clase
      *
      * @param friends Instrancia de la clase FriendService
      * @param relationProvider Instancia de la clase LinkRelationProvider
+     * @param links Registro de plantillas de enlaces
+     * @param versions Utilidades de versiones (ETags y peticiones condicionales)
      */
     @Autowired
-    public FriendshipController(FriendshipService friends, LinkRelationProvider relationProvider) {
+    public FriendshipController(FriendshipService friends, LinkRelationProvider relationProvider,
+                                LinkTemplates links, VersionUtils versions) {
         this.friends = friends;
         this.relationProvider = relationProvider;
+        this.versions = versions;
+        this.friendshipLink = links.of(FriendshipController.class, "getFriendship", "id");
+        this.userFriendshipsLink = links.of(UserController.class, "getUserFriendships", "id");
+        this.userLink = links.of(UserController.class, "get", "id");
     }
 
     /**
@@ -172,13 +186,14 @@ public class FriendshipController {
         Friendship inserted = friends.addFriend(friendship);
         //Si el método termina correctamente, se preparan los enlaces y se devuelve un estado ok:
         //Enlace a la propia amistad:
-        Link self = linkTo(methodOn(FriendshipController.class).getFriendship(friendship.getId())).withSelfRel();
+        Link self = friendshipLink.with("id", friendship.getId()).withSelfRel();
         //Enlace a todas las amistades de ese usuario:
-        Link all = linkTo(methodOn(UserController.class).getUserFriendships(0, 20, null, friendship.getUser()))
+        Link all = userFriendshipsLink.with("id", friendship.getUser()).with("page", 0).with("size", 20)
                 .withRel(relationProvider.getCollectionResourceRelFor(Friendship.class));
         //Se devuelven los datos adecuados:
         return ResponseEntity.created(URI.create(Constants.URL + "/friendships/"
                 + inserted.getId()))
+                .eTag(versions.etag(inserted.getVersion()))
                 .header(HttpHeaders.LINK, self.toString())
                 .header(HttpHeaders.LINK, all.toString())
                 .body(inserted);
@@ -256,8 +271,8 @@ public class FriendshipController {
         friends.deleteFriend(id);
         //Si termina el método, es que se ha borrado correctamente. Se prepara el enlace a la lista de todos los amigos
         //del usuario.
-        Link all = linkTo(methodOn(UserController.class).getUserFriendships(0, 20, null,
-                SecurityContextHolder.getContext().getAuthentication().getName()))
+        Link all = userFriendshipsLink.with("id", SecurityContextHolder.getContext().getAuthentication().getName())
+                .with("page", 0).with("size", 20)
                 .withRel(relationProvider.getCollectionResourceRelFor(Friendship.class));
         //Si el método finaliza correctamente, se devuelve un noContent:
         return ResponseEntity.noContent()
@@ -275,6 +290,7 @@ public class FriendshipController {
      *      usuario y al perfil del amigo.
      *
      * @param id El id de la amistad.
+     * @param ifNoneMatch ETag de la amistad que ya tiene el cliente (opcional). Si coincide, no se devuelve.
      * @return Los datos de la amistad.
      */
     @GetMapping(
@@ -297,6 +313,11 @@ public class FriendshipController {
                             schema = @Schema(implementation = Friendship.class)
                     ),
                     headers = {
+                            @Header(
+                                    name = "ETag",
+                                    description = "Version of the friendship",
+                                    schema = @Schema(type = "string")
+                            ),
                             @Header(
                                     name = "Self friendship",
                                     description = "HATEOAS Self Link",
@@ -319,6 +340,11 @@ public class FriendshipController {
                             )
                     }
             ),
+            @ApiResponse(
+                    responseCode = "304",
+                    description = "Not modified (the friendship matches the If-None-Match ETag)",
+                    content = @Content
+            ),
             @ApiResponse(
                     responseCode = "401",
                     description = "Bad token",
@@ -351,28 +377,34 @@ public class FriendshipController {
     })
     ResponseEntity<Friendship> getFriendship(
             @Parameter(name = "id", description = "Friendship id", example = "6075b1f9866a2401c582f898")
-            @PathVariable("id") String id
+            @PathVariable("id") String id,
+            @Parameter(name = "If-None-Match", description = "ETag of the friendship already known", example = "\"1\"")
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
     ) {
         //Ejecutamos el método:
         Optional<Friendship> friendship = friends.getFriendship(id);
         if(friendship.isPresent()){
             Friendship res = friendship.get();
+            //Si el cliente ya tiene esta versión, no se vuelve a enviar:
+            String etag = versions.etag(res.getVersion());
+            if(versions.matches(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
             //Preparamos los enlaces (si hay errores, ya saltan excepciones que se manejan por otra vía):
             //Enlace a la propia amistad:
-            Link self = linkTo(methodOn(FriendshipController.class).getFriendship(res.getId()))
-                    .withSelfRel();
+            Link self = friendshipLink.with("id", res.getId()).withSelfRel();
             //Enlace a todas las amistades de este usuario:
-            Link all = linkTo(methodOn(UserController.class).getUserFriendships(0, 20, null,
-                    SecurityContextHolder.getContext().getAuthentication().getName()))
+            Link all = userFriendshipsLink.with("id", SecurityContextHolder.getContext().getAuthentication().getName())
+                    .with("page", 0).with("size", 20)
                     .withRel(relationProvider.getCollectionResourceRelFor(Friendship.class));
             //Enlace al usuario:
-            Link user = linkTo(methodOn(UserController.class).get(res.getUser()))
-                    .withRel(relationProvider.getItemResourceRelFor(User.class));
+            Link user = userLink.with("id", res.getUser()).withRel(relationProvider.getItemResourceRelFor(User.class));
             //Enlace al amigo:
-            Link friend = linkTo(methodOn(UserController.class).get(res.getFriend()))
+            Link friend = userLink.with("id", res.getFriend())
                     .withRel(relationProvider.getItemResourceRelFor(User.class));
             //Llamamos al método que corresponde para recuperar la información de la amistad.
             return ResponseEntity.ok()
+                    .eTag(etag)
                     .header(HttpHeaders.LINK, self.toString())
                     .header(HttpHeaders.LINK, all.toString())
                     .header(HttpHeaders.LINK, user.toString())
@@ -390,6 +422,7 @@ public class FriendshipController {
      * Enlaces devueltos: a la propia amistad, a todas las amistades del usuario, al amigo y al propio usuario.
      *
      * @param id El id de la amistad.
+     * @param ifMatch ETag de la amistad que se quiere modificar (opcional). Si no coincide, no se modifica.
      * @return El usuario actualizado sobre la base de datos y un estado correcto si salió bien, si no, estado de error.
      */
     @PatchMapping(
@@ -414,6 +447,11 @@ public class FriendshipController {
                             schema = @Schema(implementation = Friendship.class)
                     ),
                     headers = {
+                            @Header(
+                                    name = "ETag",
+                                    description = "New version of the friendship",
+                                    schema = @Schema(type = "string")
+                            ),
                             @Header(
                                     name = "Self friendship",
                                     description = "HATEOAS Self Link",
@@ -473,6 +511,14 @@ public class FriendshipController {
                             schema = @Schema(implementation = ErrorObject.class)
                     )
             ),
+            @ApiResponse(
+                    responseCode = "412",
+                    description = "The friendship has been modified since the If-Match version",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            ),
             @ApiResponse(
                     responseCode = "419",
                     description = "Token Expired",
@@ -493,6 +539,8 @@ public class FriendshipController {
     ResponseEntity<Friendship> updateFriendship(
             @Parameter(name = "id", description = "Friendship id", example = "6075b1f9866a2401c582f898")
             @PathVariable("id") String id,
+            @Parameter(name = "If-Match", description = "ETag of the friendship to modify (optional)", example = "\"0\"")
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
             @io.swagger.v3.oas.annotations.parameters.RequestBody(
                     description = "Modifications to movie list",
                     content = @Content(
@@ -504,23 +552,24 @@ public class FriendshipController {
             )
             @RequestBody List<Map<String, Object>> updates
     ){
-        //Se intenta hacer la actualización:
-        Friendship friendship = friends.updateFriendship(id, updates);
+        //Se intenta hacer la actualización (sólo si la amistad sigue en la versión indicada):
+        Friendship friendship = friends.updateFriendship(id, updates, versions.expected(ifMatch));
         //Si finaliza correctamente el método se sigue adelante creando los enlaces necesarios.
         //Enlace a la propia amistad:
-        Link self = linkTo(methodOn(FriendshipController.class).getFriendship(id))
-                .withSelfRel();
+        Link self = friendshipLink.with("id", id).withSelfRel();
         //Enlace a todas las amistades de ese usuario (EL QUE CONFIRMA):
-        Link all = linkTo(methodOn(UserController.class).getUserFriendships(0, 20, null,
-                SecurityContextHolder.getContext().getAuthentication().getName())).withRel(relationProvider.getCollectionResourceRelFor(Friendship.class));
+        Link all = userFriendshipsLink.with("id", SecurityContextHolder.getContext().getAuthentication().getName())
+                .with("page", 0).with("size", 20)
+                .withRel(relationProvider.getCollectionResourceRelFor(Friendship.class));
         //Enlace al usuario:
-        Link user = linkTo(methodOn(UserController.class).get(friendship.getUser()))
+        Link user = userLink.with("id", friendship.getUser())
                 .withRel(relationProvider.getItemResourceRelFor(User.class));
         //Enlace al amigo:
-        Link friend = linkTo(methodOn(UserController.class).get(friendship.getFriend()))
+        Link friend = userLink.with("id", friendship.getFriend())
                 .withRel(relationProvider.getItemResourceRelFor(User.class));
         //Se devuelve estado ok con todos los enlaces y datos de la amistad:
         return ResponseEntity.ok()
+                .eTag(versions.etag(friendship.getVersion()))
                 .header(HttpHeaders.LINK, self.toString())
                 .header(HttpHeaders.LINK, all.toString())
                 .header(HttpHeaders.LINK, user.toString())
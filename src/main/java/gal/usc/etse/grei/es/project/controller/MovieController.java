@@ -1,15 +1,27 @@
 package gal.usc.etse.grei.es.project.controller;
 
 import gal.usc.etse.grei.es.project.errorManagement.ErrorObject;
+import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
+import gal.usc.etse.grei.es.project.errorManagement.exceptions.InvalidDataException;
 import gal.usc.etse.grei.es.project.service.AssessmentService;
 import gal.usc.etse.grei.es.project.utilities.AuxMethods;
+import gal.usc.etse.grei.es.project.utilities.TotalMode;
 import gal.usc.etse.grei.es.project.utilities.Constants;
+import gal.usc.etse.grei.es.project.utilities.LinkTemplate;
+import gal.usc.etse.grei.es.project.utilities.LinkTemplates;
+import gal.usc.etse.grei.es.project.utilities.NdjsonUtils;
+import gal.usc.etse.grei.es.project.utilities.VersionUtils;
 import gal.usc.etse.grei.es.project.model.Assessment;
+import gal.usc.etse.grei.es.project.model.BulkResult;
 import gal.usc.etse.grei.es.project.model.Film;
+import gal.usc.etse.grei.es.project.model.KeysetSlice;
+import gal.usc.etse.grei.es.project.utilities.CursorUtils;
 import gal.usc.etse.grei.es.project.service.MovieService;
+import com.fasterxml.jackson.databind.MappingIterator;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.headers.Header;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -20,25 +32,28 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.hateoas.IanaLinkRelations;
 import org.springframework.hateoas.Link;
 import org.springframework.hateoas.server.LinkRelationProvider;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import java.io.IOException;
 import java.net.URI;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
-
 /**
  * Clase MovieController -> Url para llegar: /movies
  * Gestión de peticiones relacionadas con las películas y sus datos.
@@ -56,18 +71,35 @@ public class MovieController {
     private final AssessmentService assessments;
     //Referencia a un linkrelationprovider para los hateoas
     private final LinkRelationProvider relationProvider;
+    //Referencia a las utilidades para las respuestas NDJSON:
+    private final NdjsonUtils ndjson;
+    //Referencia a las utilidades de versiones (ETags y peticiones condicionales):
+    private final VersionUtils versions;
+    //Plantillas de los enlaces devueltos (resueltas una única vez):
+    private final LinkTemplate moviesLink;
+    private final LinkTemplate movieLink;
+    private final LinkTemplate movieCommentsLink;
 
     /**
      * Constructor de la clase
      * @param movies Instancia de la clase MovieService
      * @param assessments Instancia de la clase AssessmentService
      * @param relationProvider Instancia de la clase LinkRelationProvider
+     * @param links Registro de plantillas de enlaces
+     * @param ndjson Utilidades para las respuestas NDJSON
+     * @param versions Utilidades de versiones (ETags y peticiones condicionales)
      */
     @Autowired
-    public MovieController(MovieService movies, AssessmentService assessments, LinkRelationProvider relationProvider) {
+    public MovieController(MovieService movies, AssessmentService assessments, LinkRelationProvider relationProvider,
+                           LinkTemplates links, NdjsonUtils ndjson, VersionUtils versions) {
         this.movies = movies;
         this.assessments = assessments;
         this.relationProvider = relationProvider;
+        this.ndjson = ndjson;
+        this.versions = versions;
+        this.moviesLink = links.of(MovieController.class, "get");
+        this.movieLink = links.of(MovieController.class, "get", "id");
+        this.movieCommentsLink = links.of(MovieController.class, "getComments", "id");
 
     }
 
@@ -82,6 +114,15 @@ public class MovieController {
      * @param page La página a recuperar
      * @param size Tamaño de la página.
      * @param sort Parámetros de ordenación.
+     * @param cursor Cursor para la paginación por clave (opcional). Si se indica, se ignora la página y se
+     *      devuelve la porción siguiente al cursor ("*" para empezar desde el principio).
+     * @param total Forma de calcular el total de resultados: exacto (por defecto), estimado o sin total (en cuyo
+     *      caso no se devuelve el enlace a la última página).
+     * @param q Texto a buscar en el título, la descripción, el eslogan y las palabras clave. Si se indica, las
+     *      películas se ordenan primero por relevancia.
+     * @param facets Campos de los que se quiere el número de películas de la búsqueda por cada valor (géneros,
+     *      palabras clave, año de estreno y estado). Si se indican, el total es siempre exacto, y no se pueden
+     *      pedir con la paginación por clave.
      * @param keywords Palabras clave por las que se puede realizar la búsqueda de películas.
      * @param genres Géneros por los que se puede realizar la búsqueda de películas.
      * @param cast Nombres de los miembros del cast por los que se puede realizar la búsqueda de peliculas.
@@ -90,6 +131,9 @@ public class MovieController {
      * @param day Día de cualquier mes por el que se puede realizar la búsqueda.
      * @param month Mes del año por el que se puede realizar la búsqueda.
      * @param year Año por el cual se puede realizar la búsqueda.
+     * @param fields Campos de las películas a devolver (si no se indican, el título, la descripción, los géneros,
+     *      la fecha de estreno, los recursos y la valoración). El id y la versión se devuelven siempre.
+     * @param ifNoneMatch ETag del listado que ya tiene el cliente (opcional). Si coincide, no se devuelve.
      * @return Películas obtenidas a raíz de la búsqueda. Si no hubiese ninguna, se devolverá un estado de error.
      */
     @GetMapping(
@@ -99,14 +143,19 @@ public class MovieController {
     @Operation(
             operationId = "getAllMovies",
             summary = "Get all movies details",
-            description = "Get all the details for all movies,  using diferent filters and pageable. To get " +
-                    "them, you must be authenticated."
+            description = "Get all the details for all movies,  using diferent filters and pageable. A subset of " +
+                    "the fields can be requested. To get them, you must be authenticated."
     )
     @ApiResponses({
             @ApiResponse(
                     responseCode = "200",
                     description = "Movies details",
                     headers = {
+                            @Header(
+                                    name = "ETag",
+                                    description = "Version of the page of movies (weak)",
+                                    schema = @Schema(type = "string")
+                            ),
                             @Header(
                                     name = "Self movie page",
                                     description = "HATEOAS Self Link",
@@ -139,6 +188,19 @@ public class MovieController {
                             )
                     }
             ),
+            @ApiResponse(
+                    responseCode = "304",
+                    description = "Not modified (the page matches the If-None-Match ETag)",
+                    content = @Content
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Unknown facet or field, or facets with cursor",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            ),
             @ApiResponse(
                     responseCode = "403",
                     description = "Not enough privileges",
@@ -166,13 +228,26 @@ public class MovieController {
                     )
             )
     })
-    ResponseEntity<Page<Film>> get(
+    ResponseEntity<Slice<Film>> get(
             @Parameter(name = "page", description = "Page number to get", example = "1")
             @RequestParam(name = "page", defaultValue = "0") int page,
             @Parameter(name = "size", description = "Size of the page", example = "15")
             @RequestParam(name = "size", defaultValue = "20") int size,
             @Parameter(name = "sort", description = "Sort criteria", example = "+releaseDate")
             @RequestParam(name = "sort", defaultValue = "") List<String> sort,
+            @Parameter(name = "cursor", description = "Keyset pagination cursor. Use * to get the first slice, " +
+                    "and then the cursor given in the next link", example = "*")
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @Parameter(name = "total", description = "How to compute the total: exact, estimated or none " +
+                    "(no last link)", example = "exact")
+            @RequestParam(name = "total", defaultValue = "exact") String total,
+            @Parameter(name = "q", description = "Text to search in the title, overview, tagline and keywords. " +
+                    "Results are sorted by relevance first", example = "space adventure")
+            @RequestParam(name = "q", required = false) String q,
+            @Parameter(name = "facets", description = "Fields to count the matching movies by value: genres, " +
+                    "keywords, releaseDate.year or status. The total is always exact, and they are not available " +
+                    "with cursor", example = "genres")
+            @RequestParam(name = "facets", required = false) List<String> facets,
             @Parameter(name = "keywords", description = "Movie keywords to perform search", example = "deathcore")
             @RequestParam(name = "keywords", required = false) List<String> keywords,
             @Parameter(name = "genres", description = "Movie genres to perform search", example = "action")
@@ -188,72 +263,164 @@ public class MovieController {
             @Parameter(name = "releaseDate.month", description = "Month of the releaseDate to perform search", example = "1")
             @RequestParam(name = "releaseDate.month", required = false) Integer month,
             @Parameter(name = "releaseDate.year", description = "Year of the releaseDate to perform search", example = "2021")
-            @RequestParam(name = "releaseDate.year", required = false) Integer year
+            @RequestParam(name = "releaseDate.year", required = false) Integer year,
+            @Parameter(name = "fields", description = "Movie fields to get (list fields if empty)", example = "title")
+            @RequestParam(name = "fields", required = false) List<String> fields,
+            @Parameter(name = "If-None-Match", description = "ETag of the page already known", example = "W/\"5d41402abc4b2a76b9719d911017c592\"")
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
     ) {
         //Transformamos la lista de criterios pasada como argumento para que puedan ser procesados en la consulta:
         List<Sort.Order> criteria = AuxMethods.getSortCriteria(sort);
 
-        //Recuperamos el listado de películas:
-        Optional<Page<Film>> result = movies.get(page, size, Sort.by(criteria), keywords, genres,
-                cast, crew, producers, day, month, year);
+        //Si se pide un cursor, se hace la búsqueda por clave (que no admite facetas):
+        if(cursor != null) {
+            if(facets != null && !facets.isEmpty()) {
+                throw new InvalidDataException(ErrorType.INVALID_PARAMETER,
+                        "Facets are not available with cursor pagination.");
+            }
+            return getByCursor(size, sort, cursor, q, criteria, keywords, genres, producers, cast, crew, day, month,
+                    year, fields, ifNoneMatch);
+        }
+
+        //Recuperamos el listado de películas (con sus facetas si se piden):
+        Optional<? extends Slice<Film>> result = facets != null && !facets.isEmpty() ?
+                movies.getFaceted(page, size, Sort.by(criteria), q, facets, keywords, genres, cast, crew, producers,
+                        day, month, year, fields) :
+                movies.get(page, size, Sort.by(criteria), TotalMode.of(total), q, keywords, genres, cast, crew,
+                        producers, day, month, year, fields);
 
         //Si hay resultado se preparan los links y se devuelven:
         if(result.isPresent()){
             //Recuperamos el resultado y los datos de pageable:
-            Page<Film> data = result.get();
+            Slice<Film> data = result.get();
             Pageable metadata = data.getPageable();
 
+            //Si el cliente ya tiene esta página, no se vuelve a enviar:
+            String etag = versions.etag(data, Film::getVersion);
+            if(versions.matches(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+
+            //Valores comunes a los enlaces de paginación (sólo cambia la página):
+            LinkTemplate.Values pages = moviesLink.with("size", size).with("sort", sort).with("total", total)
+                    .with("q", q).with("facets", facets).with("keywords", keywords).with("genres", genres)
+                    .with("producers", producers).with("cast", cast).with("crew", crew)
+                    .with("releaseDate.day", day).with("releaseDate.month", month).with("releaseDate.year", year)
+                    .with("fields", fields);
+
             //Enlace a si mismo:
-            Link self = linkTo(methodOn(MovieController.class)
-                    .get(page, size, sort, keywords, genres, producers, cast, crew, day, month, year)
-            ).withSelfRel();
+            Link self = pages.with("page", page).withSelfRel();
 
             //Enlace al primero:
-            Link first = linkTo(methodOn(MovieController.class)
-                    .get(metadata.first().getPageNumber(), size, sort, keywords, genres, producers,
-                            cast, crew, day, month, year)
-            ).withRel(IanaLinkRelations.FIRST);
-
-            //Enlace al último (recuperamos el total de páginas y restamos 1):
-            Link last = linkTo(methodOn(MovieController.class)
-                    .get(data.getTotalPages() - 1, size, sort, keywords, genres, producers,
-                            cast, crew, day, month, year)
-            ).withRel(IanaLinkRelations.LAST);
+            Link first = pages.with("page", metadata.first().getPageNumber()).withRel(IanaLinkRelations.FIRST);
 
             //Enlace al anterior (si no lo hay, al primer elemento):
-            Link previous = linkTo(methodOn(MovieController.class)
-                    .get(metadata.previousOrFirst().getPageNumber(), size, sort, keywords, genres, producers,
-                            cast, crew, day, month, year)
-            ).withRel(IanaLinkRelations.PREVIOUS);
+            Link previous = pages.with("page", metadata.previousOrFirst().getPageNumber())
+                    .withRel(IanaLinkRelations.PREVIOUS);
 
             //Enlace a un recurso:
-            Link one = linkTo(methodOn(MovieController.class).get(null))
-                    .withRel(relationProvider.getItemResourceRelFor(Film.class));
+            Link one = movieLink.withRel(relationProvider.getItemResourceRelFor(Film.class));
+
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .eTag(etag)
+                    .header(HttpHeaders.LINK, self.toString())
+                    .header(HttpHeaders.LINK, first.toString());
+
+            //Enlace al último (sólo si se conoce el total; recuperamos el total de páginas y restamos 1):
+            if(data instanceof Page) {
+                Link last = pages.with("page", ((Page<Film>) data).getTotalPages() - 1)
+                        .withRel(IanaLinkRelations.LAST);
+                response.header(HttpHeaders.LINK, last.toString());
+            }
 
             //Hacemos el enlace al siguiente (si es necesario):
-            if(metadata.next().getPageNumber() < data.getTotalPages()) {
-                //Enlace al siguiente
-                Link next = linkTo(methodOn(MovieController.class)
-                        .get(metadata.next().getPageNumber(), size, sort, keywords, genres, producers,
-                                cast, crew, day, month, year)
-                ).withRel(IanaLinkRelations.NEXT);
-                //La respuesta contendría en ese caso todos los enlaces:
-                //Devolvemos la respuesta con todos los enlaces creados:
+            if(data.hasNext()) {
+                Link next = pages.with("page", metadata.next().getPageNumber()).withRel(IanaLinkRelations.NEXT);
+                response.header(HttpHeaders.LINK, next.toString());
+            }
+
+            //Devolvemos la respuesta con todos los enlaces creados:
+            return response
+                    .header(HttpHeaders.LINK, previous.toString())
+                    .header(HttpHeaders.LINK, one.toString())
+                    .body(data);
+        }
+
+        //Si no, se devolverá un not found:
+        return ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Método auxiliar de la recuperación de películas para la paginación por clave (cursor).
+     * Enlaces devueltos: a sí mismo, a la primera porción, a la siguiente (con el nuevo cursor) y a un recurso
+     *      concreto. No hay enlaces a la anterior ni a la última, ya que no se conocen.
+     *
+     * @param size Tamaño de la porción.
+     * @param sort Parámetros de ordenación (tal y como llegan en la url).
+     * @param cursor Cursor desde el que continuar.
+     * @param q Texto a buscar (opcional).
+     * @param criteria Criterios de ordenación ya procesados.
+     * @param keywords Palabras clave por las que se puede realizar la búsqueda de películas.
+     * @param genres Géneros por los que se puede realizar la búsqueda de películas.
+     * @param producers Nombres de los productores por los que se puede realizar la búsqueda de películas.
+     * @param cast Nombres de los miembros del cast por los que se puede realizar la búsqueda de peliculas.
+     * @param crew Nombres de los miembros de crew por los que se puede realizar la búsqueda de películas.
+     * @param day Día de cualquier mes por el que se puede realizar la búsqueda.
+     * @param month Mes del año por el que se puede realizar la búsqueda.
+     * @param year Año por el cual se puede realizar la búsqueda.
+     * @param fields Campos de las películas a devolver (opcional).
+     * @param ifNoneMatch ETag de la porción que ya tiene el cliente (opcional).
+     * @return Porción de películas obtenida, con los enlaces correspondientes.
+     */
+    private ResponseEntity<Slice<Film>> getByCursor(int size, List<String> sort, String cursor, String q,
+                                                    List<Sort.Order> criteria, List<String> keywords,
+                                                    List<String> genres, List<String> producers, List<String> cast,
+                                                    List<String> crew, Integer day, Integer month, Integer year,
+                                                    List<String> fields, String ifNoneMatch) {
+        //Recuperamos la porción de películas:
+        Optional<KeysetSlice<Film>> result = movies.getByCursor(size, Sort.by(criteria), cursor, q, keywords,
+                genres, cast, crew, producers, day, month, year, fields);
+
+        if(result.isPresent()){
+            KeysetSlice<Film> data = result.get();
+
+            //Si el cliente ya tiene esta porción, no se vuelve a enviar:
+            String etag = versions.etag(data, Film::getVersion);
+            if(versions.matches(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+
+            //Valores comunes a los enlaces (sólo cambia el cursor):
+            LinkTemplate.Values cursors = moviesLink.with("page", 0).with("size", size).with("sort", sort)
+                    .with("q", q).with("keywords", keywords).with("genres", genres).with("producers", producers)
+                    .with("cast", cast).with("crew", crew).with("releaseDate.day", day)
+                    .with("releaseDate.month", month).with("releaseDate.year", year).with("fields", fields);
+
+            //Enlace a si mismo:
+            Link self = cursors.with("cursor", cursor).withSelfRel();
+
+            //Enlace al primero:
+            Link first = cursors.with("cursor", CursorUtils.FIRST).withRel(IanaLinkRelations.FIRST);
+
+            //Enlace a un recurso:
+            Link one = movieLink.withRel(relationProvider.getItemResourceRelFor(Film.class));
+
+            //Hacemos el enlace al siguiente (si es necesario), que lleva el cursor de continuación:
+            if(data.hasNext()) {
+                Link next = cursors.with("cursor", data.getNextCursor()).withRel(IanaLinkRelations.NEXT);
                 return ResponseEntity.ok()
+                        .eTag(etag)
                         .header(HttpHeaders.LINK, self.toString())
                         .header(HttpHeaders.LINK, first.toString())
-                        .header(HttpHeaders.LINK, last.toString())
                         .header(HttpHeaders.LINK, next.toString())
-                        .header(HttpHeaders.LINK, previous.toString())
                         .header(HttpHeaders.LINK, one.toString())
                         .body(data);
             } else {
                 //Se devuelve la respuesta sin enlace al siguiente:
                 return ResponseEntity.ok()
+                        .eTag(etag)
                         .header(HttpHeaders.LINK, self.toString())
                         .header(HttpHeaders.LINK, first.toString())
-                        .header(HttpHeaders.LINK, last.toString())
-                        .header(HttpHeaders.LINK, previous.toString())
                         .header(HttpHeaders.LINK, one.toString())
                         .body(data);
             }
@@ -263,6 +430,184 @@ public class MovieController {
         return ResponseEntity.notFound().build();
     }
 
+    /**
+     * Método: GET
+     * Url para llegar: /movies/export
+     * Objetivo: exportar todas las películas que cumplan los filtros, en formato NDJSON (una película por línea).
+     *      Las películas se van escribiendo a medida que se leen de la base de datos, sin paginación.
+     * Permisos: sólo administradores.
+     * Enlaces devueltos: ninguno.
+     *
+     * @param fields Campos de las películas a exportar (si no se indica, todos).
+     * @param keywords Palabras clave por las que se puede realizar la búsqueda de películas.
+     * @param genres Géneros por los que se puede realizar la búsqueda de películas.
+     * @param producers Nombres de los productores por los que se puede realizar la búsqueda de películas.
+     * @param cast Nombres de los miembros del cast por los que se puede realizar la búsqueda de peliculas.
+     * @param crew Nombres de los miembros de crew por los que se puede realizar la búsqueda de películas.
+     * @param day Día de cualquier mes por el que se puede realizar la búsqueda.
+     * @param month Mes del año por el que se puede realizar la búsqueda.
+     * @param year Año por el cual se puede realizar la búsqueda.
+     * @return Flujo con las películas exportadas.
+     */
+    @GetMapping(
+            path = "export",
+            produces = NdjsonUtils.NDJSON_VALUE
+    )
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+            operationId = "exportMovies",
+            summary = "Export movies as NDJSON",
+            description = "Stream all the movies matching the filters as newline-delimited JSON, one movie per " +
+                    "line, without pagination. A subset of the fields can be requested. To do this, you must be " +
+                    "an administrator."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Movies stream",
+                    content = @Content(
+                            mediaType = NdjsonUtils.NDJSON_VALUE,
+                            schema = @Schema(implementation = Film.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Unknown field",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "403",
+                    description = "Not enough privileges",
+                    content = @Content
+            ),
+            @ApiResponse(
+                    responseCode = "401",
+                    description = "Bad token",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "419",
+                    description = "Token Expired",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            )
+    })
+    ResponseEntity<StreamingResponseBody> export(
+            @Parameter(name = "fields", description = "Movie fields to export (all if empty)", example = "title")
+            @RequestParam(name = "fields", required = false) List<String> fields,
+            @Parameter(name = "keywords", description = "Movie keywords to perform search", example = "deathcore")
+            @RequestParam(name = "keywords", required = false) List<String> keywords,
+            @Parameter(name = "genres", description = "Movie genres to perform search", example = "action")
+            @RequestParam(name = "genres", required = false) List<String> genres,
+            @Parameter(name = "producers", description = "Movie producer names to perform search", example = "International")
+            @RequestParam(name = "producers", required = false) List<String> producers,
+            @Parameter(name = "cast", description = "Movie cast member names to perform search", example = "Alan Tang")
+            @RequestParam(name = "cast", required = false) List<String> cast,
+            @Parameter(name = "crew", description = "Movie crew member names to perform search", example = "Yang Tao")
+            @RequestParam(name = "crew", required = false) List<String> crew,
+            @Parameter(name = "releaseDate.day", description = "Day of month of the releaseDate to perform search", example = "21")
+            @RequestParam(name = "releaseDate.day", required = false) Integer day,
+            @Parameter(name = "releaseDate.month", description = "Month of the releaseDate to perform search", example = "1")
+            @RequestParam(name = "releaseDate.month", required = false) Integer month,
+            @Parameter(name = "releaseDate.year", description = "Year of the releaseDate to perform search", example = "2021")
+            @RequestParam(name = "releaseDate.year", required = false) Integer year
+    ) {
+        //Abrimos el cursor antes de empezar la respuesta, de forma que los errores (campos inexistentes...) se
+        //devuelvan con su estado correspondiente:
+        CloseableIterator<Film> films = movies.export(fields, keywords, genres, cast, crew, producers, day, month,
+                year);
+        //Las películas se escriben a medida que el cliente las va leyendo:
+        return ResponseEntity.ok()
+                .contentType(NdjsonUtils.NDJSON)
+                .body(ndjson.stream(films, Film.class));
+    }
+
+    /**
+     * Método: GET
+     * Url para llegar: /movies/suggest
+     * Objetivo: sugerir películas a partir del principio de su título (autocompletado).
+     * Permisos: todos los usuarios logueados.
+     * Enlaces devueltos: a un recurso concreto.
+     *
+     * @param prefix El texto escrito (las palabras completas deben estar en el título, y la última puede estar
+     *      incompleta).
+     * @param limit Número máximo de películas a devolver.
+     * @return Las películas sugeridas (sólo con id y título), de más a menos populares.
+     */
+    @GetMapping(
+            path = "suggest",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    @PreAuthorize("isAuthenticated()")
+    @Operation(
+            operationId = "suggestMovies",
+            summary = "Suggest movies by title prefix",
+            description = "Get the ids and titles of the movies whose title contains the given words, the last " +
+                    "of them possibly incomplete, from most to least popular. Case and accents are ignored. To " +
+                    "get them, you must be authenticated."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Suggested movies",
+                    content = @Content(
+                            mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = Film.class))
+                    ),
+                    headers = {
+                            @Header(
+                                    name = "One movie",
+                                    description = "HATEOAS One Link",
+                                    schema = @Schema(type = "Link")
+                            )
+                    }
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Invalid limit",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "401",
+                    description = "Bad token",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "419",
+                    description = "Token Expired",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            )
+    })
+    ResponseEntity<List<Film>> suggest(
+            @Parameter(name = "prefix", description = "Beginning of the title", example = "star wa")
+            @RequestParam(name = "prefix") String prefix,
+            @Parameter(name = "limit", description = "Maximum number of movies", example = "10")
+            @RequestParam(name = "limit", defaultValue = "10") int limit
+    ) {
+        //Enlace a un recurso:
+        Link one = movieLink.withRel(relationProvider.getItemResourceRelFor(Film.class));
+        return ResponseEntity.ok()
+                .header(HttpHeaders.LINK, one.toString())
+                .body(movies.suggest(prefix, limit));
+    }
+
     /**
      * Método: GET
      * Url para llegar: /movies/{id}
@@ -271,6 +616,10 @@ public class MovieController {
      * Enlaces devueltos: a sí mismo y a la lista de todas las películas.
      *
      * @param id El id de la película cuyos datos se quieren recuperar.
+     * @param fields Campos de la película a devolver (si no se indican, todos). El id y la versión se devuelven
+     *      siempre.
+     * @param ifNoneMatch ETag de la película que ya tiene el cliente (opcional). Si coincide, no se devuelve. Cada
+     *      selección de campos tiene su propio ETag.
      * @return Si el Id es válido, los datos de la película.
      */
     @GetMapping(
@@ -281,7 +630,7 @@ public class MovieController {
     @Operation(
             operationId = "getOneMovie",
             summary = "Get details of one movie",
-            description = "Get all the details from one movie given by its id. To get them, " +
+            description = "Get all the details from one movie given by its id, or only the requested fields. To get them, " +
                     "you must be authenticated. Results are pageable."
     )
     @ApiResponses({
@@ -289,6 +638,11 @@ public class MovieController {
                     responseCode = "200",
                     description = "The movie details",
                     headers = {
+                            @Header(
+                                    name = "ETag",
+                                    description = "Version of the movie",
+                                    schema = @Schema(type = "string")
+                            ),
                             @Header(
                                     name = "Self movie",
                                     description = "HATEOAS Self Link",
@@ -301,6 +655,19 @@ public class MovieController {
                             )
                     }
             ),
+            @ApiResponse(
+                    responseCode = "304",
+                    description = "Not modified (the movie matches the If-None-Match ETag)",
+                    content = @Content
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Unknown field",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            ),
             @ApiResponse(
                     responseCode = "404",
                     description = "Movie not found",
@@ -330,20 +697,36 @@ public class MovieController {
     })
     ResponseEntity<Film> get(
             @Parameter(name="id", description = "The id of the movie to fetch", example="744687")
-            @PathVariable("id") String id
+            @PathVariable("id") String id,
+            @Parameter(name = "fields", description = "Movie fields to get (all if empty)", example = "title")
+            @RequestParam(name = "fields", required = false) List<String> fields,
+            @Parameter(name = "If-None-Match", description = "ETag of the movie already known", example = "\"3\"")
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
     ) {
+        //Campos pedidos, normalizados para que la misma selección tenga siempre el mismo ETag:
+        List<String> projection = movies.fields(fields);
+
+        //Si el cliente indica la versión que tiene, se compara con la actual sin recuperar la película:
+        if(ifNoneMatch != null) {
+            Optional<Long> version = movies.version(id);
+            if(version.isPresent() && versions.matches(ifNoneMatch, versions.etag(version.get(), projection))) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(versions.etag(version.get(), projection)).build();
+            }
+        }
+
         //Tratamos de recuperar la película:
-        Optional<Film> result = movies.get(id);
+        Optional<Film> result = movies.get(id, fields);
         if(result.isPresent()){
             //Si hay resultado se crean los links y se devuelven:
             //A sí mismo:
-            Link self = linkTo(methodOn(MovieController.class).get(id)).withSelfRel();
+            Link self = movieLink.with("id", id).withSelfRel();
             //A todas:
-            Link all = linkTo(methodOn(MovieController.class).get(0, 20, null, null, null,
-                    null, null, null, null, null, null))
+            Link all = moviesLink.with("page", 0).with("size", 20)
                     .withRel(relationProvider.getCollectionResourceRelFor(Film.class));
             //Las devolvemos:
             return ResponseEntity.ok()
+                    .eTag(versions.etag(result.get().getVersion(), projection))
                     .header(HttpHeaders.LINK, self.toString())
                     .header(HttpHeaders.LINK, all.toString())
                     .body(result.get());
@@ -449,19 +832,109 @@ public class MovieController {
         //Si se crea correctamente, devolvemos la información de la película creada.
         //Preparamos los enlaces a devolver:
         //A sí mismo:
-        Link self = linkTo(methodOn(MovieController.class).get(inserted.get().getId())).withSelfRel();
+        Link self = movieLink.with("id", inserted.get().getId()).withSelfRel();
         //A todas:
-        Link all = linkTo(methodOn(MovieController.class).get(0, 20, null, null, null,
-                null, null, null, null, null, null))
+        Link all = moviesLink.with("page", 0).with("size", 20)
                 .withRel(relationProvider.getCollectionResourceRelFor(Film.class));
         //Devolvemos también los enlaces creados:
         return ResponseEntity.created(URI.create(Constants.URL + "/movies/" + inserted.get().getId()))
+                .eTag(versions.etag(inserted.get().getVersion()))
                 .header(HttpHeaders.LINK, self.toString())
                 .header(HttpHeaders.LINK, all.toString())
                 .body(inserted.get());
     }
 
 
+    /**
+     * Método: POST
+     * Url para llegar: /movies/bulk
+     * Objetivo: insertar un conjunto de películas, leídas a medida que llegan (array JSON o NDJSON).
+     * Permisos: sólo los administradores.
+     * Enlaces devueltos: a la lista de todas las películas.
+     *
+     * @param request La petición, de la que se lee el contenido sin cargarlo entero en memoria.
+     * @return El resultado de la inserción de cada película, en el orden en que se han enviado.
+     * @throws IOException Si no se puede leer el contenido de la petición.
+     */
+    @PostMapping(
+            path = "bulk",
+            produces = MediaType.APPLICATION_JSON_VALUE,
+            consumes = {MediaType.APPLICATION_JSON_VALUE, NdjsonUtils.NDJSON_VALUE}
+    )
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+            operationId = "createMovies",
+            summary = "Create movies in bulk",
+            description = "Create several movies at once, sent as a JSON array or as NDJSON (one movie per line). " +
+                    "Every movie is validated as in the single creation, and the valid ones are inserted in " +
+                    "unordered batches. The result of each movie is returned, in the same order. To create " +
+                    "them, you must have admin permissions."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Result of the insertion of each movie",
+                    content = @Content(
+                            mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = BulkResult.class))
+                    ),
+                    headers = {
+                            @Header(
+                                    name = "All movies",
+                                    description = "HATEOAS All Link",
+                                    schema = @Schema(type = "Link")
+                            )
+                    }
+            ),
+            @ApiResponse(
+                    responseCode = "403",
+                    description = "Not enough privileges",
+                    content = @Content
+            ),
+            @ApiResponse(
+                    responseCode = "401",
+                    description = "Bad token",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "419",
+                    description = "Token Expired",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            )
+    })
+    @io.swagger.v3.oas.annotations.parameters.RequestBody(
+            description = "Movies to create, as a JSON array or as NDJSON",
+            content = {
+                    @Content(
+                            mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = Film.class))
+                    ),
+                    @Content(
+                            mediaType = NdjsonUtils.NDJSON_VALUE,
+                            schema = @Schema(implementation = Film.class)
+                    )
+            }
+    )
+    ResponseEntity<List<BulkResult>> createBulk(HttpServletRequest request) throws IOException {
+        //Las películas se leen y se insertan a medida que llegan:
+        List<BulkResult> results;
+        try (MappingIterator<Film> films = ndjson.read(request.getInputStream(), Film.class)) {
+            results = movies.createAll(films);
+        }
+        //Enlace a todas las películas:
+        Link all = moviesLink.with("page", 0).with("size", 20)
+                .withRel(relationProvider.getCollectionResourceRelFor(Film.class));
+        return ResponseEntity.ok()
+                .header(HttpHeaders.LINK, all.toString())
+                .body(results);
+    }
+
     /**
      * Método: PATCH
      * Url para llegar: /movies/{id}
@@ -470,6 +943,7 @@ public class MovieController {
      * Enlaces devueltos: a sí mismo y a la lista de todas las películas.
      *
      * @param id El id de la película a actualizar
+     * @param ifMatch ETag de la película que se quiere modificar (opcional). Si no coincide, no se modifica.
      * @param updates Datos a actualizar
      * @return Si la actualización se ha podido llevar a cabo, los datos de la película modificados.
      */
@@ -495,6 +969,11 @@ public class MovieController {
                             schema = @Schema(implementation = Film.class)
                     ),
                     headers = {
+                            @Header(
+                                    name = "ETag",
+                                    description = "New version of the movie",
+                                    schema = @Schema(type = "string")
+                            ),
                             @Header(
                                     name = "Self movie",
                                     description = "HATEOAS Self Link",
@@ -528,6 +1007,14 @@ public class MovieController {
                             schema = @Schema(implementation = ErrorObject.class)
                     )
             ),
+            @ApiResponse(
+                    responseCode = "412",
+                    description = "The movie has been modified since the If-Match version",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            ),
             @ApiResponse(
                     responseCode = "419",
                     description = "Token Expired",
@@ -548,6 +1035,8 @@ public class MovieController {
     ResponseEntity<Film> update(
             @Parameter(name = "id", description = "Movie to update id", example = "744687")
             @PathVariable("id") String id,
+            @Parameter(name = "If-Match", description = "ETag of the movie to modify (optional)", example = "\"3\"")
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
             @io.swagger.v3.oas.annotations.parameters.RequestBody(
                     description = "Modifications to movie list",
                     content = @Content(
@@ -559,15 +1048,16 @@ public class MovieController {
             )
             @RequestBody List<Map<String, Object>> updates
     ) {
-        //Se intenta hacer la actualización y se devuelve el resultado:
-        Optional<Film> result = movies.update(id, updates);
+        //Se intenta hacer la actualización (sólo si la película sigue en la versión indicada) y se devuelve el
+        //resultado:
+        Optional<Film> result = movies.update(id, updates, versions.expected(ifMatch));
         //A sí mismo:
-        Link self = linkTo(methodOn(MovieController.class).get(result.get().getId())).withSelfRel();
+        Link self = movieLink.with("id", result.get().getId()).withSelfRel();
         //A todas:
-        Link all = linkTo(methodOn(MovieController.class).get(0, 20, null, null, null,
-                null, null, null, null, null, null))
+        Link all = moviesLink.with("page", 0).with("size", 20)
                 .withRel(relationProvider.getCollectionResourceRelFor(Film.class));
         return ResponseEntity.ok()
+                .eTag(versions.etag(result.get().getVersion()))
                 .header(HttpHeaders.LINK, self.toString())
                 .header(HttpHeaders.LINK, all.toString())
                 .body(result.get());
@@ -645,8 +1135,7 @@ public class MovieController {
         //Se trata de borrar la película con el id especificado:
         movies.delete(id);
         //Se prepara el único enlace a devolver, el de todas las películas:
-        Link all = linkTo(methodOn(MovieController.class).get(0, 20, null, null, null,
-                null, null, null, null, null, null))
+        Link all = moviesLink.with("page", 0).with("size", 20)
                 .withRel(relationProvider.getCollectionResourceRelFor(Film.class));
         //Se devuelve un estado noContent, dado que no tenemos nada que mostrar:
         return ResponseEntity.noContent()
@@ -664,7 +1153,9 @@ public class MovieController {
      * @param page la página a recuperar
      * @param size el tamaño de cada página
      * @param sort criterios de ordenación
+     * @param total forma de calcular el total de resultados (exact, estimated o none)
      * @param id identificador de la película
+     * @param ifNoneMatch ETag de la página que ya tiene el cliente (opcional). Si coincide, no se devuelve.
      * @return La página pedida de la lista de comentarios de la película, en caso de que la información
      *      facilitada sea correcta. Si no, un estado erróneo.
      */
@@ -684,6 +1175,11 @@ public class MovieController {
                     responseCode = "200",
                     description = "Get comments details",
                     headers = {
+                            @Header(
+                                    name = "ETag",
+                                    description = "Version of the page of comments (weak)",
+                                    schema = @Schema(type = "string")
+                            ),
                             @Header(
                                     name = "Movie from comment",
                                     description = "HATEOAS Link",
@@ -711,6 +1207,11 @@ public class MovieController {
                             )
                     }
             ),
+            @ApiResponse(
+                    responseCode = "304",
+                    description = "Not modified (the page matches the If-None-Match ETag)",
+                    content = @Content
+            ),
             @ApiResponse(
                     responseCode = "401",
                     description = "Bad token",
@@ -741,67 +1242,73 @@ public class MovieController {
                     )
             )
     })
-    ResponseEntity<Page<Assessment>> getComments(
+    ResponseEntity<Slice<Assessment>> getComments(
             @Parameter(name = "page", description = "Page number to get", example = "0")
             @RequestParam(name = "page", defaultValue = "0") int page,
             @Parameter(name = "size", description = "Size of the page", example = "10")
             @RequestParam(name = "size", defaultValue = "20") int size,
             @Parameter(name = "sort", description = "Sort criteria", example = "+comment")
             @RequestParam(name = "sort", defaultValue = "") List<String> sort,
+            @Parameter(name = "total", description = "How to compute the total: exact, estimated or none " +
+                    "(no last link)", example = "exact")
+            @RequestParam(name = "total", defaultValue = "exact") String total,
             @Parameter(name="id", description = "Movie id which comments will be retrieved", example="744687")
-            @PathVariable("id") String id
+            @PathVariable("id") String id,
+            @Parameter(name = "If-None-Match", description = "ETag of the page already known", example = "W/\"5d41402abc4b2a76b9719d911017c592\"")
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
     ) {
         //Transformamos la lista de criterios pasada como argumento para que puedan ser procesados en la consulta:
         List<Sort.Order> criteria = AuxMethods.getSortCriteria(sort);
 
         //Buscamos:
-        Optional<Page<Assessment>> result = assessments.getComments(page, size, Sort.by(criteria), id);
+        Optional<Slice<Assessment>> result = assessments.getComments(page, size, Sort.by(criteria),
+                TotalMode.of(total), id);
 
         //Si hay resultado, preparamos enlaces para devolver y devolvemos ok:
         if(result.isPresent()){
-            Page<Assessment> data = result.get();
+            Slice<Assessment> data = result.get();
             Pageable metadata = data.getPageable();
+
+            //Si el cliente ya tiene esta página, no se vuelve a enviar:
+            String etag = versions.etag(data, Assessment::getVersion);
+            if(versions.matches(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+
             //Preparamos enlaces para devolver
             //A la pelicula:
-            Link film = linkTo(methodOn(MovieController.class).get(id))
-                    .withRel(relationProvider.getItemResourceRelFor(Film.class));
+            Link film = movieLink.with("id", id).withRel(relationProvider.getItemResourceRelFor(Film.class));
+            //Valores comunes a los enlaces de paginación (sólo cambia la página):
+            LinkTemplate.Values pages = movieCommentsLink.with("id", id).with("size", size).with("sort", sort)
+                    .with("total", total);
             //Enlace al primero:
-            Link first = linkTo(methodOn(MovieController.class)
-                    .getComments(metadata.first().getPageNumber(), size, sort, id)
-            ).withRel(IanaLinkRelations.FIRST);
-
-            //Enlace al último (recuperamos el total de páginas y restamos 1):
-            Link last = linkTo(methodOn(MovieController.class)
-                    .getComments(data.getTotalPages() - 1, size, sort, id)
-            ).withRel(IanaLinkRelations.LAST);
+            Link first = pages.with("page", metadata.first().getPageNumber()).withRel(IanaLinkRelations.FIRST);
 
             //Enlace al anterior (si no lo hay, al primer elemento):
-            Link previous = linkTo(methodOn(MovieController.class)
-                    .getComments(metadata.previousOrFirst().getPageNumber(), size, sort, id)
-            ).withRel(IanaLinkRelations.PREVIOUS);
+            Link previous = pages.with("page", metadata.previousOrFirst().getPageNumber())
+                    .withRel(IanaLinkRelations.PREVIOUS);
+
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .eTag(etag)
+                    .header(HttpHeaders.LINK, film.toString())
+                    .header(HttpHeaders.LINK, first.toString());
+
+            //Enlace al último (sólo si se conoce el total; recuperamos el total de páginas y restamos 1):
+            if(data instanceof Page) {
+                Link last = pages.with("page", ((Page<Assessment>) data).getTotalPages() - 1)
+                        .withRel(IanaLinkRelations.LAST);
+                response.header(HttpHeaders.LINK, last.toString());
+            }
+
+            response.header(HttpHeaders.LINK, previous.toString());
 
             //Hacemos el enlace al siguiente (si es necesario):
-            if(metadata.next().getPageNumber() < data.getTotalPages()) {
-                Link next = linkTo(methodOn(MovieController.class)
-                        .getComments(metadata.next().getPageNumber(), size, sort, id)
-                ).withRel(IanaLinkRelations.NEXT);
-                //La respuesta contendría en ese caso todos los enlaces:
-                return ResponseEntity.ok()
-                        .header(HttpHeaders.LINK, film.toString())
-                        .header(HttpHeaders.LINK, first.toString())
-                        .header(HttpHeaders.LINK, last.toString())
-                        .header(HttpHeaders.LINK, previous.toString())
-                        .header(HttpHeaders.LINK, next.toString())
-                        .body(data);
-            } else {
-                //Se devuelve la respuesta sin enlace al siguiente:
-                return ResponseEntity.ok()
-                        .header(HttpHeaders.LINK, film.toString())
-                        .header(HttpHeaders.LINK, first.toString())
-                        .header(HttpHeaders.LINK, last.toString())
-                        .header(HttpHeaders.LINK, previous.toString())
-                        .body(data);
+            if(data.hasNext()) {
+                Link next = pages.with("page", metadata.next().getPageNumber()).withRel(IanaLinkRelations.NEXT);
+                response.header(HttpHeaders.LINK, next.toString());
             }
+
+            return response.body(data);
         }
 
         //Si no ha habido resultado, se devuelve un not found:
@@ -0,0 +1,114 @@
+package gal.usc.etse.grei.es.project.controller;
+
+import gal.usc.etse.grei.es.project.errorManagement.ErrorObject;
+import gal.usc.etse.grei.es.project.model.Person;
+import gal.usc.etse.grei.es.project.service.PeopleService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Clase PeopleController -> Url para llegar: /people
+ * Gestión de peticiones relacionadas con las personas (repartos y equipos de las películas).
+ *
+ * @author Manuel Bendaña
+ */
+@RestController
+@Tag(name = "People API", description = "Cast and crew related operations")
+@SecurityRequirement(name = "JWT")
+@RequestMapping("people")
+public class PeopleController {
+    //Referencia a la clase PeopleService:
+    private final PeopleService people;
+
+    /**
+     * Constructor de la clase
+     * @param people Instancia de la clase PeopleService
+     */
+    @Autowired
+    public PeopleController(PeopleService people) {
+        this.people = people;
+    }
+
+    /**
+     * Método: GET
+     * Url para llegar: /people/suggest
+     * Objetivo: sugerir personas a partir del principio de su nombre (autocompletado).
+     * Permisos: todos los usuarios logueados.
+     * Enlaces devueltos: ninguno.
+     *
+     * @param prefix El texto escrito (principio del nombre o de alguna de sus palabras).
+     * @param limit Número máximo de personas a devolver.
+     * @return Las personas sugeridas (sólo con id y nombre), de más a menos películas.
+     */
+    @GetMapping(
+            path = "suggest",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    @PreAuthorize("isAuthenticated()")
+    @Operation(
+            operationId = "suggestPeople",
+            summary = "Suggest people by name prefix",
+            description = "Get the ids and names of the cast and crew members whose name, or any word of it, " +
+                    "starts with the given text, from most to least movies. Case and accents are ignored. To " +
+                    "get them, you must be authenticated."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Suggested people",
+                    content = @Content(
+                            mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = Person.class))
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Invalid limit",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "401",
+                    description = "Bad token",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "419",
+                    description = "Token Expired",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            )
+    })
+    ResponseEntity<List<Person>> suggest(
+            @Parameter(name = "prefix", description = "Beginning of the name", example = "tom ha")
+            @RequestParam(name = "prefix") String prefix,
+            @Parameter(name = "limit", description = "Maximum number of people (up to 20)", example = "10")
+            @RequestParam(name = "limit", defaultValue = "10") int limit
+    ) {
+        return ResponseEntity.ok(people.suggest(prefix, limit));
+    }
+}
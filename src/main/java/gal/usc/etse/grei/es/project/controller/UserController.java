@@ -5,7 +5,11 @@ import gal.usc.etse.grei.es.project.model.Friendship;
 import gal.usc.etse.grei.es.project.service.AssessmentService;
 import gal.usc.etse.grei.es.project.service.FriendshipService;
 import gal.usc.etse.grei.es.project.utilities.AuxMethods;
+import gal.usc.etse.grei.es.project.utilities.TotalMode;
 import gal.usc.etse.grei.es.project.utilities.Constants;
+import gal.usc.etse.grei.es.project.utilities.LinkTemplate;
+import gal.usc.etse.grei.es.project.utilities.LinkTemplates;
+import gal.usc.etse.grei.es.project.utilities.VersionUtils;
 import gal.usc.etse.grei.es.project.model.Assessment;
 import gal.usc.etse.grei.es.project.model.User;
 import gal.usc.etse.grei.es.project.service.UserService;
@@ -23,11 +27,13 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.hateoas.IanaLinkRelations;
 import org.springframework.hateoas.Link;
 import org.springframework.hateoas.server.LinkRelationProvider;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -39,9 +45,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
-
 /**
  * Clase UserController -> Url para llegar: /users
  * Gestión de peticiones relacionadas con los usuarios de la red social
@@ -56,6 +59,13 @@ public class UserController {
     private final FriendshipService friends;
     //Referencia a un linkrelationprovider para los hateoas
     private final LinkRelationProvider relationProvider;
+    //Referencia a las utilidades de versiones (ETags y peticiones condicionales):
+    private final VersionUtils versions;
+    //Plantillas de los enlaces devueltos (resueltas una única vez):
+    private final LinkTemplate usersLink;
+    private final LinkTemplate userLink;
+    private final LinkTemplate userFriendshipsLink;
+    private final LinkTemplate userCommentsLink;
 
     /**
      * Constructor de la clase
@@ -64,14 +74,22 @@ public class UserController {
      * @param assessments Instancia de la clase AssessmentService
      * @param friends Instancia de la clase FriendService
      * @param relationProvider Instancia de la clase LinkRelationProvider
+     * @param links Registro de plantillas de enlaces
+     * @param versions Utilidades de versiones (ETags y peticiones condicionales)
      */
     @Autowired
     public UserController(UserService users, AssessmentService assessments,
-                          FriendshipService friends, LinkRelationProvider relationProvider){
+                          FriendshipService friends, LinkRelationProvider relationProvider,
+                          LinkTemplates links, VersionUtils versions){
         this.users = users;
         this.assessments = assessments;
         this.friends = friends;
         this.relationProvider = relationProvider;
+        this.versions = versions;
+        this.usersLink = links.of(UserController.class, "get");
+        this.userLink = links.of(UserController.class, "get", "id");
+        this.userFriendshipsLink = links.of(UserController.class, "getUserFriendships", "id");
+        this.userCommentsLink = links.of(UserController.class, "getUserComments", "id");
     }
 
     /**
@@ -82,6 +100,7 @@ public class UserController {
      * Enlaces devueltos: a sí mismo y al listado de todos los usuarios.
      *
      * @param id El identificador del usuario para recuperar la información.
+     * @param ifNoneMatch ETag del usuario que ya tiene el cliente (opcional). Si coincide, no se devuelve.
      * @return Si el id es válido, los datos del usuario cuyo id ha sido facilitado como parámetro.
      */
     @GetMapping(
@@ -104,6 +123,11 @@ public class UserController {
                             schema = @Schema(implementation = User.class)
                     ),
                     headers = {
+                            @Header(
+                                    name = "ETag",
+                                    description = "Version of the user",
+                                    schema = @Schema(type = "string")
+                            ),
                             @Header(
                                     name = "Self user",
                                     description = "HATEOAS Self Link",
@@ -116,6 +140,11 @@ public class UserController {
                             )
                     }
             ),
+            @ApiResponse(
+                    responseCode = "304",
+                    description = "Not modified (the user matches the If-None-Match ETag)",
+                    content = @Content
+            ),
             @ApiResponse(
                     responseCode = "401",
                     description = "Bad token",
@@ -146,20 +175,33 @@ public class UserController {
                     )
             )
     })
-    ResponseEntity<User> get(@Parameter(name = "id", example = "test@test.com") @PathVariable("id") String id) {
+    ResponseEntity<User> get(
+            @Parameter(name = "id", example = "test@test.com") @PathVariable("id") String id,
+            @Parameter(name = "If-None-Match", description = "ETag of the user already known", example = "\"3\"")
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        //Si el cliente indica la versión que tiene, se compara con la actual sin recuperar el usuario:
+        if(ifNoneMatch != null) {
+            Optional<Long> version = users.version(id);
+            if(version.isPresent() && versions.matches(ifNoneMatch, versions.etag(version.get()))) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(versions.etag(version.get())).build();
+            }
+        }
+
         //Hacemos la consulta:
         Optional<User> result = users.get(id);
 
         //Si hay resultado, preparamos los enlaces y devolvemos un resultado correcto:
         if(result.isPresent()){
             //Enlace a sí mismo:
-            Link self = linkTo(methodOn(UserController.class).get(id)).withSelfRel();
+            Link self = userLink.with("id", id).withSelfRel();
             //Enlace a todos los usuarios:
-            Link all = linkTo(methodOn(UserController.class).get(0, 20, null, null, null))
+            Link all = usersLink.with("page", 0).with("size", 20)
                     .withRel(relationProvider.getCollectionResourceRelFor(User.class));
 
             //Devolvemos la resupuesta con el resultado y los enlaces en la cabecera:
             return ResponseEntity.ok()
+                    .eTag(versions.etag(result.get().getVersion()))
                     .header(HttpHeaders.LINK, self.toString())
                     .header(HttpHeaders.LINK, all.toString())
                     .body(result.get());
@@ -182,6 +224,7 @@ public class UserController {
      * @param sort Parámetros de ordenación.
      * @param name Nombre por el cual hacer la busqueda
      * @param email Email por el cual hacer la busqueda
+     * @param ifNoneMatch ETag de la página que ya tiene el cliente (opcional). Si coincide, no se devuelve.
      * @return Los datos de todos los usuarios que coinciden con los filtros introducidos.
      */
     @GetMapping(
@@ -199,6 +242,11 @@ public class UserController {
                     responseCode = "200",
                     description = "Users details",
                     headers = {
+                            @Header(
+                                    name = "ETag",
+                                    description = "Version of the page of users (weak)",
+                                    schema = @Schema(type = "string")
+                            ),
                             @Header(
                                     name = "Self user page",
                                     description = "HATEOAS Self Link",
@@ -231,6 +279,11 @@ public class UserController {
                             )
                     }
             ),
+            @ApiResponse(
+                    responseCode = "304",
+                    description = "Not modified (the page matches the If-None-Match ETag)",
+                    content = @Content
+            ),
             @ApiResponse(
                     responseCode = "401",
                     description = "Bad token",
@@ -268,7 +321,9 @@ public class UserController {
             @Parameter(name = "name", description = "User name for filter", example = "Test")
             @RequestParam(name = "name", required = false) String name,
             @Parameter(name = "email", description = "User email for filter", example = "test@test.com")
-            @RequestParam(name = "email", required = false) String email
+            @RequestParam(name = "email", required = false) String email,
+            @Parameter(name = "If-None-Match", description = "ETag of the page already known", example = "W/\"5d41402abc4b2a76b9719d911017c592\"")
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
     ) {
         //Recuperamos los criterios de ordenación:
         List<Sort.Order> criteria = AuxMethods.getSortCriteria(sort);
@@ -282,38 +337,40 @@ public class UserController {
             Page<User> data = result.get();
             Pageable metadata = data.getPageable();
 
+            //Si el cliente ya tiene esta página, no se vuelve a enviar:
+            String etag = versions.etag(data, User::getVersion);
+            if(versions.matches(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+
+            //Valores comunes a los enlaces de paginación (sólo cambia la página):
+            LinkTemplate.Values pages = usersLink.with("size", size).with("sort", sort).with("name", name)
+                    .with("email", email);
+
             //Enlace a si mismo:
-            Link self = linkTo(methodOn(UserController.class).get(page, size, sort, name, email))
-                    .withSelfRel();
+            Link self = pages.with("page", page).withSelfRel();
 
             //Enlace al primero:
-            Link first = linkTo(methodOn(UserController.class)
-                    .get(metadata.first().getPageNumber(), size, sort, name, email)
-            ).withRel(IanaLinkRelations.FIRST);
+            Link first = pages.with("page", metadata.first().getPageNumber()).withRel(IanaLinkRelations.FIRST);
 
             //Enlace al último (recuperamos el total de páginas y restamos 1):
-            Link last = linkTo(methodOn(UserController.class)
-                    .get(data.getTotalPages() - 1, size, sort, name, email)
-            ).withRel(IanaLinkRelations.LAST);
+            Link last = pages.with("page", data.getTotalPages() - 1).withRel(IanaLinkRelations.LAST);
 
             //Enlace al anterior (si no lo hay, al primer elemento):
-            Link previous = linkTo(methodOn(UserController.class)
-                    .get(metadata.previousOrFirst().getPageNumber(), size, sort, name, email)
-            ).withRel(IanaLinkRelations.PREVIOUS);
+            Link previous = pages.with("page", metadata.previousOrFirst().getPageNumber())
+                    .withRel(IanaLinkRelations.PREVIOUS);
 
             //Enlace a un recurso usuario solo:
-            Link one = linkTo(methodOn(UserController.class).get(null))
-                    .withRel(relationProvider.getItemResourceRelFor(User.class));
+            Link one = userLink.withRel(relationProvider.getItemResourceRelFor(User.class));
 
             //Hacemos el enlace al siguiente (si es necesario):
             if(metadata.next().getPageNumber() < data.getTotalPages()) {
                 //Enlace al siguiente
-                Link next = linkTo(methodOn(UserController.class)
-                        .get(metadata.next().getPageNumber(), size, sort, name, email)
-                ).withRel(IanaLinkRelations.NEXT);
+                Link next = pages.with("page", metadata.next().getPageNumber()).withRel(IanaLinkRelations.NEXT);
                 //La respuesta contendría en ese caso todos los enlaces:
                 //Devolvemos la respuesta con todos los enlaces creados:
                 return ResponseEntity.ok()
+                        .eTag(etag)
                         .header(HttpHeaders.LINK, self.toString())
                         .header(HttpHeaders.LINK, first.toString())
                         .header(HttpHeaders.LINK, last.toString())
@@ -324,6 +381,7 @@ public class UserController {
             } else {
                 //Se devuelve la respuesta sin enlace al siguiente:
                 return ResponseEntity.ok()
+                        .eTag(etag)
                         .header(HttpHeaders.LINK, self.toString())
                         .header(HttpHeaders.LINK, first.toString())
                         .header(HttpHeaders.LINK, last.toString())
@@ -422,13 +480,14 @@ public class UserController {
         //Si se llega aquí es que se ha finalizado el método. Devolveremos referencia al propio
         //usuario y a la lista de todos.
         //Enlace a sí mismo (usamos el email del usuario):
-        Link self = linkTo(methodOn(UserController.class).get(inserted.get().getEmail())).withSelfRel();
+        Link self = userLink.with("id", inserted.get().getEmail()).withSelfRel();
         //Enlace a todos los usuarios:
-        Link all = linkTo(methodOn(UserController.class).get(0, 20, null, null, null))
+        Link all = usersLink.with("page", 0).with("size", 20)
                 .withRel(relationProvider.getCollectionResourceRelFor(User.class));
 
         //Se devuelve un estado creado, con la URI con la que se puede acceder a él:
         return ResponseEntity.created(URI.create(Constants.URL + "/users/" + inserted.get().getEmail()))
+                .eTag(versions.etag(inserted.get().getVersion()))
                 .header(HttpHeaders.LINK, self.toString())
                 .header(HttpHeaders.LINK, all.toString())
                 .body(inserted.get());
@@ -507,7 +566,7 @@ public class UserController {
         users.delete(id);
         //Si el método termina correctamente, preparamos el enlace a la lista de todos los usuarios
         //y lo devolvemos:
-        Link all = linkTo(methodOn(UserController.class).get(0, 20, null, null, null))
+        Link all = usersLink.with("page", 0).with("size", 20)
                 .withRel(relationProvider.getCollectionResourceRelFor(User.class));
         //Se devuelve un estado noContent (no hay nada que devolver):
         return ResponseEntity.noContent()
@@ -524,6 +583,7 @@ public class UserController {
      * Enlaces devueltos: al propio usuario y a la lista de todos.
      *
      * @param id El id del usuario cuyos demás datos se quieren actualizar.
+     * @param ifMatch ETag del usuario que se quiere modificar (opcional). Si no coincide, no se modifica.
      * @param updates Las actualizaciones que se deben realizar.
      * @return estado correcto en caso de encontrar al usuario y haberlo actualizado. Si no, se devolverá algún estado
      *          de error.
@@ -549,6 +609,11 @@ public class UserController {
                             schema = @Schema(implementation = User.class)
                     ),
                     headers = {
+                            @Header(
+                                    name = "ETag",
+                                    description = "New version of the user",
+                                    schema = @Schema(type = "string")
+                            ),
                             @Header(
                                     name = "Self user",
                                     description = "HATEOAS Self Link",
@@ -590,6 +655,14 @@ public class UserController {
                             schema = @Schema(implementation = ErrorObject.class)
                     )
             ),
+            @ApiResponse(
+                    responseCode = "412",
+                    description = "The user has been modified since the If-Match version",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorObject.class)
+                    )
+            ),
             @ApiResponse(
                     responseCode = "419",
                     description = "Token Expired",
@@ -602,6 +675,8 @@ public class UserController {
     ResponseEntity<User> update(
             @Parameter(name = "id", description = "User id (email)", example = "test@test.com")
             @PathVariable("id") String id,
+            @Parameter(name = "If-Match", description = "ETag of the user to modify (optional)", example = "\"3\"")
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
             @io.swagger.v3.oas.annotations.parameters.RequestBody(
                     description = "Modifications to user list",
                     content = @Content(
@@ -614,16 +689,17 @@ public class UserController {
             )
             @RequestBody List<Map<String, Object>> updates
     ){
-        //Intentamos hacer la actualización:
-        Optional<User> result = users.update(id, updates);
+        //Intentamos hacer la actualización (sólo si el usuario sigue en la versión indicada):
+        Optional<User> result = users.update(id, updates, versions.expected(ifMatch));
         //Si el método termina correctamente, se preparan los enlaces y se devuelve un estado ok:
         //Enlace al propio usuario:
-        Link self = linkTo(methodOn(UserController.class).get(result.get().getEmail())).withSelfRel();
+        Link self = userLink.with("id", result.get().getEmail()).withSelfRel();
         //Enlace a todos los usuarios:
-        Link all = linkTo(methodOn(UserController.class).get(0, 20, null, null, null))
+        Link all = usersLink.with("page", 0).with("size", 20)
                 .withRel(relationProvider.getCollectionResourceRelFor(User.class));
         //Se devuelve el estado addecuado:
         return ResponseEntity.ok()
+                .eTag(versions.etag(result.get().getVersion()))
                 .header(HttpHeaders.LINK, self.toString())
                 .header(HttpHeaders.LINK, all.toString())
                 .body(result.get());
@@ -639,7 +715,9 @@ public class UserController {
      * @param page La página a recuperar.
      * @param size Tamaño de la página a recuperar.
      * @param sort Criterios de ordenación.
+     * @param total Forma de calcular el total de resultados (exact, estimated o none).
      * @param id Identificador del usuario para el cual se recuperarán sus amigos.
+     * @param ifNoneMatch ETag de la página que ya tiene el cliente (opcional). Si coincide, no se devuelve.
      * @return La página que corresponda con los datos de los amigos.
      */
     @GetMapping(
@@ -658,6 +736,11 @@ public class UserController {
                     responseCode = "200",
                     description = "User friendships correctly given",
                     headers = {
+                            @Header(
+                                    name = "ETag",
+                                    description = "Version of the page of friendships (weak)",
+                                    schema = @Schema(type = "string")
+                            ),
                             @Header(
                                     name = "Self user friendships page",
                                     description = "HATEOAS Self Link",
@@ -685,6 +768,11 @@ public class UserController {
                             )
                     }
             ),
+            @ApiResponse(
+                    responseCode = "304",
+                    description = "Not modified (the page matches the If-None-Match ETag)",
+                    content = @Content
+            ),
             @ApiResponse(
                     responseCode = "403",
                     description = "Not enough privileges",
@@ -712,70 +800,73 @@ public class UserController {
                     )
             )
     })
-    ResponseEntity<Page<Friendship>> getUserFriendships(
+    ResponseEntity<Slice<Friendship>> getUserFriendships(
             @Parameter(name = "page", description = "Page number to get", example = "0")
             @RequestParam(name = "page", defaultValue = "0") int page,
             @Parameter(name = "size", description = "Size of the page", example = "15")
             @RequestParam(name = "size", defaultValue = "20") int size,
             @Parameter(name = "sort", description = "Sort criteria", example = "+since")
             @RequestParam(name = "sort", defaultValue = "") List<String> sort,
+            @Parameter(name = "total", description = "How to compute the total: exact, estimated or none " +
+                    "(no last link)", example = "exact")
+            @RequestParam(name = "total", defaultValue = "exact") String total,
             @Parameter(name = "id", description = "User email", example = "test@test.com")
-            @PathVariable("id") String id
+            @PathVariable("id") String id,
+            @Parameter(name = "If-None-Match", description = "ETag of the page already known", example = "W/\"5d41402abc4b2a76b9719d911017c592\"")
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
     ) {
         //Recuperamos criterios de ordenación:
         List<Sort.Order> criteria = AuxMethods.getSortCriteria(sort);
         //Intentamos hacer la búsqueda:
-        Optional<Page<Friendship>> result = friends.getUserFriendships(page,size,Sort.by(criteria),id);
+        Optional<Slice<Friendship>> result = friends.getUserFriendships(page,size,Sort.by(criteria),
+                TotalMode.of(total),id);
 
         //Si hay resultado, devolveremos estado correcto con todos los enlaces pedidos:
         if(result.isPresent()){
             //Recuperamos el resultado y los datos de pageable:
-            Page<Friendship> data = result.get();
+            Slice<Friendship> data = result.get();
             Pageable metadata = data.getPageable();
 
+            //Si el cliente ya tiene esta página, no se vuelve a enviar:
+            String etag = versions.etag(data, Friendship::getVersion);
+            if(versions.matches(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+
+            //Valores comunes a los enlaces de paginación (sólo cambia la página):
+            LinkTemplate.Values pages = userFriendshipsLink.with("id", id).with("size", size).with("sort", sort)
+                    .with("total", total);
+
             //Enlace a si mismo:
-            Link self = linkTo(methodOn(UserController.class).getUserFriendships(page, size, sort, id))
-                    .withSelfRel();
+            Link self = pages.with("page", page).withSelfRel();
 
             //Enlace al primero:
-            Link first = linkTo(methodOn(UserController.class)
-                    .getUserFriendships(metadata.first().getPageNumber(), size, sort, id)
-            ).withRel(IanaLinkRelations.FIRST);
-
-            //Enlace al último (recuperamos el total de páginas y restamos 1):
-            Link last = linkTo(methodOn(UserController.class)
-                    .getUserFriendships(data.getTotalPages() - 1, size, sort, id)
-            ).withRel(IanaLinkRelations.LAST);
+            Link first = pages.with("page", metadata.first().getPageNumber()).withRel(IanaLinkRelations.FIRST);
 
             //Enlace al anterior (si no lo hay, al primer elemento):
-            Link previous = linkTo(methodOn(UserController.class)
-                    .getUserFriendships(metadata.previousOrFirst().getPageNumber(), size, sort, id)
-            ).withRel(IanaLinkRelations.PREVIOUS);
+            Link previous = pages.with("page", metadata.previousOrFirst().getPageNumber())
+                    .withRel(IanaLinkRelations.PREVIOUS);
+
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .eTag(etag)
+                    .header(HttpHeaders.LINK, self.toString())
+                    .header(HttpHeaders.LINK, first.toString());
+
+            //Enlace al último (sólo si se conoce el total; recuperamos el total de páginas y restamos 1):
+            if(data instanceof Page) {
+                Link last = pages.with("page", ((Page<Friendship>) data).getTotalPages() - 1)
+                        .withRel(IanaLinkRelations.LAST);
+                response.header(HttpHeaders.LINK, last.toString());
+            }
 
             //Hacemos el enlace al siguiente (si es necesario):
-            if(metadata.next().getPageNumber() < data.getTotalPages()) {
-                //Enlace al siguiente
-                Link next = linkTo(methodOn(UserController.class)
-                        .getUserFriendships(metadata.next().getPageNumber(), size, sort, id)
-                ).withRel(IanaLinkRelations.NEXT);
-                //La respuesta contendría en ese caso todos los enlaces:
-                //Devolvemos la respuesta con todos los enlaces creados:
-                return ResponseEntity.ok()
-                        .header(HttpHeaders.LINK, self.toString())
-                        .header(HttpHeaders.LINK, first.toString())
-                        .header(HttpHeaders.LINK, last.toString())
-                        .header(HttpHeaders.LINK, next.toString())
-                        .header(HttpHeaders.LINK, previous.toString())
-                        .body(data);
-            } else {
-                //Se devuelve la respuesta sin enlace al siguiente:
-                return ResponseEntity.ok()
-                        .header(HttpHeaders.LINK, self.toString())
-                        .header(HttpHeaders.LINK, first.toString())
-                        .header(HttpHeaders.LINK, last.toString())
-                        .header(HttpHeaders.LINK, previous.toString())
-                        .body(data);
+            if(data.hasNext()) {
+                Link next = pages.with("page", metadata.next().getPageNumber()).withRel(IanaLinkRelations.NEXT);
+                response.header(HttpHeaders.LINK, next.toString());
             }
+
+            //Devolvemos la respuesta con todos los enlaces creados:
+            return response.header(HttpHeaders.LINK, previous.toString()).body(data);
         }
 
         //No hay resultado: se devuelve un estado not found:
@@ -792,7 +883,9 @@ public class UserController {
      * @param page Página a recuperar
      * @param size Tamaño de la página
      * @param sort Criterios de ordenación
+     * @param total Forma de calcular el total de resultados (exact, estimated o none)
      * @param userId Identificador del usuario para el que se devolverán los comentarios
+     * @param ifNoneMatch ETag de la página que ya tiene el cliente (opcional). Si coincide, no se devuelve.
      * @return los comentarios asociados al usuario correspondiente, o un estado not found si no los hay.
      */
     @GetMapping(
@@ -810,6 +903,11 @@ public class UserController {
                     responseCode = "200",
                     description = "User comments correctly given",
                     headers = {
+                            @Header(
+                                    name = "ETag",
+                                    description = "Version of the page of comments (weak)",
+                                    schema = @Schema(type = "string")
+                            ),
                             @Header(
                                     name = "User",
                                     description = "HATEOAS Link",
@@ -837,6 +935,11 @@ public class UserController {
                             )
                     }
             ),
+            @ApiResponse(
+                    responseCode = "304",
+                    description = "Not modified (the page matches the If-None-Match ETag)",
+                    content = @Content
+            ),
             @ApiResponse(
                     responseCode = "403",
                     description = "Not enough privileges",
@@ -865,66 +968,70 @@ public class UserController {
             )
     })
     @PreAuthorize("hasRole('ADMIN') or #userId == principal or @friendshipService.areFriends(#userId, principal)")
-    ResponseEntity<Page<Assessment>> getUserComments(
+    ResponseEntity<Slice<Assessment>> getUserComments(
             @Parameter(name = "page", description = "Page number to get", example = "0")
             @RequestParam(name = "page", defaultValue = "0") int page,
             @Parameter(name = "size", description = "Size of the page", example = "15")
             @RequestParam(name = "size", defaultValue = "20") int size,
             @Parameter(name = "sort", description = "Sort criteria", example = "-comment")
             @RequestParam(name = "sort", defaultValue = "") List<String> sort,
+            @Parameter(name = "total", description = "How to compute the total: exact, estimated or none " +
+                    "(no last link)", example = "exact")
+            @RequestParam(name = "total", defaultValue = "exact") String total,
             @Parameter(name = "id", description = "User email", example = "test@test.com")
-            @PathVariable("id") String userId
+            @PathVariable("id") String userId,
+            @Parameter(name = "If-None-Match", description = "ETag of the page already known", example = "W/\"5d41402abc4b2a76b9719d911017c592\"")
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
     ) {
         //Se recuperan los criterios de ordenación:
         List<Sort.Order> criteria = AuxMethods.getSortCriteria(sort);
 
         //Se trata de hacer la búsqueda:
-        Optional<Page<Assessment>> result = assessments.getUserComments(page, size, Sort.by(criteria), userId);
+        Optional<Slice<Assessment>> result = assessments.getUserComments(page, size, Sort.by(criteria),
+                TotalMode.of(total), userId);
 
         if(result.isPresent()){
-            Page<Assessment> data = result.get();
+            Slice<Assessment> data = result.get();
             Pageable metadata = data.getPageable();
+
+            //Si el cliente ya tiene esta página, no se vuelve a enviar:
+            String etag = versions.etag(data, Assessment::getVersion);
+            if(versions.matches(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+
             //Preparamos enlaces para devolver
             //Al usuario:
-            Link user = linkTo(methodOn(UserController.class).get(userId))
-                    .withRel(relationProvider.getItemResourceRelFor(User.class));
+            Link user = userLink.with("id", userId).withRel(relationProvider.getItemResourceRelFor(User.class));
+            //Valores comunes a los enlaces de paginación (sólo cambia la página):
+            LinkTemplate.Values pages = userCommentsLink.with("id", userId).with("size", size).with("sort", sort)
+                    .with("total", total);
             //Enlace al primero:
-            Link first = linkTo(methodOn(UserController.class)
-                    .getUserComments(metadata.first().getPageNumber(), size, sort, userId)
-            ).withRel(IanaLinkRelations.FIRST);
-            //Enlace al último (recuperamos el total de páginas y restamos 1):
-            Link last = linkTo(methodOn(UserController.class)
-                    .getUserComments(data.getTotalPages() - 1, size, sort, userId)
-            ).withRel(IanaLinkRelations.LAST);
+            Link first = pages.with("page", metadata.first().getPageNumber()).withRel(IanaLinkRelations.FIRST);
             //Enlace al anterior (si no lo hay, al primer elemento):
-            Link previous = linkTo(methodOn(UserController.class)
-                    .getUserComments(metadata.previousOrFirst().getPageNumber(), size, sort, userId)
-            ).withRel(IanaLinkRelations.PREVIOUS);
+            Link previous = pages.with("page", metadata.previousOrFirst().getPageNumber())
+                    .withRel(IanaLinkRelations.PREVIOUS);
+
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .eTag(etag)
+                    .header(HttpHeaders.LINK, user.toString())
+                    .header(HttpHeaders.LINK, first.toString());
+
+            //Enlace al último (sólo si se conoce el total; recuperamos el total de páginas y restamos 1):
+            if(data instanceof Page) {
+                Link last = pages.with("page", ((Page<Assessment>) data).getTotalPages() - 1)
+                        .withRel(IanaLinkRelations.LAST);
+                response.header(HttpHeaders.LINK, last.toString());
+            }
 
             //Hacemos el enlace al siguiente (si es necesario):
-            if(metadata.next().getPageNumber() < data.getTotalPages()) {
-                //Enlace al siguiente
-                Link next = linkTo(methodOn(UserController.class)
-                        .getUserComments(metadata.next().getPageNumber(), size, sort, userId)
-                ).withRel(IanaLinkRelations.NEXT);
-                //La respuesta contendría en ese caso todos los enlaces:
-                //Devolvemos la respuesta con todos los enlaces creados:
-                return ResponseEntity.ok()
-                        .header(HttpHeaders.LINK, user.toString())
-                        .header(HttpHeaders.LINK, first.toString())
-                        .header(HttpHeaders.LINK, last.toString())
-                        .header(HttpHeaders.LINK, next.toString())
-                        .header(HttpHeaders.LINK, previous.toString())
-                        .body(data);
-            } else {
-                //Se devuelve la respuesta sin enlace al siguiente:
-                return ResponseEntity.ok()
-                        .header(HttpHeaders.LINK, user.toString())
-                        .header(HttpHeaders.LINK, first.toString())
-                        .header(HttpHeaders.LINK, last.toString())
-                        .header(HttpHeaders.LINK, previous.toString())
-                        .body(data);
+            if(data.hasNext()) {
+                Link next = pages.with("page", metadata.next().getPageNumber()).withRel(IanaLinkRelations.NEXT);
+                response.header(HttpHeaders.LINK, next.toString());
             }
+
+            //Devolvemos la respuesta con todos los enlaces creados:
+            return response.header(HttpHeaders.LINK, previous.toString()).body(data);
         }
 
         //Si no se encuentra resultado, se devuelve un not found:
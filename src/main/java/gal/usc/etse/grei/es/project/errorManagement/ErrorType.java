@@ -8,7 +8,8 @@ import io.swagger.v3.oas.annotations.media.Schema;
  */
 @Schema(description = "Types of errors that can appear on an ErrorObject",
         allowableValues = {"INVALID_INFO", "UNKNOWN_INFO", "EXISTING_DATA", "ALREADY_MODIFIED", "FORBIDDEN",
-                           "INVALID_PARAMETER", "EXPIRED_TOKEN", "INVALID_TOKEN"})
+                           "INVALID_PARAMETER", "EXPIRED_TOKEN", "INVALID_TOKEN", "SERVICE_UNAVAILABLE",
+                           "TOO_MANY_REQUESTS"})
 public enum ErrorType {
     INVALID_INFO,
     UNKNOWN_INFO,
@@ -17,6 +18,8 @@ public enum ErrorType {
     FORBIDDEN,
     INVALID_PARAMETER,
     EXPIRED_TOKEN,
-    INVALID_TOKEN
+    INVALID_TOKEN,
+    SERVICE_UNAVAILABLE,
+    TOO_MANY_REQUESTS
 
 }
@@ -86,4 +86,34 @@ public class Handler extends ResponseEntityExceptionHandler {
     public ResponseEntity<ErrorObject> handle(NoDataException exception){
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(exception.getErrorObject());
     }
+
+    /**
+     * Manejador de la excepción PreconditionFailedException
+     * @param exception La excepción lanzada
+     * @return Un estado de error Precondition Failed
+     */
+    @ExceptionHandler(PreconditionFailedException.class)
+    public ResponseEntity<ErrorObject> handle(PreconditionFailedException exception){
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(exception.getErrorObject());
+    }
+
+    /**
+     * Manejador de la excepción InvalidTokenException
+     * @param exception La excepción lanzada
+     * @return Un estado de error Unauthorized
+     */
+    @ExceptionHandler(InvalidTokenException.class)
+    public ResponseEntity<ErrorObject> handle(InvalidTokenException exception){
+        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(exception.getErrorObject());
+    }
+
+    /**
+     * Manejador de la excepción ServiceUnavailableException
+     * @param exception La excepción lanzada
+     * @return Un estado de error Service Unavailable
+     */
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<ErrorObject> handle(ServiceUnavailableException exception){
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(exception.getErrorObject());
+    }
 }
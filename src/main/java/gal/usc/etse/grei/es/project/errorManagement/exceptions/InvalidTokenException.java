@@ -0,0 +1,19 @@
+package gal.usc.etse.grei.es.project.errorManagement.exceptions;
+
+import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
+
+/**
+ * InvalidTokenException: excepción que se lanzará cuando el token facilitado (por ejemplo, un token de
+ * refresco) no sea válido, haya caducado o haya sido revocado.
+ * @author Manuel Bendaña
+ */
+public class InvalidTokenException extends GeneralApiException{
+    /**
+     * Constructor de la clase
+     * @param errorType Tipo de error.
+     * @param message   Mensaje destinado al error.
+     */
+    public InvalidTokenException(ErrorType errorType, String message) {
+        super(errorType, message);
+    }
+}
@@ -0,0 +1,19 @@
+package gal.usc.etse.grei.es.project.errorManagement.exceptions;
+
+import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
+
+/**
+ * PreconditionFailedException: excepción que se lanzará cuando el dato que se quiere modificar ya no está en la
+ * versión indicada por el cliente (cabecera If-Match).
+ * @author Manuel Bendaña
+ */
+public class PreconditionFailedException extends GeneralApiException{
+    /**
+     * Constructor de la clase
+     * @param errorType Tipo de error.
+     * @param message   Mensaje destinado al error.
+     */
+    public PreconditionFailedException(ErrorType errorType, String message) {
+        super(errorType, message);
+    }
+}
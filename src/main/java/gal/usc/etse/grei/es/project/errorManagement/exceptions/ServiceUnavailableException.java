@@ -0,0 +1,19 @@
+package gal.usc.etse.grei.es.project.errorManagement.exceptions;
+
+import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
+
+/**
+ * ServiceUnavailableException: excepción que se lanzará cuando la operación no está disponible en esta
+ * instancia de la aplicación (por ejemplo, emitir tokens en una instancia que sólo los verifica).
+ * @author Manuel Bendaña
+ */
+public class ServiceUnavailableException extends GeneralApiException{
+    /**
+     * Constructor de la clase
+     * @param errorType Tipo de error.
+     * @param message   Mensaje destinado al error.
+     */
+    public ServiceUnavailableException(ErrorType errorType, String message) {
+        super(errorType, message);
+    }
+}
@@ -2,23 +2,28 @@ package gal.usc.etse.grei.es.project.filter;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.jsonwebtoken.JwtBuilder;
-import io.jsonwebtoken.Jwts;
+import gal.usc.etse.grei.es.project.errorManagement.ErrorObject;
+import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
+import gal.usc.etse.grei.es.project.service.TokenService;
+import gal.usc.etse.grei.es.project.utilities.AdaptivePasswordEncoder;
+import gal.usc.etse.grei.es.project.utilities.LoginRateLimiter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
 import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.security.Key;
-import java.time.Duration;
-import java.util.Date;
 import java.util.stream.Collectors;
 
 /**
@@ -26,20 +31,27 @@ import java.util.stream.Collectors;
  * Clase elaborada por los profesores de la materia. Adaptada por Manuel Bendaña
  */
 public class AuthenticationFilter extends UsernamePasswordAuthenticationFilter {
-    private final AuthenticationManager manager;
-    private final Key key;
+    //Cabecera con el token de refresco:
+    public static final String REFRESH_TOKEN = "Refresh-Token";
+    //Cabecera con la duración (en segundos) del token de acceso:
+    public static final String EXPIRES_IN = "Expires-In";
 
-    // Establecemos duración para los tokens
-    private static long TOKEN_DURATION = Duration.ofMinutes(60).toMillis();
+    private final AuthenticationManager manager;
+    //Servicio de emisión de los tokens:
+    private final TokenService tokens;
+    //Límite de intentos de inicio de sesión:
+    private final LoginRateLimiter limiter;
 
     /**
      * Constructor de la clase
      * @param manager
-     * @param key
+     * @param tokens Referencia al servicio de tokens.
+     * @param limiter Referencia al límite de intentos de inicio de sesión.
      */
-    public AuthenticationFilter(AuthenticationManager manager, Key key){
+    public AuthenticationFilter(AuthenticationManager manager, TokenService tokens, LoginRateLimiter limiter){
         this.manager = manager;
-        this.key = key;
+        this.tokens = tokens;
+        this.limiter = limiter;
     }
 
     /**
@@ -54,11 +66,16 @@ public class AuthenticationFilter extends UsernamePasswordAuthenticationFilter {
         try {
             //Recuperamos el objeto JSON de la request HTTP.
             JsonNode credentials = new ObjectMapper().readValue(request.getInputStream(), JsonNode.class);
+            String email = credentials.get("email").textValue();
+
+            //Antes de consultar el usuario y comprobar la contraseña, se comprueba el límite de intentos por IP y
+            //por email (si se supera, se lanza una excepción que trata unsuccessfulAuthentication):
+            limiter.acquire(request.getRemoteAddr(), email);
 
             //Intentamos autenticarnos con las credenciales.
             return manager.authenticate(
                     new UsernamePasswordAuthenticationToken(
-                            credentials.get("email").textValue(),
+                            email,
                             credentials.get("password").textValue()
                     )
             );
@@ -76,30 +93,63 @@ public class AuthenticationFilter extends UsernamePasswordAuthenticationFilter {
      */
     @Override
     protected void successfulAuthentication(HttpServletRequest request, HttpServletResponse response, FilterChain chain, Authentication authResult) {
-        //Almacenamos tiempo actual:
-        long now = System.currentTimeMillis();
-
         //Recuperamos la lista de roles asignados al usuario y los concatenamos en un string separado por comas
         String authorities = authResult.getAuthorities()
                 .stream()
                 .map(GrantedAuthority::getAuthority)
                 .collect(Collectors.joining(","));
 
-        //Se crea el token JWT creando el builder:
-        JwtBuilder tokenBuilder = Jwts.builder()
-                //Establecemos como "propietario" del token al usuario que realizó login:
-                .setSubject(((User)authResult.getPrincipal()).getUsername())
-                //Establecemos la fecha de emisión del token:
-                .setIssuedAt(new Date(now))
-                //Establecemos la fecha máxima de validez del token:
-                .setExpiration(new Date(now + TOKEN_DURATION))
-                //Añadimos un atributo más al token con los roles del usuario:
-                .claim("roles", authorities)
-                //Firmamos el token con nuestra clave secreta:
-                .signWith(key);
+        //Se emiten los tokens de acceso y de refresco para el usuario que realizó login:
+        TokenService.Tokens issued = tokens.issue(((User)authResult.getPrincipal()).getUsername(), authorities);
+
+        //Añadimos los tokens a la respuesta en las cabeceras "Authentication" y "Refresh-Token"
+        addTokenHeaders(response, issued);
+    }
+
+    /**
+     * Método que añade a una respuesta las cabeceras con los tokens emitidos.
+     * @param response Respuesta HTTP
+     * @param issued Los tokens emitidos.
+     */
+    public static void addTokenHeaders(HttpServletResponse response, TokenService.Tokens issued) {
+        response.addHeader("Authentication", String.format("Bearer %s", issued.getAccess()));
+        response.addHeader(REFRESH_TOKEN, issued.getRefresh());
+        response.addHeader(EXPIRES_IN, String.valueOf(issued.getExpiresIn()));
+    }
 
-        //Añadimos el token a la respuesta en la cabecera "Authentication"
-        response.addHeader("Authentication", String.format("Bearer %s", tokenBuilder.compact()));
+    /**
+     * Método llamado cuando la autenticación falla. Si no se ha podido comprobar la contraseña por exceso de
+     * inicios de sesión simultáneos, se indica que se vuelva a intentar más tarde (503) en lugar de rechazar
+     * las credenciales, y lo mismo si se ha superado el límite de intentos (429).
+     * @param request Solicitud HTTP
+     * @param response Respuesta HTTP
+     * @param failed Excepción de la autenticación.
+     * @throws IOException Excepción que se puede lanzar desde este método
+     * @throws ServletException Excepción que se puede lanzar desde este método
+     */
+    @Override
+    protected void unsuccessfulAuthentication(HttpServletRequest request, HttpServletResponse response,
+                                              AuthenticationException failed) throws IOException, ServletException {
+        if(failed instanceof LoginRateLimiter.LimitExceededException) {
+            SecurityContextHolder.clearContext();
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER,
+                    String.valueOf(((LoginRateLimiter.LimitExceededException) failed).getRetryAfter()));
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.getOutputStream().println(new ObjectMapper().writeValueAsString(
+                    new ErrorObject(ErrorType.TOO_MANY_REQUESTS, "Too many login attempts. Try again later.")));
+            return;
+        }
+        if(failed instanceof AdaptivePasswordEncoder.VerificationBusyException) {
+            SecurityContextHolder.clearContext();
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.getOutputStream().println(new ObjectMapper().writeValueAsString(
+                    new ErrorObject(ErrorType.SERVICE_UNAVAILABLE, "Too many logins in progress. Try again later.")));
+            return;
+        }
+        super.unsuccessfulAuthentication(request, response, failed);
     }
 
 }
@@ -1,8 +1,12 @@
 package gal.usc.etse.grei.es.project.filter;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import gal.usc.etse.grei.es.project.errorManagement.ErrorObject;
 import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
+import gal.usc.etse.grei.es.project.service.TokenService;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.SignatureException;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -17,8 +21,12 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.security.Key;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -26,16 +34,52 @@ import java.util.List;
  * Clase elaborada por los profesores de la materia. Adaptada por Manuel Bendaña
  */
 public class AuthorizationFilter extends BasicAuthenticationFilter {
-    private final Key key;
+    //Instancia de SHA-256 por hilo, para calcular la clave de cada token en la caché:
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    //Servicio que comprueba los tokens y sus revocaciones:
+    private final TokenService tokens;
+    //Tokens ya verificados, por su hash. Cada uno caduca en el momento en que lo hace el token (nulo si no se
+    //guardan):
+    private final Cache<String, VerifiedToken> verified;
 
     /**
      * Constructor de la clase
      * @param manager Instancia del authentication manager
-     * @param key La clave usada
+     * @param tokens Referencia al servicio de tokens.
+     * @param maxVerifiedTokens Número máximo de tokens ya verificados que se mantienen en memoria (0 para
+     *                          verificar la firma en todas las peticiones).
      */
-    public AuthorizationFilter(AuthenticationManager manager, Key key){
+    public AuthorizationFilter(AuthenticationManager manager, TokenService tokens, long maxVerifiedTokens){
         super(manager);
-        this.key = key;
+        this.tokens = tokens;
+        this.verified = maxVerifiedTokens <= 0 ? null : Caffeine.newBuilder()
+                .maximumSize(maxVerifiedTokens)
+                .expireAfter(new Expiry<String, VerifiedToken>() {
+                    @Override
+                    public long expireAfterCreate(String hash, VerifiedToken token, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, token.expiration - System.currentTimeMillis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String hash, VerifiedToken token, long currentTime,
+                                                  long currentDuration) {
+                        return expireAfterCreate(hash, token, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String hash, VerifiedToken token, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
     }
 
     /**
@@ -73,7 +117,7 @@ public class AuthorizationFilter extends BasicAuthenticationFilter {
             response.setStatus(419);
             response.getOutputStream().println(new ObjectMapper().writeValueAsString(new ErrorObject(ErrorType.EXPIRED_TOKEN,
                     "Authentication timed out.")));
-        } catch(MalformedJwtException | SignatureException e){
+        } catch(MalformedJwtException | SignatureException | RevokedTokenException e){
             //Si el token no es correcto, se devuelve también error (en este caso unhauthorized):
             response.setStatus(401);
             response.getOutputStream().println(new ObjectMapper().writeValueAsString(new ErrorObject(ErrorType.INVALID_TOKEN,
@@ -86,24 +130,78 @@ public class AuthorizationFilter extends BasicAuthenticationFilter {
      * @param token El token pasado por el usuario.
      * @return Los datos de autenticación.
      * @throws ExpiredJwtException Excepción lanzada si el token expira.
+     * @throws RevokedTokenException Excepción lanzada si se han revocado los tokens del usuario.
      */
     private UsernamePasswordAuthenticationToken getAuthentication(String token) throws ExpiredJwtException {
-        //Creamos un parser para el token con la clave de firmado de la aplicación
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                //Parseamos el body del token
-                .parseClaimsJws(token.replace("Bearer", "").trim())
-                .getBody();
+        String jwt = token.replace("Bearer", "").trim();
+
+        //Si el token ya se verificó (y no ha caducado), se reutilizan los datos de autenticación, siempre que no
+        //se hayan revocado después:
+        String hash = verified == null ? null : hash(jwt);
+        VerifiedToken cached = verified == null ? null : verified.getIfPresent(hash);
+        if(cached != null) {
+            if(tokens.isRevoked(cached.authentication.getName(), cached.issued)) {
+                verified.invalidate(hash);
+                throw new RevokedTokenException();
+            }
+            return cached.authentication;
+        }
+
+        //Si no, parseamos el body del token con el servicio de tokens:
+        Claims claims = tokens.parse(jwt);
 
         //Recuperamos el nombre del propietario del token:
         String user = claims.getSubject();
+        if(user == null) return null;
+
+        //Se rechazan los tokens emitidos antes de revocar los del usuario (cambio de contraseña, borrado...):
+        long issued = claims.getIssuedAt() == null ? 0 : claims.getIssuedAt().getTime();
+        if(tokens.isRevoked(user, issued)) throw new RevokedTokenException();
 
         //Obtenemos el listado de roles del usuario:
         List<GrantedAuthority> authorities = AuthorityUtils.commaSeparatedStringToAuthorityList(claims.get("roles").toString());
 
-        //Devolvemos el token interno de Spring, que será añadido en el contexto:
-        return user == null ? null : new UsernamePasswordAuthenticationToken(user, token, authorities);
+        //Creamos el token interno de Spring, que será añadido en el contexto, y lo guardamos hasta que caduque:
+        UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(user, token, authorities);
+        if(verified != null && claims.getExpiration() != null) {
+            verified.put(hash, new VerifiedToken(authentication, issued, claims.getExpiration().getTime()));
+        }
+        return authentication;
+    }
+
+    /**
+     * Método que calcula el hash (SHA-256) de un token, para no mantener los tokens en claro en memoria.
+     * @param jwt El token.
+     * @return El hash codificado en base64.
+     */
+    private static String hash(String jwt) {
+        return Base64.getEncoder().encodeToString(SHA256.get().digest(jwt.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Clase auxiliar con los datos de un token ya verificado.
+     */
+    private static class VerifiedToken {
+        //Datos de autenticación obtenidos del token:
+        private final UsernamePasswordAuthenticationToken authentication;
+        //Momento de emisión del token (en milisegundos):
+        private final long issued;
+        //Momento de caducidad del token (en milisegundos):
+        private final long expiration;
+
+        private VerifiedToken(UsernamePasswordAuthenticationToken authentication, long issued, long expiration) {
+            this.authentication = authentication;
+            this.issued = issued;
+            this.expiration = expiration;
+        }
     }
 
+    /**
+     * Excepción lanzada cuando el token es válido pero se han revocado los tokens de su propietario.
+     */
+    private static class RevokedTokenException extends RuntimeException {
+        private RevokedTokenException() {
+            super("The provided token has been revoked.");
+        }
+    }
 }
@@ -39,6 +39,9 @@ public class Assessment {
     private Film movie;
     @Schema(example = "Good movie!")
     private String comment;
+    //Versión del documento, que se incrementa con cada modificación (cabeceras ETag e If-Match):
+    @Schema(accessMode = Schema.AccessMode.READ_ONLY, example = "3")
+    private Long version;
 
     public Assessment() { }
     public Assessment(String id, Integer rating, User user, Film movie, String comment) {
@@ -86,6 +89,14 @@ public class Assessment {
         return this;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+    public Assessment setVersion(Long version) {
+        this.version = version;
+        return this;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
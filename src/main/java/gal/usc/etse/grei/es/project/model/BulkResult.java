@@ -0,0 +1,109 @@
+package gal.usc.etse.grei.es.project.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.StringJoiner;
+
+/**
+ * Clase que representa el resultado de la inserción de un elemento en una carga masiva: su posición en la
+ * entrada, el id asignado (si se ha insertado) y los errores (si no).
+ *
+ * @author Manuel Bendaña
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description="Result of the insertion of one item of a bulk load")
+public class BulkResult {
+    @Schema(example = "0")
+    private Integer index;
+    @Schema(example = "6070a6d5e8b5f93c1f3a1b2c")
+    private String id;
+    @Schema(example = "CREATED", allowableValues = {"CREATED", "INVALID", "FAILED"})
+    private Outcome status;
+    @Schema(example = "[\"title: must not be empty\"]")
+    private List<String> errors;
+
+    /**
+     * Tipo enum Outcome: posibles resultados de la inserción de un elemento.
+     */
+    public enum Outcome {
+        //Insertado correctamente:
+        CREATED,
+        //Descartado por no superar las validaciones (no se ha intentado insertar):
+        INVALID,
+        //Rechazado por la base de datos al insertarlo:
+        FAILED
+    }
+
+    public BulkResult() {
+    }
+
+    public BulkResult(Integer index, String id, Outcome status, List<String> errors) {
+        this.index = index;
+        this.id = id;
+        this.status = status;
+        this.errors = errors;
+    }
+
+    public Integer getIndex() {
+        return index;
+    }
+
+    public BulkResult setIndex(Integer index) {
+        this.index = index;
+        return this;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public BulkResult setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public Outcome getStatus() {
+        return status;
+    }
+
+    public BulkResult setStatus(Outcome status) {
+        this.status = status;
+        return this;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public BulkResult setErrors(List<String> errors) {
+        this.errors = errors;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BulkResult that = (BulkResult) o;
+        return Objects.equals(index, that.index) && Objects.equals(id, that.id) && status == that.status
+                && Objects.equals(errors, that.errors);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(index, id, status, errors);
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", BulkResult.class.getSimpleName() + "[", "]")
+                .add("index=" + index)
+                .add("id='" + id + "'")
+                .add("status=" + status)
+                .add("errors=" + errors)
+                .toString();
+    }
+}
@@ -0,0 +1,37 @@
+package gal.usc.etse.grei.es.project.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Clase que representa una página de resultados junto a sus facetas: para cada campo pedido, el número de
+ * resultados de la búsqueda (no sólo de la página) que tiene cada uno de sus valores.
+ *
+ * @author Manuel Bendaña
+ */
+@Schema(description="Page of results with the number of results for each value of the requested fields")
+public class FacetedPage<T> extends PageImpl<T> {
+    //Número de resultados por valor de cada campo, de más a menos resultados:
+    @Schema(example = "{\"genres\": {\"Drama\": 120, \"Comedy\": 87}, \"status\": {\"RELEASED\": 201}}")
+    private final Map<String, Map<String, Long>> facets;
+
+    /**
+     * Constructor de la clase
+     * @param content Contenido de la página.
+     * @param pageable Datos de paginación.
+     * @param total Total de resultados de la búsqueda.
+     * @param facets Número de resultados por valor de cada campo.
+     */
+    public FacetedPage(List<T> content, Pageable pageable, long total, Map<String, Map<String, Long>> facets) {
+        super(content, pageable, total);
+        this.facets = facets;
+    }
+
+    public Map<String, Map<String, Long>> getFacets() {
+        return facets;
+    }
+}
@@ -5,6 +5,7 @@ import gal.usc.etse.grei.es.project.model.validation.createValidation;
 import io.swagger.v3.oas.annotations.media.Schema;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.TextScore;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotEmpty;
@@ -53,6 +54,15 @@ public class Film {
     private Integer runtime;
     @Schema(example = "50000")
     private Long revenue;
+    @Schema(accessMode = Schema.AccessMode.READ_ONLY)
+    private Rating rating;
+    //Versión del documento, que se incrementa con cada modificación (cabeceras ETag e If-Match):
+    @Schema(accessMode = Schema.AccessMode.READ_ONLY, example = "3")
+    private Long version;
+    //Relevancia en las búsquedas por texto (no se guarda, y no forma parte de los datos de la película):
+    @Schema(accessMode = Schema.AccessMode.READ_ONLY, example = "1.5")
+    @TextScore
+    private Double score;
 
     public Film() { }
 
@@ -219,17 +229,44 @@ public class Film {
         return this;
     }
 
+    public Rating getRating() {
+        return rating;
+    }
+
+    public Film setRating(Rating rating) {
+        this.rating = rating;
+        return this;
+    }
+
+    public Double getScore() {
+        return score;
+    }
+
+    public Film setScore(Double score) {
+        this.score = score;
+        return this;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public Film setVersion(Long version) {
+        this.version = version;
+        return this;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Film movie = (Film) o;
-        return Objects.equals(id, movie.id) && Objects.equals(title, movie.title) && Objects.equals(overview, movie.overview) && Objects.equals(tagline, movie.tagline) && Objects.equals(collection, movie.collection) && Objects.equals(genres, movie.genres) && Objects.equals(releaseDate, movie.releaseDate) && Objects.equals(keywords, movie.keywords) && Objects.equals(producers, movie.producers) && Objects.equals(crew, movie.crew) && Objects.equals(cast, movie.cast) && Objects.equals(resources, movie.resources) && Objects.equals(budget, movie.budget) && status == movie.status && Objects.equals(runtime, movie.runtime) && Objects.equals(revenue, movie.revenue);
+        return Objects.equals(id, movie.id) && Objects.equals(title, movie.title) && Objects.equals(overview, movie.overview) && Objects.equals(tagline, movie.tagline) && Objects.equals(collection, movie.collection) && Objects.equals(genres, movie.genres) && Objects.equals(releaseDate, movie.releaseDate) && Objects.equals(keywords, movie.keywords) && Objects.equals(producers, movie.producers) && Objects.equals(crew, movie.crew) && Objects.equals(cast, movie.cast) && Objects.equals(resources, movie.resources) && Objects.equals(budget, movie.budget) && status == movie.status && Objects.equals(runtime, movie.runtime) && Objects.equals(revenue, movie.revenue) && Objects.equals(rating, movie.rating);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, title, overview, tagline, collection, genres, releaseDate, keywords, producers, crew, cast, resources, budget, status, runtime, revenue);
+        return Objects.hash(id, title, overview, tagline, collection, genres, releaseDate, keywords, producers, crew, cast, resources, budget, status, runtime, revenue, rating);
     }
 
     @Override
@@ -251,6 +288,7 @@ public class Film {
                 .add("status=" + status)
                 .add("runtime=" + runtime)
                 .add("revenue=" + revenue)
+                .add("rating=" + rating)
                 .toString();
     }
 }
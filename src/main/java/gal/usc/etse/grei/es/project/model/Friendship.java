@@ -30,6 +30,9 @@ public class Friendship {
     @Schema(example = "true")
     private Boolean confirmed;
     private Date since;
+    //Versión del documento, que se incrementa con cada modificación (cabeceras ETag e If-Match):
+    @Schema(accessMode = Schema.AccessMode.READ_ONLY, example = "3")
+    private Long version;
 
     public Friendship() {
     }
@@ -79,6 +82,14 @@ public class Friendship {
         return this;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+    public Friendship setVersion(Long version) {
+        this.version = version;
+        return this;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
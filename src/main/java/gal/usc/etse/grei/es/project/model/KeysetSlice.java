@@ -0,0 +1,35 @@
+package gal.usc.etse.grei.es.project.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+
+import java.util.List;
+
+/**
+ * Clase que representa una porción de resultados obtenida mediante paginación por clave.
+ * Además de los datos propios de un Slice, contiene el cursor con el que continuar la búsqueda.
+ *
+ * @author Manuel Bendaña
+ */
+@Schema(description="Slice of results obtained through keyset pagination")
+public class KeysetSlice<T> extends SliceImpl<T> {
+    //Cursor para recuperar la siguiente porción (null si no hay más resultados):
+    @Schema(example = "eyJzIjoiK19pZCIsInYiOlsiNzQ0Njg3Il19")
+    private final String nextCursor;
+
+    /**
+     * Constructor de la clase
+     * @param content Contenido de la porción.
+     * @param pageable Datos de paginación (tamaño y ordenación).
+     * @param nextCursor Cursor para continuar, o null si no hay más resultados.
+     */
+    public KeysetSlice(List<T> content, Pageable pageable, String nextCursor) {
+        super(content, pageable, nextCursor != null);
+        this.nextCursor = nextCursor;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
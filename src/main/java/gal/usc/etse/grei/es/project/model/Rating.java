@@ -0,0 +1,98 @@
+package gal.usc.etse.grei.es.project.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.StringJoiner;
+
+/**
+ * Clase que representa el resumen de las valoraciones de una película: número de comentarios, suma y media de
+ * las puntuaciones, y número de comentarios con cada puntuación (de 1 a 5).
+ *
+ * Se mantiene de forma incremental al crear, modificar y borrar comentarios.
+ *
+ * @author Manuel Bendaña
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description="Summary of the ratings given to a movie in its comments")
+public class Rating {
+    @Schema(example = "3")
+    private Long count;
+    @Schema(example = "11")
+    private Long sum;
+    @Schema(example = "3.6666666666666665")
+    private Double average;
+    @Schema(example = "{\"1\": 0, \"2\": 0, \"3\": 1, \"4\": 2, \"5\": 0}")
+    private Map<String, Long> histogram;
+
+    public Rating() {
+    }
+
+    public Rating(Long count, Long sum, Double average, Map<String, Long> histogram) {
+        this.count = count;
+        this.sum = sum;
+        this.average = average;
+        this.histogram = histogram;
+    }
+
+    public Long getCount() {
+        return count;
+    }
+
+    public Rating setCount(Long count) {
+        this.count = count;
+        return this;
+    }
+
+    public Long getSum() {
+        return sum;
+    }
+
+    public Rating setSum(Long sum) {
+        this.sum = sum;
+        return this;
+    }
+
+    public Double getAverage() {
+        return average;
+    }
+
+    public Rating setAverage(Double average) {
+        this.average = average;
+        return this;
+    }
+
+    public Map<String, Long> getHistogram() {
+        return histogram;
+    }
+
+    public Rating setHistogram(Map<String, Long> histogram) {
+        this.histogram = histogram;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Rating rating = (Rating) o;
+        return Objects.equals(count, rating.count) && Objects.equals(sum, rating.sum) && Objects.equals(average, rating.average) && Objects.equals(histogram, rating.histogram);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(count, sum, average, histogram);
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", Rating.class.getSimpleName() + "[", "]")
+                .add("count=" + count)
+                .add("sum=" + sum)
+                .add("average=" + average)
+                .add("histogram=" + histogram)
+                .toString();
+    }
+}
@@ -43,6 +43,9 @@ public class User {
     private String password;
     @Schema(example = "ROLE_USER")
     private List<String> roles;
+    //Versión del documento, que se incrementa con cada modificación (cabeceras ETag e If-Match):
+    @Schema(accessMode = Schema.AccessMode.READ_ONLY, example = "3")
+    private Long version;
 
     public User() {}
     public User(String email, String name, String country, String picture, Date birthday, String password, List<String> roles) {
@@ -106,6 +109,14 @@ public class User {
         return this;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+    public User setVersion(Long version) {
+        this.version = version;
+        return this;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
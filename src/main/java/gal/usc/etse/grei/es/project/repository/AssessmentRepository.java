@@ -3,6 +3,7 @@ package gal.usc.etse.grei.es.project.repository;
 import gal.usc.etse.grei.es.project.model.Assessment;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 /**
@@ -29,6 +30,36 @@ public interface AssessmentRepository extends MongoRepository<Assessment, String
      */
     Page<Assessment> findAllByUserEmail(String userId, Pageable pageable);
 
+    /**
+     * Recuperar los comentarios de una película sin calcular el total:
+     * @param movieId El id de la película.
+     * @param pageable Parámetros de paginación.
+     * @return La porción que corresponda con los comentarios de la película.
+     */
+    Slice<Assessment> findSliceByMovieId(String movieId, Pageable pageable);
+
+    /**
+     * Recuperar los comentarios de un usuario sin calcular el total:
+     * @param userId El id del usuario (que es lo mismo que el email).
+     * @param pageable Parámetros de paginación.
+     * @return La porción que corresponda con los comentarios del usuario.
+     */
+    Slice<Assessment> findSliceByUserEmail(String userId, Pageable pageable);
+
+    /**
+     * Contar los comentarios de una película:
+     * @param movieId El id de la película.
+     * @return El número de comentarios de la película.
+     */
+    long countByMovieId(String movieId);
+
+    /**
+     * Contar los comentarios de un usuario:
+     * @param userId El id del usuario (email).
+     * @return El número de comentarios del usuario.
+     */
+    long countByUserEmail(String userId);
+
     /**
      * Método que permite determinar si existe un comentario para una película
      * de un usuario específico.
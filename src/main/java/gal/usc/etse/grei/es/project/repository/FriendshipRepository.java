@@ -3,6 +3,7 @@ package gal.usc.etse.grei.es.project.repository;
 import gal.usc.etse.grei.es.project.model.Friendship;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 import java.util.Optional;
@@ -22,6 +23,17 @@ public interface FriendshipRepository extends MongoRepository<Friendship, String
      */
     boolean existsByUserAndFriend(String user, String friend);
 
+    /**
+     * Método que permite comprobar en una única consulta si existe una amistad entre dos usuarios, en cualquiera
+     * de los dos sentidos.
+     * @param user El id del primer usuario.
+     * @param friend El id del segundo usuario.
+     * @param friend2 El id del segundo usuario (como usuario de la amistad).
+     * @param user2 El id del primer usuario (como amigo de la amistad).
+     * @return Booleano que determina si existe la amistad.
+     */
+    boolean existsByUserAndFriendOrFriendAndUser(String user, String friend, String friend2, String user2);
+
     /**
      * Método que permite recuperar una amistad por los usuarios que la componen.
      * @param user El usuario que estableció la amistad.
@@ -38,6 +50,22 @@ public interface FriendshipRepository extends MongoRepository<Friendship, String
      */
     Optional<Page<Friendship>> getAllByUserOrFriend(String user, String friend, Pageable request);
 
+    /**
+     * Método que permite hacer la búsqueda de una amistad por usuario o amigo sin calcular el total.
+     * @param user El id del usuario.
+     * @param friend El id del amigo.
+     * @return Porción con las amistades correspondientes.
+     */
+    Slice<Friendship> findSliceByUserOrFriend(String user, String friend, Pageable request);
+
+    /**
+     * Método que permite contar las amistades por usuario o amigo.
+     * @param user El id del usuario.
+     * @param friend El id del amigo.
+     * @return El número de amistades.
+     */
+    long countByUserOrFriend(String user, String friend);
+
     /**
      * Método que borra todas las amistades en los cuales el id de usuario o del amigo coinciden con
      * el especificado.
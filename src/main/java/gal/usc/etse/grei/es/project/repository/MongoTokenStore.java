@@ -0,0 +1,153 @@
+package gal.usc.etse.grei.es.project.repository;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Clase MongoTokenStore: almacén de las sesiones y revocaciones de los tokens en la base de datos, compartido por
+ * todas las instancias de la aplicación.
+ *
+ * Las sesiones se guardan en la colección sessions, por el hash de su token de refresco, y las revocaciones en la
+ * colección revocations, por el id del usuario. Ambas tienen un índice TTL, de forma que mongo borra los documentos
+ * caducados. Las revocaciones se consultan en cada petición autenticada, por lo que se mantiene una copia en memoria
+ * que se actualiza periódicamente con las registradas por otras instancias: una revocación hecha en otra instancia
+ * tarda como mucho ese intervalo en aplicarse a los tokens de acceso en esta.
+ *
+ * @author Manuel Bendaña
+ */
+@Repository
+public class MongoTokenStore implements TokenStore {
+    //Logger de la clase:
+    private static final Logger log = LoggerFactory.getLogger(MongoTokenStore.class);
+    //Colecciones de las sesiones y de las revocaciones:
+    private static final String SESSIONS = "sessions";
+    private static final String REVOCATIONS = "revocations";
+    //Margen con el que se recuperan las revocaciones recientes, por las diferencias entre los relojes de las
+    //instancias:
+    private static final long CLOCK_SKEW = Duration.ofMinutes(1).toMillis();
+
+    //Referencia a MongoTemplate:
+    private final MongoTemplate mongoTemplate;
+    //Tiempo durante el que se mantiene cada revocación (duración máxima de los tokens, en milisegundos):
+    private final long retention;
+    //Copia en memoria de las revocaciones vigentes (en segundos), por usuario:
+    private final Map<String, Long> revocations = new ConcurrentHashMap<>();
+    //Momento de la última actualización de la copia en memoria (0 si aún no se ha cargado):
+    private volatile long lastPoll = 0;
+
+    /**
+     * Constructor de la clase
+     * @param mongoTemplate Referencia a MongoTemplate.
+     * @param accessTtl Duración de los tokens de acceso.
+     * @param refreshTtl Duración de los tokens de refresco.
+     */
+    @Autowired
+    public MongoTokenStore(MongoTemplate mongoTemplate,
+                           @Value("${security.tokens.access-ttl:PT15M}") Duration accessTtl,
+                           @Value("${security.tokens.refresh-ttl:P7D}") Duration refreshTtl) {
+        this.mongoTemplate = mongoTemplate;
+        this.retention = Math.max(accessTtl.toMillis(), refreshTtl.toMillis());
+    }
+
+    /**
+     * Método que crea los índices de las colecciones y carga las revocaciones al arrancar la aplicación.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initialize() {
+        try {
+            mongoTemplate.indexOps(SESSIONS).ensureIndex(new Index().on("expires", Sort.Direction.ASC).expire(0));
+            mongoTemplate.indexOps(SESSIONS).ensureIndex(new Index().on("user", Sort.Direction.ASC));
+            mongoTemplate.indexOps(REVOCATIONS).ensureIndex(new Index().on("expires", Sort.Direction.ASC).expire(0));
+            mongoTemplate.indexOps(REVOCATIONS).ensureIndex(new Index().on("at", Sort.Direction.ASC));
+        } catch (DataAccessException e) {
+            log.error("Token store indexes could not be created: {}", e.getMessage());
+        }
+        poll();
+    }
+
+    @Override
+    public void save(String hash, Session session, long expires) {
+        mongoTemplate.insert(new Document("_id", hash)
+                .append("user", session.getUser())
+                .append("roles", session.getRoles())
+                .append("issued", session.getIssued())
+                .append("expires", new Date(expires)), SESSIONS);
+    }
+
+    @Override
+    public Optional<Session> take(String hash) {
+        Document session = mongoTemplate.findAndRemove(Query.query(Criteria.where("_id").is(hash)),
+                Document.class, SESSIONS);
+        //Mongo borra los documentos caducados cada cierto tiempo, por lo que puede devolver alguno:
+        if(session == null || session.getDate("expires").getTime() <= System.currentTimeMillis()) {
+            return Optional.empty();
+        }
+        return Optional.of(new Session(session.getString("user"), session.getString("roles"),
+                ((Number) session.get("issued")).longValue()));
+    }
+
+    @Override
+    public void removeAll(String user) {
+        mongoTemplate.remove(Query.query(Criteria.where("user").is(user)), SESSIONS);
+    }
+
+    @Override
+    public void revoke(String user, long revoked) {
+        long now = System.currentTimeMillis();
+        //Se guarda la revocación más reciente (no se reemplaza por una anterior):
+        mongoTemplate.findAndModify(Query.query(Criteria.where("_id").is(user)),
+                new Update().max("revoked", revoked).set("at", new Date(now)).set("expires", new Date(now + retention)),
+                FindAndModifyOptions.options().upsert(true), Document.class, REVOCATIONS);
+        revocations.merge(user, revoked, Math::max);
+    }
+
+    @Override
+    public Long revoked(String user) {
+        return revocations.get(user);
+    }
+
+    /**
+     * Método que actualiza periódicamente la copia en memoria de las revocaciones con las registradas (por esta o
+     * por otras instancias) desde la última actualización, y descarta las que ya no afectan a ningún token.
+     */
+    @Scheduled(initialDelayString = "${security.tokens.revocation-poll:PT5S}",
+            fixedDelayString = "${security.tokens.revocation-poll:PT5S}")
+    public void poll() {
+        long now = System.currentTimeMillis();
+        Query query = lastPoll == 0 ? new Query() :
+                Query.query(Criteria.where("at").gte(new Date(lastPoll - CLOCK_SKEW)));
+        query.fields().include("revoked");
+        try {
+            for (Document revocation : mongoTemplate.find(query, Document.class, REVOCATIONS)) {
+                revocations.merge(revocation.getString("_id"), ((Number) revocation.get("revoked")).longValue(),
+                        Math::max);
+            }
+            lastPoll = now;
+        } catch (DataAccessException e) {
+            //Se vuelve a intentar en la siguiente actualización, desde la última que funcionó:
+            log.error("Token revocations could not be loaded: {}", e.getMessage());
+        }
+        revocations.values().removeIf(revoked -> revoked * 1000 + retention < now);
+    }
+}
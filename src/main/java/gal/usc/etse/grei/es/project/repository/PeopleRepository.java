@@ -1,11 +1,16 @@
 package gal.usc.etse.grei.es.project.repository;
 
 import gal.usc.etse.grei.es.project.model.Person;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
+import java.util.List;
+
 /**
  * Repositorio de personas.
  *
  * @author Manuel Bendaña.
  */
-public interface PeopleRepository extends MongoRepository<Person, String> {}
+public interface PeopleRepository extends MongoRepository<Person, String> {
+    List<Person> findByNameStartingWithIgnoreCase(String prefix, Pageable pageable);
+}
@@ -0,0 +1,77 @@
+package gal.usc.etse.grei.es.project.repository;
+
+import java.util.Optional;
+
+/**
+ * Almacén compartido de las sesiones (tokens de refresco) y de las revocaciones de los tokens de los usuarios, para
+ * que cualquier instancia de la aplicación pueda canjear o revocar los tokens emitidos por las demás.
+ *
+ * @author Manuel Bendaña
+ */
+public interface TokenStore {
+    /**
+     * Método que guarda una sesión.
+     * @param hash El hash del token de refresco.
+     * @param session Los datos de la sesión.
+     * @param expires Momento de caducidad del token de refresco (en milisegundos).
+     */
+    void save(String hash, Session session, long expires);
+
+    /**
+     * Método que retira una sesión de forma atómica (para que un mismo token no se pueda canjear dos veces).
+     * @param hash El hash del token de refresco.
+     * @return Los datos de la sesión, o vacío si no existe o ha caducado.
+     */
+    Optional<Session> take(String hash);
+
+    /**
+     * Método que borra todas las sesiones de un usuario.
+     * @param user El id del usuario.
+     */
+    void removeAll(String user);
+
+    /**
+     * Método que registra la revocación de todos los tokens emitidos para un usuario hasta un momento dado.
+     * @param user El id del usuario.
+     * @param revoked Momento de la revocación (en segundos).
+     */
+    void revoke(String user, long revoked);
+
+    /**
+     * Método que devuelve el momento de la última revocación de los tokens de un usuario. Se consulta en cada
+     * petición autenticada, por lo que no debe acceder a la base de datos.
+     * @param user El id del usuario.
+     * @return El momento (en segundos), o null si no hay ninguna revocación vigente.
+     */
+    Long revoked(String user);
+
+    /**
+     * Clase con los datos de una sesión (token de refresco).
+     */
+    class Session {
+        //Id del usuario:
+        private final String user;
+        //Roles del usuario en el momento de iniciar sesión:
+        private final String roles;
+        //Momento de emisión (en milisegundos):
+        private final long issued;
+
+        public Session(String user, String roles, long issued) {
+            this.user = user;
+            this.roles = roles;
+            this.issued = issued;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public String getRoles() {
+            return roles;
+        }
+
+        public long getIssued() {
+            return issued;
+        }
+    }
+}
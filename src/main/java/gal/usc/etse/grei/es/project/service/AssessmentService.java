@@ -1,21 +1,28 @@
 package gal.usc.etse.grei.es.project.service;
 
+import gal.usc.etse.grei.es.project.cache.CountCache;
 import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
 import gal.usc.etse.grei.es.project.errorManagement.exceptions.*;
 import gal.usc.etse.grei.es.project.model.Assessment;
 import gal.usc.etse.grei.es.project.model.Film;
 import gal.usc.etse.grei.es.project.model.User;
 import gal.usc.etse.grei.es.project.repository.AssessmentRepository;
+import gal.usc.etse.grei.es.project.utilities.AuthorizationContext;
+import gal.usc.etse.grei.es.project.utilities.AuxMethods;
 import gal.usc.etse.grei.es.project.utilities.PatchUtils;
+import gal.usc.etse.grei.es.project.utilities.TotalMode;
+import gal.usc.etse.grei.es.project.utilities.VersionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 
 /**
@@ -33,6 +40,12 @@ public class AssessmentService {
     private final FriendshipService friends;
     //Referencia a la clase auxiliar PatchUtils:
     private final PatchUtils patchUtils;
+    //Referencia a la caché de totales:
+    private final CountCache counts;
+    //Referencia al servicio de valoraciones de las películas:
+    private final RatingService ratings;
+    //Referencia al contexto de autorización, para reutilizar los comentarios recuperados en la petición:
+    private final AuthorizationContext context;
 
     /**
      * Constructor de la clase
@@ -41,15 +54,22 @@ public class AssessmentService {
      * @param users Referencia al servicio de usuarios
      * @param friends Referencia al servicio de amigos
      * @param patchUtils Objeto de la clase PatchUtils, para usar en la gestión de peticiones PATCH
+     * @param counts Referencia a la caché de totales
+     * @param ratings Referencia al servicio de valoraciones
+     * @param context Referencia al contexto de autorización de la petición
      */
     @Autowired
-    public AssessmentService(AssessmentRepository assessments, MovieService movies,
-                             UserService users, FriendshipService friends, PatchUtils patchUtils){
+    public AssessmentService(AssessmentRepository assessments, MovieService movies, UserService users,
+                             FriendshipService friends, PatchUtils patchUtils, CountCache counts,
+                             RatingService ratings, AuthorizationContext context){
         this.assessments = assessments;
         this.movies = movies;
         this.users = users;
         this.patchUtils = patchUtils;
         this.friends = friends;
+        this.counts = counts;
+        this.ratings = ratings;
+        this.context = context;
     }
 
     /**
@@ -76,8 +96,10 @@ public class AssessmentService {
             throw new AlreadyCreatedException(ErrorType.EXISTING_DATA, "The specified user already has a comment in the specified film");
         }
 
-        //Si llegamos a este punto, ejecutamos la inserción:
-        return assessments.insert(assessment);
+        //Si llegamos a este punto, ejecutamos la inserción y actualizamos las valoraciones de la película:
+        Assessment inserted = assessments.insert(assessment.setVersion(0L));
+        ratings.add(inserted.getMovie().getId(), inserted.getRating());
+        return inserted;
     }
 
     /**
@@ -86,16 +108,23 @@ public class AssessmentService {
      * @param page página a recuperar.
      * @param size tamaño de la página.
      * @param sort criterios de ordenación.
+     * @param mode forma de calcular el total de resultados.
      * @param id identificador de la película.
      * @return Los comentarios obtenidos para los criterios especificados.
      */
-    public Optional<Page<Assessment>> getComments(int page, int size, Sort sort, String id) {
+    public Optional<Slice<Assessment>> getComments(int page, int size, Sort sort, TotalMode mode, String id) {
         //Creamos objeto de pageable para la búsqueda por páginas:
         Pageable request = PageRequest.of(page, size, sort);
-        //Se intenta hacer la búsqueda:
-        Page<Assessment> result = assessments.findAllByMovieId(id, request);
-        //Se devuelve el optional del resultado:
-        return Optional.of(result);
+        //Se intenta hacer la búsqueda, calculando el total según el modo pedido:
+        switch (mode) {
+            case NONE:
+                return Optional.of(assessments.findSliceByMovieId(id, request));
+            case ESTIMATED:
+                return Optional.of(AuxMethods.estimatedPage(assessments.findSliceByMovieId(id, request),
+                        counts.get("assessments:movie:" + id, () -> assessments.countByMovieId(id))));
+            default:
+                return Optional.of(assessments.findAllByMovieId(id, request));
+        }
     }
 
     /**
@@ -103,24 +132,23 @@ public class AssessmentService {
      *
      * @param commentId Identificador del comentario a modificar.
      * @param updates Datos a cambiar del comentario.
+     * @param expected Versión en la que debe estar el comentario (nula si no hay que comprobarla).
      * @return El comentario modificado.
+     * @throws PreconditionFailedException Si el comentario no está en la versión indicada.
      */
-    public Assessment modifyComment(String commentId, List<Map<String, Object>> updates) {
+    public Assessment modifyComment(String commentId, List<Map<String, Object>> updates, Long expected) {
         //Validamos la petición realizada:
         for (Map<String, Object> update : updates) {
             //Comprobamos que el formato de la petición patch sea correcto:
             if (update.get("op") == null || update.get("path") == null || update.get("value") == null) {
                 throw new InvalidDataException(ErrorType.INVALID_INFO, "You must specify operation, path and value in every update.");
             }
-            //Comprobamos que no se intente modificar ni el id, ni el usuario ni la película:
-            if(update.get("path").equals("/user")){
-                throw new InvalidFormatException(ErrorType.FORBIDDEN, "You cannot change user of the comment");
-            }
-            if(update.get("path").equals("/movie")){
-                throw new InvalidFormatException(ErrorType.FORBIDDEN, "You cannot change the comment's film");
-            }
-            if(update.get("path").equals("/id")){
-                throw new InvalidFormatException(ErrorType.FORBIDDEN, "You cannot change the comment's id");
+            //La puntuación no se puede borrar (ni mover a otro campo), ya que forma parte de las valoraciones de la
+            //película; sólo se puede reemplazar por otra (o comprobar):
+            Object op = update.get("op");
+            if(update.get("path").equals("/rating") && !"replace".equals(op) && !"add".equals(op) && !"test".equals(op)
+                    || "move".equals(op) && "/rating".equals(update.get("from"))) {
+                throw new InvalidFormatException(ErrorType.FORBIDDEN, "The rating can only be replaced");
             }
             //Comprobamos que el rating, si se quiere cambiar, esté entre 1 y 5:
             if(update.get("path").equals("/rating")){
@@ -138,12 +166,25 @@ public class AssessmentService {
             }
         }
 
-        //Comprobamos que existe el comentario y que esté asociado a la película correcta:
-        Assessment assessment = assessments.findById(commentId).orElseThrow(()->new NoDataException(ErrorType.UNKNOWN_INFO,
-                "No assessment with the specified id"));
+        //Comprobamos que no se intente modificar ni el id, ni el usuario ni la película (ni nada contenido en ellos):
+        patchUtils.forbid(updates, "You cannot change user of the comment", "/user");
+        patchUtils.forbid(updates, "You cannot change the comment's film", "/movie");
+        patchUtils.forbid(updates, "You cannot change the comment's id", "/id");
 
-        //Aplicamos modificaciones y actualizamos:
-        return assessments.save(patchUtils.patch(assessment, updates));
+        //Aplicamos las modificaciones directamente sobre el comentario, recuperando su estado anterior para conocer
+        //la puntuación que tenía (si no existe, se indica):
+        Assessment assessment = patchUtils.patch(Criteria.where("_id").is(commentId), updates, Assessment.class, false,
+                expected).orElseThrow(()->new NoDataException(ErrorType.UNKNOWN_INFO, "No assessment with the specified id"));
+        //El resultado es el de aplicar las mismas modificaciones sobre el estado anterior (en la versión siguiente):
+        Assessment modified = patchUtils.patch(assessment, updates)
+                .setVersion(VersionUtils.value(assessment.getVersion()) + 1);
+        context.evict(Assessment.class, commentId);
+
+        //Actualizamos también las valoraciones de la película, si cambia la puntuación:
+        if(!Objects.equals(assessment.getRating(), modified.getRating())) {
+            ratings.change(modified.getMovie().getId(), assessment.getRating(), modified.getRating());
+        }
+        return modified;
     }
 
     /**
@@ -151,13 +192,14 @@ public class AssessmentService {
      * @param commentId El id del comentario a borrar.
      */
     public void deleteComment(String commentId) {
-        //Comprobamos existencia del comentario:
-        if(!assessments.existsById(commentId)) {
-            throw new NoDataException(ErrorType.UNKNOWN_INFO, "The specified assessment does not exists");
-        }
+        //Comprobamos existencia del comentario (lo recuperamos para conocer su puntuación):
+        Assessment assessment = findComment(commentId).orElseThrow(() ->
+                new NoDataException(ErrorType.UNKNOWN_INFO, "The specified assessment does not exists"));
 
-        //Si se llega a este punto, se elimina el comentario:
+        //Si se llega a este punto, se elimina el comentario y se quita su valoración de la película:
         assessments.deleteById(commentId);
+        context.evict(Assessment.class, commentId);
+        ratings.remove(assessment.getMovie().getId(), assessment.getRating());
     }
 
     /**
@@ -166,15 +208,22 @@ public class AssessmentService {
      * @param page La página a recuperar.
      * @param size Tamaño de la página.
      * @param sort Criterios de ordenación.
+     * @param mode Forma de calcular el total de resultados.
      * @param userId Identificador del usuario.
      * @return Los comentarios asociados al usuario correspondiente.
      */
-    public Optional<Page<Assessment>> getUserComments(int page, int size, Sort sort, String userId){
+    public Optional<Slice<Assessment>> getUserComments(int page, int size, Sort sort, TotalMode mode, String userId){
         Pageable request = PageRequest.of(page, size, sort);
-        //Ejecutamos la búsqueda:
-        Page<Assessment> result = assessments.findAllByUserEmail(userId, request);
-        //Devolvemos el optional.
-        return Optional.of(result);
+        //Ejecutamos la búsqueda, calculando el total según el modo pedido, y devolvemos el optional:
+        switch (mode) {
+            case NONE:
+                return Optional.of(assessments.findSliceByUserEmail(userId, request));
+            case ESTIMATED:
+                return Optional.of(AuxMethods.estimatedPage(assessments.findSliceByUserEmail(userId, request),
+                        counts.get("assessments:user:" + userId, () -> assessments.countByUserEmail(userId))));
+            default:
+                return Optional.of(assessments.findAllByUserEmail(userId, request));
+        }
     }
 
 
@@ -186,8 +235,8 @@ public class AssessmentService {
      * @return True si es así, false si no.
      */
     public boolean isUserOrFriendComment(String userId, String assessmentId){
-        //Recuperamos el comentario completo. Si no existiese, se lanza un not found:
-        Assessment assessment = assessments.findById(assessmentId)
+        //Recuperamos el comentario completo (se reutiliza en el resto de la petición). Si no existiese, se lanza un not found:
+        Assessment assessment = findComment(assessmentId)
                 .orElseThrow(()->new NoDataException(ErrorType.UNKNOWN_INFO, "No assessment with the specified id"));
         //Recuperado el comentario, comprobamos si el usuario coincide:
         User user = assessment.getUser();
@@ -203,8 +252,8 @@ public class AssessmentService {
      * @return True si es así, false si no.
      */
     public boolean isUserComment(String userId, String assessmentId){
-        //Recuperamos el comentario completo. Si no existiese, se lanza un not found:
-        Assessment assessment = assessments.findById(assessmentId)
+        //Recuperamos el comentario completo (se reutiliza en el resto de la petición). Si no existiese, se lanza un not found:
+        Assessment assessment = findComment(assessmentId)
                 .orElseThrow(()->new NoDataException(ErrorType.UNKNOWN_INFO, "No assessment with the specified id"));
         //Recuperado el comentario, comprobamos si el usuario coincide:
         User user = assessment.getUser();
@@ -219,7 +268,7 @@ public class AssessmentService {
      */
     public String getUserId(String commentId) {
         //Recuperamos el comentario y devolvemos el usuario:
-        Optional<Assessment> assessment = assessments.findById(commentId);
+        Optional<Assessment> assessment = findComment(commentId);
         return assessment.isPresent() ? assessment.get().getUser().getEmail() : "";
     }
 
@@ -231,7 +280,17 @@ public class AssessmentService {
      */
     public String getMovieId(String commentId) {
         //Recuperamos el comentario y devolvemos el usuario:
-        Optional<Assessment> assessment = assessments.findById(commentId);
+        Optional<Assessment> assessment = findComment(commentId);
         return assessment.isPresent() ? assessment.get().getMovie().getId() : "";
     }
+
+    /**
+     * Método que recupera un comentario, reutilizándolo si ya se recuperó durante la petición actual (por
+     * ejemplo, al comprobar los permisos).
+     * @param commentId El id del comentario
+     * @return El comentario (si existe)
+     */
+    private Optional<Assessment> findComment(String commentId) {
+        return context.entity(Assessment.class, commentId, assessments::findById);
+    }
 }
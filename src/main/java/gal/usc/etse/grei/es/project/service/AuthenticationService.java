@@ -1,10 +1,17 @@
 package gal.usc.etse.grei.es.project.service;
 
+import gal.usc.etse.grei.es.project.cache.UserDetailsCache;
 import gal.usc.etse.grei.es.project.model.User;
 import gal.usc.etse.grei.es.project.repository.UserRepository;
+import gal.usc.etse.grei.es.project.utilities.VersionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
@@ -14,16 +21,24 @@ import org.springframework.stereotype.Service;
  * Clase elaborada por los profesores de la materia. Adaptada por Manuel Bendaña
  */
 @Service
-public class AuthenticationService implements UserDetailsService {
+public class AuthenticationService implements UserDetailsService, UserDetailsPasswordService {
     private final UserRepository users;
+    //Referencia a MongoTemplate, para actualizar las contraseñas:
+    private final MongoTemplate mongoTemplate;
+    //Referencia a la caché de datos de inicio de sesión:
+    private final UserDetailsCache cache;
 
     /**
      * Constructor de la clase.
      * @param users Referencia al repositorio de usuarios.
+     * @param mongoTemplate Referencia a MongoTemplate.
+     * @param cache Referencia a la caché de datos de inicio de sesión.
      */
     @Autowired
-    public AuthenticationService(UserRepository users) {
+    public AuthenticationService(UserRepository users, MongoTemplate mongoTemplate, UserDetailsCache cache) {
         this.users = users;
+        this.mongoTemplate = mongoTemplate;
+        this.cache = cache;
     }
 
     /**
@@ -34,6 +49,17 @@ public class AuthenticationService implements UserDetailsService {
      */
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+        //Se recuperan de la caché si están, o de la base de datos si no:
+        return cache.get(username, this::load);
+    }
+
+    /**
+     * Método que recupera de la base de datos los detalles de un usuario a partir de su identificador.
+     * @param username El identificador del usuario.
+     * @return Los detalles del usuario correspondiente.
+     * @throws UsernameNotFoundException Excepción que salta si no se encuentra al usuario en la DB.
+     */
+    private UserDetails load(String username) throws UsernameNotFoundException {
         //Buscamos el usuario correspondiente al id proporcionado en la base de datos,
         //y lanzamos si no existe una excepción adecuada:
         User user = users.findById(username).orElseThrow(() -> new UsernameNotFoundException(username));
@@ -52,4 +78,22 @@ public class AuthenticationService implements UserDetailsService {
                 //Generamos el objeto del usuario a partir de los datos introducidos en el builder
                 .build();
     }
+
+    /**
+     * Método que guarda la contraseña de un usuario codificada de nuevo (con el coste actual), tras un inicio de
+     * sesión correcto con una contraseña codificada con otro coste.
+     * @param user Los detalles del usuario, con la contraseña guardada hasta ahora.
+     * @param newPassword La contraseña codificada de nuevo.
+     * @return Los detalles del usuario con la nueva contraseña.
+     */
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        //Sólo se cambia si la contraseña no se ha modificado mientras tanto. Como cualquier otra modificación,
+        //incrementa la versión del usuario:
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(user.getUsername()).and("password").is(user.getPassword())),
+                new Update().set("password", newPassword).inc(VersionUtils.VERSION, 1L), User.class);
+        cache.evict(user.getUsername());
+        return org.springframework.security.core.userdetails.User.withUserDetails(user).password(newPassword).build();
+    }
 }
@@ -0,0 +1,86 @@
+package gal.usc.etse.grei.es.project.service;
+
+import gal.usc.etse.grei.es.project.model.Film;
+
+import java.util.StringJoiner;
+
+/**
+ * Clase FilmChangeEvent: evento que publica MovieService cada vez que se inserta, modifica o borra una película,
+ * para que las estructuras en memoria que dependen de las películas se mantengan al día.
+ *
+ * @author Manuel Bendaña
+ */
+public class FilmChangeEvent {
+    /**
+     * Tipo enum Type: posibles cambios de una película.
+     */
+    public enum Type {
+        CREATED, UPDATED, DELETED
+    }
+
+    //Tipo de cambio:
+    private final Type type;
+    //Id de la película:
+    private final String id;
+    //Datos de la película tras el cambio (null si se ha borrado):
+    private final Film film;
+
+    /**
+     * Constructor de la clase
+     * @param type Tipo de cambio.
+     * @param id Id de la película.
+     * @param film Datos de la película tras el cambio (null si se ha borrado).
+     */
+    public FilmChangeEvent(Type type, String id, Film film) {
+        this.type = type;
+        this.id = id;
+        this.film = film;
+    }
+
+    /**
+     * Método que crea el evento de una película insertada.
+     * @param film La película insertada.
+     * @return El evento.
+     */
+    public static FilmChangeEvent created(Film film) {
+        return new FilmChangeEvent(Type.CREATED, film.getId(), film);
+    }
+
+    /**
+     * Método que crea el evento de una película modificada.
+     * @param film La película, una vez modificada.
+     * @return El evento.
+     */
+    public static FilmChangeEvent updated(Film film) {
+        return new FilmChangeEvent(Type.UPDATED, film.getId(), film);
+    }
+
+    /**
+     * Método que crea el evento de una película borrada.
+     * @param id El id de la película borrada.
+     * @return El evento.
+     */
+    public static FilmChangeEvent deleted(String id) {
+        return new FilmChangeEvent(Type.DELETED, id, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Film getFilm() {
+        return film;
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", FilmChangeEvent.class.getSimpleName() + "[", "]")
+                .add("type=" + type)
+                .add("id='" + id + "'")
+                .toString();
+    }
+}
@@ -1,20 +1,31 @@
 package gal.usc.etse.grei.es.project.service;
 
+import gal.usc.etse.grei.es.project.cache.CountCache;
+import gal.usc.etse.grei.es.project.cache.FriendshipGraph;
 import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
 import gal.usc.etse.grei.es.project.errorManagement.exceptions.AlreadyCreatedException;
 import gal.usc.etse.grei.es.project.errorManagement.exceptions.InvalidDataException;
 import gal.usc.etse.grei.es.project.errorManagement.exceptions.InvalidFormatException;
 import gal.usc.etse.grei.es.project.errorManagement.exceptions.NoDataException;
+import gal.usc.etse.grei.es.project.errorManagement.exceptions.PreconditionFailedException;
 import gal.usc.etse.grei.es.project.model.Date;
 import gal.usc.etse.grei.es.project.model.Friendship;
 import gal.usc.etse.grei.es.project.repository.FriendshipRepository;
 import gal.usc.etse.grei.es.project.repository.UserRepository;
-import gal.usc.etse.grei.es.project.utilities.PatchUtils;
+import gal.usc.etse.grei.es.project.utilities.AuthorizationContext;
+import gal.usc.etse.grei.es.project.utilities.AuxMethods;
+import gal.usc.etse.grei.es.project.utilities.TotalMode;
+import gal.usc.etse.grei.es.project.utilities.VersionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.util.Calendar;
@@ -34,21 +45,35 @@ public class FriendshipService {
     private final FriendshipRepository friends;
     //Referencia a otros servicios que serán utilizados desde éste:
     private final UserRepository users;
-    //Referencia a la clase auxiliar PatchUtils:
-    private final PatchUtils patchUtils;
+    //Referencia a la caché de totales:
+    private final CountCache counts;
+    //Referencia a MongoTemplate, para las actualizaciones atómicas:
+    private final MongoTemplate mongoTemplate;
+    //Referencia al contexto de autorización, para reutilizar las comprobaciones hechas en la petición:
+    private final AuthorizationContext context;
+    //Referencia al grafo de amistades en memoria:
+    private final FriendshipGraph graph;
 
     /**
      * Constructor de la clase
      *
      * @param friends Referencia al friendRepository
      * @param users Referencia al userService
-     * @param patchUtils Objeto de la clase PatchUtils, para usar en la gestión de peticiones PATCH.
+     * @param counts Referencia a la caché de totales.
+     * @param mongoTemplate Referencia a MongoTemplate.
+     * @param context Referencia al contexto de autorización de la petición.
+     * @param graph Referencia al grafo de amistades.
      */
     @Autowired
-    public FriendshipService(FriendshipRepository friends, UserRepository users, PatchUtils patchUtils) {
+    public FriendshipService(FriendshipRepository friends, UserRepository users, CountCache counts,
+                             MongoTemplate mongoTemplate, AuthorizationContext context,
+                             FriendshipGraph graph) {
         this.friends = friends;
         this.users = users;
-        this.patchUtils = patchUtils;
+        this.counts = counts;
+        this.mongoTemplate = mongoTemplate;
+        this.context = context;
+        this.graph = graph;
     }
 
     /**
@@ -73,14 +98,17 @@ public class FriendshipService {
             throw new NoDataException(ErrorType.UNKNOWN_INFO, "Friend cannot be added: user does not exist");
         }
 
-        //Comprobamos si el usuario y el posible amigo ya lo son (comprobamos el recíproco también):
-        if(!friends.existsByUserAndFriend(friendship.getUser(), friendship.getFriend()) &&
-                !friends.existsByUserAndFriend(friendship.getFriend(), friendship.getUser())) {
+        //Comprobamos si el usuario y el posible amigo ya lo son (en cualquier sentido). Se consulta la base de
+        //datos para no depender del estado del grafo al crear:
+        if(!friends.existsByUserAndFriendOrFriendAndUser(friendship.getUser(), friendship.getFriend(),
+                friendship.getFriend(), friendship.getUser())) {
             //Si no lo son, añadimos nuevo amigo. Para ello asociamos todos los parámetros:
             //El id y la fecha desde la que son amigos, de momento, se asegura que estén a null
-            friendship.setConfirmed(false).setId(null).setSince(null);
-            //Guardamos los cambios y devolvemos el resultado:
-            return friends.save(friendship);
+            friendship.setConfirmed(false).setId(null).setSince(null).setVersion(0L);
+            //Guardamos los cambios, los reflejamos en el grafo y devolvemos el resultado:
+            Friendship created = friends.save(friendship);
+            graph.add(created);
+            return created;
         } else {
             //Si ya lo son, se manda una excepción:
             throw new AlreadyCreatedException(ErrorType.EXISTING_DATA, "Both users already are friends");
@@ -93,8 +121,8 @@ public class FriendshipService {
      * @return El ID de la amistad.
      */
     public Optional<Friendship> getFriendship(String id) {
-        //Recuperamos la información de la amistad:
-        return friends.findById(id);
+        //Recuperamos la información de la amistad (si ya se recuperó al comprobar permisos, se reutiliza):
+        return findFriendship(id);
     }
 
     /**
@@ -102,14 +130,24 @@ public class FriendshipService {
      * @param page Página a recuperar.
      * @param size Tamaño de la página a recuperar.
      * @param sort Criterios de ordenación.
+     * @param mode Forma de calcular el total de resultados.
      * @param userId Identificador del usuario para el cual se quieren recuperar sus amistades.
      * @return Las amistades según los filtros aplicados.
      */
-    public Optional<Page<Friendship>> getUserFriendships(int page, int size, Sort sort, String userId){
+    public Optional<Slice<Friendship>> getUserFriendships(int page, int size, Sort sort, TotalMode mode, String userId){
         //Colocamos los criterios de paginación en un objeto Pageable:
         Pageable request = PageRequest.of(page, size, sort);
-        //Devolvemos el resultado de la búsqueda. Buscamos donde el usuario o el amigo tengan el id de este usuario:
-        return friends.getAllByUserOrFriend(userId, userId, request);
+        //Devolvemos el resultado de la búsqueda. Buscamos donde el usuario o el amigo tengan el id de este usuario,
+        //calculando el total según el modo pedido:
+        switch (mode) {
+            case NONE:
+                return Optional.of(friends.findSliceByUserOrFriend(userId, userId, request));
+            case ESTIMATED:
+                return Optional.of(AuxMethods.estimatedPage(friends.findSliceByUserOrFriend(userId, userId, request),
+                        counts.get("friendships:" + userId, () -> friends.countByUserOrFriend(userId, userId))));
+            default:
+                return friends.getAllByUserOrFriend(userId, userId, request).map(result -> result);
+        }
     }
 
 
@@ -120,10 +158,12 @@ public class FriendshipService {
      */
     public void deleteFriend(String id) {
         //Comprobamos que el id de la amistad sea válido:
-        if(!friends.existsById(id)){
+        if(!findFriendship(id).isPresent()){
             throw new NoDataException(ErrorType.UNKNOWN_INFO, "There is no user with that id");
         } else {
             friends.deleteById(id);
+            graph.remove(id);
+            context.evict(Friendship.class, id);
         }
     }
 
@@ -132,9 +172,11 @@ public class FriendshipService {
      *
      * @param friendshipId El id de la amistad
      * @param updates Las actualizaciones a realizar
+     * @param expected Versión en la que debe estar la amistad (nula si no hay que comprobarla).
      * @return El usuario actualizado sobre la base de datos.
+     * @throws PreconditionFailedException Si la amistad no está en la versión indicada.
      */
-    public Friendship updateFriendship(String friendshipId, List<Map<String,Object>> updates){
+    public Friendship updateFriendship(String friendshipId, List<Map<String,Object>> updates, Long expected){
         //Comprobamos que sólo haya una operación y que únicamente afecte al parámetro confirmed:
         if(updates.size() != 1){
             throw new InvalidFormatException(ErrorType.INVALID_INFO, "Only 1 modification for friendship confirmation allowed");
@@ -146,26 +188,36 @@ public class FriendshipService {
         }
 
         //Comprobamos que se quiera cambiar el estado a confirmed:
-        if(updates.get(0).get("path").equals("/confirmed") && updates.get(0).get("value").equals(true)){
-            //Recuperamos la amistad del id y comprobamos que no esté confirmada.
-            Friendship friendship = friends.findById(friendshipId)
-                    .orElseThrow(() -> new NoDataException(ErrorType.INVALID_INFO, "Friendship not found."));
-            //A continuación, se comprueba que la solicitud este sin confirmar:
-            if(!friendship.getConfirmed()){
-                friendship = patchUtils.patch(friendship, updates);
-                //Añadimos la fecha actual como fecha:
-                Calendar calendar = Calendar.getInstance();
-                //Usamos para ello un objeto calendar:
-                calendar.setTime(new java.util.Date(System.currentTimeMillis()));
-                //El mes empieza con índice 0:
-                friendship.setSince(new Date(calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.MONTH) + 1,
-                        calendar.get(Calendar.YEAR)));
-                //Guardamos la información en la base de datos:
-                return friends.save(friendship);
-            } else {
-                //Si la amistad ya está confirmada, se indica:
-                throw new AlreadyCreatedException(ErrorType.ALREADY_MODIFIED, "Friendship is already confirmed.");
+        if(updates.get(0).get("path").equals("/confirmed") && updates.get(0).get("value").equals(true)
+                && (updates.get(0).get("op").equals("replace") || updates.get(0).get("op").equals("add"))){
+            //Añadimos la fecha actual como fecha:
+            Calendar calendar = Calendar.getInstance();
+            //Usamos para ello un objeto calendar:
+            calendar.setTime(new java.util.Date(System.currentTimeMillis()));
+            //El mes empieza con índice 0:
+            Date since = new Date(calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.MONTH) + 1,
+                    calendar.get(Calendar.YEAR));
+
+            //Confirmamos la amistad en una única operación, siempre que siga sin confirmar (y en la versión
+            //indicada, si se indica):
+            Criteria criteria = Criteria.where("_id").is(friendshipId).and("confirmed").is(false);
+            if(expected != null) criteria = new Criteria().andOperator(criteria, VersionUtils.is(expected));
+            Friendship friendship = mongoTemplate.findAndModify(Query.query(criteria),
+                    new Update().set("confirmed", true).set("since", since).inc(VersionUtils.VERSION, 1L),
+                    FindAndModifyOptions.options().returnNew(true), Friendship.class);
+            if(friendship != null) {
+                graph.add(friendship);
+                context.evict(Friendship.class, friendshipId);
+                return friendship;
             }
+
+            //Si no se ha modificado, se comprueba si es porque no existe, porque está en otra versión o porque ya
+            //estaba confirmada:
+            Friendship current = friends.findById(friendshipId).orElseThrow(() ->
+                    new NoDataException(ErrorType.INVALID_INFO, "Friendship not found."));
+            VersionUtils.check(expected, current.getVersion());
+            //Si la amistad ya está confirmada, se indica:
+            throw new AlreadyCreatedException(ErrorType.ALREADY_MODIFIED, "Friendship is already confirmed.");
         } else {
             //Si se intenta modificar otro parámetro, se indica:
             throw new InvalidFormatException(ErrorType.FORBIDDEN, "Only 1 modification for friendship confirmation allowed");
@@ -174,24 +226,38 @@ public class FriendshipService {
 
     /**
      * Método que permite comprobar si dos usuarios son amigos entre ellos.
+     *
+     * El grafo en memoria sólo se usa para las respuestas positivas: las amistades creadas en otras instancias no
+     * están en él hasta la siguiente recarga, por lo que si no encuentra la amistad se consulta la base de datos.
+     * Una amistad borrada en otra instancia puede seguir dándose por buena durante, como mucho, el intervalo de
+     * consulta de los borrados (friendships.graph.deletion-poll).
+     *
      * @param user1 Primer usuario.
      * @param user2 Segundo usuario.
      * @return True si son amigos, falso en caso contrario.
      */
     public Boolean areFriends(String user1, String user2) {
-        //Comprobamos si los dos usuarios tienen amistad (recordemos que puede ir en los dos sentidos):
-        return friends.existsByUserAndFriend(user1, user2) || friends.existsByUserAndFriend(user2, user1);
+        //Si el grafo está cargado y encuentra la amistad, la comprobación se hace en memoria:
+        if(graph.isReady() && graph.areFriends(user1, user2)) return true;
+        //Si no, comprobamos si los dos usuarios tienen amistad (recordemos que puede ir en los dos sentidos), en
+        //una única consulta y una sola vez por petición:
+        String key = user1.compareTo(user2) < 0 ? user1 + ":" + user2 : user2 + ":" + user1;
+        return context.memoize("areFriends:" + key,
+                () -> friends.existsByUserAndFriendOrFriendAndUser(user1, user2, user2, user1));
     }
 
     /**
      * Método que permite comprobar si un usuario es el que debe confirmar una amistad dados los ids correspondientes.
+     * Como en {@link #areFriends(String, String)}, el grafo sólo decide las respuestas positivas.
      * @param id Id de la amistad.
      * @param friend Amigo.
      * @return True si son amigos en un sentido, falso en caso contrario.
      */
     public Boolean hasToConfirm(String id, String friend) {
-        //Comprobamos si el usuario es amigo en la amistad con el id indicado:
-        return friends.existsByFriendAndId(friend, id);
+        //Comprobamos si el usuario es amigo en la amistad con el id indicado (en memoria si el grafo está cargado y
+        //lo confirma; si no, en la base de datos):
+        if(graph.isReady() && graph.isFriendIn(id, friend)) return true;
+        return findFriendship(id).map(friendship -> friend.equals(friendship.getFriend())).orElse(false);
     }
 
     /**
@@ -201,18 +267,33 @@ public class FriendshipService {
     public void deleteAllByUserOrFriend(String userMail) {
         //Borramos todos los que tengan como usuario o como amigo a este usuario:
         friends.deleteAllByUserOrFriend(userMail, userMail);
+        graph.removeUser(userMail);
     }
 
     /**
-     * Método que comprueba si un usuario pertenece a una relación de amistad.
+     * Método que comprueba si un usuario pertenece a una relación de amistad. Como en
+     * {@link #areFriends(String, String)}, el grafo sólo decide las respuestas positivas.
      * @param userId El identificador del usuario.
      * @param friendshipId El identificador de la amistad.
      * @return Si pertenece el usuario a la amistad.
      */
     public Boolean isInFriendship(String userId, String friendshipId){
-        //Comprobamos existencia de la amistad
-        if(!friends.existsById(friendshipId)) throw new NoDataException(ErrorType.UNKNOWN_INFO, "No friendship found with that ID");
+        //Si el grafo está cargado y confirma que el usuario pertenece a la amistad, se responde en memoria:
+        if(graph.isReady() && graph.isInFriendship(userId, friendshipId).orElse(false)) return true;
+        //Si no, comprobamos existencia de la amistad
+        Friendship friendship = findFriendship(friendshipId)
+                .orElseThrow(() -> new NoDataException(ErrorType.UNKNOWN_INFO, "No friendship found with that ID"));
         //Comprobamos si el usuario pertenece a la amistad:
-        return friends.existsByUserAndId(userId, friendshipId) || friends.existsByFriendAndId(userId, friendshipId);
+        return userId.equals(friendship.getUser()) || userId.equals(friendship.getFriend());
+    }
+
+    /**
+     * Método que recupera una amistad, reutilizándola si ya se recuperó durante la petición actual (por ejemplo,
+     * al comprobar los permisos).
+     * @param friendshipId El identificador de la amistad.
+     * @return La amistad (si existe).
+     */
+    private Optional<Friendship> findFriendship(String friendshipId) {
+        return context.entity(Friendship.class, friendshipId, friends::findById);
     }
 }
@@ -0,0 +1,263 @@
+package gal.usc.etse.grei.es.project.service;
+
+import com.mongodb.MongoException;
+import gal.usc.etse.grei.es.project.model.Film;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mapping.PropertyReferenceException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.TextIndexDefinition;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.repository.query.parser.Part;
+import org.springframework.data.repository.query.parser.PartTree;
+import org.springframework.data.repository.support.Repositories;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Clase IndexService: gestión de los índices de la base de datos.
+ *
+ * Al arrancar la aplicación se calculan los índices que necesitan las consultas que se realizan (a partir de los
+ * nombres de los métodos de los repositorios y de los campos por los que se filtran las películas), se crean los
+ * que falten y se comprueba que existan. Periódicamente se informa de los índices que no se usan.
+ *
+ * @author Manuel Bendaña
+ */
+@Service
+public class IndexService {
+    //Logger de la clase:
+    private static final Logger log = LoggerFactory.getLogger(IndexService.class);
+    //Nombre del campo identificador en mongo (siempre indexado):
+    private static final String ID = "_id";
+    //Campos con los que mongo identifica los índices de texto (los campos indexados se guardan como pesos):
+    private static final List<String> TEXT = Arrays.asList("_fts", "_ftsx");
+
+    //Referencias necesarias para crear y consultar los índices:
+    private final MongoTemplate mongoTemplate;
+    private final MongoMappingContext mappingContext;
+    //Referencia a la factoría de beans, para recuperar los repositorios:
+    private final ListableBeanFactory beanFactory;
+    //Indica si se deben crear los índices que falten o sólo avisar de ellos:
+    private final boolean create;
+
+    //Índices esperados (lista ordenada de campos) por clase de documento:
+    private volatile Map<Class<?>, Set<List<String>>> expected = Collections.emptyMap();
+
+    /**
+     * Constructor de la clase
+     * @param mongoTemplate Referencia a MongoTemplate.
+     * @param mappingContext Contexto de mapeo de mongo, para traducir propiedades a nombres de campos.
+     * @param beanFactory Factoría de beans, para recuperar los repositorios.
+     * @param create Si se deben crear los índices que falten.
+     */
+    @Autowired
+    public IndexService(MongoTemplate mongoTemplate, MongoMappingContext mappingContext,
+                        ListableBeanFactory beanFactory, @Value("${indexes.auto-create:true}") boolean create) {
+        this.mongoTemplate = mongoTemplate;
+        this.mappingContext = mappingContext;
+        this.beanFactory = beanFactory;
+        this.create = create;
+    }
+
+    /**
+     * Método que se ejecuta al arrancar la aplicación: calcula los índices necesarios, crea los que falten
+     * y comprueba que existan todos.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void provision() {
+        Map<Class<?>, Set<List<String>>> indexes = new LinkedHashMap<>();
+
+        //Índices derivados de los métodos de consulta de los repositorios:
+        Repositories repositories = new Repositories(beanFactory);
+        for (Class<?> domain : repositories) {
+            repositories.getRepositoryInformationFor(domain).ifPresent(info ->
+                    info.getQueryMethods().forEach(method -> fromQueryMethod(indexes, domain, method)));
+        }
+
+        //Índices derivados de los filtros de las películas. Los campos multivalor no se pueden combinar en un
+        //mismo índice, por lo que cada uno tiene el suyo; la fecha se indexa de forma compuesta:
+        for (String field : MovieService.ARRAY_FILTERS) {
+            add(indexes, Film.class, Collections.singletonList(field));
+        }
+        add(indexes, Film.class, Arrays.asList(MovieService.DATE_FILTERS));
+        //Y de los campos calculados por los que se ordenan:
+        for (String field : MovieService.SORT_FIELDS) {
+            add(indexes, Film.class, Collections.singletonList(field));
+        }
+        //Y de la búsqueda por texto (una colección sólo puede tener un índice de texto):
+        add(indexes, Film.class, TEXT);
+
+        //Se descartan los índices que son prefijo de otros (el compuesto ya sirve para esas consultas):
+        indexes.values().forEach(IndexService::removePrefixes);
+        expected = indexes;
+
+        indexes.forEach((domain, keys) -> {
+            IndexOperations ops = mongoTemplate.indexOps(domain);
+            if(create) {
+                for (List<String> index : keys) {
+                    try {
+                        ops.ensureIndex(toIndex(index));
+                    } catch (DataAccessException e) {
+                        log.error("Index {} could not be created on collection {}: {}", index,
+                                mongoTemplate.getCollectionName(domain), e.getMessage());
+                    }
+                }
+            }
+            verify(domain, ops, keys);
+        });
+    }
+
+    /**
+     * Método que informa periódicamente de los índices que no se han usado desde el arranque del servidor de
+     * base de datos, o que no corresponden con ninguna consulta conocida.
+     */
+    @Scheduled(initialDelayString = "${indexes.report-interval:PT1H}",
+            fixedDelayString = "${indexes.report-interval:PT1H}")
+    public void reportUsage() {
+        expected.forEach((domain, keys) -> {
+            String collection = mongoTemplate.getCollectionName(domain);
+            try {
+                for (Document stats : mongoTemplate.getCollection(collection)
+                        .aggregate(Collections.singletonList(new Document("$indexStats", new Document())))) {
+                    String name = stats.getString("name");
+                    //El índice del id lo gestiona mongo:
+                    if((ID + "_").equals(name)) continue;
+
+                    List<String> index = new ArrayList<>(stats.get("key", Document.class).keySet());
+                    Document accesses = stats.get("accesses", Document.class);
+                    long ops = accesses == null ? 0 : ((Number) accesses.get("ops")).longValue();
+
+                    if(!keys.contains(index)) {
+                        log.info("Index {} on collection {} does not match any known query ({} uses)",
+                                name, collection, ops);
+                    } else if(ops == 0) {
+                        log.info("Index {} on collection {} has not been used since {}", name, collection,
+                                accesses == null ? "startup" : accesses.getDate("since"));
+                    }
+                }
+            } catch (MongoException e) {
+                log.warn("Index usage of collection {} could not be retrieved: {}", collection, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Método que calcula los índices necesarios para un método de consulta derivado de un repositorio:
+     * uno por cada rama (OR) de la consulta, con los campos en el orden en que aparecen en el nombre.
+     *
+     * @param indexes Índices calculados hasta el momento.
+     * @param domain Clase del documento del repositorio.
+     * @param method Método de consulta.
+     */
+    private void fromQueryMethod(Map<Class<?>, Set<List<String>>> indexes, Class<?> domain, Method method) {
+        //Las consultas escritas a mano no se pueden analizar:
+        if(method.isAnnotationPresent(Query.class)) return;
+
+        PartTree tree;
+        try {
+            tree = new PartTree(method.getName(), domain);
+        } catch (PropertyReferenceException | IllegalArgumentException e) {
+            log.debug("Query method {} cannot be parsed: {}", method.getName(), e.getMessage());
+            return;
+        }
+
+        for (PartTree.OrPart branch : tree) {
+            List<String> keys = new ArrayList<>();
+            for (Part part : branch) {
+                //Traducimos la propiedad al nombre del campo en mongo (por ejemplo, movie.id -> movie._id):
+                String field = mappingContext.getPersistentPropertyPath(part.getProperty())
+                        .toDotPath(MongoPersistentProperty::getFieldName);
+                if(!keys.contains(field)) keys.add(field);
+            }
+            //Si se busca por el id, ya se usa el índice propio de mongo:
+            if(keys.isEmpty() || keys.contains(ID)) continue;
+            add(indexes, domain, keys);
+        }
+    }
+
+    /**
+     * Método que comprueba que existan en la base de datos todos los índices esperados para una colección.
+     *
+     * @param domain Clase del documento.
+     * @param ops Operaciones sobre los índices de la colección.
+     * @param keys Índices esperados.
+     */
+    private void verify(Class<?> domain, IndexOperations ops, Set<List<String>> keys) {
+        String collection = mongoTemplate.getCollectionName(domain);
+        Set<List<String>> present = ops.getIndexInfo().stream()
+                .map(info -> info.getIndexFields().stream().anyMatch(IndexField::isText) ? TEXT :
+                        info.getIndexFields().stream().map(IndexField::getKey).collect(Collectors.toList()))
+                .collect(Collectors.toSet());
+
+        for (List<String> index : keys) {
+            if(present.contains(index)) {
+                log.debug("Index {} present on collection {}", index, collection);
+            } else {
+                log.warn("Missing index {} on collection {}", index, collection);
+            }
+        }
+    }
+
+    /**
+     * Método que añade un índice esperado para una clase de documento.
+     * @param indexes Índices calculados hasta el momento.
+     * @param domain Clase del documento.
+     * @param keys Campos del índice.
+     */
+    private static void add(Map<Class<?>, Set<List<String>>> indexes, Class<?> domain, List<String> keys) {
+        indexes.computeIfAbsent(domain, d -> new LinkedHashSet<>()).add(keys);
+    }
+
+    /**
+     * Método que elimina de un conjunto los índices que son prefijo de otro índice del mismo conjunto.
+     * @param keys Conjunto de índices.
+     */
+    private static void removePrefixes(Set<List<String>> keys) {
+        keys.removeIf(index -> keys.stream()
+                .anyMatch(other -> other.size() > index.size() && other.subList(0, index.size()).equals(index)));
+    }
+
+    /**
+     * Método que genera la definición de un índice ascendente sobre los campos indicados, o la del índice de
+     * texto de las películas (con el peso de cada campo).
+     * @param keys Campos del índice.
+     * @return La definición del índice.
+     */
+    private static IndexDefinition toIndex(List<String> keys) {
+        if(keys.equals(TEXT)) {
+            TextIndexDefinition.TextIndexDefinitionBuilder text = TextIndexDefinition.builder();
+            MovieService.TEXT_FIELDS.forEach(text::onField);
+            return text.build();
+        }
+        Index index = new Index();
+        for (String key : keys) {
+            index.on(key, Sort.Direction.ASC);
+        }
+        return index;
+    }
+}
@@ -1,24 +1,64 @@
 package gal.usc.etse.grei.es.project.service;
 
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.mongodb.bulk.BulkWriteError;
+import gal.usc.etse.grei.es.project.cache.CountCache;
+import gal.usc.etse.grei.es.project.cache.FacetCache;
+import gal.usc.etse.grei.es.project.cache.FilmCache;
+import gal.usc.etse.grei.es.project.cache.FilmIndex;
+import gal.usc.etse.grei.es.project.cache.ResultCache;
 import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
 import gal.usc.etse.grei.es.project.errorManagement.exceptions.InvalidDataException;
-import gal.usc.etse.grei.es.project.errorManagement.exceptions.InvalidFormatException;
 import gal.usc.etse.grei.es.project.errorManagement.exceptions.NoDataException;
+import gal.usc.etse.grei.es.project.errorManagement.exceptions.PreconditionFailedException;
 import gal.usc.etse.grei.es.project.model.*;
 import gal.usc.etse.grei.es.project.repository.AssessmentRepository;
 import gal.usc.etse.grei.es.project.repository.MovieRepository;
+import gal.usc.etse.grei.es.project.utilities.AuxMethods;
+import gal.usc.etse.grei.es.project.utilities.CursorUtils;
 import gal.usc.etse.grei.es.project.utilities.PatchUtils;
+import gal.usc.etse.grei.es.project.utilities.TotalMode;
+import gal.usc.etse.grei.es.project.utilities.VersionUtils;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.domain.*;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.FacetOperation;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
 import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
 
 /**
  * Clase MovieService: métodos relacionados con las películas.
@@ -34,6 +74,55 @@ public class MovieService {
     private final PatchUtils patchUtils;
     //Nos vemos forzados a añadir una referencia al repositorio de películas, para evitar una referencia circular de servicios:
     private final AssessmentRepository assessments;
+    //Referencia a la clase auxiliar CursorUtils, para la paginación por clave:
+    private final CursorUtils cursorUtils;
+    //Referencia a la caché de totales, para los totales estimados:
+    private final CountCache counts;
+    //Referencia a la caché de películas, para la consulta de una película concreta:
+    private final FilmCache cache;
+    //Referencia al índice de películas en memoria, para los totales y las sugerencias:
+    private final FilmIndex index;
+    //Para publicar los cambios de las películas (ver FilmChangeEvent):
+    private final ApplicationEventPublisher events;
+    //Número de películas que se recuperan en cada lote del cursor al exportar:
+    private final int exportBatchSize;
+    //Validador de las películas de las cargas masivas (las peticiones individuales se validan en el controlador):
+    private final Validator validator;
+    //Número de películas que se insertan en cada lote de una carga masiva:
+    private final int bulkBatchSize;
+    //Referencia a la caché de facetas de las búsquedas:
+    private final FacetCache facetCache;
+    //Referencia a la caché de listados de películas:
+    private final ResultCache results;
+    //Referencia a las utilidades de versiones, para las peticiones condicionales:
+    private final VersionUtils versions;
+    //Número máximo de valores que se devuelven en cada faceta:
+    private final int facetBuckets;
+
+    //Campos que se devuelven en los listados de películas:
+    private static final String[] LIST_FIELDS = {"_id", "title", "overview", "genres", "releaseDate", "resources",
+            "rating", "version"};
+    //Campos multivalor por los que se pueden filtrar los listados de películas (ver método filter):
+    public static final String[] ARRAY_FILTERS = {"keywords", "genres", "cast.name", "crew.name", "producers.name"};
+    //Campos de la fecha de estreno por los que se pueden filtrar los listados, de mayor a menor granularidad:
+    public static final String[] DATE_FILTERS = {"releaseDate.year", "releaseDate.month", "releaseDate.day"};
+    //Campos calculados por los que se espera ordenar los listados de películas:
+    public static final String[] SORT_FIELDS = {"rating.average", "rating.count"};
+    //Campos incluidos en la búsqueda por texto, con su peso en la relevancia de los resultados:
+    public static final Map<String, Float> TEXT_FIELDS;
+    //Campo en el que se devuelve la relevancia de cada película en las búsquedas por texto:
+    private static final String SCORE = "score";
+    //Campos de los que se pueden pedir facetas (número de resultados por valor) en los listados:
+    public static final List<String> FACETS = Arrays.asList("genres", "keywords", "releaseDate.year", "status");
+
+    static {
+        Map<String, Float> weights = new LinkedHashMap<>();
+        weights.put("title", 10F);
+        weights.put("tagline", 5F);
+        weights.put("keywords", 3F);
+        weights.put("overview", 1F);
+        TEXT_FIELDS = Collections.unmodifiableMap(weights);
+    }
 
     /**
      * Constructor de la clase
@@ -41,14 +130,43 @@ public class MovieService {
      * @param mongoTemplate Referencia a MongoTemplate, para la consulta de películas.
      * @param patchUtils Objeto de la clase PatchUtils, para usar en la gestión de peticiones PATCH.
      * @param assessments Referencia al AssessmentRepository
+     * @param cursorUtils Objeto de la clase CursorUtils, para la paginación por clave.
+     * @param counts Referencia a la caché de totales.
+     * @param cache Referencia a la caché de películas.
+     * @param index Referencia al índice de películas en memoria.
+     * @param events Publicador de los eventos de cambios de las películas.
+     * @param exportBatchSize Número de películas por lote del cursor al exportar.
+     * @param validator Validador de las películas de las cargas masivas.
+     * @param bulkBatchSize Número de películas por lote de inserción en las cargas masivas.
+     * @param facetCache Referencia a la caché de facetas.
+     * @param facetBuckets Número máximo de valores de cada faceta.
+     * @param results Referencia a la caché de listados.
+     * @param versions Utilidades de versiones de los documentos.
      */
     @Autowired
-    public MovieService(MovieRepository movies, MongoTemplate mongoTemplate,
-                        PatchUtils patchUtils, AssessmentRepository assessments) {
+    public MovieService(MovieRepository movies, MongoTemplate mongoTemplate, PatchUtils patchUtils,
+                        AssessmentRepository assessments, CursorUtils cursorUtils, CountCache counts,
+                        FilmCache cache, FilmIndex index, ApplicationEventPublisher events,
+                        @Value("${movies.export.batch-size:500}") int exportBatchSize,
+                        Validator validator, @Value("${movies.bulk.batch-size:1000}") int bulkBatchSize,
+                        FacetCache facetCache, @Value("${movies.facets.max-buckets:50}") int facetBuckets,
+                        ResultCache results, VersionUtils versions) {
         this.movies = movies;
         this.mongoTemplate = mongoTemplate;
         this.patchUtils = patchUtils;
         this.assessments = assessments;
+        this.cursorUtils = cursorUtils;
+        this.counts = counts;
+        this.cache = cache;
+        this.index = index;
+        this.events = events;
+        this.exportBatchSize = exportBatchSize;
+        this.validator = validator;
+        this.bulkBatchSize = bulkBatchSize;
+        this.facetCache = facetCache;
+        this.facetBuckets = facetBuckets;
+        this.results = results;
+        this.versions = versions;
     }
 
     /**
@@ -57,6 +175,9 @@ public class MovieService {
      * @param page Página a recuperar.
      * @param size Tamaño de la página.
      * @param sort Parámetros de ordenación.
+     * @param mode Forma de calcular el total de resultados (exacto, estimado o sin total).
+     * @param q Texto a buscar en el título, la descripción, el eslogan y las palabras clave (opcional). Si se
+     *      indica, las películas se ordenan primero por relevancia.
      * @param keywords Lista de palabras clave por las cuales se puede realizar la búsqueda.
      * @param genres Lista de géneros por los cuales se puede realizar la búsqueda.
      * @param cast Lista de los nombres de los miembros del cast por los que se puede realizar la búsqueda de películas.
@@ -65,14 +186,524 @@ public class MovieService {
      * @param day Día de cualquier mes por el que se puede realizar la búsqueda de películas.
      * @param month Mes del año por el que se puede realizar la búsqueda.
      * @param year Año por el cual se puede realizar la búsqueda de películas.
-     * @return Lista de películas (formato optional) obtenidas por la búsqueda.
+     * @param fields Campos de las películas a devolver (si no se indica ninguno, los de los listados).
+     * @return Lista de películas (formato optional) obtenidas por la búsqueda. Será una página (Page) salvo que
+     *      no se pida el total.
+     * @throws InvalidDataException Si alguno de los campos pedidos no existe en las películas.
      */
-    public Optional<Page<Film>> get(int page, int size, Sort sort, List<String> keywords,
-                                    List<String> genres, List<String> cast, List<String> crew,
-                                    List<String> producers, Integer day, Integer month, Integer year) {
+    public Optional<Slice<Film>> get(int page, int size, Sort sort, TotalMode mode, String q,
+                                     List<String> keywords, List<String> genres, List<String> cast,
+                                     List<String> crew, List<String> producers, Integer day, Integer month,
+                                     Integer year, List<String> fields) {
         //Creamos un objeto de Pageable para poder hacer la búsqueda por páginas:
         Pageable request = PageRequest.of(page, size, sort);
 
+        //Establecemos criterios de búsqueda. Los filtros y el texto se normalizan para que las búsquedas
+        //equivalentes compartan la entrada de la caché de listados:
+        String text = normalizeText(q);
+        Criteria criteria = filter(normalize(keywords), normalize(genres), normalize(cast), normalize(crew),
+                normalize(producers), day, month, year);
+        String[] include = include(fields, LIST_FIELDS);
+        String key = mode + ":" + text + ":" + criteria.getCriteriaObject().toJson() + ":" + sort + ":" + page +
+                ":" + size + ":" + String.join(",", include);
+
+        return Optional.of(results.get(key, () -> list(request, mode, text, criteria, include, keywords, genres,
+                cast, crew, producers, day, month, year)));
+    }
+
+    /**
+     * Método que realiza la búsqueda de un listado de películas (ver método get), sin pasar por la caché.
+     *
+     * @param request Página a recuperar, con su tamaño y ordenación.
+     * @param mode Forma de calcular el total de resultados.
+     * @param q Texto a buscar (puede ser nulo).
+     * @param criteria Criterio de búsqueda de los filtros.
+     * @param include Campos de las películas a devolver.
+     * @param keywords Lista de palabras clave.
+     * @param genres Lista de géneros.
+     * @param cast Lista de los nombres de los miembros del cast.
+     * @param crew Lista de nombres de los miembros del crew.
+     * @param producers Lista de nombres de los productores.
+     * @param day Día del mes de estreno.
+     * @param month Mes de estreno.
+     * @param year Año de estreno.
+     * @return El listado de películas.
+     */
+    private Slice<Film> list(Pageable request, TotalMode mode, String q, Criteria criteria, String[] include,
+                             List<String> keywords, List<String> genres, List<String> cast, List<String> crew,
+                             List<String> producers, Integer day, Integer month, Integer year) {
+        int size = request.getPageSize();
+
+        //Si el índice en memoria puede resolver los filtros (todos salvo el texto y la fecha), su recuento sirve
+        //como total aproximado. Sólo es una estimación: el índice de cada instancia puede no tener aún los cambios
+        //hechos por otras instancias o directamente sobre la base de datos, que sigue siendo la que decide los
+        //resultados y el total exacto:
+        OptionalInt indexed = mode != TotalMode.ESTIMATED || StringUtils.hasText(q) || day != null ||
+                month != null || year != null ?
+                OptionalInt.empty() : index.count(arrayFilters(keywords, genres, cast, crew, producers));
+
+        //Se crea un primer objeto query que devuelva únicamente los resultados de la página que corresponda.
+        Query query = search(q, criteria).with(request);
+        //Se incluyen solamente los campos pedidos:
+        query.fields().include(include);
+
+        //Si se pide el total exacto, se hace otro objeto query que nos devuelva todos los resultados, sin tener la
+        //paginación en cuenta:
+        if(mode == TotalMode.EXACT) {
+            Query countQuery = search(q, criteria);
+
+            //Se devuelve el resultado (haciendo todas  las querys necesarias con el mongoTemplate
+            return PageableExecutionUtils.getPage(mongoTemplate.find(query, Film.class), request,
+                    ()-> mongoTemplate.count(countQuery, Film.class));
+        }
+
+        //En otro caso, no se hace la consulta de conteo. Se recupera un elemento más para saber si hay más resultados:
+        query.limit(size + 1);
+        List<Film> result = mongoTemplate.find(query, Film.class);
+        boolean hasNext = result.size() > size;
+        Slice<Film> slice = new SliceImpl<>(hasNext ? result.subList(0, size) : result, request, hasNext);
+
+        //Si no se quiere total, se devuelve la porción tal cual:
+        if(mode == TotalMode.NONE) return slice;
+        //Si el índice da un recuento, se usa como estimación:
+        if(indexed.isPresent()) return AuxMethods.estimatedPage(slice, indexed.getAsInt());
+
+        //Si se quiere un total aproximado: sin filtros se usan los metadatos de la colección, y con filtros
+        //se usa el último total calculado para esos mismos criterios.
+        Query countQuery = search(q, criteria);
+        long estimate = counts.get("films:" + countQuery.getQueryObject().toJson(),
+                () -> isUnfiltered(countQuery.getQueryObject()) ?
+                mongoTemplate.getCollection(mongoTemplate.getCollectionName(Film.class)).estimatedDocumentCount() :
+                mongoTemplate.count(countQuery, Film.class));
+        return AuxMethods.estimatedPage(slice, estimate);
+    }
+
+    /**
+     * Método que permite recuperar una página de películas junto a sus facetas: para cada campo pedido, el número
+     * de películas de la búsqueda que tiene cada valor. La página, el total y las facetas se calculan en una única
+     * agregación ($facet), y las facetas se guardan durante un tiempo para las siguientes páginas de la misma
+     * búsqueda. Como la agregación recorre todos los resultados, el total es siempre exacto.
+     *
+     * @param page Página a recuperar.
+     * @param size Tamaño de la página.
+     * @param sort Parámetros de ordenación.
+     * @param q Texto a buscar en el título, la descripción, el eslogan y las palabras clave (opcional). Si se
+     *      indica, las películas se ordenan primero por relevancia.
+     * @param facets Campos de los que se quieren las facetas (ver FACETS).
+     * @param keywords Lista de palabras clave por las cuales se puede realizar la búsqueda.
+     * @param genres Lista de géneros por los cuales se puede realizar la búsqueda.
+     * @param cast Lista de los nombres de los miembros del cast por los que se puede realizar la búsqueda de películas.
+     * @param crew Lista de nombres de los miembros del crew por los que se puede realizar la búsqueda de películas.
+     * @param producers Lista de nombres de los productores por los que se puede realizar la búsqueda de películas.
+     * @param day Día de cualquier mes por el que se puede realizar la búsqueda de películas.
+     * @param month Mes del año por el que se puede realizar la búsqueda.
+     * @param year Año por el cual se puede realizar la búsqueda de películas.
+     * @param fields Campos de las películas a devolver (si no se indica ninguno, los de los listados).
+     * @return Página de películas (formato optional) con las facetas de la búsqueda.
+     * @throws InvalidDataException Si se pide la faceta de un campo no permitido, o un campo que no existe.
+     */
+    public Optional<FacetedPage<Film>> getFaceted(int page, int size, Sort sort, String q, List<String> facets,
+                                                  List<String> keywords, List<String> genres, List<String> cast,
+                                                  List<String> crew, List<String> producers, Integer day,
+                                                  Integer month, Integer year, List<String> fields) {
+        //Comprobamos los campos pedidos, que se ordenan como en FACETS para que no influya el orden de la url:
+        for (String facet : facets) {
+            if(!FACETS.contains(facet)) {
+                throw new InvalidDataException(ErrorType.INVALID_PARAMETER, "Unknown facet: " + facet +
+                        ". Allowed facets: " + String.join(", ", FACETS));
+            }
+        }
+        List<String> requested = new ArrayList<>(FACETS);
+        requested.retainAll(facets);
+        String[] include = include(fields, LIST_FIELDS);
+
+        Pageable request = PageRequest.of(page, size, sort);
+        //Los filtros se normalizan (ordenados y sin repetidos) para que las búsquedas equivalentes compartan clave:
+        Criteria criteria = filter(normalize(keywords), normalize(genres), normalize(cast), normalize(crew),
+                normalize(producers), day, month, year);
+        //La clave incluye la versión de las películas, para no devolver facetas anteriores a una escritura:
+        String text = normalizeText(q);
+        String key = results.version() + ":" + text + ":" + criteria.getCriteriaObject().toJson() + ":" + requested;
+
+        //Si ya se tienen las facetas de la búsqueda, basta con recuperar la página:
+        Optional<FacetCache.Facets> cached = facetCache.get(key);
+        if(cached.isPresent()) {
+            Query query = search(text, criteria).with(request);
+            query.fields().include(include);
+            return Optional.of(new FacetedPage<>(mongoTemplate.find(query, Film.class), request,
+                    cached.get().getTotal(), cached.get().getCounts()));
+        }
+
+        List<AggregationOperation> pipeline = new ArrayList<>();
+        List<Sort.Order> orders = new ArrayList<>();
+        Document projection = new Document();
+        for (String field : include) projection.append(field, 1);
+        if(text != null) {
+            //La búsqueda por texto tiene que ser la primera etapa, y la relevancia se añade como campo:
+            pipeline.add(Aggregation.match(TextCriteria.forDefaultLanguage().matching(text)));
+            pipeline.add(Aggregation.match(criteria));
+            pipeline.add(context -> new Document("$addFields",
+                    new Document(SCORE, new Document("$meta", "textScore"))));
+            orders.add(Sort.Order.desc(SCORE));
+            projection.append(SCORE, 1);
+        } else {
+            pipeline.add(Aggregation.match(criteria));
+        }
+        sort.forEach(orders::add);
+
+        //Resultados de la página:
+        List<AggregationOperation> results = new ArrayList<>();
+        if(!orders.isEmpty()) results.add(Aggregation.sort(Sort.by(orders)));
+        results.add(Aggregation.skip(request.getOffset()));
+        results.add(Aggregation.limit(size));
+        results.add(context -> new Document("$project", projection));
+        FacetOperation facet = Aggregation.facet(results.toArray(new AggregationOperation[0])).as("results")
+                .and(Aggregation.count().as("total")).as("total");
+
+        //Número de películas por valor de cada campo pedido (los nombres de los campos no pueden tener puntos en
+        //la salida, por lo que se usa su posición):
+        for (int i = 0; i < requested.size(); i++) {
+            String field = requested.get(i);
+            List<AggregationOperation> counts = new ArrayList<>();
+            if(isArrayFacet(field)) counts.add(Aggregation.unwind(field));
+            counts.add(Aggregation.match(Criteria.where(field).ne(null)));
+            counts.add(Aggregation.group(field).count().as("count"));
+            counts.add(Aggregation.sort(Sort.by(Sort.Order.desc("count"), Sort.Order.asc("_id"))));
+            counts.add(Aggregation.limit(facetBuckets));
+            facet = facet.and(counts.toArray(new AggregationOperation[0])).as("f" + i);
+        }
+        pipeline.add(facet);
+
+        Document output = mongoTemplate.aggregate(Aggregation.newAggregation(pipeline),
+                mongoTemplate.getCollectionName(Film.class), Document.class).getUniqueMappedResult();
+        if(output == null) return Optional.empty();
+
+        //Se convierten los resultados de la agregación:
+        List<Film> content = new ArrayList<>();
+        for (Document film : output.getList("results", Document.class)) {
+            content.add(mongoTemplate.getConverter().read(Film.class, film));
+        }
+        List<Document> total = output.getList("total", Document.class);
+        Map<String, Map<String, Long>> counts = new LinkedHashMap<>();
+        for (int i = 0; i < requested.size(); i++) {
+            Map<String, Long> values = new LinkedHashMap<>();
+            for (Document bucket : output.getList("f" + i, Document.class)) {
+                values.put(String.valueOf(bucket.get("_id")), ((Number) bucket.get("count")).longValue());
+            }
+            counts.put(requested.get(i), Collections.unmodifiableMap(values));
+        }
+
+        FacetCache.Facets computed = new FacetCache.Facets(
+                total.isEmpty() ? 0 : ((Number) total.get(0).get("total")).longValue(),
+                Collections.unmodifiableMap(counts));
+        facetCache.put(key, computed);
+        return Optional.of(new FacetedPage<>(content, request, computed.getTotal(), computed.getCounts()));
+    }
+
+    /**
+     * Método que permite recuperar los datos de las películas mediante paginación por clave: en lugar de saltar
+     * los documentos de las páginas anteriores, se busca directamente a partir de la posición del cursor.
+     *
+     * @param size Tamaño de la porción a recuperar.
+     * @param sort Parámetros de ordenación.
+     * @param cursor Cursor devuelto en la porción anterior (o CursorUtils.FIRST para empezar).
+     * @param q Texto a buscar en el título, la descripción, el eslogan y las palabras clave (opcional). Si se
+     *      indica, las películas se ordenan primero por relevancia.
+     * @param keywords Lista de palabras clave por las cuales se puede realizar la búsqueda.
+     * @param genres Lista de géneros por los cuales se puede realizar la búsqueda.
+     * @param cast Lista de los nombres de los miembros del cast por los que se puede realizar la búsqueda de películas.
+     * @param crew Lista de nombres de los miembros del crew por los que se puede realizar la búsqueda de películas.
+     * @param producers Lista de nombres de los productores por los que se puede realizar la búsqueda de películas.
+     * @param day Día de cualquier mes por el que se puede realizar la búsqueda de películas.
+     * @param month Mes del año por el que se puede realizar la búsqueda.
+     * @param year Año por el cual se puede realizar la búsqueda de películas.
+     * @param fields Campos de las películas a devolver (si no se indica ninguno, los de los listados). Se
+     *      devuelven también los campos de ordenación, necesarios para generar el cursor.
+     * @return Porción de películas (formato optional) obtenida por la búsqueda, junto al cursor para continuar.
+     * @throws InvalidDataException Si alguno de los campos pedidos no existe en las películas.
+     */
+    public Optional<KeysetSlice<Film>> getByCursor(int size, Sort sort, String cursor, String q,
+                                                   List<String> keywords, List<String> genres, List<String> cast,
+                                                   List<String> crew, List<String> producers, Integer day,
+                                                   Integer month, Integer year, List<String> fields) {
+        //Comprobamos que el tamaño pedido sea válido:
+        if(size < 1) throw new InvalidDataException(ErrorType.INVALID_PARAMETER, "Size must be greater than 0.");
+
+        //El orden debe ser total, por lo que se termina siempre ordenando por id. En las búsquedas por texto se
+        //ordena antes por relevancia:
+        List<Sort.Order> orders = cursorUtils.withTieBreaker(sort);
+        if(StringUtils.hasText(q)) orders.add(0, Sort.Order.desc(SCORE));
+
+        //Establecemos criterios de búsqueda, y la posición del cursor si no se empieza desde el principio:
+        Criteria criteria = filter(keywords, genres, cast, crew, producers, day, month, year);
+        Criteria seek = cursor != null && !cursor.equals(CursorUtils.FIRST) ? cursorUtils.seek(cursor, orders) : null;
+        String[] include = include(fields, LIST_FIELDS);
+
+        List<Film> result;
+        if(StringUtils.hasText(q)) {
+            result = searchByCursor(q, criteria, seek, orders, include, size);
+        } else {
+            if(seek != null) criteria = new Criteria().andOperator(criteria, seek);
+
+            //Recuperamos un elemento más de los pedidos para saber si hay más resultados:
+            Query query = Query.query(criteria).with(Sort.by(orders)).limit(size + 1);
+            query.fields().include(include);
+            //Los campos de ordenación tienen que estar en el resultado para poder generar el siguiente cursor:
+            for (Sort.Order order : orders) {
+                if(!isIncluded(order.getProperty(), include)) query.fields().include(order.getProperty());
+            }
+            result = mongoTemplate.find(query, Film.class);
+        }
+
+        String next = null;
+        if(result.size() > size) {
+            result = result.subList(0, size);
+            next = cursorUtils.encode(result.get(size - 1), orders);
+        }
+
+        return Optional.of(new KeysetSlice<>(result, PageRequest.of(0, size, Sort.by(orders)), next));
+    }
+
+    /**
+     * Método que recupera una porción de los resultados de una búsqueda por texto para la paginación por clave.
+     *
+     * La relevancia no es un campo de los documentos, por lo que no se puede usar en los criterios de una consulta
+     * normal: se usa una agregación que la añade como campo antes de buscar la posición del cursor y ordenar.
+     *
+     * @param q El texto a buscar.
+     * @param criteria Criterio de búsqueda de los filtros.
+     * @param seek Criterio de la posición del cursor (null si se empieza desde el principio).
+     * @param orders Criterios de ordenación (empezando por la relevancia y terminando por el id).
+     * @param include Campos de las películas a devolver.
+     * @param size Tamaño de la porción.
+     * @return Las películas, con un elemento más de los pedidos si hay más resultados.
+     */
+    private List<Film> searchByCursor(String q, Criteria criteria, Criteria seek, List<Sort.Order> orders,
+                                      String[] include, int size) {
+        //Campos a devolver: los pedidos, la relevancia y los de ordenación (para generar el cursor):
+        Document fields = new Document();
+        for (String field : include) fields.append(field, 1);
+        for (Sort.Order order : orders) {
+            if(!isIncluded(order.getProperty(), include)) fields.append(order.getProperty(), 1);
+        }
+
+        List<AggregationOperation> pipeline = new ArrayList<>();
+        //La búsqueda por texto tiene que ser la primera etapa:
+        pipeline.add(Aggregation.match(TextCriteria.forDefaultLanguage().matching(q)));
+        pipeline.add(Aggregation.match(criteria));
+        pipeline.add(context -> new Document("$addFields",
+                new Document(SCORE, new Document("$meta", "textScore"))));
+        if(seek != null) pipeline.add(Aggregation.match(seek));
+        pipeline.add(Aggregation.sort(Sort.by(orders)));
+        //Recuperamos un elemento más de los pedidos para saber si hay más resultados:
+        pipeline.add(Aggregation.limit(size + 1));
+        pipeline.add(context -> new Document("$project", fields));
+
+        return mongoTemplate.aggregate(Aggregation.newAggregation(Film.class, pipeline), Film.class)
+                .getMappedResults();
+    }
+
+    /**
+     * Método que genera la consulta de películas para unos criterios de búsqueda y, si se indica, un texto a
+     * buscar. En ese caso, los resultados se ordenan primero por relevancia (y después por la ordenación que se
+     * añada a la consulta), y se devuelve la relevancia de cada película.
+     *
+     * @param q El texto a buscar (puede ser nulo).
+     * @param criteria Criterio de búsqueda de los filtros.
+     * @return La consulta.
+     */
+    private Query search(String q, Criteria criteria) {
+        if(!StringUtils.hasText(q)) return Query.query(criteria);
+        return TextQuery.queryText(TextCriteria.forDefaultLanguage().matching(q)).sortByScore().addCriteria(criteria);
+    }
+
+    /**
+     * Método que sugiere películas a partir del principio de su título (autocompletado). Se responde desde el
+     * índice en memoria; mientras se carga, se busca en la base de datos por el principio del título.
+     *
+     * @param prefix El texto escrito.
+     * @param limit Número máximo de películas a devolver.
+     * @return Las películas (sólo con id y título), de más a menos populares.
+     */
+    public List<Film> suggest(String prefix, int limit) {
+        //Comprobamos que el número pedido sea válido:
+        if(limit < 1) throw new InvalidDataException(ErrorType.INVALID_PARAMETER, "Limit must be greater than 0.");
+
+        return index.suggest(prefix, limit).orElseGet(() -> {
+            Query query = Query.query(Criteria.where("title").regex("^" + Pattern.quote(prefix.trim()), "i"))
+                    .with(Sort.by(Sort.Direction.DESC, "rating.count"))
+                    .limit(limit);
+            query.fields().include("_id", "title");
+            return mongoTemplate.find(query, Film.class);
+        });
+    }
+
+    /**
+     * Método que agrupa los filtros multivalor de los listados por campo, para resolverlos en el índice.
+     *
+     * @param keywords Lista de palabras clave.
+     * @param genres Lista de géneros.
+     * @param cast Lista de los nombres de los miembros del cast.
+     * @param crew Lista de nombres de los miembros del crew.
+     * @param producers Lista de nombres de los productores.
+     * @return Los valores de cada campo (en el orden de ARRAY_FILTERS).
+     */
+    private Map<String, List<String>> arrayFilters(List<String> keywords, List<String> genres, List<String> cast,
+                                                   List<String> crew, List<String> producers) {
+        Map<String, List<String>> filters = new LinkedHashMap<>();
+        List<List<String>> values = Arrays.asList(keywords, genres, cast, crew, producers);
+        for (int i = 0; i < ARRAY_FILTERS.length; i++) {
+            if(values.get(i) != null) filters.put(ARRAY_FILTERS[i], values.get(i));
+        }
+        return filters;
+    }
+
+    /**
+     * Método que permite recorrer todas las películas que cumplan los filtros sin cargarlas en memoria: se
+     * recuperan del cursor de mongo por lotes a medida que se consume el iterador. Se ordenan por id, de forma
+     * que el recorrido usa el índice del id y el orden es estable entre exportaciones.
+     *
+     * @param fields Campos de las películas a devolver (todos si no se indica ninguno).
+     * @param keywords Lista de palabras clave por las cuales se puede realizar la búsqueda.
+     * @param genres Lista de géneros por los cuales se puede realizar la búsqueda.
+     * @param cast Lista de los nombres de los miembros del cast por los que se puede realizar la búsqueda de películas.
+     * @param crew Lista de nombres de los miembros del crew por los que se puede realizar la búsqueda de películas.
+     * @param producers Lista de nombres de los productores por los que se puede realizar la búsqueda de películas.
+     * @param day Día de cualquier mes por el que se puede realizar la búsqueda de películas.
+     * @param month Mes del año por el que se puede realizar la búsqueda.
+     * @param year Año por el cual se puede realizar la búsqueda de películas.
+     * @return Iterador sobre las películas, que debe cerrarse al terminar.
+     */
+    public CloseableIterator<Film> export(List<String> fields, List<String> keywords, List<String> genres,
+                                          List<String> cast, List<String> crew, List<String> producers,
+                                          Integer day, Integer month, Integer year) {
+        Query query = Query.query(filter(keywords, genres, cast, crew, producers, day, month, year))
+                .with(Sort.by("_id"))
+                .cursorBatchSize(exportBatchSize);
+        //Si se piden sólo algunos campos, se comprueba que existan y se recuperan únicamente esos:
+        if(fields != null && !fields.isEmpty()) query.fields().include(projection(fields));
+
+        return mongoTemplate.stream(query, Film.class);
+    }
+
+    /**
+     * Método que comprueba los campos pedidos para una proyección de películas.
+     * @param fields Los campos pedidos (pueden ser campos anidados, separados por puntos).
+     * @return Los campos, con el nombre que tienen en los documentos y listos para incluirlos en la consulta.
+     * @throws InvalidDataException Si alguno de los campos no existe en las películas.
+     */
+    private String[] projection(List<String> fields) {
+        MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext()
+                .getRequiredPersistentEntity(Film.class);
+        Set<String> paths = new TreeSet<>();
+        for (String field : fields) {
+            //Se comprueba el primer nivel del campo (el resto depende del contenido de cada película):
+            String[] parts = field.split("\\.", 2);
+            MongoPersistentProperty persistent = parts[0].isEmpty() ? null : entity.getPersistentProperty(parts[0]);
+            //La relevancia de las búsquedas por texto no se guarda en los documentos:
+            if(persistent == null || persistent.isTextScoreProperty() || field.endsWith(".") ||
+                    field.contains("..")) {
+                throw new InvalidDataException(ErrorType.INVALID_PARAMETER, "Unknown movie field: " + field);
+            }
+            paths.add(parts.length > 1 ? persistent.getFieldName() + "." + parts[1] : persistent.getFieldName());
+        }
+        //Si se pide un campo y alguno de sus subcampos basta con el campo (mongo no admite los dos a la vez). Al
+        //estar ordenados, cada campo aparece antes que sus subcampos:
+        List<String> included = new ArrayList<>();
+        for (String path : paths) {
+            if(!isIncluded(path, included.toArray(new String[0]))) included.add(path);
+        }
+        return included.toArray(new String[0]);
+    }
+
+    /**
+     * Método que devuelve los campos a recuperar de las películas: los pedidos (una vez comprobados), junto al
+     * id y la versión, que se necesitan para los enlaces y los ETags.
+     * @param fields Los campos pedidos (puede ser nulo).
+     * @param defaults Los campos a recuperar si no se pide ninguno (nulo para todos).
+     * @return Los campos a incluir en la consulta (nulo para todos).
+     * @throws InvalidDataException Si alguno de los campos no existe en las películas.
+     */
+    private String[] include(List<String> fields, String[] defaults) {
+        if(fields == null || fields.isEmpty()) return defaults;
+        Set<String> included = new LinkedHashSet<>(Arrays.asList(projection(fields)));
+        included.add("_id");
+        included.add(VersionUtils.VERSION);
+        return included.toArray(new String[0]);
+    }
+
+    /**
+     * Método que aplica una proyección a una película ya recuperada (por ejemplo, de la caché), con el mismo
+     * resultado que si se hubiese aplicado en la consulta.
+     * @param film La película completa.
+     * @param include Los campos a mantener (ver método include).
+     * @return Una copia de la película con sólo esos campos.
+     */
+    @SuppressWarnings("unchecked")
+    private Film project(Film film, String[] include) {
+        //Se construye el árbol de los campos pedidos (las hojas se mantienen completas):
+        Map<String, Object> tree = new LinkedHashMap<>();
+        for (String field : include) {
+            String[] parts = field.split("\\.");
+            Map<String, Object> node = tree;
+            for (int i = 0; i < parts.length - 1; i++) {
+                node = (Map<String, Object>) node.computeIfAbsent(parts[i], k -> new LinkedHashMap<String, Object>());
+            }
+            node.put(parts[parts.length - 1], Boolean.TRUE);
+        }
+
+        Document document = new Document();
+        mongoTemplate.getConverter().write(film, document);
+        return mongoTemplate.getConverter().read(Film.class, (Document) project(document, tree));
+    }
+
+    /**
+     * Método auxiliar de la proyección en memoria, que se aplica recursivamente a los subdocumentos.
+     * @param value El valor a proyectar (documento, array o valor simple).
+     * @param tree Los campos a mantener del valor.
+     * @return El valor proyectado, o nulo si no tiene ninguno de los campos (valores simples).
+     */
+    @SuppressWarnings("unchecked")
+    private Object project(Object value, Map<String, Object> tree) {
+        if(value instanceof Map) {
+            Map<String, Object> source = (Map<String, Object>) value;
+            Document target = new Document();
+            for (Map.Entry<String, Object> entry : tree.entrySet()) {
+                if(!source.containsKey(entry.getKey())) continue;
+                Object field = source.get(entry.getKey());
+                Object projected = entry.getValue() instanceof Map ?
+                        project(field, (Map<String, Object>) entry.getValue()) : field;
+                if(projected != null) target.put(entry.getKey(), projected);
+            }
+            return target;
+        }
+        if(value instanceof List) {
+            //Igual que en mongo, de los arrays sólo se mantienen los subdocumentos (con sus campos pedidos):
+            List<Object> target = new ArrayList<>();
+            for (Object element : (List<Object>) value) {
+                if(element instanceof Map || element instanceof List) target.add(project(element, tree));
+            }
+            return target;
+        }
+        //Los valores simples no tienen subcampos:
+        return null;
+    }
+
+    /**
+     * Método que construye el criterio de búsqueda de películas a partir de los filtros facilitados.
+     *
+     * @param keywords Lista de palabras clave.
+     * @param genres Lista de géneros.
+     * @param cast Lista de los nombres de los miembros del cast.
+     * @param crew Lista de nombres de los miembros del crew.
+     * @param producers Lista de nombres de los productores.
+     * @param day Día del mes de estreno.
+     * @param month Mes de estreno.
+     * @param year Año de estreno.
+     * @return El criterio de búsqueda.
+     */
+    private Criteria filter(List<String> keywords, List<String> genres, List<String> cast, List<String> crew,
+                            List<String> producers, Integer day, Integer month, Integer year) {
         //Establecemos criterios de búsqueda. En primer lugar, existencia de id:
         Criteria criteria = Criteria.where("_id").exists(true);
 
@@ -86,17 +717,58 @@ public class MovieService {
         if(month != null) criteria.and("releaseDate.month").is(month);
         if(year != null) criteria.and("releaseDate.year").is(year);
 
-        //Se crea un primer objeto query que devuelva únicamente los resultados de la página que corresponda.
-        Query query = Query.query(criteria).with(request);
-        //Se incluyen solamente los campos pedidos:
-        query.fields().include("_id", "title", "overview", "genres", "releaseDate", "resources");
+        return criteria;
+    }
 
-        //Se hace otro objeto query que nos devuelva todos los resultados, sin tener la paginación en cuenta.
-        Query countQuery = Query.query(criteria);
+    /**
+     * Método que normaliza los valores de un filtro multivalor: como se tienen que cumplir todos, no importa su
+     * orden ni que se repitan.
+     * @param values Los valores del filtro (puede ser nulo).
+     * @return Los valores, ordenados y sin repetir (o nulo si no hay filtro).
+     */
+    private List<String> normalize(List<String> values) {
+        return values == null ? null : new ArrayList<>(new TreeSet<>(values));
+    }
+
+    /**
+     * Método que normaliza el texto de una búsqueda: la búsqueda por texto no distingue mayúsculas ni tiene en
+     * cuenta los espacios de más.
+     * @param q El texto a buscar (puede ser nulo).
+     * @return El texto normalizado (o nulo si no hay texto).
+     */
+    private String normalizeText(String q) {
+        return StringUtils.hasText(q) ? q.trim().replaceAll("\\s+", " ").toLowerCase() : null;
+    }
+
+    /**
+     * Método que comprueba si un campo de las facetas es multivalor (se cuenta cada uno de sus valores).
+     * @param field El campo.
+     * @return True si el campo es un array de las películas.
+     */
+    private boolean isArrayFacet(String field) {
+        return Arrays.asList(ARRAY_FILTERS).contains(field);
+    }
+
+    /**
+     * Método que comprueba si una consulta de películas no contiene ningún filtro.
+     * @param query El objeto de la consulta.
+     * @return True si la consulta selecciona todas las películas.
+     */
+    private boolean isUnfiltered(Document query) {
+        return query.keySet().size() == 1;
+    }
 
-        //Se devuelve el resultado (haciendo todas  las querys necesarias con el mongoTemplate
-        return Optional.of(PageableExecutionUtils.getPage(mongoTemplate.find(query, Film.class), request,
-                ()->mongoTemplate.count(countQuery, Film.class)));
+    /**
+     * Método que comprueba si un campo (o uno que lo contenga) forma parte de una proyección.
+     * @param field El campo a comprobar.
+     * @param include Los campos de la proyección.
+     * @return True si el campo ya se incluye en la proyección.
+     */
+    private boolean isIncluded(String field, String[] include) {
+        for (String included : include) {
+            if(field.equals(included) || field.startsWith(included + ".")) return true;
+        }
+        return false;
     }
 
 
@@ -107,8 +779,54 @@ public class MovieService {
      * @return Los datos de la película con el id facilitado (si se encuentra).
      */
     public Optional<Film> get(String id) {
-        //Se recupera la película con el id pasado:
-        return movies.findById(id);
+        //Se recupera la película con el id pasado (de la caché si está, o de la base de datos si no):
+        return cache.get(id, movies::findById);
+    }
+
+    /**
+     * Método que permite recuperar sólo algunos campos de la película con el id pasado como parámetro, de forma
+     * que los demás (como el reparto o el equipo, que pueden ser muy grandes) no se leen de la base de datos.
+     *
+     * @param id El id de la película a recuperar.
+     * @param fields Los campos a devolver (si no se indica ninguno, todos).
+     * @return Los datos pedidos de la película con el id facilitado (si se encuentra).
+     * @throws InvalidDataException Si alguno de los campos pedidos no existe en las películas.
+     */
+    public Optional<Film> get(String id, List<String> fields) {
+        String[] include = include(fields, null);
+        if(include == null) return get(id);
+
+        //Si la película está en caché, se proyecta en memoria sin consultar la base de datos:
+        if(cache.contains(id)) return get(id).map(film -> project(film, include));
+        //Si no, se recuperan sólo los campos pedidos (la película incompleta no se guarda en la caché):
+        Query query = Query.query(Criteria.where("_id").is(id));
+        query.fields().include(include);
+        return Optional.ofNullable(mongoTemplate.findOne(query, Film.class));
+    }
+
+    /**
+     * Método que comprueba y normaliza (sin repetidos, ordenados y sin los subcampos de campos ya pedidos) los
+     * campos de una película pedidos, de forma que dos peticiones con la misma selección den el mismo resultado.
+     *
+     * @param fields Los campos pedidos (puede ser nulo).
+     * @return Los campos normalizados (vacío si se piden todos).
+     * @throws InvalidDataException Si alguno de los campos no existe en las películas.
+     */
+    public List<String> fields(List<String> fields) {
+        if(fields == null || fields.isEmpty()) return Collections.emptyList();
+        return Arrays.asList(projection(fields));
+    }
+
+    /**
+     * Método que permite recuperar únicamente la versión de una película, para las peticiones condicionales.
+     *
+     * @param id El id de la película.
+     * @return La versión de la película (si se encuentra).
+     */
+    public Optional<Long> version(String id) {
+        //Si la película está en caché, no hace falta consultar la base de datos:
+        if(cache.contains(id)) return get(id).map(film -> VersionUtils.value(film.getVersion()));
+        return versions.version(Film.class, id);
     }
 
     /**
@@ -117,10 +835,16 @@ public class MovieService {
      * @return Los datos de la película una vez insertados, incluyendo el id.
      */
     public Optional<Film> create(Film movie) {
+        //Las valoraciones se calculan a partir de los comentarios:
+        if(movie.getRating() != null) {
+            throw new InvalidDataException(ErrorType.INVALID_INFO, "The rating is computed from the comments.");
+        }
         //Comprobamos que la película haya llegado sin un id:
         if(movie.getId() == null || movie.getId().isEmpty()){
-            //Si es así, se devuelve un optional con los datos de la película insertada.
-            return Optional.of(movies.insert(movie));
+            //Si es así, se devuelve un optional con los datos de la película insertada (que se guarda en caché).
+            Film inserted = cache.put(movies.insert(movie.setVersion(0L)));
+            events.publishEvent(FilmChangeEvent.created(inserted));
+            return Optional.of(inserted);
         } else {
             //Si no, se lanza una excepción:
             throw new InvalidDataException(ErrorType.INVALID_INFO, "The id is automatically generated on insert.");
@@ -128,30 +852,151 @@ public class MovieService {
     }
 
 
+    /**
+     * Método que permite insertar un conjunto de películas a medida que se van leyendo.
+     *
+     * Cada película se valida con las mismas restricciones que en la inserción individual; las válidas reciben un
+     * id y se insertan por lotes sin orden (un error en una película no impide insertar las demás del lote). Las
+     * películas insertadas no se guardan en la caché, para no desplazar de ella las más consultadas.
+     *
+     * @param films Las películas a insertar.
+     * @return El resultado de cada película, en el orden de la entrada. Si la entrada deja de ser JSON válido, el
+     *      último resultado indica el error y no se leen más películas (las anteriores ya se han insertado).
+     */
+    public List<BulkResult> createAll(MappingIterator<Film> films) {
+        List<BulkResult> results = new ArrayList<>();
+        //Lote en curso, y resultados de sus películas (en la misma posición):
+        List<Film> batch = new ArrayList<>(bulkBatchSize);
+        List<BulkResult> pending = new ArrayList<>(bulkBatchSize);
+        int index = 0;
+
+        try {
+            while (films.hasNextValue()) {
+                BulkResult result = new BulkResult().setIndex(index++);
+                results.add(result);
+
+                //Si la película no se puede leer, se descarta y se sigue con la siguiente:
+                Film film;
+                try {
+                    film = films.nextValue();
+                } catch (JsonMappingException e) {
+                    result.setStatus(BulkResult.Outcome.INVALID)
+                            .setErrors(Collections.singletonList(e.getOriginalMessage()));
+                    continue;
+                }
+
+                //Lo mismo si no supera las validaciones:
+                List<String> errors = validate(film);
+                if(!errors.isEmpty()) {
+                    result.setStatus(BulkResult.Outcome.INVALID).setErrors(errors);
+                    continue;
+                }
+
+                //Se asigna el id antes de insertarla, para poder devolverlo:
+                film.setId(new ObjectId().toHexString()).setVersion(0L);
+                result.setId(film.getId());
+                batch.add(film);
+                pending.add(result);
+
+                //Si el lote está completo, se inserta:
+                if(batch.size() == bulkBatchSize) {
+                    insert(batch, pending);
+                    batch.clear();
+                    pending.clear();
+                }
+            }
+        } catch (IOException e) {
+            //La entrada no es JSON válido, así que no se puede seguir leyendo:
+            results.add(new BulkResult(index, null, BulkResult.Outcome.INVALID,
+                    Collections.singletonList("Malformed content: " + e.getMessage())));
+        }
+
+        //Se inserta el último lote:
+        if(!batch.isEmpty()) insert(batch, pending);
+
+        return results;
+    }
+
+    /**
+     * Método que valida una película de una carga masiva.
+     * @param film La película.
+     * @return Los errores encontrados (vacío si es válida).
+     */
+    private List<String> validate(Film film) {
+        List<String> errors = new ArrayList<>();
+        if(film == null) {
+            errors.add("The movie must be an object.");
+            return errors;
+        }
+        //Restricciones de las anotaciones del modelo (las mismas que comprueba @Valid):
+        for (ConstraintViolation<Film> violation : validator.validate(film)) {
+            errors.add(violation.getPropertyPath() + ": " + violation.getMessage());
+        }
+        //Y las comprobaciones propias de la inserción:
+        if(film.getId() != null && !film.getId().isEmpty()) {
+            errors.add("The id is automatically generated on insert.");
+        }
+        if(film.getRating() != null) {
+            errors.add("The rating is computed from the comments.");
+        }
+        return errors;
+    }
+
+    /**
+     * Método que inserta un lote de películas de una carga masiva, sin orden, y anota el resultado de cada una.
+     * @param batch Las películas.
+     * @param results Los resultados de cada película (en la misma posición).
+     */
+    private void insert(List<Film> batch, List<BulkResult> results) {
+        results.forEach(result -> result.setStatus(BulkResult.Outcome.CREATED));
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Film.class).insert(batch).execute();
+        } catch (BulkOperationException e) {
+            //Sólo fallan las películas indicadas (por su posición en el lote); el resto se han insertado:
+            for (BulkWriteError error : e.getErrors()) {
+                results.get(error.getIndex()).setId(null).setStatus(BulkResult.Outcome.FAILED)
+                        .setErrors(Collections.singletonList(error.getMessage()));
+            }
+        } catch (DataAccessException e) {
+            //Cualquier otro error afecta al lote entero:
+            results.forEach(result -> result.setId(null).setStatus(BulkResult.Outcome.FAILED)
+                    .setErrors(Collections.singletonList(e.getMessage())));
+        }
+
+        //Se publica la inserción de las películas que se han insertado:
+        for (int i = 0; i < batch.size(); i++) {
+            if(results.get(i).getStatus() == BulkResult.Outcome.CREATED) {
+                events.publishEvent(FilmChangeEvent.created(batch.get(i)));
+            }
+        }
+    }
+
     /**
      * Método que permite actualizar los datos de una película.
      * @param id El identificador de la película en cuestión.
      * @param updates Las modificaciones a realizar.
+     * @param expected Versión en la que debe estar la película (nula si no hay que comprobarla).
      * @return La película una vez actualizada en la Base de Datos.
+     * @throws PreconditionFailedException Si la película no está en la versión indicada.
      */
-    public Optional<Film> update(String id, List<Map<String, Object>> updates) {
+    public Optional<Film> update(String id, List<Map<String, Object>> updates, Long expected) {
         for (Map<String, Object> update : updates) {
             //Comprobamos que el formato de la petición patch sea correcto:
             if (update.get("op") == null || update.get("path") == null || update.get("value") == null) {
                 throw new InvalidDataException(ErrorType.INVALID_INFO, "You must specify operation, path and value in every update.");
             }
-            //Comprobamos que no se modifique el id:
-            if(update.get("path").equals("/id")){
-                throw new InvalidFormatException(ErrorType.FORBIDDEN, "You cannot change the comment's id");
-            }
         }
+        //Comprobamos que no se modifique el id:
+        patchUtils.forbid(updates, "You cannot change the film's id", "/id");
+        //Ni los campos calculados: las valoraciones (a partir de los comentarios) y la puntuación de las búsquedas:
+        patchUtils.forbid(updates, "The rating is computed from the comments", "/rating");
+        patchUtils.forbid(updates, "The score is computed by the text searches", "/score");
 
-        //Se recupera la película:
-        Film film = movies.findById(id).orElseThrow(()->new NoDataException(ErrorType.UNKNOWN_INFO,
-                "No film with the specified id"));
-
-        //Se intenta aplicar la actualización y devolvemos el resultado:
-        return Optional.of(movies.save(patchUtils.patch(film, updates)));
+        //Se aplica la actualización directamente sobre la película, se actualiza la caché y devolvemos el resultado:
+        Film film = patchUtils.patch(Criteria.where("_id").is(id), updates, Film.class, true, expected)
+                .orElseThrow(()->new NoDataException(ErrorType.UNKNOWN_INFO, "No film with the specified id"));
+        events.publishEvent(FilmChangeEvent.updated(film));
+        return Optional.of(cache.put(film));
     }
 
     /**
@@ -161,8 +1006,10 @@ public class MovieService {
     public void delete(String movieId) {
         //Se comprueba si existe la película que se quiere borrar:
         if(movies.existsById(movieId)){
-            //Si existe, se borra la película:
+            //Si existe, se borra la película (también de la caché):
             movies.deleteById(movieId);
+            cache.invalidate(movieId);
+            events.publishEvent(FilmChangeEvent.deleted(movieId));
             //Borramos todos los comentarios de las películas:
             assessments.deleteAllByMovieId(movieId);
         } else {
@@ -177,6 +1024,7 @@ public class MovieService {
      * @return Un booleano que indica si la película existe o no.
      */
     public boolean existsById(String movieId) {
-        return movies.existsById(movieId);
+        //Si la película está en caché, no hace falta consultar la base de datos:
+        return cache.contains(movieId) || movies.existsById(movieId);
     }
 }
@@ -0,0 +1,61 @@
+package gal.usc.etse.grei.es.project.service;
+
+import gal.usc.etse.grei.es.project.cache.PeopleTrie;
+import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
+import gal.usc.etse.grei.es.project.errorManagement.exceptions.InvalidDataException;
+import gal.usc.etse.grei.es.project.model.Person;
+import gal.usc.etse.grei.es.project.repository.PeopleRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Clase PeopleService: métodos relacionados con las personas (repartos y equipos de las películas).
+ *
+ * @author Manuel Bendaña
+ */
+@Service
+public class PeopleService {
+    //Referencia al repositorio de personas:
+    private final PeopleRepository people;
+    //Referencia al árbol de nombres en memoria, para las sugerencias:
+    private final PeopleTrie trie;
+
+    /**
+     * Constructor de la clase
+     * @param people Referencia al PeopleRepository
+     * @param trie Referencia al árbol de nombres de las personas.
+     */
+    @Autowired
+    public PeopleService(PeopleRepository people, PeopleTrie trie) {
+        this.people = people;
+        this.trie = trie;
+    }
+
+    /**
+     * Método que sugiere personas a partir del principio de su nombre (o de alguna de sus palabras) para el
+     * autocompletado. Se responde desde el árbol en memoria; mientras se carga, se buscan en la colección de
+     * personas por el principio del nombre (sin orden de popularidad).
+     *
+     * @param prefix El texto escrito.
+     * @param limit Número máximo de personas a devolver.
+     * @return Las personas (sólo con id y nombre), de más a menos películas.
+     */
+    public List<Person> suggest(String prefix, int limit) {
+        //Comprobamos que el número pedido sea válido:
+        if(limit < 1 || limit > PeopleTrie.TOP) {
+            throw new InvalidDataException(ErrorType.INVALID_PARAMETER,
+                    "Limit must be between 1 and " + PeopleTrie.TOP + ".");
+        }
+
+        return trie.suggest(prefix, limit).orElseGet(() ->
+                people.findByNameStartingWithIgnoreCase(prefix.trim(), PageRequest.of(0, limit, Sort.by("name")))
+                        .stream()
+                        .map(person -> new Person().setId(person.getId()).setName(person.getName()))
+                        .collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,344 @@
+package gal.usc.etse.grei.es.project.service;
+
+import gal.usc.etse.grei.es.project.cache.FilmCache;
+import gal.usc.etse.grei.es.project.cache.ResultCache;
+import gal.usc.etse.grei.es.project.model.Assessment;
+import gal.usc.etse.grei.es.project.model.Film;
+import gal.usc.etse.grei.es.project.model.Rating;
+import gal.usc.etse.grei.es.project.utilities.ScheduledLock;
+import gal.usc.etse.grei.es.project.utilities.VersionUtils;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.GroupOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Clase RatingService: mantenimiento del resumen de valoraciones de cada película.
+ *
+ * El resumen se actualiza de forma atómica con incrementos ($inc) cada vez que se crea, modifica o borra un
+ * comentario, sin tener que recorrer los comentarios. Periódicamente se recalcula a partir de los comentarios
+ * para corregir cualquier desviación.
+ *
+ * @author Manuel Bendaña
+ */
+@Service
+public class RatingService {
+    //Logger de la clase:
+    private static final Logger log = LoggerFactory.getLogger(RatingService.class);
+    //Campos del resumen de valoraciones en la película:
+    private static final String RATING = "rating";
+    private static final String COUNT = RATING + ".count";
+    private static final String SUM = RATING + ".sum";
+    private static final String AVERAGE = RATING + ".average";
+    private static final String HISTOGRAM = RATING + ".histogram.";
+    //Campo con el que se marcan las películas con comentarios en cada recálculo:
+    private static final String RUN = "ratingRun";
+    //Campo con el momento (del servidor de la base de datos) del último cambio incremental del resumen:
+    private static final String CHANGED = "ratingChanged";
+    //Nombre del bloqueo del recálculo:
+    private static final String LOCK = "ratings-rebuild";
+
+    //Referencia a MongoTemplate, para las actualizaciones parciales:
+    private final MongoTemplate mongoTemplate;
+    //Referencia a la caché de películas, que hay que invalidar al cambiar las valoraciones:
+    private final FilmCache cache;
+    //Referencia a la caché de listados de películas, que muestran las valoraciones y se ordenan por ellas:
+    private final ResultCache results;
+    //Referencia al bloqueo de las tareas periódicas, para recalcular en una sola instancia:
+    private final ScheduledLock lock;
+    //Número de películas que se actualizan en cada lote al recalcular:
+    private final int batchSize;
+    //Tiempo máximo durante el que se mantiene el bloqueo del recálculo si la instancia no lo libera:
+    private final Duration lease;
+
+    /**
+     * Constructor de la clase
+     * @param mongoTemplate Referencia a MongoTemplate.
+     * @param cache Referencia a la caché de películas.
+     * @param results Referencia a la caché de listados de películas.
+     * @param lock Referencia al bloqueo de las tareas periódicas.
+     * @param batchSize Número de películas por lote al recalcular los resúmenes.
+     * @param lease Tiempo máximo del bloqueo del recálculo.
+     */
+    @Autowired
+    public RatingService(MongoTemplate mongoTemplate, FilmCache cache, ResultCache results, ScheduledLock lock,
+                         @Value("${ratings.rebuild.batch-size:1000}") int batchSize,
+                         @Value("${ratings.rebuild.lock-lease:PT1H}") Duration lease) {
+        this.mongoTemplate = mongoTemplate;
+        this.cache = cache;
+        this.results = results;
+        this.lock = lock;
+        this.batchSize = batchSize;
+        this.lease = lease;
+    }
+
+    /**
+     * Método que añade una valoración al resumen de una película.
+     * @param movieId El id de la película.
+     * @param rating La puntuación (de 1 a 5).
+     */
+    public void add(String movieId, int rating) {
+        apply(movieId, new Update().inc(COUNT, 1L).inc(SUM, (long) rating).inc(HISTOGRAM + rating, 1L));
+    }
+
+    /**
+     * Método que elimina una valoración del resumen de una película.
+     * @param movieId El id de la película.
+     * @param rating La puntuación que tenía el comentario borrado.
+     */
+    public void remove(String movieId, int rating) {
+        apply(movieId, new Update().inc(COUNT, -1L).inc(SUM, (long) -rating).inc(HISTOGRAM + rating, -1L));
+    }
+
+    /**
+     * Método que cambia una valoración del resumen de una película.
+     * @param movieId El id de la película.
+     * @param from La puntuación anterior.
+     * @param to La nueva puntuación.
+     */
+    public void change(String movieId, int from, int to) {
+        if(from == to) return;
+        apply(movieId, new Update().inc(SUM, (long) (to - from)).inc(HISTOGRAM + from, -1L).inc(HISTOGRAM + to, 1L));
+    }
+
+    /**
+     * Método que quita del resumen de sus películas las valoraciones de un conjunto de comentarios, antes de
+     * borrarlos (por ejemplo, todos los de un usuario). Los comentarios se agrupan por película en la base de datos y
+     * los decrementos se aplican por lotes, sin cargar los comentarios ni hacer una escritura por cada uno.
+     *
+     * @param comments Criterio que cumplen los comentarios (con los nombres de los campos en los documentos).
+     */
+    public void removeAll(Criteria comments) {
+        Aggregation aggregation = Aggregation.newAggregation(Aggregation.match(comments), byMovie())
+                .withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Film.class);
+        List<Object> movies = new ArrayList<>();
+        try (CloseableIterator<Document> results = mongoTemplate.aggregateStream(aggregation,
+                mongoTemplate.getCollectionName(Assessment.class), Document.class)) {
+            while (results.hasNext()) {
+                Document result = results.next();
+                Object movieId = result.get("_id");
+                if(movieId == null) continue;
+
+                Update update = new Update().inc(COUNT, -((Number) result.get("count")).longValue())
+                        .inc(SUM, -((Number) result.get("sum")).longValue());
+                for (int i = 1; i <= 5; i++) {
+                    long total = ((Number) result.get("h" + i)).longValue();
+                    if(total > 0) update.inc(HISTOGRAM + i, -total);
+                }
+                bulk.updateOne(Query.query(Criteria.where("_id").is(movieId)),
+                        update.inc(VersionUtils.VERSION, 1L).currentDate(CHANGED));
+                movies.add(movieId);
+                //Ejecutamos por lotes para no acumular todas las actualizaciones en memoria:
+                if(movies.size() == batchSize) {
+                    flush(bulk, movies);
+                    bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Film.class);
+                    movies.clear();
+                }
+            }
+        }
+        if(!movies.isEmpty()) flush(bulk, movies);
+        results.bump();
+    }
+
+    /**
+     * Método que recalcula los resúmenes de valoraciones de todas las películas a partir de los comentarios. Se
+     * ejecuta en una sola instancia: las demás no lo hacen mientras otra tenga el bloqueo.
+     *
+     * Cada película con comentarios se marca con el id del recálculo, de forma que al terminar se vacían los
+     * resúmenes de las películas no marcadas (las que ya no tienen comentarios) sin tener que enviar la lista de
+     * películas recalculadas, que podría superar el tamaño máximo de una consulta.
+     *
+     * Las películas cuyo resumen ha cambiado de forma incremental desde el inicio del recálculo no se tocan (ni se
+     * sobrescriben ni se vacían), ya que lo calculado puede no incluir ese cambio: se corrigen, si hace falta, en la
+     * siguiente ejecución. Lo mismo ocurre con un comentario guardado justo antes de que se aplique su incremento.
+     */
+    @Scheduled(cron = "${ratings.rebuild.cron:0 0 4 * * *}")
+    public void rebuild() {
+        if(!lock.acquire(LOCK, lease)) {
+            log.info("Ratings rebuild skipped: running on another instance");
+            return;
+        }
+        try {
+            rebuildAll();
+        } finally {
+            lock.release(LOCK);
+        }
+    }
+
+    /**
+     * Método que recalcula los resúmenes (con el bloqueo ya tomado).
+     */
+    private void rebuildAll() {
+        //Momento de inicio según el servidor, el mismo reloj con el que se marcan los cambios incrementales:
+        Date start = mongoTemplate.executeCommand("{ isMaster: 1 }").getDate("localTime");
+        Criteria unchanged = new Criteria().orOperator(Criteria.where(CHANGED).exists(false),
+                Criteria.where(CHANGED).lt(start));
+
+        //Agrupamos los comentarios por película, contando las puntuaciones de cada valor:
+        Aggregation aggregation = Aggregation.newAggregation(byMovie())
+                .withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        String run = new ObjectId().toHexString();
+        long rated = 0;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Film.class);
+        int pending = 0;
+        try (CloseableIterator<Document> results = mongoTemplate.aggregateStream(aggregation,
+                mongoTemplate.getCollectionName(Assessment.class), Document.class)) {
+            while (results.hasNext()) {
+                Document result = results.next();
+                Object movieId = result.get("_id");
+                if(movieId == null) continue;
+
+                long count = ((Number) result.get("count")).longValue();
+                long sum = ((Number) result.get("sum")).longValue();
+                Map<String, Long> histogram = new LinkedHashMap<>();
+                for (int i = 1; i <= 5; i++) {
+                    histogram.put(String.valueOf(i), ((Number) result.get("h" + i)).longValue());
+                }
+
+                //Sólo se escriben (y cambian de versión) las películas cuyo resumen no coincide con el calculado. Se
+                //comparan los campos uno a uno, ya que la comparación de subdocumentos depende del orden de los campos:
+                Rating rating = new Rating(count, sum, average(count, sum), histogram);
+                List<Criteria> differences = new ArrayList<>();
+                differences.add(Criteria.where(COUNT).ne(count));
+                differences.add(Criteria.where(SUM).ne(sum));
+                differences.add(Criteria.where(AVERAGE).ne(rating.getAverage()));
+                histogram.forEach((value, total) -> differences.add(Criteria.where(HISTOGRAM + value).ne(total)));
+                bulk.updateOne(Query.query(Criteria.where("_id").is(movieId).andOperator(
+                                new Criteria().orOperator(differences.toArray(new Criteria[0])), unchanged)),
+                        new Update().set(RATING, rating).inc(VersionUtils.VERSION, 1L));
+                //Se marca la película como recalculada en esta ejecución (sin cambiar su versión):
+                bulk.updateOne(Query.query(Criteria.where("_id").is(movieId)), new Update().set(RUN, run));
+                rated++;
+                //Ejecutamos por lotes para no acumular todas las actualizaciones en memoria:
+                if(++pending == batchSize) {
+                    bulk.execute();
+                    bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Film.class);
+                    pending = 0;
+                }
+            }
+        }
+        if(pending > 0) bulk.execute();
+
+        //Las películas que ya no tienen comentarios (las no marcadas en esta ejecución) se quedan sin valoraciones:
+        mongoTemplate.updateMulti(Query.query(Criteria.where(COUNT).gt(0).and(RUN).ne(run).andOperator(unchanged)),
+                new Update().set(RATING, new Rating(0L, 0L, null, emptyHistogram())).inc(VersionUtils.VERSION, 1L),
+                Film.class);
+
+        cache.invalidateAll();
+        results.bump();
+        log.info("Ratings rebuilt for {} films", rated);
+    }
+
+    /**
+     * Método que genera la agrupación de los comentarios por película, con el número de puntuaciones, su suma y el
+     * número de puntuaciones de cada valor (campos count, sum y h1 a h5).
+     * @return La agrupación.
+     */
+    private static GroupOperation byMovie() {
+        GroupOperation group = Aggregation.group("movie._id").count().as("count").sum("rating").as("sum");
+        for (int i = 1; i <= 5; i++) {
+            group = group.sum(ConditionalOperators.when(Criteria.where("rating").is(i)).then(1).otherwise(0))
+                    .as("h" + i);
+        }
+        return group;
+    }
+
+    /**
+     * Método que ejecuta un lote de decrementos y actualiza la media de las películas afectadas.
+     * @param bulk El lote de decrementos.
+     * @param movies Los ids de las películas del lote.
+     */
+    private void flush(BulkOperations bulk, List<Object> movies) {
+        bulk.execute();
+        //La media se calcula en la base de datos a partir del resumen resultante, en una sola escritura para todo
+        //el lote:
+        Document average = new Document("$cond", Arrays.asList(
+                new Document("$gt", Arrays.asList("$" + COUNT, 0)),
+                new Document("$divide", Arrays.asList("$" + SUM, "$" + COUNT)),
+                null));
+        Document version = new Document("$add", Arrays.asList(
+                new Document("$ifNull", Arrays.asList("$" + VersionUtils.VERSION, 0L)), 1L));
+        AggregationOperation set = context -> new Document("$set",
+                new Document(AVERAGE, average).append(VersionUtils.VERSION, version));
+        mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(movies)),
+                AggregationUpdate.from(Collections.singletonList(set)), Film.class);
+        movies.forEach(movieId -> cache.invalidate(String.valueOf(movieId)));
+    }
+
+    /**
+     * Método que aplica un incremento al resumen de una película y actualiza la media.
+     * @param movieId El id de la película.
+     * @param update Los incrementos a aplicar.
+     */
+    private void apply(String movieId, Update update) {
+        //Aplicamos los incrementos recuperando sólo el resumen resultante:
+        Query query = Query.query(Criteria.where("_id").is(movieId));
+        query.fields().include(RATING);
+        Film film = mongoTemplate.findAndModify(query, update.inc(VersionUtils.VERSION, 1L).currentDate(CHANGED),
+                FindAndModifyOptions.options().returnNew(true), Film.class);
+
+        if(film != null && film.getRating() != null) {
+            Rating rating = film.getRating();
+            //La media sólo se fija si el resumen no ha cambiado entretanto (si cambió, la fijará el último cambio):
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(movieId)
+                            .and(COUNT).is(rating.getCount()).and(SUM).is(rating.getSum())),
+                    new Update().set(AVERAGE, average(rating.getCount(), rating.getSum()))
+                            .inc(VersionUtils.VERSION, 1L), Film.class);
+        }
+
+        //La película en caché (y los listados) ya no tienen las valoraciones correctas:
+        cache.invalidate(movieId);
+        results.bump();
+    }
+
+    /**
+     * Método que calcula la media de las puntuaciones.
+     * @param count El número de puntuaciones.
+     * @param sum La suma de las puntuaciones.
+     * @return La media, o null si no hay puntuaciones.
+     */
+    private static Double average(Long count, Long sum) {
+        if(count == null || sum == null || count <= 0) return null;
+        return (double) sum / count;
+    }
+
+    /**
+     * Método que genera un histograma vacío.
+     * @return Histograma con las puntuaciones de 1 a 5 a 0.
+     */
+    private static Map<String, Long> emptyHistogram() {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 1; i <= 5; i++) {
+            histogram.put(String.valueOf(i), 0L);
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,232 @@
+package gal.usc.etse.grei.es.project.service;
+
+import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
+import gal.usc.etse.grei.es.project.errorManagement.exceptions.InvalidTokenException;
+import gal.usc.etse.grei.es.project.errorManagement.exceptions.ServiceUnavailableException;
+import gal.usc.etse.grei.es.project.repository.TokenStore;
+import gal.usc.etse.grei.es.project.utilities.KeyRing;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Clase TokenService: emisión y comprobación de los tokens de la aplicación.
+ *
+ * Al iniciar sesión se entregan dos tokens: uno de acceso (JWT firmado, de corta duración, que se comprueba sin
+ * consultar la base de datos) y otro de refresco (opaco, aleatorio, de larga duración), que permite obtener un
+ * nuevo par de tokens sin volver a enviar la contraseña: ni se consulta el usuario ni se calcula BCrypt. Los tokens
+ * de refresco son de un solo uso (se sustituyen por uno nuevo en cada refresco), se guardan por su hash en un
+ * almacén compartido por todas las instancias (TokenStore), de forma que cualquiera puede canjearlos, y se pueden
+ * revocar uno a uno o todos los de un usuario (al cambiar su contraseña o borrarlo); en este último caso también
+ * se rechazan los tokens de acceso emitidos hasta ese momento, en cuanto la revocación llega a cada instancia.
+ *
+ * @author Manuel Bendaña
+ */
+@Service
+public class TokenService {
+    //Tamaño (en bytes) de los tokens de refresco:
+    private static final int REFRESH_TOKEN_BYTES = 32;
+    //Instancia de SHA-256 por hilo, para calcular la clave de cada token de refresco:
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    //Claves de firmado de los tokens de acceso:
+    private final KeyRing keys;
+    //Parser de los tokens de acceso (elige la clave de verificación por la cabecera kid de cada token):
+    private final JwtParser parser;
+    //Generador de los tokens de refresco:
+    private final SecureRandom random = new SecureRandom();
+    //Duración de los tokens de acceso y de refresco (en milisegundos):
+    private final long accessTtl;
+    private final long refreshTtl;
+    //Almacén de las sesiones (por el hash de su token de refresco) y de las revocaciones de cada usuario:
+    private final TokenStore store;
+
+    /**
+     * Constructor de la clase
+     * @param accessTtl Duración de los tokens de acceso.
+     * @param refreshTtl Duración de los tokens de refresco.
+     * @param store Referencia al almacén de sesiones y revocaciones.
+     * @param keys Referencia a las claves de firmado de los tokens.
+     */
+    @Autowired
+    public TokenService(@Value("${security.tokens.access-ttl:PT15M}") Duration accessTtl,
+                        @Value("${security.tokens.refresh-ttl:P7D}") Duration refreshTtl,
+                        TokenStore store, KeyRing keys) {
+        this.keys = keys;
+        this.parser = Jwts.parserBuilder().setSigningKeyResolver(keys.resolver()).build();
+        this.accessTtl = accessTtl.toMillis();
+        this.refreshTtl = refreshTtl.toMillis();
+        this.store = store;
+    }
+
+    /**
+     * Método que emite un nuevo par de tokens para un usuario (al iniciar sesión).
+     * @param user El id del usuario.
+     * @param roles Los roles del usuario, separados por comas.
+     * @return Los tokens emitidos.
+     * @throws ServiceUnavailableException Si esta instancia no firma tokens.
+     */
+    public Tokens issue(String user, String roles) {
+        KeyRing.SigningKey key = keys.active();
+        if(key == null) {
+            throw new ServiceUnavailableException(ErrorType.SERVICE_UNAVAILABLE, "This instance does not issue tokens.");
+        }
+
+        //Si se acaban de revocar los tokens del usuario, los nuevos se consideran emitidos tras la revocación
+        //(que se redondea al segundo siguiente), para que no se rechacen:
+        Long revoked = store.revoked(user);
+        long now = Math.max(System.currentTimeMillis(), revoked == null ? 0 : revoked * 1000);
+
+        //Se crea el token de acceso, firmado con la clave activa:
+        String access = Jwts.builder()
+                //Indicamos en la cabecera la clave con la que se firma:
+                .setHeaderParam(JwsHeader.KEY_ID, key.getId())
+                //Establecemos como "propietario" del token al usuario que realizó login:
+                .setSubject(user)
+                //Establecemos la fecha de emisión y la fecha máxima de validez del token:
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + accessTtl))
+                //Añadimos un atributo más al token con los roles del usuario:
+                .claim("roles", roles)
+                //Firmamos el token con nuestra clave secreta:
+                .signWith(key.getSigningKey())
+                .compact();
+
+        //Se crea el token de refresco y se guarda la sesión por su hash:
+        byte[] bytes = new byte[REFRESH_TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String refresh = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        store.save(hash(refresh), new TokenStore.Session(user, roles, now), now + refreshTtl);
+
+        return new Tokens(access, refresh, accessTtl / 1000);
+    }
+
+    /**
+     * Método que indica si esta instancia emite tokens (si no, sólo los verifica).
+     * @return True si emite tokens.
+     */
+    public boolean canSign() {
+        return keys.canSign();
+    }
+
+    /**
+     * Método que canjea un token de refresco por un nuevo par de tokens. El token canjeado deja de ser válido.
+     * @param refresh El token de refresco.
+     * @return Los nuevos tokens.
+     * @throws InvalidTokenException Si el token no existe, ha caducado o ha sido revocado.
+     * @throws ServiceUnavailableException Si esta instancia no firma tokens.
+     */
+    public Tokens refresh(String refresh) {
+        //En las instancias que sólo verifican no se canjea (ni se pierde) el token:
+        if(!canSign()) {
+            throw new ServiceUnavailableException(ErrorType.SERVICE_UNAVAILABLE, "This instance does not issue tokens.");
+        }
+
+        //Se retira la sesión de forma atómica, para que un mismo token no se pueda canjear dos veces:
+        TokenStore.Session session = refresh == null ? null : store.take(hash(refresh)).orElse(null);
+        if(session == null || isRevoked(session.getUser(), session.getIssued())) {
+            throw new InvalidTokenException(ErrorType.INVALID_TOKEN, "The provided refresh token is not valid.");
+        }
+        return issue(session.getUser(), session.getRoles());
+    }
+
+    /**
+     * Método que revoca un token de refresco (al cerrar sesión).
+     * @param refresh El token de refresco.
+     * @throws InvalidTokenException Si el token no existe o ya no es válido.
+     */
+    public void revoke(String refresh) {
+        if(refresh == null || !store.take(hash(refresh)).isPresent()) {
+            throw new InvalidTokenException(ErrorType.INVALID_TOKEN, "The provided refresh token is not valid.");
+        }
+    }
+
+    /**
+     * Método que revoca todos los tokens (de acceso y de refresco) emitidos hasta ahora para un usuario.
+     * @param user El id del usuario.
+     */
+    public void revokeAll(String user) {
+        //Se redondea hacia arriba, ya que las fechas de emisión de los tokens de acceso se guardan en segundos:
+        store.revoke(user, (System.currentTimeMillis() + 999) / 1000);
+        store.removeAll(user);
+    }
+
+    /**
+     * Método que comprueba si un token emitido en un momento dado ha sido revocado. Las revocaciones hechas en otras
+     * instancias se tienen en cuenta en cuanto el almacén las sincroniza (security.tokens.revocation-poll).
+     * @param user El id del usuario propietario del token.
+     * @param issued Momento de emisión del token (en milisegundos).
+     * @return True si el token se emitió antes de la última revocación de los tokens del usuario.
+     */
+    public boolean isRevoked(String user, long issued) {
+        Long revoked = store.revoked(user);
+        return revoked != null && issued / 1000 < revoked;
+    }
+
+    /**
+     * Método que comprueba la firma y la validez de un token de acceso.
+     * @param jwt El token.
+     * @return Los datos del token.
+     * @throws io.jsonwebtoken.JwtException Si el token no es válido o ha caducado.
+     */
+    public Claims parse(String jwt) {
+        return parser.parseClaimsJws(jwt).getBody();
+    }
+
+    /**
+     * Método que calcula el hash (SHA-256) de un token, para no guardar los tokens en claro.
+     * @param token El token.
+     * @return El hash codificado en base64.
+     */
+    private static String hash(String token) {
+        return Base64.getEncoder().encodeToString(SHA256.get().digest(token.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Clase con un par de tokens emitidos.
+     */
+    public static class Tokens {
+        //Token de acceso (JWT):
+        private final String access;
+        //Token de refresco (opaco):
+        private final String refresh;
+        //Duración del token de acceso (en segundos):
+        private final long expiresIn;
+
+        private Tokens(String access, String refresh, long expiresIn) {
+            this.access = access;
+            this.refresh = refresh;
+            this.expiresIn = expiresIn;
+        }
+
+        public String getAccess() {
+            return access;
+        }
+
+        public String getRefresh() {
+            return refresh;
+        }
+
+        public long getExpiresIn() {
+            return expiresIn;
+        }
+    }
+}
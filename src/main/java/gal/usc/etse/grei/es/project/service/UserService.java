@@ -1,13 +1,16 @@
 package gal.usc.etse.grei.es.project.service;
 
+import gal.usc.etse.grei.es.project.cache.UserDetailsCache;
 import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
 import gal.usc.etse.grei.es.project.errorManagement.exceptions.*;
 import gal.usc.etse.grei.es.project.model.User;
 import gal.usc.etse.grei.es.project.repository.AssessmentRepository;
 import gal.usc.etse.grei.es.project.repository.UserRepository;
 import gal.usc.etse.grei.es.project.utilities.PatchUtils;
+import gal.usc.etse.grei.es.project.utilities.VersionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.*;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
@@ -32,6 +35,14 @@ public class UserService {
     private final PatchUtils patchUtils;
     //Referencia al PasswordEncoder:
     private final PasswordEncoder encoder;
+    //Referencia al servicio de valoraciones de las películas:
+    private final RatingService ratings;
+    //Referencia a las utilidades de versiones, para las peticiones condicionales:
+    private final VersionUtils versions;
+    //Referencia a la caché de datos de inicio de sesión, que se invalida al modificar o borrar usuarios:
+    private final UserDetailsCache details;
+    //Referencia al servicio de tokens, para revocar los de los usuarios que cambian la contraseña o se borran:
+    private final TokenService tokens;
 
     /**
      * Constructor de la clase
@@ -41,15 +52,24 @@ public class UserService {
      * @param encoder Referencia al objeto de la clase PasswordEncoder, para poder codificar la contraseña.
      * @param friends Referencia al servicio de amigos.
      * @param assessments Referencia al servicio de comentarios.
+     * @param ratings Referencia al servicio de valoraciones.
+     * @param versions Utilidades de versiones de los documentos.
+     * @param details Referencia a la caché de datos de inicio de sesión.
+     * @param tokens Referencia al servicio de tokens.
      */
     @Autowired
     public UserService(UserRepository users, PatchUtils patchUtils, PasswordEncoder encoder,
-                       FriendshipService friends, AssessmentRepository assessments){
+                       FriendshipService friends, AssessmentRepository assessments, RatingService ratings,
+                       VersionUtils versions, UserDetailsCache details, TokenService tokens){
         this.users = users;
         this.patchUtils = patchUtils;
         this.encoder = encoder;
         this.friends = friends;
         this.assessments = assessments;
+        this.ratings = ratings;
+        this.versions = versions;
+        this.details = details;
+        this.tokens = tokens;
     }
 
     /**
@@ -69,6 +89,15 @@ public class UserService {
         }
     }
 
+    /**
+     * Método que permite recuperar únicamente la versión de un usuario, para las peticiones condicionales.
+     * @param id El id del usuario.
+     * @return La versión del usuario (si existe).
+     */
+    public Optional<Long> version(String id) {
+        return versions.version(User.class, id);
+    }
+
     /**
      * Método que permite recuperar los usuarios que cumplan determinados criterios de búsqueda.
      *
@@ -130,7 +159,7 @@ public class UserService {
             //Modificamos la contraseña para guardarla codificada en la base de datos
             user.setPassword(encoder.encode(user.getPassword()));
             //Devolvemos sin indicar ni contraseña ni roles (aunque la contraseña vaya encriptada):
-            return Optional.of(users.insert(user).setRoles(null).setPassword(null));
+            return Optional.of(users.insert(user.setVersion(0L)).setRoles(null).setPassword(null));
         }
     }
 
@@ -144,9 +173,13 @@ public class UserService {
         if(users.existsById(userMail)){
             //Se borra el usuario en caso de que existiese:
             users.deleteById(userMail);
+            details.evict(userMail);
+            tokens.revokeAll(userMail);
             //Vamos a borrar también las amistades de ese usuario:
             friends.deleteAllByUserOrFriend(userMail);
-            //Finalmente, borraremos los comentarios realizados por ese usuario:
+            //Finalmente, borraremos los comentarios realizados por ese usuario, quitando antes sus valoraciones de las
+            //películas (el email es el id del usuario, por lo que en los comentarios se guarda como user._id):
+            ratings.removeAll(Criteria.where("user._id").is(userMail));
             assessments.deleteAllByUserEmail(userMail);
         } else {
             //Si no existe, se lanza una excepción:
@@ -159,37 +192,41 @@ public class UserService {
      *
      * @param id El identificador del usuario a actualizar.
      * @param updates Actualizaciones a realizar.
+     * @param expected Versión en la que debe estar el usuario (nula si no hay que comprobarla).
      * @return Los datos modificados, ya guardados en la base de datos.
+     * @throws PreconditionFailedException Si el usuario no está en la versión indicada.
      */
-    public Optional<User> update(String id, List<Map<String, Object>> updates) {
-        //Comprobamos que ninguna operación afecte al parámetro email o birthday:
+    public Optional<User> update(String id, List<Map<String, Object>> updates, Long expected) {
+        //Comprobamos que el formato sea correcto:
         for (Map<String, Object> update : updates) {
-            //Comprobamos también que el formato sea correcto:
             if(update.get("op") == null || update.get("path") == null || update.get("value") == null){
                 throw new InvalidDataException(ErrorType.INVALID_INFO, "You must specify operation, path and value");
             }
-            if(update.get("path").equals("/email")){
-                throw new InvalidFormatException(ErrorType.FORBIDDEN, "You cannot change the email of the user");
-            }
-            if(update.get("path").equals("/birthday")) {
-                throw new InvalidFormatException(ErrorType.FORBIDDEN, "You cannot change the user's birthday");
-            }
-            if(update.get("path").equals("/roles")) {
-                throw new InvalidFormatException(ErrorType.FORBIDDEN, "You cannot change the user's roles");
-            }
+        }
+        //Comprobamos que ninguna operación afecte al email, al birthday ni a los roles (ni a nada contenido en ellos):
+        patchUtils.forbid(updates, "You cannot change the email of the user", "/email");
+        patchUtils.forbid(updates, "You cannot change the user's birthday", "/birthday");
+        patchUtils.forbid(updates, "You cannot change the user's roles", "/roles");
+
+        boolean passwordChanged = false;
+        for (Map<String, Object> update : updates) {
             //Se encirpta la contraseña (en caso de introducirla):
             if(update.get("path").equals("/password")) {
                 update.replace("value", encoder.encode(update.get("value").toString()));
+                passwordChanged = true;
             }
         }
 
-        //Hecho esto, recuperamos el usuario con el id pasado (si existe):
-        User user = users.findById(id).orElseThrow(()->new NoDataException(ErrorType.UNKNOWN_INFO,
-                "No user with the specified email"));
+        //Hecho esto, aplicamos patch directamente sobre el usuario con el id pasado (si existe):
+        User user = patchUtils.patch(Criteria.where("_id").is(id), updates, User.class, true, expected)
+                .orElseThrow(()->new NoDataException(ErrorType.UNKNOWN_INFO, "No user with the specified email"));
+        //Los datos de inicio de sesión guardados dejan de ser válidos:
+        details.evict(id);
+        //Al cambiar la contraseña se cierran todas las sesiones abiertas del usuario:
+        if(passwordChanged) tokens.revokeAll(id);
 
-        //Aplicamos patch y guardamos el resultado:
         //EL resultado devuelto oculta roles y contraseña:
-        return Optional.of(users.save(patchUtils.patch(user, updates)).setRoles(null).setPassword(null));
+        return Optional.of(user.setRoles(null).setPassword(null));
     }
 
     /**
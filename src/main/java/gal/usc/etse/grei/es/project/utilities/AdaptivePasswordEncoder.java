@@ -0,0 +1,138 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Clase AdaptivePasswordEncoder: codificador de contraseñas BCrypt con coste configurable.
+ *
+ * Las contraseñas guardadas con un coste distinto del configurado se marcan para volver a codificarse (ver
+ * upgradeEncoding), cosa que Spring hace de forma transparente al iniciar sesión. Las comprobaciones de las
+ * contraseñas (el cálculo más costoso del login) se ejecutan en un conjunto acotado de hilos con una cola
+ * limitada: si está lleno, el inicio de sesión se rechaza enseguida en lugar de ocupar los hilos del servidor
+ * con cálculos de BCrypt.
+ *
+ * @author Manuel Bendaña
+ */
+public class AdaptivePasswordEncoder implements PasswordEncoder {
+    //Formato de las contraseñas codificadas con BCrypt (versión, coste y sal seguida del hash):
+    private static final Pattern BCRYPT = Pattern.compile("\\A\\$2([ayb])?\\$(\\d\\d)\\$[./0-9A-Za-z]{53}");
+
+    //Codificador BCrypt con el coste configurado:
+    private final BCryptPasswordEncoder bcrypt;
+    //Coste configurado:
+    private final int strength;
+    //Hilos en los que se comprueban las contraseñas:
+    private final ThreadPoolExecutor executor;
+    //Tiempo máximo de espera de cada comprobación (en milisegundos):
+    private final long timeout;
+
+    /**
+     * Constructor de la clase
+     * @param strength Coste de BCrypt (logaritmo en base 2 del número de iteraciones).
+     * @param threads Número de hilos para las comprobaciones de contraseñas.
+     * @param queue Número máximo de comprobaciones en espera.
+     * @param timeout Tiempo máximo de espera de cada comprobación.
+     */
+    public AdaptivePasswordEncoder(int strength, int threads, int queue, Duration timeout) {
+        this.bcrypt = new BCryptPasswordEncoder(strength);
+        this.strength = strength;
+        this.timeout = timeout.toMillis();
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queue), runnable -> {
+                    Thread thread = new Thread(runnable, "password-verifier-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Método que codifica una contraseña con el coste configurado. Se ejecuta en el propio hilo, ya que sólo se
+     * usa al registrar o cambiar contraseñas.
+     * @param rawPassword La contraseña.
+     * @return La contraseña codificada.
+     */
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return bcrypt.encode(rawPassword);
+    }
+
+    /**
+     * Método que comprueba una contraseña en los hilos de comprobación.
+     * @param rawPassword La contraseña introducida.
+     * @param encodedPassword La contraseña guardada.
+     * @return True si coinciden.
+     * @throws VerificationBusyException Si hay demasiadas comprobaciones en curso o se agota el tiempo de espera.
+     */
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        Future<Boolean> result;
+        try {
+            result = executor.submit(() -> bcrypt.matches(rawPassword, encodedPassword));
+        } catch (RejectedExecutionException e) {
+            throw new VerificationBusyException("Too many password verifications in progress.");
+        }
+
+        try {
+            return result.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            throw new VerificationBusyException("The password verification timed out.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.cancel(true);
+            throw new VerificationBusyException("The password verification was interrupted.");
+        } catch (ExecutionException e) {
+            //Se relanzan los errores de BCrypt (contraseña nula...) tal y como se producen:
+            if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Método que indica si una contraseña guardada debe volver a codificarse: las que usan un coste distinto
+     * del configurado (tanto menor como mayor).
+     * @param encodedPassword La contraseña guardada.
+     * @return True si debe volver a codificarse.
+     */
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        if(encodedPassword == null) return false;
+        Matcher matcher = BCRYPT.matcher(encodedPassword);
+        return matcher.matches() && Integer.parseInt(matcher.group(2)) != strength;
+    }
+
+    /**
+     * Método que detiene los hilos de comprobación al cerrar la aplicación.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Excepción lanzada cuando no se puede comprobar una contraseña por exceso de inicios de sesión simultáneos.
+     */
+    public static class VerificationBusyException extends InternalAuthenticationServiceException {
+        /**
+         * Constructor de la excepción
+         * @param message Mensaje de la excepción.
+         */
+        public VerificationBusyException(String message) {
+            super(message);
+        }
+    }
+}
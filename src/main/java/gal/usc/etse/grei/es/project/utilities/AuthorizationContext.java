@@ -0,0 +1,79 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Clase con utilidades para memorizar, durante una petición, los resultados de las comprobaciones de permisos
+ * (expresiones de @PreAuthorize) y los documentos recuperados para hacerlas, de forma que el resto de la
+ * petición (servicios y controladores) los reutilice sin volver a consultar la base de datos.
+ *
+ * Los valores se guardan como atributos de la petición actual, por lo que se descartan al terminar. Si no hay
+ * ninguna petición en curso, no se memoriza nada.
+ *
+ * @author Manuel Bendaña
+ */
+@Service
+public class AuthorizationContext {
+    //Prefijo de los atributos de la petición que usa esta clase:
+    private static final String PREFIX = AuthorizationContext.class.getName() + ".";
+
+    /**
+     * Método que devuelve el resultado memorizado para una clave, calculándolo si todavía no se tiene.
+     *
+     * @param key Clave que identifica el resultado.
+     * @param loader Función que calcula el resultado.
+     * @param <T> Tipo del resultado.
+     * @return El resultado.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T memoize(String key, Supplier<T> loader) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if(attributes == null) return loader.get();
+
+        Object value = attributes.getAttribute(PREFIX + key, RequestAttributes.SCOPE_REQUEST);
+        if(value == null) {
+            value = loader.get();
+            attributes.setAttribute(PREFIX + key, value, RequestAttributes.SCOPE_REQUEST);
+        }
+        return (T) value;
+    }
+
+    /**
+     * Método que devuelve un documento recuperado previamente en la petición, o lo recupera si no se tiene.
+     *
+     * @param type Clase del documento.
+     * @param id Identificador del documento.
+     * @param loader Función que recupera el documento de la base de datos.
+     * @param <T> Clase del documento.
+     * @return El documento (si existe).
+     */
+    public <T> Optional<T> entity(Class<T> type, String id, Function<String, Optional<T>> loader) {
+        return memoize(entityKey(type, id), () -> loader.apply(id));
+    }
+
+    /**
+     * Método que descarta un documento memorizado (tras modificarlo o borrarlo).
+     * @param type Clase del documento.
+     * @param id Identificador del documento.
+     */
+    public void evict(Class<?> type, String id) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if(attributes != null) attributes.removeAttribute(PREFIX + entityKey(type, id), RequestAttributes.SCOPE_REQUEST);
+    }
+
+    /**
+     * Método que genera la clave de un documento.
+     * @param type Clase del documento.
+     * @param id Identificador del documento.
+     * @return La clave.
+     */
+    private static String entityKey(Class<?> type, String id) {
+        return type.getSimpleName() + ":" + id;
+    }
+}
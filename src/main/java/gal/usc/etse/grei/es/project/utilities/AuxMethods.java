@@ -1,5 +1,8 @@
 package gal.usc.etse.grei.es.project.utilities;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 
 import java.util.ArrayList;
@@ -67,4 +70,20 @@ public class AuxMethods {
             sort.add(nameDate + ".day");
         }
     }
+
+    /**
+     * Método que permite transformar una porción de resultados en una página con un total aproximado.
+     * El total se corrige para que sea coherente con los resultados ya conocidos: si hay más resultados que
+     * los estimados nunca se devuelve un total menor, y si no hay más resultados el total es exacto.
+     *
+     * @param slice La porción de resultados obtenida.
+     * @param estimate El total estimado.
+     * @param <T> La clase de los resultados.
+     * @return La página con el total estimado.
+     */
+    public static <T> Page<T> estimatedPage(Slice<T> slice, long estimate){
+        //Mínimo número de resultados que sabemos que existen:
+        long known = slice.getPageable().getOffset() + slice.getNumberOfElements() + (slice.hasNext() ? 1 : 0);
+        return new PageImpl<>(slice.getContent(), slice.getPageable(), slice.hasNext() ? Math.max(estimate, known) : known);
+    }
 }
@@ -0,0 +1,231 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
+import gal.usc.etse.grei.es.project.errorManagement.exceptions.InvalidDataException;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Clase con utilidades para la paginación por clave (keyset o seek pagination).
+ *
+ * En lugar de saltar documentos (skip), se genera un token opaco con los valores de los criterios de ordenación
+ * del último elemento devuelto (y su id), de forma que la siguiente página se obtiene buscando directamente los
+ * documentos posteriores a esa posición.
+ *
+ * @author Manuel Bendaña
+ */
+@Service
+public class CursorUtils {
+    //Valor del cursor con el que se indica que se quiere empezar a recorrer los resultados desde el principio:
+    public static final String FIRST = "*";
+    //Nombre del campo identificador en mongo:
+    private static final String ID = "_id";
+
+    //Instancia de ObjectMapper para codificar y decodificar los tokens:
+    private final ObjectMapper mapper;
+
+    /**
+     * Constructor de la clase
+     * @param mapper Instancia de la clase ObjectMapper.
+     */
+    @Autowired
+    public CursorUtils(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Método que permite obtener los criterios de ordenación definitivos para la paginación por clave: se añade
+     * el id como último criterio (si no estaba ya) para que el orden sea total y no se repitan ni pierdan elementos.
+     *
+     * @param sort Criterios de ordenación pedidos.
+     * @return Lista de criterios de ordenación que terminan en el id.
+     */
+    public List<Sort.Order> withTieBreaker(Sort sort) {
+        List<Sort.Order> orders = new ArrayList<>();
+        boolean hasId = false;
+        for (Sort.Order order : sort) {
+            //Normalizamos el nombre del id para tratarlo siempre igual:
+            if(order.getProperty().equals("id") || order.getProperty().equals(ID)) {
+                orders.add(new Sort.Order(order.getDirection(), ID));
+                hasId = true;
+                //Tras el id no tiene sentido ningún otro criterio (es único):
+                break;
+            }
+            orders.add(order);
+        }
+        if(!hasId) orders.add(Sort.Order.asc(ID));
+        return orders;
+    }
+
+    /**
+     * Método que permite generar el token de continuación a partir del último elemento de una página.
+     *
+     * @param last El último elemento devuelto.
+     * @param orders Los criterios de ordenación empleados (incluyendo el id).
+     * @return El token opaco que permite continuar la búsqueda.
+     */
+    public String encode(Object last, List<Sort.Order> orders) {
+        //Pasamos el objeto a formato JSON para poder recuperar los valores de los campos de ordenación:
+        JsonNode json = mapper.convertValue(last, JsonNode.class);
+        ObjectNode token = mapper.createObjectNode();
+        token.put("s", signature(orders));
+        ArrayNode values = token.putArray("v");
+        for (Sort.Order order : orders) {
+            values.add(valueAt(json, order.getProperty()));
+        }
+        try {
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(mapper.writeValueAsString(token).getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new IllegalStateException("Cursor cannot be generated", e);
+        }
+    }
+
+    /**
+     * Método que permite obtener el criterio de búsqueda que posiciona la consulta justo después del elemento
+     * codificado en el token.
+     *
+     * @param cursor El token recibido.
+     * @param orders Los criterios de ordenación empleados (incluyendo el id).
+     * @return El criterio que selecciona los documentos posteriores al cursor.
+     */
+    public Criteria seek(String cursor, List<Sort.Order> orders) {
+        List<Object> values = decode(cursor, orders);
+
+        //Para cada criterio de ordenación se genera una rama: todos los campos anteriores iguales y el actual
+        //posterior al valor del cursor. El resultado es la disyunción de todas ellas.
+        List<Criteria> branches = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) {
+            Sort.Order order = orders.get(i);
+            Criteria after = after(order, values.get(i));
+            //Si no puede haber nada posterior por este campo, la rama no aporta resultados:
+            if(after == null) continue;
+
+            List<Criteria> branch = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                branch.add(Criteria.where(orders.get(j).getProperty()).is(values.get(j)));
+            }
+            branch.add(after);
+            branches.add(branch.size() == 1 ? branch.get(0) : new Criteria().andOperator(branch.toArray(new Criteria[0])));
+        }
+
+        //Si no hay ninguna rama, no hay más resultados (ningún documento carece de id):
+        if(branches.isEmpty()) return Criteria.where(ID).exists(false);
+        return new Criteria().orOperator(branches.toArray(new Criteria[0]));
+    }
+
+    /**
+     * Método que decodifica el token y comprueba que corresponda con los criterios de ordenación actuales.
+     *
+     * @param cursor El token recibido.
+     * @param orders Los criterios de ordenación empleados.
+     * @return Los valores almacenados en el token, en el orden de los criterios.
+     */
+    private List<Object> decode(String cursor, List<Sort.Order> orders) {
+        JsonNode token;
+        try {
+            token = mapper.readTree(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new InvalidDataException(ErrorType.INVALID_PARAMETER, "The provided cursor is not valid.");
+        }
+
+        //El cursor sólo es válido para los mismos criterios de ordenación con los que se generó:
+        if(token == null || !signature(orders).equals(token.path("s").asText())
+                || !token.path("v").isArray() || token.path("v").size() != orders.size()) {
+            throw new InvalidDataException(ErrorType.INVALID_PARAMETER,
+                    "The provided cursor does not match the requested sort criteria.");
+        }
+
+        List<Object> values = new ArrayList<>();
+        token.path("v").forEach(node -> values.add(toValue(node)));
+        return values;
+    }
+
+    /**
+     * Método que devuelve el criterio "posterior a" un valor para un criterio de ordenación.
+     * Se tiene en cuenta que en mongo los valores nulos (o inexistentes) se ordenan antes que cualquier otro.
+     *
+     * @param order Criterio de ordenación.
+     * @param value Valor del último elemento devuelto.
+     * @return El criterio correspondiente, o null si no puede haber valores posteriores.
+     */
+    private Criteria after(Sort.Order order, Object value) {
+        String field = order.getProperty();
+        //Los ids pueden ser ObjectId (generados al insertar) o cadenas (datos importados), y mongo ordena
+        //todas las cadenas antes que los ObjectId, por lo que hay que considerar el salto de un tipo a otro:
+        if(field.equals(ID) && value instanceof String) {
+            boolean objectId = ObjectId.isValid((String) value);
+            if(order.isAscending()) {
+                return objectId ? Criteria.where(field).gt(value)
+                        : new Criteria().orOperator(Criteria.where(field).gt(value), Criteria.where(field).type(7));
+            } else {
+                return objectId ? new Criteria().orOperator(Criteria.where(field).lt(value), Criteria.where(field).type(2))
+                        : Criteria.where(field).lt(value);
+            }
+        }
+        if(order.isAscending()) {
+            //Tras un nulo, en orden ascendente, van todos los valores no nulos:
+            return value == null ? Criteria.where(field).ne(null) : Criteria.where(field).gt(value);
+        } else {
+            //En orden descendente nada va detrás de un nulo, y detrás de un valor van los menores y los nulos:
+            if(value == null) return null;
+            return new Criteria().orOperator(Criteria.where(field).lt(value), Criteria.where(field).is(null));
+        }
+    }
+
+    /**
+     * Método que genera la firma de los criterios de ordenación, para asociar el token a ellos.
+     * @param orders Criterios de ordenación.
+     * @return La firma de los criterios.
+     */
+    private String signature(List<Sort.Order> orders) {
+        return orders.stream()
+                .map(order -> (order.isAscending() ? "+" : "-") + order.getProperty())
+                .collect(Collectors.joining(","));
+    }
+
+    /**
+     * Método que recupera el valor de un campo (que puede ser anidado, separado por puntos) de un JSON.
+     * @param json El JSON del objeto.
+     * @param property El nombre del campo.
+     * @return El nodo con el valor (nulo si no existe).
+     */
+    private JsonNode valueAt(JsonNode json, String property) {
+        //El id de mongo se corresponde con el campo id del objeto:
+        String path = property.equals(ID) ? "id" : property;
+        JsonNode node = json;
+        for (String part : path.split("\\.")) {
+            node = node.path(part);
+        }
+        return node.isMissingNode() ? mapper.nullNode() : node;
+    }
+
+    /**
+     * Método que transforma un nodo JSON en el valor java correspondiente para la consulta.
+     * @param node El nodo.
+     * @return El valor.
+     */
+    private Object toValue(JsonNode node) {
+        if(node == null || node.isNull()) return null;
+        if(node.isTextual()) return node.textValue();
+        if(node.isBoolean()) return node.booleanValue();
+        if(node.isInt()) return node.intValue();
+        if(node.isIntegralNumber()) return node.longValue();
+        if(node.isNumber()) return node.doubleValue();
+        //No se esperan valores compuestos en los criterios de ordenación:
+        throw new InvalidDataException(ErrorType.INVALID_PARAMETER, "The provided cursor is not valid.");
+    }
+}
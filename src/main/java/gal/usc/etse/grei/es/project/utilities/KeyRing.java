@@ -0,0 +1,416 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SigningKeyResolver;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Clase KeyRing: conjunto de claves con las que se firman y verifican los tokens JWT.
+ *
+ * Cada clave tiene un id, que se incluye en la cabecera (kid) de los tokens que firma, de forma que al verificarlos
+ * se usa la clave correspondiente. Las claves se cargan de un directorio, que puede compartirse entre todas las
+ * instancias de la aplicación para que cualquiera acepte los tokens de las demás y éstos sobrevivan a los reinicios.
+ * Si no se indica directorio, las claves sólo existen en memoria (como antes: cada instancia tiene las suyas y se
+ * pierden al reiniciar).
+ *
+ * Con un algoritmo simétrico (HS512) cada clave es un fichero <id>.key con la clave secreta en base64, que sirve
+ * tanto para firmar como para verificar. Con un algoritmo asimétrico (ES256) cada clave son dos ficheros: <id>.pub
+ * con la clave pública (X.509 en base64), que basta para verificar, e <id>.key con la privada (PKCS#8 en base64),
+ * que sólo necesitan las instancias que firman. Así, las instancias que sólo verifican tokens (sin firma activada)
+ * pueden tener únicamente las claves públicas.
+ *
+ * Las claves rotan periódicamente: cada una firma desde que se activa (un tiempo después de crearse, para que todas
+ * las instancias la hayan cargado antes de recibir tokens firmados con ella) hasta que se activa la siguiente, y se
+ * sigue aceptando para verificar mientras queden tokens firmados con ella sin caducar. Con un directorio compartido,
+ * sólo las instancias con la generación activada crean y retiran claves (basta con una); el resto se limitan a
+ * recargar el directorio.
+ *
+ * @author Manuel Bendaña
+ */
+@Service
+public class KeyRing {
+    //Logger de la clase:
+    private static final Logger log = LoggerFactory.getLogger(KeyRing.class);
+    //Extensiones de los ficheros de las claves (secreta o privada, y pública):
+    private static final String PRIVATE = ".key";
+    private static final String PUBLIC = ".pub";
+    //Formato de los ids de las claves:
+    private static final Pattern ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    //Algoritmo de firma de los tokens:
+    private final SignatureAlgorithm algorithm;
+    //Si esta instancia firma tokens (si no, sólo carga las claves de verificación):
+    private final boolean sign;
+    //Directorio de las claves (null si sólo están en memoria):
+    private final Path directory;
+    //Tiempo desde que se crea una clave hasta que empieza a firmar (en milisegundos):
+    private final long activation;
+    //Tiempo durante el que firma cada clave (en milisegundos):
+    private final long rotation;
+    //Tiempo durante el que se conserva cada clave tras dejar de firmar (duración máxima de los tokens):
+    private final long retention;
+    //Si esta instancia crea y retira las claves:
+    private final boolean generate;
+    //Generador de las claves:
+    private final SecureRandom random = new SecureRandom();
+    //Resolutor de las claves de verificación por la cabecera de los tokens:
+    private final SigningKeyResolver resolver = new SigningKeyResolverAdapter() {
+        @Override
+        public Key resolveSigningKey(JwsHeader header, Claims claims) {
+            SigningKey key = keys.byId.get(header.getKeyId() == null ? "" : header.getKeyId());
+            if(key == null) throw new SignatureException("Unknown signing key.");
+            return key.verification;
+        }
+    };
+
+    //Claves actuales (se reemplazan enteras al recargar):
+    private volatile Snapshot keys = new Snapshot(Collections.emptyList(), 0);
+
+    /**
+     * Constructor de la clase
+     * @param directory Directorio de las claves (vacío para mantenerlas sólo en memoria).
+     * @param algorithm Algoritmo de firma de los tokens (HS512 o ES256).
+     * @param sign Si esta instancia firma tokens (si no, sólo los verifica).
+     * @param activation Tiempo desde que se crea una clave hasta que empieza a firmar.
+     * @param rotation Tiempo durante el que firma cada clave.
+     * @param generate Si esta instancia crea y retira las claves del directorio.
+     * @param accessTtl Duración de los tokens de acceso (tiempo que se conservan las claves tras dejar de firmar).
+     */
+    @Autowired
+    public KeyRing(@Value("${security.keys.directory:}") String directory,
+                   @Value("${security.keys.algorithm:HS512}") String algorithm,
+                   @Value("${security.keys.sign:true}") boolean sign,
+                   @Value("${security.keys.activation:PT1M}") Duration activation,
+                   @Value("${security.keys.rotation:P1D}") Duration rotation,
+                   @Value("${security.keys.generate:true}") boolean generate,
+                   @Value("${security.tokens.access-ttl:PT15M}") Duration accessTtl) {
+        this.directory = directory.trim().isEmpty() ? null : Paths.get(directory.trim());
+        this.algorithm = SignatureAlgorithm.forName(algorithm.trim());
+        if(this.algorithm != SignatureAlgorithm.HS512 && this.algorithm != SignatureAlgorithm.ES256) {
+            throw new IllegalArgumentException("Unsupported token signature algorithm " + algorithm);
+        }
+        if(!sign && this.directory == null) {
+            throw new IllegalArgumentException("Verify-only instances need a signing keys directory");
+        }
+        this.sign = sign;
+        //En memoria no hay otras instancias que tengan que cargar las claves:
+        this.activation = this.directory == null ? 0 : activation.toMillis();
+        this.rotation = rotation.toMillis();
+        this.retention = accessTtl.toMillis();
+        this.generate = sign && (generate || this.directory == null);
+
+        //Se cargan las claves al crear el objeto, para no emitir ni aceptar tokens sin ellas:
+        if(this.directory != null) {
+            try {
+                Files.createDirectories(this.directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Signing keys directory could not be created", e);
+            }
+        }
+        rotate();
+        if(sign && keys.active == null) {
+            throw new IllegalStateException("No signing keys available in " + this.directory);
+        }
+        if(keys.byId.isEmpty()) {
+            log.warn("No verification keys available yet in {}", this.directory);
+        }
+    }
+
+    /**
+     * Método que indica si esta instancia firma tokens.
+     * @return True si firma tokens, false si sólo los verifica.
+     */
+    public boolean canSign() {
+        return sign;
+    }
+
+    /**
+     * Método que devuelve la clave con la que se firman los tokens en este momento.
+     * @return La clave (nula si esta instancia no firma tokens).
+     */
+    public SigningKey active() {
+        return keys.active;
+    }
+
+    /**
+     * Método que devuelve el resolutor de las claves de verificación de los tokens, que elige la clave por su id
+     * (cabecera kid). Los tokens firmados con claves desconocidas o ya retiradas no son válidos.
+     * @return El resolutor.
+     */
+    public SigningKeyResolver resolver() {
+        return resolver;
+    }
+
+    /**
+     * Método que recarga las claves y, si esta instancia las gestiona, crea una nueva cuando la última tiene que
+     * dejar de firmar y retira las que ya no pueden verificar ningún token válido.
+     */
+    @Scheduled(initialDelayString = "${security.keys.reload-interval:PT1M}",
+            fixedDelayString = "${security.keys.reload-interval:PT1M}")
+    public synchronized void rotate() {
+        long now = System.currentTimeMillis();
+        List<SigningKey> loaded = directory == null ? new ArrayList<>(keys.byId.values()) : load();
+
+        if(generate) {
+            //Se crea una clave nueva si no hay ninguna o si la última lleva creada el periodo de rotación, de forma
+            //que la nueva se active justo cuando la última termina su periodo de firma:
+            long newest = loaded.stream().mapToLong(key -> key.created).max().orElse(Long.MIN_VALUE);
+            if(newest == Long.MIN_VALUE || newest + rotation <= now) {
+                try {
+                    loaded.add(create(now));
+                } catch (IOException e) {
+                    log.error("Signing key could not be created: {}", e.getMessage());
+                }
+            }
+            //Se retiran las claves que dejaron de firmar hace más de lo que dura un token:
+            List<SigningKey> all = new ArrayList<>(loaded);
+            loaded.removeIf(key -> retired(key, all, now) && delete(key));
+        }
+
+        keys = new Snapshot(loaded, now);
+    }
+
+    /**
+     * Método que comprueba si una clave ya no puede haber firmado ningún token válido: una clave deja de firmar
+     * cuando se activa otra más reciente.
+     * @param key La clave.
+     * @param all Todas las claves.
+     * @param now El momento actual.
+     * @return True si se puede retirar.
+     */
+    private boolean retired(SigningKey key, List<SigningKey> all, long now) {
+        long replaced = all.stream()
+                .filter(other -> other.created > key.created)
+                .mapToLong(other -> other.created + activation)
+                .min().orElse(Long.MAX_VALUE);
+        return replaced <= now && now - replaced > retention;
+    }
+
+    /**
+     * Método que carga las claves del directorio. Los ficheros que no son válidos se ignoran.
+     * @return Las claves.
+     */
+    private List<SigningKey> load() {
+        //Ficheros de cada clave, por su id:
+        Map<String, Map<String, Path>> files = new HashMap<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*{" + PRIVATE + "," + PUBLIC + "}")) {
+            for (Path file : entries) {
+                String name = file.getFileName().toString();
+                String extension = name.substring(name.lastIndexOf('.'));
+                String id = name.substring(0, name.length() - extension.length());
+                if(ID.matcher(id).matches()) {
+                    files.computeIfAbsent(id, key -> new HashMap<>()).put(extension, file);
+                } else {
+                    log.warn("Ignoring signing key file with invalid name {}", name);
+                }
+            }
+        } catch (IOException e) {
+            //Si no se puede leer el directorio, se mantienen las claves que ya había:
+            log.error("Signing keys could not be loaded: {}", e.getMessage());
+            return new ArrayList<>(keys.byId.values());
+        }
+
+        List<SigningKey> loaded = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Path>> entry : files.entrySet()) {
+            try {
+                SigningKey key = read(entry.getKey(), entry.getValue());
+                if(key != null) loaded.add(key);
+            } catch (IOException | GeneralSecurityException | JwtException | IllegalArgumentException e) {
+                log.warn("Ignoring invalid signing key {}: {}", entry.getKey(), e.getMessage());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Método que lee una clave de sus ficheros. Con un algoritmo simétrico basta el fichero de la clave; con uno
+     * asimétrico, el de la clave pública es obligatorio, y el de la privada sólo se lee si esta instancia firma.
+     * @param id El id de la clave.
+     * @param files Los ficheros de la clave, por su extensión.
+     * @return La clave, o null si faltan ficheros (por ejemplo, si aún se están escribiendo).
+     * @throws IOException Si no se pueden leer los ficheros.
+     * @throws GeneralSecurityException Si el contenido de los ficheros no es una clave válida.
+     */
+    private SigningKey read(String id, Map<String, Path> files) throws IOException, GeneralSecurityException {
+        if(algorithm.isHmac()) {
+            Path file = files.get(PRIVATE);
+            if(file == null) return null;
+            Key secret = Keys.hmacShaKeyFor(decode(file));
+            algorithm.assertValidSigningKey(secret);
+            return new SigningKey(id, secret, secret, Files.getLastModifiedTime(file).toMillis());
+        }
+
+        Path file = files.get(PUBLIC);
+        if(file == null) return null;
+        KeyFactory factory = KeyFactory.getInstance(algorithm.getFamilyName());
+        PublicKey verification = factory.generatePublic(new X509EncodedKeySpec(decode(file)));
+        algorithm.assertValidVerificationKey(verification);
+        PrivateKey signing = null;
+        if(sign && files.containsKey(PRIVATE)) {
+            signing = factory.generatePrivate(new PKCS8EncodedKeySpec(decode(files.get(PRIVATE))));
+            algorithm.assertValidSigningKey(signing);
+        }
+        return new SigningKey(id, signing, verification, Files.getLastModifiedTime(file).toMillis());
+    }
+
+    /**
+     * Método que crea una clave nueva (y la guarda en el directorio, si lo hay).
+     * @param now El momento actual.
+     * @return La clave creada.
+     * @throws IOException Si no se puede guardar la clave.
+     */
+    private SigningKey create(long now) throws IOException {
+        byte[] bytes = new byte[12];
+        random.nextBytes(bytes);
+        String id = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+        SigningKey key;
+        if(algorithm.isHmac()) {
+            Key secret = Keys.secretKeyFor(algorithm);
+            key = new SigningKey(id, secret, secret, now);
+            if(directory != null) write(directory.resolve(id + PRIVATE), secret.getEncoded());
+        } else {
+            KeyPair pair = Keys.keyPairFor(algorithm);
+            key = new SigningKey(id, pair.getPrivate(), pair.getPublic(), now);
+            //La clave pública se escribe al final, ya que es la que indica que la clave está completa:
+            if(directory != null) {
+                write(directory.resolve(id + PRIVATE), pair.getPrivate().getEncoded());
+                write(directory.resolve(id + PUBLIC), pair.getPublic().getEncoded());
+            }
+        }
+        if(directory != null) log.info("Created signing key {} ({})", id, algorithm.getValue());
+        return key;
+    }
+
+    /**
+     * Método que guarda una clave en un fichero, codificada en base64. Se escribe en un fichero temporal (que no
+     * se carga) y se mueve, para que nadie lea la clave a medias.
+     * @param file El fichero.
+     * @param content La clave.
+     * @throws IOException Si no se puede guardar.
+     */
+    private void write(Path file, byte[] content) throws IOException {
+        Path temp = Files.createTempFile(directory, ".", ".tmp");
+        try {
+            Files.write(temp, Base64.getEncoder().encode(content));
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Método que lee una clave codificada en base64 de un fichero.
+     * @param file El fichero.
+     * @return La clave.
+     * @throws IOException Si no se puede leer.
+     */
+    private static byte[] decode(Path file) throws IOException {
+        return Base64.getDecoder().decode(new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim());
+    }
+
+    /**
+     * Método que borra una clave del directorio.
+     * @param key La clave.
+     * @return True si se ha borrado (o no hay directorio).
+     */
+    private boolean delete(SigningKey key) {
+        if(directory == null) return true;
+        try {
+            //Primero la clave pública, para que el resto de instancias dejen de cargarla:
+            Files.deleteIfExists(directory.resolve(key.id + PUBLIC));
+            Files.deleteIfExists(directory.resolve(key.id + PRIVATE));
+            log.info("Retired signing key {}", key.id);
+            return true;
+        } catch (IOException e) {
+            log.error("Signing key {} could not be retired: {}", key.id, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Clase con los datos de una clave de firma.
+     */
+    public static class SigningKey {
+        //Id de la clave (cabecera kid de los tokens):
+        private final String id;
+        //Clave de firma (la privada, o la secreta con algoritmos simétricos). Nula si esta instancia no firma:
+        private final Key signing;
+        //Clave de verificación (la pública, o la secreta con algoritmos simétricos):
+        private final Key verification;
+        //Momento de creación (en milisegundos):
+        private final long created;
+
+        private SigningKey(String id, Key signing, Key verification, long created) {
+            this.id = id;
+            this.signing = signing;
+            this.verification = verification;
+            this.created = created;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Key getSigningKey() {
+            return signing;
+        }
+    }
+
+    /**
+     * Clase auxiliar con el conjunto de claves cargadas en un momento dado.
+     */
+    private class Snapshot {
+        //Claves por id:
+        private final Map<String, SigningKey> byId = new HashMap<>();
+        //Clave con la que se firma: la más reciente de las ya activas (o la más antigua si aún no hay ninguna
+        //activa, por ejemplo al crear la primera clave). Nula si esta instancia no tiene claves de firma:
+        private final SigningKey active;
+
+        private Snapshot(List<SigningKey> keys, long now) {
+            SigningKey active = null;
+            SigningKey oldest = null;
+            for (SigningKey key : keys) {
+                byId.put(key.id, key);
+                if(key.signing == null) continue;
+                if(key.created + activation <= now && (active == null || key.created > active.created)) {
+                    active = key;
+                }
+                if(oldest == null || key.created < oldest.created) oldest = key;
+            }
+            this.active = active != null ? active : oldest;
+        }
+    }
+}
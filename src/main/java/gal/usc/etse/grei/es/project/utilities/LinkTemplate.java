@@ -0,0 +1,220 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.LinkRelation;
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Clase que representa la plantilla de enlace de un método de un controlador, resuelta una única vez a partir
+ * de sus anotaciones (ver {@link LinkTemplates}).
+ *
+ * Los enlaces se generan igual que con linkTo(methodOn(...)): las variables de la ruta se sustituyen por sus
+ * valores (o se dejan como variable si son nulos), los parámetros con valor se añaden a la consulta (una vez por
+ * cada elemento si son listas) y los parámetros nulos se añaden como variables de la plantilla ({?a,b} o {&a,b}).
+ * Los valores se indican por el nombre de la variable o del parámetro (el de la url), no por la posición del
+ * argumento, por lo que reordenar o añadir argumentos al método no cambia el significado de los enlaces.
+ *
+ * @author Manuel Bendaña
+ */
+public final class LinkTemplate {
+    //Partes de la ruta: literales (String) o posiciones de las variables de la ruta en los argumentos (Integer):
+    private final List<Object> path;
+    //Nombres de las variables de la ruta, por posición del argumento:
+    private final String[] pathVariables;
+    //Nombres de los parámetros de la consulta, por posición del argumento (null si el argumento no es parámetro):
+    private final String[] parameters;
+    //Si cada parámetro de la consulta es obligatorio (sin valor por defecto):
+    private final boolean[] required;
+    //URL base de la petición actual:
+    private final Supplier<String> base;
+
+    /**
+     * Constructor de la clase (las plantillas se crean desde LinkTemplates).
+     * @param path Partes de la ruta.
+     * @param pathVariables Nombres de las variables de la ruta.
+     * @param parameters Nombres de los parámetros de la consulta.
+     * @param required Si cada parámetro es obligatorio.
+     * @param base URL base de la petición actual.
+     */
+    LinkTemplate(List<Object> path, String[] pathVariables, String[] parameters, boolean[] required,
+                 Supplier<String> base) {
+        this.path = path;
+        this.pathVariables = pathVariables;
+        this.parameters = parameters;
+        this.required = required;
+        this.base = base;
+    }
+
+    /**
+     * Método que empieza a dar valores a la plantilla.
+     * @param name El nombre de la variable de la ruta o del parámetro de la consulta.
+     * @param value El valor (nulo para dejarlo como variable de la plantilla).
+     * @return Los valores, a los que se pueden añadir más antes de generar el enlace.
+     * @throws IllegalArgumentException Si la plantilla no tiene ninguna variable ni parámetro con ese nombre.
+     */
+    public Values with(String name, Object value) {
+        return new Values().with(name, value);
+    }
+
+    /**
+     * Método que genera el enlace a sí mismo, sin ningún valor.
+     * @return El enlace.
+     */
+    public Link withSelfRel() {
+        return withRel(IanaLinkRelations.SELF);
+    }
+
+    /**
+     * Método que genera un enlace con la relación indicada, sin ningún valor.
+     * @param relation La relación del enlace.
+     * @return El enlace.
+     */
+    public Link withRel(LinkRelation relation) {
+        return Link.of(expand(new Object[parameters.length]), relation);
+    }
+
+    /**
+     * Método que devuelve los nombres de las variables de la ruta (para identificar el método del controlador).
+     * @return Los nombres.
+     */
+    Set<String> getPathVariables() {
+        Set<String> names = new TreeSet<>();
+        for (String name : pathVariables) {
+            if(name != null) names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Método que busca la posición del argumento de una variable o parámetro.
+     * @param name El nombre de la variable o del parámetro.
+     * @return La posición.
+     * @throws IllegalArgumentException Si no existe.
+     */
+    private int indexOf(String name) {
+        for (int i = 0; i < parameters.length; i++) {
+            if(name.equals(pathVariables[i]) || name.equals(parameters[i])) return i;
+        }
+        throw new IllegalArgumentException("Unknown parameter for link template: " + name);
+    }
+
+    /**
+     * Método que expande la plantilla con los argumentos indicados.
+     * @param arguments Argumentos del método del controlador, por posición.
+     * @return La URL (con las variables de plantilla que queden).
+     */
+    private String expand(Object[] arguments) {
+        StringBuilder href = new StringBuilder(base.get());
+        //Ruta:
+        for (Object part : path) {
+            if(part instanceof String) {
+                href.append((String) part);
+            } else {
+                int index = (Integer) part;
+                Object value = arguments[index];
+                if(value == null) href.append('{').append(pathVariables[index]).append('}');
+                else href.append(UriUtils.encodePath(value.toString(), StandardCharsets.UTF_8));
+            }
+        }
+
+        //Parámetros de la consulta:
+        boolean query = false;
+        List<String> variables = null;
+        for (int i = 0; i < parameters.length; i++) {
+            String name = parameters[i];
+            if(name == null) continue;
+            Object value = arguments[i];
+
+            if(value == null) {
+                if(required[i]) {
+                    href.append(query ? '&' : '?').append(name).append("={").append(name).append('}');
+                    query = true;
+                } else {
+                    if(variables == null) variables = new ArrayList<>();
+                    variables.add(name);
+                }
+            } else if(value instanceof Collection) {
+                for (Object element : (Collection<?>) value) {
+                    href.append(query ? '&' : '?').append(name).append('=').append(encode(element));
+                    query = true;
+                }
+            } else {
+                href.append(query ? '&' : '?').append(name).append('=').append(encode(value));
+                query = true;
+            }
+        }
+
+        //Los parámetros opcionales sin valor quedan como variables de la plantilla:
+        if(variables != null) {
+            href.append('{').append(query ? '&' : '?').append(String.join(",", variables)).append('}');
+        }
+        return href.toString();
+    }
+
+    /**
+     * Método que codifica el valor de un parámetro de la consulta.
+     * @param value El valor.
+     * @return El valor codificado.
+     */
+    private static String encode(Object value) {
+        return UriUtils.encodeQueryParam(String.valueOf(value), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Clase con los valores de las variables y parámetros de un enlace. Se puede reutilizar para generar varios
+     * enlaces que sólo cambian en algún valor (por ejemplo, la página).
+     */
+    public final class Values {
+        //Valores por posición del argumento (los que no se indican son nulos):
+        private final Object[] arguments = new Object[parameters.length];
+
+        private Values() {
+        }
+
+        /**
+         * Método que da valor a una variable de la ruta o a un parámetro de la consulta (reemplazando el anterior).
+         * @param name El nombre de la variable o del parámetro.
+         * @param value El valor (nulo para dejarlo como variable de la plantilla).
+         * @return Los valores.
+         * @throws IllegalArgumentException Si la plantilla no tiene ninguna variable ni parámetro con ese nombre.
+         */
+        public Values with(String name, Object value) {
+            arguments[indexOf(name)] = value;
+            return this;
+        }
+
+        /**
+         * Método que genera el enlace a sí mismo.
+         * @return El enlace.
+         */
+        public Link withSelfRel() {
+            return withRel(IanaLinkRelations.SELF);
+        }
+
+        /**
+         * Método que genera un enlace con la relación indicada.
+         * @param relation La relación del enlace.
+         * @return El enlace.
+         */
+        public Link withRel(LinkRelation relation) {
+            return Link.of(expand(), relation);
+        }
+
+        /**
+         * Método que expande la plantilla con los valores indicados.
+         * @return La URL (con las variables de plantilla que queden).
+         */
+        public String expand() {
+            return LinkTemplate.this.expand(arguments);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.annotation.SynthesizingMethodParameter;
+import org.springframework.stereotype.Service;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ValueConstants;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Clase con el registro de plantillas de enlaces de los métodos de los controladores.
+ *
+ * La ruta y los parámetros de cada método se resuelven una única vez a partir de sus anotaciones
+ * (@RequestMapping, @PathVariable, @RequestParam), de forma que generar un enlace se reduce a concatenar cadenas,
+ * sin los proxies ni la reflexión de linkTo(methodOn(...)). La URL base se calcula una vez por petición.
+ *
+ * Los controladores piden sus plantillas en el constructor, de forma que cualquier método que no exista o sea
+ * ambiguo impide arrancar la aplicación en lugar de fallar en la primera petición.
+ *
+ * @author Manuel Bendaña
+ */
+@Service
+public class LinkTemplates {
+    //Atributo de la petición en el que se guarda la URL base:
+    private static final String BASE = LinkTemplates.class.getName() + ".base";
+    //Variables de las rutas (con patrón opcional, como {id:.+}):
+    private static final Pattern VARIABLE = Pattern.compile("\\{([^}:]+)(:[^}]*)?}");
+    //Para obtener los nombres de los argumentos que no lo indican en la anotación:
+    private static final ParameterNameDiscoverer NAMES = new DefaultParameterNameDiscoverer();
+
+    //Plantillas ya resueltas, por controlador, método y variables de la ruta:
+    private final Map<String, LinkTemplate> templates = new ConcurrentHashMap<>();
+
+    /**
+     * Método que devuelve la plantilla de un método de un controlador, resolviéndola si es la primera vez.
+     * Los métodos se identifican por su nombre y por los nombres de las variables de su ruta (por ejemplo, el
+     * listado de películas es ("get") y una película concreta ("get", "id")), y los enlaces se generan dando el
+     * valor de cada variable o parámetro por su nombre (ver {@link LinkTemplate#with(String, Object)}).
+     *
+     * @param controller La clase del controlador.
+     * @param method El nombre del método.
+     * @param pathVariables Los nombres de las variables de la ruta del método (ninguno si no tiene).
+     * @return La plantilla.
+     * @throws IllegalArgumentException Si el controlador no tiene exactamente un método mapeado con ese nombre y
+     * esas variables.
+     */
+    public LinkTemplate of(Class<?> controller, String method, String... pathVariables) {
+        Set<String> variables = new TreeSet<>(Arrays.asList(pathVariables));
+        return templates.computeIfAbsent(controller.getName() + "#" + method + variables,
+                key -> resolve(controller, method, variables));
+    }
+
+    /**
+     * Método que resuelve la plantilla de un método a partir de sus anotaciones.
+     * @param controller La clase del controlador.
+     * @param name El nombre del método.
+     * @param variables Los nombres de las variables de la ruta.
+     * @return La plantilla.
+     */
+    private LinkTemplate resolve(Class<?> controller, String name, Set<String> variables) {
+        LinkTemplate template = null;
+        //Los métodos de los controladores no tienen por qué ser públicos, por lo que se recorren los declarados
+        //(también en las superclases, sin repetir los sobrescritos):
+        Method[] candidates = ReflectionUtils.getUniqueDeclaredMethods(controller, candidate ->
+                candidate.getName().equals(name) && AnnotatedElementUtils.hasAnnotation(candidate, RequestMapping.class));
+        for (Method candidate : candidates) {
+            LinkTemplate resolved = resolve(controller, candidate);
+            if(!resolved.getPathVariables().equals(variables)) continue;
+            if(template != null) {
+                throw new IllegalArgumentException("More than one request mapping found for "
+                        + controller.getSimpleName() + "." + name + " with path variables " + variables);
+            }
+            template = resolved;
+        }
+        if(template == null) {
+            throw new IllegalArgumentException("No request mapping found for " + controller.getSimpleName() + "."
+                    + name + " with path variables " + variables);
+        }
+        return template;
+    }
+
+    /**
+     * Método que resuelve la plantilla de un método concreto.
+     * @param controller La clase del controlador.
+     * @param method El método.
+     * @return La plantilla.
+     */
+    private LinkTemplate resolve(Class<?> controller, Method method) {
+        int arity = method.getParameterCount();
+        //Ruta completa (la del controlador más la del método):
+        String mapping = join(mapping(AnnotatedElementUtils.findMergedAnnotation(controller, RequestMapping.class)),
+                mapping(AnnotatedElementUtils.findMergedAnnotation(method, RequestMapping.class)));
+
+        //Clasificamos los argumentos según sus anotaciones:
+        String[] pathVariables = new String[arity];
+        String[] parameters = new String[arity];
+        boolean[] required = new boolean[arity];
+        for (int i = 0; i < arity; i++) {
+            //Los parámetros sintetizados resuelven los alias de las anotaciones (value y name):
+            MethodParameter parameter = SynthesizingMethodParameter.forExecutable(method, i);
+            parameter.initParameterNameDiscovery(NAMES);
+            PathVariable variable = parameter.getParameterAnnotation(PathVariable.class);
+            RequestParam param = parameter.getParameterAnnotation(RequestParam.class);
+            if(variable != null) {
+                pathVariables[i] = variable.name().isEmpty() ? parameter.getParameterName() : variable.name();
+            } else if(param != null) {
+                parameters[i] = param.name().isEmpty() ? parameter.getParameterName() : param.name();
+                required[i] = param.required() && ValueConstants.DEFAULT_NONE.equals(param.defaultValue());
+            }
+        }
+
+        //Partes de la ruta: literales y posiciones de los argumentos de las variables:
+        List<Object> path = new ArrayList<>();
+        Matcher matcher = VARIABLE.matcher(mapping);
+        int last = 0;
+        while (matcher.find()) {
+            path.add(mapping.substring(last, matcher.start()));
+            int index = indexOf(pathVariables, matcher.group(1));
+            //Las variables sin argumento asociado se dejan sin expandir:
+            path.add(index >= 0 ? (Object) index : matcher.group());
+            last = matcher.end();
+        }
+        path.add(mapping.substring(last));
+        path.removeIf(part -> "".equals(part));
+
+        return new LinkTemplate(path, pathVariables, parameters, required, this::base);
+    }
+
+    /**
+     * Método que devuelve la URL base de la petición actual (esquema, servidor, puerto y contexto), calculándola
+     * sólo la primera vez en cada petición.
+     * @return La URL base (vacía si no hay ninguna petición en curso).
+     */
+    private String base() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if(attributes == null) return "";
+
+        Object base = attributes.getAttribute(BASE, RequestAttributes.SCOPE_REQUEST);
+        if(base == null) {
+            String uri = ServletUriComponentsBuilder.fromCurrentServletMapping().build().toUriString();
+            base = uri.endsWith("/") ? uri.substring(0, uri.length() - 1) : uri;
+            attributes.setAttribute(BASE, base, RequestAttributes.SCOPE_REQUEST);
+        }
+        return (String) base;
+    }
+
+    /**
+     * Método que obtiene la ruta de una anotación de mapeo.
+     * @param mapping La anotación (puede ser nula).
+     * @return La primera ruta, o una cadena vacía.
+     */
+    private static String mapping(RequestMapping mapping) {
+        return mapping == null || mapping.path().length == 0 ? "" : mapping.path()[0];
+    }
+
+    /**
+     * Método que une dos rutas con una única barra entre ellas, empezando siempre por barra.
+     * @param first La primera ruta.
+     * @param second La segunda ruta.
+     * @return La ruta completa.
+     */
+    private static String join(String first, String second) {
+        StringBuilder path = new StringBuilder();
+        for (String part : new String[]{first, second}) {
+            String trimmed = part.replaceAll("^/+|/+$", "");
+            if(!trimmed.isEmpty()) path.append('/').append(trimmed);
+        }
+        return path.length() == 0 ? "/" : path.toString();
+    }
+
+    /**
+     * Método que busca la posición de un nombre en un array.
+     * @param names Los nombres.
+     * @param name El nombre buscado.
+     * @return La posición, o -1 si no está.
+     */
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if(name.equals(names[i])) return i;
+        }
+        return -1;
+    }
+}
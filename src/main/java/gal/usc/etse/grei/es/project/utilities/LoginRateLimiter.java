@@ -0,0 +1,192 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clase LoginRateLimiter: limita los intentos de inicio de sesión por IP del cliente y por email, para que las
+ * ráfagas de intentos (por ejemplo, de credenciales robadas) no disparen el número de cálculos de BCrypt. Los
+ * intentos rechazados no llegan a consultar el usuario ni a comprobar la contraseña.
+ *
+ * Cada IP y cada email tienen un cubo de intentos que se rellena de forma continua (algoritmo GCRA): el estado del
+ * cubo es un único AtomicLong con el momento en que volvería a estar lleno, que se actualiza sin bloqueos (CAS).
+ * Los cubos se reparten en varios mapas concurrentes según el hash de la clave, cada uno con un número máximo de
+ * entradas. Los cubos llenos (sin intentos recientes) equivalen a no tener cubo, por lo que se borran
+ * periódicamente; si aun así un mapa se llena, las claves nuevas de ese mapa comparten un único cubo, de forma que
+ * la memoria está acotada y los intentos siguen limitados.
+ *
+ * @author Manuel Bendaña
+ */
+@Service
+public class LoginRateLimiter {
+    //Número de mapas en los que se reparten los cubos (potencia de 2):
+    private static final int STRIPES = 64;
+
+    //Límite de intentos por IP del cliente:
+    private final Limit byIp;
+    //Límite de intentos por email:
+    private final Limit byEmail;
+
+    /**
+     * Constructor de la clase
+     * @param ipAttempts Número de intentos permitidos por IP en cada periodo (y ráfaga máxima).
+     * @param ipPeriod Periodo en el que se recuperan todos los intentos de una IP.
+     * @param emailAttempts Número de intentos permitidos por email en cada periodo (y ráfaga máxima).
+     * @param emailPeriod Periodo en el que se recuperan todos los intentos de un email.
+     * @param maxEntries Número máximo de cubos de cada tipo que se mantienen en memoria.
+     */
+    @Autowired
+    public LoginRateLimiter(@Value("${security.login.ip.attempts:20}") int ipAttempts,
+                            @Value("${security.login.ip.period:PT1M}") Duration ipPeriod,
+                            @Value("${security.login.email.attempts:5}") int emailAttempts,
+                            @Value("${security.login.email.period:PT1M}") Duration emailPeriod,
+                            @Value("${security.login.max-entries:100000}") int maxEntries) {
+        this.byIp = new Limit(ipAttempts, ipPeriod, maxEntries);
+        this.byEmail = new Limit(emailAttempts, emailPeriod, maxEntries);
+    }
+
+    /**
+     * Método que registra un intento de inicio de sesión, si los límites lo permiten. Primero se comprueba el
+     * límite de la IP, para que los intentos rechazados por IP no consuman los del email.
+     *
+     * @param ip La IP del cliente.
+     * @param email El email introducido (puede ser nulo).
+     * @throws LimitExceededException Si se ha superado alguno de los límites.
+     */
+    public void acquire(String ip, String email) {
+        long now = System.nanoTime();
+        long wait = byIp.acquire(ip == null ? "" : ip, now);
+        if(wait == 0 && email != null) wait = byEmail.acquire(email.trim().toLowerCase(Locale.ROOT), now);
+        if(wait > 0) {
+            throw new LimitExceededException(Math.max(1, (wait + TimeUnit.SECONDS.toNanos(1) - 1)
+                    / TimeUnit.SECONDS.toNanos(1)));
+        }
+    }
+
+    /**
+     * Método que borra periódicamente los cubos llenos (sin intentos recientes).
+     */
+    @Scheduled(initialDelayString = "${security.login.cleanup-interval:PT1M}",
+            fixedDelayString = "${security.login.cleanup-interval:PT1M}")
+    public void evict() {
+        long now = System.nanoTime();
+        byIp.evict(now);
+        byEmail.evict(now);
+    }
+
+    /**
+     * Clase auxiliar con los cubos de un tipo de límite.
+     */
+    private static class Limit {
+        //Tiempo en recuperar un intento (en nanosegundos):
+        private final long interval;
+        //Margen máximo respecto al momento actual (el tamaño del cubo, en nanosegundos):
+        private final long tolerance;
+        //Número máximo de cubos en cada mapa:
+        private final int maxPerStripe;
+        //Cubos por clave: cada uno guarda el momento (System.nanoTime) en que volvería a estar lleno:
+        private final ConcurrentHashMap<String, AtomicLong>[] stripes;
+        //Cubo compartido por las claves nuevas de cada mapa cuando está lleno:
+        private final AtomicLong[] overflow;
+
+        @SuppressWarnings("unchecked")
+        private Limit(int attempts, Duration period, int maxEntries) {
+            attempts = Math.max(1, attempts);
+            this.interval = Math.max(1, period.toNanos() / attempts);
+            this.tolerance = interval * attempts;
+            this.maxPerStripe = Math.max(1, maxEntries / STRIPES);
+            this.stripes = new ConcurrentHashMap[STRIPES];
+            this.overflow = new AtomicLong[STRIPES];
+            long now = System.nanoTime();
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new ConcurrentHashMap<>();
+                overflow[i] = new AtomicLong(now);
+            }
+        }
+
+        /**
+         * Método que consume un intento del cubo de una clave.
+         * @param key La clave.
+         * @param now El momento actual (System.nanoTime).
+         * @return 0 si se permite el intento, o el tiempo (en nanosegundos) hasta que se permita uno.
+         */
+        private long acquire(String key, long now) {
+            AtomicLong bucket = bucket(key, now);
+            while (true) {
+                long full = bucket.get();
+                long next = Math.max(full - now, 0) + interval;
+                if(next > tolerance) return next - tolerance;
+                if(bucket.compareAndSet(full, now + next)) return 0;
+            }
+        }
+
+        /**
+         * Método que devuelve el cubo de una clave, creándolo si no existe y hay sitio.
+         * @param key La clave.
+         * @param now El momento actual.
+         * @return El cubo.
+         */
+        private AtomicLong bucket(String key, long now) {
+            int hash = key.hashCode();
+            int index = (hash ^ (hash >>> 16)) & (STRIPES - 1);
+            ConcurrentHashMap<String, AtomicLong> stripe = stripes[index];
+            AtomicLong bucket = stripe.get(key);
+            if(bucket != null) return bucket;
+            if(stripe.size() >= maxPerStripe) {
+                evict(stripe, now);
+                if(stripe.size() >= maxPerStripe) return overflow[index];
+            }
+            return stripe.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+
+        /**
+         * Método que borra los cubos llenos de todos los mapas.
+         * @param now El momento actual.
+         */
+        private void evict(long now) {
+            for (ConcurrentHashMap<String, AtomicLong> stripe : stripes) {
+                evict(stripe, now);
+            }
+        }
+
+        /**
+         * Método que borra los cubos llenos de un mapa. Si se borra un cubo justo cuando se está usando, se pierde
+         * como mucho ese intento.
+         * @param stripe El mapa.
+         * @param now El momento actual.
+         */
+        private static void evict(ConcurrentHashMap<String, AtomicLong> stripe, long now) {
+            stripe.values().removeIf(bucket -> bucket.get() - now <= 0);
+        }
+    }
+
+    /**
+     * Excepción lanzada cuando se supera el límite de intentos de inicio de sesión.
+     */
+    public static class LimitExceededException extends AuthenticationException {
+        //Segundos hasta que se permita un nuevo intento:
+        private final long retryAfter;
+
+        /**
+         * Constructor de la excepción
+         * @param retryAfter Segundos hasta que se permita un nuevo intento.
+         */
+        public LimitExceededException(long retryAfter) {
+            super("Too many login attempts.");
+            this.retryAfter = retryAfter;
+        }
+
+        public long getRetryAfter() {
+            return retryAfter;
+        }
+    }
+}
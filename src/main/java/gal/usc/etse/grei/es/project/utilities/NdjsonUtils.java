@@ -0,0 +1,87 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Clase con utilidades para leer y generar contenido en formato NDJSON (un documento JSON por línea).
+ *
+ * @author Manuel Bendaña
+ */
+@Service
+public class NdjsonUtils {
+    //Tipo de contenido de las respuestas:
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    public static final MediaType NDJSON = MediaType.parseMediaType(NDJSON_VALUE);
+    //Número de documentos que se escriben antes de vaciar el buffer de salida:
+    private static final int FLUSH_EVERY = 100;
+
+    //Instancia de ObjectMapper de la aplicación, para serializar igual que en el resto de respuestas:
+    private final ObjectMapper mapper;
+
+    /**
+     * Constructor de la clase
+     * @param mapper Instancia de la clase ObjectMapper.
+     */
+    @Autowired
+    public NdjsonUtils(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Método que genera el cuerpo de una respuesta que va escribiendo los elementos de un iterador a medida que se
+     * recorre. Como la escritura en la salida es bloqueante, el iterador sólo avanza cuando el cliente consume lo
+     * ya escrito, por lo que la memoria usada no depende del número de elementos.
+     *
+     * @param items Los elementos a escribir. Se cierra al terminar (o si falla la escritura).
+     * @param type La clase de los elementos.
+     * @param <T> La clase de los elementos.
+     * @return El cuerpo de la respuesta.
+     */
+    public <T> StreamingResponseBody stream(CloseableIterator<T> items, Class<T> type) {
+        return output -> {
+            try (CloseableIterator<T> iterator = items;
+                 SequenceWriter writer = mapper.writerFor(type)
+                         .withRootValueSeparator("\n")
+                         .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                         .writeValues(output)) {
+                int written = 0;
+                while (iterator.hasNext()) {
+                    writer.write(iterator.next());
+                    //Se vacía el buffer por lotes, no con cada documento:
+                    if(++written % FLUSH_EVERY == 0) writer.flush();
+                }
+                //Cada documento termina con un salto de línea (el separador sólo se escribe entre ellos):
+                writer.flush();
+                if(written > 0) output.write('\n');
+            }
+        };
+    }
+
+    /**
+     * Método que lee una secuencia de elementos a medida que se recorre, sin cargar la entrada entera en memoria.
+     * Se admiten tanto documentos separados por saltos de línea (NDJSON) como un array JSON.
+     *
+     * Si un elemento no se puede convertir a la clase indicada, nextValue lanza una JsonMappingException y el
+     * iterador salta al siguiente elemento; si la entrada no es JSON válido, no se puede seguir leyendo.
+     *
+     * @param input La entrada.
+     * @param type La clase de los elementos.
+     * @param <T> La clase de los elementos.
+     * @return Iterador sobre los elementos, que debe cerrarse al terminar.
+     * @throws IOException Si no se puede empezar a leer la entrada.
+     */
+    public <T> MappingIterator<T> read(InputStream input, Class<T> type) throws IOException {
+        return mapper.readerFor(type).readValues(input);
+    }
+}
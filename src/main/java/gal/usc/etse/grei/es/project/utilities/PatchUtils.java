@@ -1,35 +1,64 @@
 package gal.usc.etse.grei.es.project.utilities;
 
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.fge.jsonpatch.JsonPatch;
 import com.github.fge.jsonpatch.JsonPatchException;
 import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
+import gal.usc.etse.grei.es.project.errorManagement.exceptions.AlreadyCreatedException;
 import gal.usc.etse.grei.es.project.errorManagement.exceptions.InvalidFormatException;
+import gal.usc.etse.grei.es.project.errorManagement.exceptions.PreconditionFailedException;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.TypeInformation;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * Clase con utilidades comunes para gestionar servicios que empleen el método PATCH.
  *
+ * Las operaciones JSON-Patch se traducen, siempre que es posible, a una única actualización de mongo
+ * ($set, $unset, $push) que se ejecuta de forma atómica con findAndModify. Si alguna operación no tiene
+ * traducción directa, se recupera el documento, se aplican los cambios en memoria y se guarda de nuevo.
+ *
  * @author Manuel Bendaña - Obtenida referencia del "Anexo 1" elaborado por los profesores de la materia.
  */
 
 @Service
 public class PatchUtils {
+    //Número máximo de intentos de los cambios en memoria si el documento se modifica mientras tanto:
+    private static final int MAX_ATTEMPTS = 3;
+
     //Nececsitaremos unicamente una instancia de la clase ObjectMapper:
     private final ObjectMapper mapper;
+    //Referencias necesarias para las actualizaciones atómicas:
+    private final MongoTemplate mongoTemplate;
+    private final MongoMappingContext mappingContext;
 
     /**
      * Constructor de la clase:
      * @param mapper Instancia de la clase ObjectMapper que nos permitirá hacer los cambios que correspondan.
+     * @param mongoTemplate Referencia a MongoTemplate, para ejecutar las actualizaciones.
+     * @param mappingContext Contexto de mapeo de mongo, para traducir las rutas a campos de los documentos.
      */
     @Autowired
-    public PatchUtils(ObjectMapper mapper) {
+    public PatchUtils(ObjectMapper mapper, MongoTemplate mongoTemplate, MongoMappingContext mappingContext) {
         this.mapper = mapper;
+        this.mongoTemplate = mongoTemplate;
+        this.mappingContext = mappingContext;
     }
 
     /**
@@ -57,4 +86,303 @@ public class PatchUtils {
                     + e.getMessage());
         }
     }
+
+    /**
+     * Método que permite aplicar los cambios deseados directamente sobre el documento de la base de datos que
+     * cumpla el criterio indicado. Si es posible, se hace en una única operación atómica.
+     *
+     * @param criteria Criterio que identifica el documento (normalmente, por su id).
+     * @param updates Las actualizaciones a realizar.
+     * @param type La clase del documento.
+     * @param returnNew Si se devuelve el documento tras los cambios (true) o antes de ellos (false).
+     * @param <T> La clase del documento.
+     * @return El documento (antes o después de los cambios), o vacío si no existe ningún documento.
+     */
+    public <T> Optional<T> patch(Criteria criteria, List<Map<String, Object>> updates, Class<T> type,
+                                 boolean returnNew) throws InvalidFormatException {
+        return patch(criteria, updates, type, returnNew, null);
+    }
+
+    /**
+     * Método que permite aplicar los cambios deseados directamente sobre el documento de la base de datos que
+     * cumpla el criterio indicado, siempre que siga en la versión indicada (ver VersionUtils). Si el documento
+     * tiene versión, cualquier modificación la incrementa.
+     *
+     * @param criteria Criterio que identifica el documento (normalmente, por su id).
+     * @param updates Las actualizaciones a realizar.
+     * @param type La clase del documento.
+     * @param returnNew Si se devuelve el documento tras los cambios (true) o antes de ellos (false).
+     * @param expected Versión en la que debe estar el documento (nula si no hay que comprobarla).
+     * @param <T> La clase del documento.
+     * @return El documento (antes o después de los cambios), o vacío si no existe ningún documento.
+     * @throws PreconditionFailedException Si el documento no está en la versión indicada.
+     */
+    public <T> Optional<T> patch(Criteria criteria, List<Map<String, Object>> updates, Class<T> type,
+                                 boolean returnNew, Long expected) throws InvalidFormatException {
+        //La versión la gestiona el servidor, por lo que no se puede modificar:
+        forbid(updates, "You cannot change the version", "/" + VersionUtils.VERSION);
+        MongoPersistentEntity<?> entity = mappingContext.getRequiredPersistentEntity(type);
+        MongoPersistentProperty version = entity.getPersistentProperty(VersionUtils.VERSION);
+
+        //Intentamos traducir las operaciones a una actualización de mongo:
+        List<Criteria> guards = new ArrayList<>();
+        Update update = toUpdate(updates, type, guards);
+
+        //Si no se puede, se aplican los cambios en memoria:
+        if(update == null) {
+            T data = mongoTemplate.findOne(Query.query(criteria), type);
+            if(data == null) return Optional.empty();
+            if(version == null) {
+                T updated = mongoTemplate.save(patch(data, updates));
+                return Optional.of(returnNew ? updated : data);
+            }
+
+            //Si el documento tiene versión, sólo se reemplaza si nadie lo ha modificado mientras tanto. Si no es
+            //así, se vuelven a aplicar los cambios sobre el estado actual:
+            for (int attempt = 1; ; attempt++) {
+                Long current = (Long) entity.getPropertyAccessor(data).getProperty(version);
+                VersionUtils.check(expected, current);
+                T updated = patch(data, updates);
+                entity.getPropertyAccessor(updated).setProperty(version, VersionUtils.value(current) + 1);
+
+                Query guarded = Query.query(new Criteria().andOperator(criteria,
+                        VersionUtils.is(VersionUtils.value(current))));
+                if(mongoTemplate.findAndReplace(guarded, updated) != null) {
+                    return Optional.of(returnNew ? updated : data);
+                }
+                if(attempt == MAX_ATTEMPTS) {
+                    throw new AlreadyCreatedException(ErrorType.ALREADY_MODIFIED, "The resource is being " +
+                            "modified concurrently. Try again later.");
+                }
+                data = mongoTemplate.findOne(Query.query(criteria), type);
+                if(data == null) return Optional.empty();
+            }
+        }
+
+        //Las comprobaciones (test, existencia de las rutas a reemplazar, versión...) forman parte de la consulta:
+        guards.add(0, criteria);
+        if(version != null) {
+            update.inc(version.getFieldName(), 1L);
+            if(expected != null) guards.add(VersionUtils.is(expected));
+        }
+        T result = mongoTemplate.findAndModify(Query.query(new Criteria().andOperator(guards.toArray(new Criteria[0]))),
+                update, FindAndModifyOptions.options().returnNew(returnNew), type);
+
+        if(result == null) {
+            //Si el documento existe, es que alguna de las comprobaciones ha fallado (primero se mira la versión):
+            Query query = Query.query(criteria);
+            query.fields().include(VersionUtils.VERSION);
+            Document current = mongoTemplate.findOne(query, Document.class, mongoTemplate.getCollectionName(type));
+            if(current != null) {
+                if(version != null) VersionUtils.check(expected, (Number) current.get(version.getFieldName()));
+                throw new InvalidFormatException(ErrorType.INVALID_INFO, "Invalid parameters on PATCH request. " +
+                        "Message: a test operation failed or a target path does not exist");
+            }
+            return Optional.empty();
+        }
+        return Optional.of(result);
+    }
+
+    /**
+     * Método que comprueba que ninguna operación modifique (o mueva) los campos indicados ni nada contenido en
+     * ellos: por ejemplo, si se prohíbe /roles, también se rechazan /roles/0 o /roles/- (añadir un elemento).
+     *
+     * @param updates Las operaciones.
+     * @param message El mensaje de error.
+     * @param roots Las rutas prohibidas.
+     * @throws InvalidFormatException Si alguna operación afecta a una de las rutas prohibidas.
+     */
+    public void forbid(List<Map<String, Object>> updates, String message, String... roots)
+            throws InvalidFormatException {
+        for (Map<String, Object> operation : updates) {
+            for (String root : roots) {
+                if(isIn(operation.get("path"), root) || isIn(operation.get("from"), root)) {
+                    throw new InvalidFormatException(ErrorType.FORBIDDEN, message);
+                }
+            }
+        }
+    }
+
+    /**
+     * Método que comprueba si la ruta de una operación se refiere a un campo o a algo contenido en él.
+     * @param path La ruta (puede ser nula).
+     * @param root La ruta del campo.
+     * @return True si la ruta es la del campo (o una contenida en él).
+     */
+    private static boolean isIn(Object path, String root) {
+        return path instanceof String && (path.equals(root) || ((String) path).startsWith(root + "/"));
+    }
+
+    /**
+     * Método que traduce las operaciones JSON-Patch a una actualización de mongo.
+     *
+     * @param updates Las operaciones.
+     * @param type La clase del documento.
+     * @param guards Lista en la que se añaden las condiciones que debe cumplir el documento.
+     * @return La actualización, o null si alguna operación no se puede traducir.
+     */
+    private Update toUpdate(List<Map<String, Object>> updates, Class<?> type, List<Criteria> guards) {
+        Update update = new Update();
+        //Campos modificados, para detectar operaciones que mongo no permite combinar:
+        List<String> touched = new ArrayList<>();
+
+        for (Map<String, Object> operation : updates) {
+            Object op = operation.get("op");
+            Object path = operation.get("path");
+            if(!(op instanceof String) || !(path instanceof String)) return null;
+
+            Target target = resolve((String) path, type);
+            if(target == null) return null;
+
+            switch ((String) op) {
+                case "test":
+                    //La comprobación se hace sobre el documento antes de los cambios, por lo que sólo es válida si
+                    //ninguna operación anterior ha modificado el campo (ni uno que lo contenga o contenido en él).
+                    //Si no, se aplica en memoria, en orden:
+                    if(target.append || overlaps(touched, target.field)) return null;
+                    guards.add(Criteria.where(target.field).is(convert(operation.get("value"), target.type)));
+                    continue;
+                case "replace":
+                    if(target.append) return null;
+                    guards.add(Criteria.where(target.field).exists(true));
+                    update.set(target.field, convert(operation.get("value"), target.type));
+                    break;
+                case "remove":
+                    //Eliminar un elemento de una lista por su posición no tiene traducción directa:
+                    if(target.append || target.index != null) return null;
+                    guards.add(Criteria.where(target.field).exists(true));
+                    update.unset(target.field);
+                    break;
+                case "add":
+                    Object value = convert(operation.get("value"), target.type);
+                    if(target.append) {
+                        update.push(target.parent, value);
+                    } else if(target.index != null) {
+                        //Insertar en una posición: la posición anterior debe existir.
+                        if(target.index > 0) guards.add(Criteria.where(target.parent + "." + (target.index - 1)).exists(true));
+                        update.push(target.parent).atPosition(target.index).each(value);
+                    } else {
+                        update.set(target.field, value);
+                    }
+                    break;
+                default:
+                    //copy y move se aplican en memoria:
+                    return null;
+            }
+
+            //Mongo no permite modificar en la misma operación un campo y otro contenido en él:
+            String field = target.append || target.index != null && "add".equals(op) ? target.parent : target.field;
+            if(overlaps(touched, field)) return null;
+            touched.add(field);
+        }
+
+        return touched.isEmpty() ? null : update;
+    }
+
+    /**
+     * Método que comprueba si un campo coincide con alguno de los modificados, lo contiene o está contenido en él.
+     * @param touched Los campos modificados.
+     * @param field El campo.
+     * @return True si se solapa con alguno.
+     */
+    private static boolean overlaps(List<String> touched, String field) {
+        for (String other : touched) {
+            if(other.equals(field) || other.startsWith(field + ".") || field.startsWith(other + ".")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Método que traduce una ruta JSON-Pointer al campo correspondiente del documento, comprobando que exista.
+     *
+     * @param pointer La ruta.
+     * @param type La clase del documento.
+     * @return El campo destino, o null si la ruta no se puede traducir.
+     */
+    private Target resolve(String pointer, Class<?> type) {
+        if(!pointer.startsWith("/") || pointer.length() == 1) return null;
+
+        String[] tokens = pointer.substring(1).split("/", -1);
+        TypeInformation<?> current = mappingContext.getRequiredPersistentEntity(type).getTypeInformation();
+        List<String> fields = new ArrayList<>();
+        Target target = new Target();
+
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i].replace("~1", "/").replace("~0", "~");
+            boolean last = i == tokens.length - 1;
+
+            if(current.isCollectionLike()) {
+                //En las listas, la ruta indica una posición (o el final, con "-", sólo al añadir):
+                if(token.equals("-") && last) {
+                    target.append = true;
+                } else if(token.matches("\\d+")) {
+                    if(last) target.index = Integer.parseInt(token);
+                } else {
+                    return null;
+                }
+                target.parent = String.join(".", fields);
+                fields.add(token);
+                current = current.getComponentType();
+            } else if(current.isMap()) {
+                fields.add(token);
+                current = current.getMapValueType();
+            } else {
+                MongoPersistentEntity<?> entity = mappingContext.getPersistentEntity(current);
+                MongoPersistentProperty property = entity == null ? null : entity.getPersistentProperty(token);
+                if(property == null) return null;
+                fields.add(property.getFieldName());
+                current = property.getTypeInformation();
+            }
+            if(current == null) return null;
+        }
+
+        target.field = String.join(".", fields);
+        target.type = current;
+        return target;
+    }
+
+    /**
+     * Método que convierte el valor recibido al tipo del campo destino.
+     * @param value El valor recibido.
+     * @param type El tipo del campo.
+     * @return El valor convertido.
+     */
+    private Object convert(Object value, TypeInformation<?> type) {
+        try {
+            return value == null ? null : mapper.convertValue(value, javaType(type));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidFormatException(ErrorType.INVALID_INFO, "Invalid parameters on PATCH request. Message: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Método que obtiene el tipo de Jackson correspondiente a un tipo de Spring Data (incluyendo los genéricos).
+     * @param type El tipo.
+     * @return El tipo de Jackson.
+     */
+    private JavaType javaType(TypeInformation<?> type) {
+        if(type.isCollectionLike() && type.getComponentType() != null) {
+            return mapper.getTypeFactory().constructCollectionLikeType(type.getType(), javaType(type.getComponentType()));
+        }
+        if(type.isMap() && type.getComponentType() != null && type.getMapValueType() != null) {
+            return mapper.getTypeFactory().constructMapLikeType(type.getType(), javaType(type.getComponentType()),
+                    javaType(type.getMapValueType()));
+        }
+        return mapper.getTypeFactory().constructType(type.getType());
+    }
+
+    /**
+     * Clase auxiliar que representa el destino de una operación.
+     */
+    private static class Target {
+        //Campo completo en el documento (separado por puntos):
+        private String field;
+        //Tipo del campo:
+        private TypeInformation<?> type;
+        //Si el destino es una lista, campo de la lista y posición (o final de la lista):
+        private String parent;
+        private Integer index;
+        private boolean append;
+    }
 }
@@ -0,0 +1,68 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Clase ScheduledLock: bloqueos en la base de datos para que las tareas periódicas que trabajan sobre datos
+ * compartidos se ejecuten en una sola instancia a la vez.
+ *
+ * Cada bloqueo es un documento de la colección locks, con la instancia que lo tiene y el momento hasta el que lo
+ * tiene: si la instancia se cae sin liberarlo, otra puede tomarlo cuando caduca.
+ *
+ * @author Manuel Bendaña
+ */
+@Service
+public class ScheduledLock {
+    //Colección de los bloqueos:
+    private static final String LOCKS = "locks";
+
+    //Referencia a MongoTemplate:
+    private final MongoTemplate mongoTemplate;
+    //Identificador de esta instancia:
+    private final String owner = UUID.randomUUID().toString();
+
+    /**
+     * Constructor de la clase
+     * @param mongoTemplate Referencia a MongoTemplate.
+     */
+    @Autowired
+    public ScheduledLock(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Método que intenta tomar un bloqueo.
+     * @param name El nombre del bloqueo.
+     * @param lease Tiempo máximo durante el que se mantiene si no se libera.
+     * @return True si se ha tomado; false si lo tiene otra instancia.
+     */
+    public boolean acquire(String name, Duration lease) {
+        Date now = new Date();
+        try {
+            //Si el bloqueo existe y no ha caducado, la consulta no lo encuentra y la inserción falla por el id:
+            mongoTemplate.upsert(Query.query(Criteria.where("_id").is(name).and("until").lt(now)),
+                    new Update().set("owner", owner).set("until", new Date(now.getTime() + lease.toMillis())), LOCKS);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Método que libera un bloqueo tomado por esta instancia.
+     * @param name El nombre del bloqueo.
+     */
+    public void release(String name) {
+        mongoTemplate.remove(Query.query(Criteria.where("_id").is(name).and("owner").is(owner)), LOCKS);
+    }
+}
@@ -0,0 +1,36 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
+import gal.usc.etse.grei.es.project.errorManagement.exceptions.InvalidDataException;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Tipo enumerado que representa la forma de calcular el total de resultados en las búsquedas paginadas.
+ *
+ * EXACT: se hace la consulta de conteo (comportamiento por defecto).
+ * ESTIMATED: se usa un total aproximado (metadatos de la colección o conteos cacheados).
+ * NONE: no se calcula el total, sólo se sabe si hay más resultados.
+ *
+ * @author Manuel Bendaña
+ */
+@Schema(description = "How the total number of results is computed on paginated requests",
+        allowableValues = {"exact", "estimated", "none"})
+public enum TotalMode {
+    EXACT, ESTIMATED, NONE;
+
+    /**
+     * Método que permite obtener el modo a partir del valor recibido en la url.
+     * @param value El valor recibido (puede ser null).
+     * @return El modo correspondiente (EXACT si no se indica).
+     */
+    public static TotalMode of(String value) {
+        if(value == null || value.isEmpty()) return EXACT;
+        switch (value.toLowerCase()) {
+            case "exact": return EXACT;
+            case "estimated": return ESTIMATED;
+            case "none": return NONE;
+            default: throw new InvalidDataException(ErrorType.INVALID_PARAMETER,
+                    "Unexpected total mode: " + value + ". Allowed values: exact, estimated, none.");
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import gal.usc.etse.grei.es.project.errorManagement.ErrorType;
+import gal.usc.etse.grei.es.project.errorManagement.exceptions.InvalidDataException;
+import gal.usc.etse.grei.es.project.errorManagement.exceptions.PreconditionFailedException;
+import gal.usc.etse.grei.es.project.model.FacetedPage;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Clase con utilidades para las versiones de los documentos y las peticiones condicionales (ETag, If-None-Match
+ * e If-Match).
+ *
+ * Cada documento guarda en el campo version el número de modificaciones que ha sufrido: se inserta con la versión
+ * 0 y todas las escrituras la incrementan ($inc). Los documentos anteriores a este campo se consideran en la
+ * versión 0 (el primer $inc la deja en 1). El ETag de un documento es su versión, por lo que se puede comprobar
+ * sin recuperar ni serializar el documento.
+ *
+ * @author Manuel Bendaña
+ */
+@Service
+public class VersionUtils {
+    //Nombre del campo de la versión en los documentos:
+    public static final String VERSION = "version";
+
+    //Referencia a MongoTemplate, para consultar sólo la versión de los documentos:
+    private final MongoTemplate mongoTemplate;
+
+    /**
+     * Constructor de la clase
+     * @param mongoTemplate Referencia a MongoTemplate.
+     */
+    @Autowired
+    public VersionUtils(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Método que recupera únicamente la versión de un documento.
+     * @param type La clase del documento.
+     * @param id El id del documento.
+     * @return La versión (vacío si el documento no existe).
+     */
+    public Optional<Long> version(Class<?> type, Object id) {
+        Query query = Query.query(Criteria.where("_id").is(id));
+        query.fields().include(VERSION);
+        Document document = mongoTemplate.findOne(query, Document.class, mongoTemplate.getCollectionName(type));
+        return document == null ? Optional.empty() : Optional.of(value((Number) document.get(VERSION)));
+    }
+
+    /**
+     * Método que devuelve la versión de un documento, considerando que los que no la tienen están en la versión 0.
+     * @param version La versión guardada (puede ser nula).
+     * @return La versión.
+     */
+    public static long value(Number version) {
+        return version == null ? 0 : version.longValue();
+    }
+
+    /**
+     * Método que devuelve el criterio que cumplen los documentos que están en una versión.
+     * @param version La versión.
+     * @return El criterio.
+     */
+    public static Criteria is(long version) {
+        //Los documentos sin versión están en la versión 0:
+        return version == 0 ? Criteria.where(VERSION).in(0L, null) : Criteria.where(VERSION).is(version);
+    }
+
+    /**
+     * Método que genera el ETag (fuerte) de un documento a partir de su versión.
+     * @param version La versión del documento (puede ser nula).
+     * @return El ETag.
+     */
+    public String etag(Long version) {
+        return "\"" + value(version) + "\"";
+    }
+
+    /**
+     * Método que genera el ETag (fuerte) de una selección de campos de un documento: la versión seguida del resumen
+     * de los campos, ya que cada selección es una representación distinta. Al no ser el de la representación
+     * completa, no se admite en If-Match.
+     *
+     * @param version La versión del documento (puede ser nula).
+     * @param fields Los campos seleccionados, normalizados (vacío para el documento completo).
+     * @return El ETag.
+     */
+    public String etag(Long version, List<String> fields) {
+        if(fields.isEmpty()) return etag(version);
+        return "\"" + value(version) + "-" +
+                DigestUtils.md5DigestAsHex(String.join(",", fields).getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    /**
+     * Método que genera el ETag de una página de resultados, a partir de los datos de paginación y de cada uno
+     * de los elementos (su versión y su contenido, ya que los listados pueden no incluir el id), y de las facetas
+     * si las hay (pueden cambiar aunque no cambie la página). Es un ETag débil: dos páginas con el mismo ETag
+     * tienen los mismos datos, aunque no se serialicen igual byte a byte.
+     *
+     * @param slice La página.
+     * @param version Función que obtiene la versión de cada elemento.
+     * @param <T> La clase de los elementos.
+     * @return El ETag.
+     */
+    public <T> String etag(Slice<T> slice, Function<T, Long> version) {
+        StringBuilder data = new StringBuilder()
+                .append(slice.getNumber()).append(':')
+                .append(slice.getSize()).append(':')
+                .append(slice.hasNext()).append(':')
+                .append(slice instanceof Page ? ((Page<T>) slice).getTotalElements() : -1);
+        for (T element : slice.getContent()) {
+            data.append(':').append(value(version.apply(element))).append('/').append(element.hashCode());
+        }
+        if(slice instanceof FacetedPage) {
+            data.append(':').append(((FacetedPage<T>) slice).getFacets().hashCode());
+        }
+        return "W/\"" + DigestUtils.md5DigestAsHex(data.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    /**
+     * Método que comprueba si alguno de los ETags de una cabecera If-None-Match coincide con el actual. La
+     * comparación es débil (se ignora el prefijo W/), como indica el estándar para esta cabecera.
+     *
+     * @param ifNoneMatch El valor de la cabecera.
+     * @param etag El ETag actual.
+     * @return True si el cliente ya tiene la representación actual.
+     */
+    public boolean matches(String ifNoneMatch, String etag) {
+        if(ifNoneMatch == null) return false;
+        String current = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if(candidate.equals("*")) return true;
+            if(candidate.startsWith("W/")) candidate = candidate.substring(2);
+            if(candidate.equals(current)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Método que obtiene la versión que indica una cabecera If-Match, para modificar el documento sólo si sigue
+     * en esa versión.
+     *
+     * @param ifMatch El valor de la cabecera (puede ser nulo).
+     * @return La versión esperada, o nulo si no hay que comprobarla (sin cabecera o con "*").
+     * @throws InvalidDataException Si se indica más de un ETag.
+     * @throws PreconditionFailedException Si el ETag no puede corresponder a ninguna versión (por ejemplo, un
+     *      ETag débil, que nunca coincide en la comparación fuerte).
+     */
+    public Long expected(String ifMatch) {
+        if(ifMatch == null || ifMatch.trim().equals("*")) return null;
+        String etag = ifMatch.trim();
+        if(etag.contains(",")) {
+            throw new InvalidDataException(ErrorType.INVALID_PARAMETER, "Only one entity tag is allowed in If-Match.");
+        }
+        if(etag.matches("\"\\d{1,18}\"")) return Long.parseLong(etag.substring(1, etag.length() - 1));
+        throw new PreconditionFailedException(ErrorType.ALREADY_MODIFIED, "The resource does not match the " +
+                "specified entity tag.");
+    }
+
+    /**
+     * Método que comprueba que un documento esté en la versión esperada.
+     * @param expected La versión esperada (nula si no hay que comprobarla).
+     * @param current La versión actual del documento (puede ser nula).
+     * @throws PreconditionFailedException Si el documento está en otra versión.
+     */
+    public static void check(Long expected, Number current) {
+        if(expected != null && expected != value(current)) {
+            throw new PreconditionFailedException(ErrorType.ALREADY_MODIFIED, "The resource has been modified " +
+                    "since the specified version.");
+        }
+    }
+}
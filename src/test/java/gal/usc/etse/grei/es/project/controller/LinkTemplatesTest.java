@@ -0,0 +1,107 @@
+package gal.usc.etse.grei.es.project.controller;
+
+import gal.usc.etse.grei.es.project.utilities.LinkTemplates;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+
+/**
+ * Pruebas de las plantillas de enlaces: los enlaces generados deben coincidir con los de linkTo(methodOn(...)).
+ *
+ * @author Manuel Bendaña
+ */
+class LinkTemplatesTest {
+    private final List<String> sort = Arrays.asList("+title", "-releaseDate");
+    private final List<String> genres = Collections.singletonList("Action");
+    private LinkTemplates links;
+
+    @BeforeEach
+    void setUp() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/movies");
+        request.setServerName("localhost");
+        request.setServerPort(8080);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        links = new LinkTemplates();
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void resolvesEveryControllerTemplate() {
+        //Los mismos que piden los controladores en sus constructores (los métodos no son públicos):
+        links.of(MovieController.class, "get");
+        links.of(MovieController.class, "get", "id");
+        links.of(MovieController.class, "getComments", "id");
+        links.of(UserController.class, "get");
+        links.of(UserController.class, "get", "id");
+        links.of(UserController.class, "getUserFriendships", "id");
+        links.of(UserController.class, "getUserComments", "id");
+        links.of(AssessmentController.class, "modifyComment", "commentId");
+        links.of(FriendshipController.class, "getFriendship", "id");
+    }
+
+    @Test
+    void rejectsUnknownMethodsAndParameters() {
+        assertThrows(IllegalArgumentException.class, () -> links.of(MovieController.class, "get", "title"));
+        assertThrows(IllegalArgumentException.class, () -> links.of(MovieController.class, "unknown"));
+        assertThrows(IllegalArgumentException.class, () -> links.of(MovieController.class, "get").with("title", "A"));
+    }
+
+    @Test
+    void movieListMatchesMethodOn() {
+        String expected = linkTo(methodOn(MovieController.class).get(1, 20, sort, null, "exact", null, null, null,
+                genres, null, null, null, null, null, 2021, null, null)).withSelfRel().getHref();
+        String actual = links.of(MovieController.class, "get").with("page", 1).with("size", 20).with("sort", sort)
+                .with("total", "exact").with("genres", genres).with("releaseDate.year", 2021).withSelfRel().getHref();
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void movieMatchesMethodOn() {
+        String expected = linkTo(methodOn(MovieController.class).get("movie 1", null, null)).withSelfRel().getHref();
+        String actual = links.of(MovieController.class, "get", "id").with("id", "movie 1").withSelfRel().getHref();
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void movieCommentsMatchMethodOn() {
+        String expected = linkTo(methodOn(MovieController.class).getComments(0, 20, null, null, "movie", null))
+                .withSelfRel().getHref();
+        String actual = links.of(MovieController.class, "getComments", "id").with("id", "movie").with("page", 0)
+                .with("size", 20).withSelfRel().getHref();
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void userListMatchesMethodOn() {
+        String expected = linkTo(methodOn(UserController.class).get(2, 10, sort, "name", null, null))
+                .withSelfRel().getHref();
+        String actual = links.of(UserController.class, "get").with("page", 2).with("size", 10).with("sort", sort)
+                .with("name", "name").withSelfRel().getHref();
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void userFriendshipsMatchMethodOn() {
+        String expected = linkTo(methodOn(UserController.class).getUserFriendships(0, 20, null, null,
+                "test@test.com", null)).withSelfRel().getHref();
+        String actual = links.of(UserController.class, "getUserFriendships", "id").with("id", "test@test.com")
+                .with("page", 0).with("size", 20).withSelfRel().getHref();
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,227 @@
+package gal.usc.etse.grei.es.project.utilities;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gal.usc.etse.grei.es.project.errorManagement.exceptions.InvalidFormatException;
+import gal.usc.etse.grei.es.project.model.User;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Pruebas de la traducción de las operaciones JSON-Patch: las que se pueden traducir deben ejecutarse en una única
+ * actualización de mongo, y las demás (o las que dependen del orden de las operaciones) aplicarse en memoria.
+ *
+ * @author Manuel Bendaña
+ */
+class PatchUtilsTest {
+    private static final String EMAIL = "test@test.com";
+
+    private MongoTemplate mongoTemplate;
+    private PatchUtils patchUtils;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        patchUtils = new PatchUtils(new ObjectMapper(), mongoTemplate, new MongoMappingContext());
+    }
+
+    @Test
+    void translatesReplaceIntoOneAtomicUpdate() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(user());
+
+        patch(operation("replace", "/name", "Ana"), operation("replace", "/country", "Portugal"));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(query.capture(), update.capture(), any(FindAndModifyOptions.class),
+                eq(User.class));
+        assertEquals(new Document("name", "Ana").append("country", "Portugal"),
+                update.getValue().getUpdateObject().get("$set"));
+        assertEquals(new Document(VersionUtils.VERSION, 1L), update.getValue().getUpdateObject().get("$inc"));
+        //Los campos a reemplazar deben existir:
+        assertEquals(guards(new Document("name", new Document("$exists", true)),
+                new Document("country", new Document("$exists", true))), query.getValue().getQueryObject());
+        verify(mongoTemplate, never()).findOne(any(Query.class), eq(User.class));
+    }
+
+    @Test
+    void translatesRemoveOfAFieldIntoUnset() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(user());
+
+        patch(operation("remove", "/picture", null));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(query.capture(), update.capture(), any(FindAndModifyOptions.class),
+                eq(User.class));
+        assertEquals(new Document("picture", 1), update.getValue().getUpdateObject().get("$unset"));
+        assertEquals(guards(new Document("picture", new Document("$exists", true))),
+                query.getValue().getQueryObject());
+    }
+
+    @Test
+    void appliesRemoveOfAListElementInMemory() {
+        mockInMemory(user());
+
+        Optional<User> result = patch(operation("remove", "/roles/0", null));
+
+        assertEquals(Collections.singletonList("ROLE_ADMIN"), result.get().getRoles());
+        assertEquals(3L, result.get().getVersion());
+        verify(mongoTemplate, never()).findAndModify(any(Query.class), any(Update.class),
+                any(FindAndModifyOptions.class), eq(User.class));
+    }
+
+    @Test
+    void translatesTestBeforeAnyChangeIntoAGuard() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(user());
+
+        patch(operation("test", "/name", "Paco"), operation("replace", "/name", "Ana"));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).findAndModify(query.capture(), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class));
+        //La comprobación se hace sobre el documento antes de reemplazar el nombre:
+        assertEquals(guards(new Document("name", "Paco"), new Document("name", new Document("$exists", true))),
+                query.getValue().getQueryObject());
+    }
+
+    @Test
+    void appliesTestAfterAChangeToTheSameFieldInMemory() {
+        mockInMemory(user());
+
+        Optional<User> result = patch(operation("replace", "/name", "Ana"), operation("test", "/name", "Ana"));
+
+        assertEquals("Ana", result.get().getName());
+        verify(mongoTemplate).findAndReplace(any(Query.class), any(User.class));
+        verify(mongoTemplate, never()).findAndModify(any(Query.class), any(Update.class),
+                any(FindAndModifyOptions.class), eq(User.class));
+    }
+
+    @Test
+    void appliesTestAfterAChangeInsideTheFieldInMemory() {
+        mockInMemory(user());
+
+        Optional<User> result = patch(operation("add", "/roles/-", "ROLE_EDITOR"),
+                operation("test", "/roles", Arrays.asList("ROLE_USER", "ROLE_ADMIN", "ROLE_EDITOR")));
+
+        assertEquals(Arrays.asList("ROLE_USER", "ROLE_ADMIN", "ROLE_EDITOR"), result.get().getRoles());
+        verify(mongoTemplate, never()).findAndModify(any(Query.class), any(Update.class),
+                any(FindAndModifyOptions.class), eq(User.class));
+    }
+
+    @Test
+    void rejectsAFailedTestAfterAChangeWithoutSaving() {
+        mockInMemory(user());
+
+        //Con el nombre ya reemplazado, la comprobación del nombre original debe fallar:
+        assertThrows(InvalidFormatException.class,
+                () -> patch(operation("replace", "/name", "Ana"), operation("test", "/name", "Paco")));
+        verify(mongoTemplate, never()).findAndReplace(any(Query.class), any(User.class));
+    }
+
+    @Test
+    void appliesOverlappingChangesInMemoryInOrder() {
+        mockInMemory(user());
+
+        Optional<User> result = patch(operation("replace", "/roles", Collections.singletonList("ROLE_USER")),
+                operation("add", "/roles/-", "ROLE_EDITOR"));
+
+        assertEquals(Arrays.asList("ROLE_USER", "ROLE_EDITOR"), result.get().getRoles());
+        verify(mongoTemplate, never()).findAndModify(any(Query.class), any(Update.class),
+                any(FindAndModifyOptions.class), eq(User.class));
+    }
+
+    @Test
+    void forbidsFieldsAndEverythingInsideThem() {
+        assertThrows(InvalidFormatException.class, () -> patchUtils.forbid(
+                updates(operation("add", "/roles/-", "ROLE_ADMIN")), "forbidden", "/roles"));
+        Map<String, Object> move = operation("move", "/name", null);
+        move.put("from", "/roles/0");
+        assertThrows(InvalidFormatException.class, () -> patchUtils.forbid(updates(move), "forbidden", "/roles"));
+        assertDoesNotThrow(() -> patchUtils.forbid(updates(operation("replace", "/rolesX", "x")), "forbidden",
+                "/roles"));
+    }
+
+    @Test
+    void forbidsChangingTheVersion() {
+        assertThrows(InvalidFormatException.class, () -> patch(operation("replace", "/version", 7)));
+    }
+
+    /**
+     * Método que aplica las operaciones sobre el usuario de prueba.
+     * @param operations Las operaciones.
+     * @return El usuario tras los cambios.
+     */
+    @SafeVarargs
+    private final Optional<User> patch(Map<String, Object>... operations) {
+        return patchUtils.patch(Criteria.where("_id").is(EMAIL), updates(operations), User.class, true);
+    }
+
+    /**
+     * Método que prepara el camino de los cambios en memoria: se recupera el usuario y se reemplaza.
+     * @param stored El usuario guardado.
+     */
+    private void mockInMemory(User stored) {
+        when(mongoTemplate.findOne(any(Query.class), eq(User.class))).thenReturn(stored);
+        when(mongoTemplate.findAndReplace(any(Query.class), any(User.class)))
+                .thenAnswer(invocation -> invocation.getArgument(1));
+    }
+
+    /**
+     * Método que genera la consulta esperada: el criterio del usuario seguido de las comprobaciones.
+     * @param guards Las comprobaciones.
+     * @return La consulta.
+     */
+    private static Document guards(Document... guards) {
+        List<Document> criteria = new ArrayList<>();
+        criteria.add(new Document("_id", EMAIL));
+        criteria.addAll(Arrays.asList(guards));
+        return new Document("$and", criteria);
+    }
+
+    @SafeVarargs
+    private static List<Map<String, Object>> updates(Map<String, Object>... operations) {
+        return Arrays.asList(operations);
+    }
+
+    private static Map<String, Object> operation(String op, String path, Object value) {
+        Map<String, Object> operation = new LinkedHashMap<>();
+        operation.put("op", op);
+        operation.put("path", path);
+        if(value != null) operation.put("value", value);
+        return operation;
+    }
+
+    private static User user() {
+        return new User(EMAIL, "Paco", "Spain", "https://placekitten.com/200/287", null, null,
+                new ArrayList<>(Arrays.asList("ROLE_USER", "ROLE_ADMIN"))).setVersion(2L);
+    }
+}